@@ -15,14 +15,15 @@
  */
 package com.tanzu.streaming.runtime.processor.common.proto;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
-import com.tanzu.streaming.runtime.processor.common.proto.GrpcPayloadCollection.Builder;
 
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
@@ -37,39 +38,73 @@ public class GrpcPayloadCollectionSeDe {
 
     public static MessageBuilder<byte[]> encodeToGrpcPayloadCollection(Collection<Message<byte[]>> messages) {
         MimeType messageMimeType = null;
-        Builder grpcBuilder = GrpcPayloadCollection.newBuilder();
         for (Message<byte[]> message : messages) {
-            if (messageMimeType == null) {
-                // Assumes that all messages are form the same MIME type!
-                messageMimeType = CONTENT_TYPE_RESOLVER.resolve(message.getHeaders());
+            // Assumes that all messages are form the same MIME type!
+            messageMimeType = CONTENT_TYPE_RESOLVER.resolve(message.getHeaders());
+            if (messageMimeType != null) {
+                break;
             }
-            grpcBuilder.addPayload(ByteString.copyFrom(message.getPayload()));
         }
         if (messageMimeType == null) {
             throw new RuntimeException("Couldn't not resolve the MIME type for the aggregated messages!");
         }
         MessageBuilder<byte[]> messageBuilder = MessageBuilder
-                .withPayload(grpcBuilder.build().toByteArray())
+                .withPayload(encodePayloads(() -> messages.stream().map(Message::getPayload).iterator()))
                 .setHeader(MessageHeaders.CONTENT_TYPE, "multipart/" + messageMimeType.getSubtype());
         return messageBuilder;
     }
 
-    public static MessageBuilder<byte[]> encodeToGrpcPayloadCollection(Map<String, Object> headersMap, Collection<byte[]> payloads) {
+    /**
+     * @param payloads the payloads to encode. Can be a lazy view (e.g. over a windowed state), it is iterated twice and
+     *        must return the same payloads both times.
+     */
+    public static MessageBuilder<byte[]> encodeToGrpcPayloadCollection(Map<String, Object> headersMap, Iterable<byte[]> payloads) {
         MessageHeaders headers = new MessageHeaders(headersMap);
         MimeType messageMimeType = CONTENT_TYPE_RESOLVER.resolve(headers);
-        Builder grpcBuilder = GrpcPayloadCollection.newBuilder();
-        for (byte[] payload : payloads) {
-            grpcBuilder.addPayload(ByteString.copyFrom(payload));
-        }
         if (messageMimeType == null) {
             throw new RuntimeException("Couldn't not resolve the MIME type for the aggregated messages!");
         }
         MessageBuilder<byte[]> messageBuilder = MessageBuilder
-                .withPayload(grpcBuilder.build().toByteArray())
+                .withPayload(encodePayloads(payloads))
                 .setHeader(MessageHeaders.CONTENT_TYPE, "multipart/" + messageMimeType.getSubtype());
         return messageBuilder;
     }
 
+    /**
+     * Serializes the payloads as a {@link GrpcPayloadCollection}, directly into an exactly sized array. The first pass
+     * over the payloads computes the serialized size, the second writes them. Unlike the message builder, no
+     * intermediate ByteString copies of the payloads are made.
+     *
+     * The collection is sent as a single message, so the returned array holds the whole serialized collection: its size
+     * is bounded by the collection size, not by the size of the state chunks the payloads are read from. The two passes
+     * trade a second read of a lazy view for not holding a growing buffer and its final copy.
+     *
+     * @throws RuntimeException if the payloads changed between the two passes.
+     */
+    public static byte[] encodePayloads(Iterable<byte[]> payloads) {
+        long serializedSize = 0;
+        for (byte[] payload : payloads) {
+            serializedSize += CodedOutputStream.computeByteArraySize(GrpcPayloadCollection.PAYLOAD_FIELD_NUMBER,
+                    payload);
+        }
+        if (serializedSize > Integer.MAX_VALUE) {
+            throw new RuntimeException("The aggregated messages exceed the maximum payload collection size: "
+                    + serializedSize);
+        }
+        byte[] serialized = new byte[(int) serializedSize];
+        CodedOutputStream output = CodedOutputStream.newInstance(serialized);
+        try {
+            for (byte[] payload : payloads) {
+                output.writeByteArray(GrpcPayloadCollection.PAYLOAD_FIELD_NUMBER, payload);
+            }
+            output.checkNoSpaceLeft();
+        }
+        catch (IOException | IllegalStateException e) {
+            throw new RuntimeException("The aggregated messages changed while encoding the payload collection!", e);
+        }
+        return serialized;
+    }
+
     public static List<MessageBuilder<?>> decodeFromToGrpcPayloadCollection(Message<byte[]> message) {
         try {
             MimeType decodedMimeType = null;
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tanzu.streaming.runtime.srp;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.tanzu.streaming.runtime.srp.key.RecordKeyExtractor;
+import com.tanzu.streaming.runtime.srp.processor.window.WindowIndex;
+import com.tanzu.streaming.runtime.srp.processor.window.state.IncrementalWindowState;
+import com.tanzu.streaming.runtime.srp.processor.window.state.State;
+import com.tanzu.streaming.runtime.srp.processor.window.state.StateEntry;
+import com.tanzu.streaming.runtime.srp.timestamp.RecordTimestampAssigner;
+import com.tanzu.streaming.runtime.srp.watermark.WatermarkService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.util.Assert;
+
+/**
+ * Hopping (sliding) time-window processor. Windows have a fixed size and start every slide interval, so each event
+ * belongs to size/slide overlapping windows.
+ *
+ * Every event is stored only once, in a slide-sized pane (e.g. a tumbling window of the slide interval). When the
+ * watermark passes a window end, the window is assembled from the panes it covers and released. A pane is removed
+ * once the last window that contains it has been released (and is older than the allowed lateness).
+ *
+ * With the {@link IncrementalWindowState} the panes hold accumulated results instead of payloads. The pane
+ * accumulators are then merged into a temporary accumulation of the window.
+ */
+public class HoppingWindowEventTimeProcessor extends TumblingWindowEventTimeProcessor {
+
+    private static final Log logger = LogFactory.getLog(HoppingWindowEventTimeProcessor.class);
+
+    private final long windowSizeNs;
+
+    private final long windowSlideNs;
+
+    /**
+     * End time of the newest window released so far.
+     */
+    private long lastReleasedWindowEndNs = Long.MIN_VALUE;
+
+    public HoppingWindowEventTimeProcessor(State windowState, SrpProcessorApplicationProperties properties,
+            RecordTimestampAssigner<byte[]> timestampAssigner, RecordKeyExtractor<byte[]> keyExtractor,
+            WatermarkService watermarkService, StreamBridge streamBridge, int grpcPort,
+            SrpHeaderAugmenter outputHeadersAugmenter) {
+
+        super(windowState, properties, properties.getWindowSlide(), timestampAssigner, keyExtractor,
+                watermarkService, streamBridge, grpcPort, outputHeadersAugmenter);
+
+        Assert.notNull(properties.getWindow(), "The window size must be set!");
+        Assert.notNull(properties.getWindowSlide(), "The window slide must be set!");
+
+        this.windowSizeNs = properties.getWindow().toNanos();
+        this.windowSlideNs = properties.getWindowSlide().toNanos();
+
+        Assert.isTrue(this.windowSlideNs > 0 && this.windowSlideNs <= this.windowSizeNs,
+                "The window slide must be positive and not larger than the window size!");
+        Assert.isTrue(this.windowSizeNs % this.windowSlideNs == 0,
+                "The window size must be a multiple of the window slide!");
+    }
+
+    @Override
+    protected synchronized void evaluateWindowsCompletion(long messagePaneStartTimeNs) {
+
+        long watermarkMs = this.getWatermarkService().computeWatermarkMs();
+        long watermarkNs = toWatermarkNs(watermarkMs);
+        if (watermarkNs == Long.MIN_VALUE) {
+            return;
+        }
+
+        if (this.lastReleasedWindowEndNs != Long.MIN_VALUE && messagePaneStartTimeNs < this.lastReleasedWindowEndNs) {
+            this.resendLateWindows(messagePaneStartTimeNs);
+        }
+
+        this.releaseWindows(watermarkNs, !IS_PARTIAL_RELEASE, false);
+
+        this.removeReleasedPanes(false);
+
+        this.publishWatermark(watermarkMs);
+    }
+
+    /**
+     * Idle windows release. Partially releases all remaining windows that contain the pane and removes the pane.
+     */
+    @Override
+    public synchronized void releaseWindow(long paneStartTimeNs, boolean removeWindow, boolean isPartial,
+            boolean isLateEventResend) {
+
+        if (!this.getWindowIndex().contains(paneStartTimeNs)) {
+            logger.info(this.getId() + "     -> Already Released: " + paneStartTimeNs);
+            return;
+        }
+
+        this.releaseWindows(paneStartTimeNs + this.windowSizeNs, isPartial, isLateEventResend);
+
+        if (removeWindow) {
+            this.removeReleasedPanes(true);
+        }
+    }
+
+    @Override
+    protected long windowEndNs(long paneStartTimeNs) {
+        return paneStartTimeNs + this.windowSizeNs;
+    }
+
+    /**
+     * The windows of the pane that were already released are not released again.
+     */
+    @Override
+    protected synchronized void expireWindow(long paneStartTimeNs, boolean emitExpired) {
+        boolean isReleased = this.lastReleasedWindowEndNs != Long.MIN_VALUE
+                && paneStartTimeNs + this.windowSizeNs <= this.lastReleasedWindowEndNs;
+        super.expireWindow(paneStartTimeNs, emitExpired && !isReleased);
+    }
+
+    /**
+     * Early firing of a pane. Partially releases the not yet released windows that contain the pane. Unlike the final
+     * release, the released windows are not marked as released.
+     */
+    @Override
+    protected synchronized void fireEarly(long paneStartTimeNs) {
+
+        if (!this.getWindowIndex().contains(paneStartTimeNs)) {
+            return;
+        }
+
+        long watermarkNs = toWatermarkNs(this.getWatermarkService().computeWatermarkMs());
+        long lastWindowEndNs = paneStartTimeNs + this.windowSizeNs;
+
+        for (long windowEndNs = paneStartTimeNs + this.windowSlideNs; windowEndNs <= lastWindowEndNs;
+                windowEndNs += this.windowSlideNs) {
+
+            if ((this.lastReleasedWindowEndNs != Long.MIN_VALUE && windowEndNs <= this.lastReleasedWindowEndNs)
+                    || (watermarkNs != Long.MIN_VALUE && windowEndNs <= watermarkNs)) {
+                continue;
+            }
+
+            long windowStartNs = windowEndNs - this.windowSizeNs;
+            this.emitPanes(windowStartNs, windowEndNs, this.getWindowIndex().range(windowStartNs, windowEndNs - 1),
+                    IS_PARTIAL_RELEASE, false);
+        }
+    }
+
+    /**
+     * Releases, in order, the not yet released windows that end before or at the maxWindowEndNs. Windows without panes
+     * are skipped.
+     */
+    private void releaseWindows(long maxWindowEndNs, boolean isPartial, boolean isLateEventResend) {
+
+        WindowIndex paneIndex = this.getWindowIndex();
+
+        long oldestPaneNs = paneIndex.first();
+        if (oldestPaneNs == WindowIndex.NO_WINDOW) {
+            return;
+        }
+
+        long windowEndNs = oldestPaneNs + this.windowSlideNs;
+        if (this.lastReleasedWindowEndNs != Long.MIN_VALUE) {
+            windowEndNs = Math.max(windowEndNs, this.lastReleasedWindowEndNs + this.windowSlideNs);
+        }
+
+        while (windowEndNs <= maxWindowEndNs) {
+            long windowStartNs = windowEndNs - this.windowSizeNs;
+            long[] panes = paneIndex.range(windowStartNs, windowEndNs - 1);
+
+            if (panes.length == 0) {
+                // Skip the empty windows up to the first window that contains the next pane.
+                long nextPaneNs = paneIndex.ceiling(windowEndNs);
+                if (nextPaneNs == WindowIndex.NO_WINDOW) {
+                    break;
+                }
+                windowEndNs = nextPaneNs + this.windowSlideNs;
+                continue;
+            }
+
+            this.emitPanes(windowStartNs, windowEndNs, panes, isPartial, isLateEventResend);
+            this.lastReleasedWindowEndNs = windowEndNs;
+            windowEndNs += this.windowSlideNs;
+        }
+    }
+
+    /**
+     * A message was added to a pane that belongs to already released windows. Re-send those windows, that are still
+     * within the allowed lateness, as late events.
+     */
+    private void resendLateWindows(long paneStartTimeNs) {
+        WatermarkService watermarkService = this.getWatermarkService();
+
+        long lastWindowEndNs = Math.min(paneStartTimeNs + this.windowSizeNs, this.lastReleasedWindowEndNs);
+
+        for (long windowEndNs = paneStartTimeNs + this.windowSlideNs; windowEndNs <= lastWindowEndNs;
+                windowEndNs += this.windowSlideNs) {
+
+            if (watermarkService.isAllowedLatenessEnabled()
+                    && watermarkService.isOlderThanAllowedLateness(Duration.ofNanos(windowEndNs))) {
+                continue;
+            }
+
+            long windowStartNs = windowEndNs - this.windowSizeNs;
+            this.emitPanes(windowStartNs, windowEndNs,
+                    this.getWindowIndex().range(windowStartNs, windowEndNs - 1), !IS_PARTIAL_RELEASE, true);
+        }
+    }
+
+    /**
+     * Removes the panes not used by any of the remaining windows. Unless forced, the panes are retained until all
+     * their windows are older than the allowed lateness, so that late events can still be added.
+     */
+    private void removeReleasedPanes(boolean force) {
+        if (this.lastReleasedWindowEndNs == Long.MIN_VALUE) {
+            return;
+        }
+
+        WatermarkService watermarkService = this.getWatermarkService();
+
+        for (long paneStartTimeNs : this.getWindowIndex().headTo(this.lastReleasedWindowEndNs - this.windowSizeNs)) {
+            if (!force && watermarkService.isAllowedLatenessEnabled()
+                    && !watermarkService.isOlderThanAllowedLateness(
+                            Duration.ofNanos(paneStartTimeNs + this.windowSizeNs))) {
+                // The following panes are newer.
+                break;
+            }
+            StateEntry pane = this.removeWindow(paneStartTimeNs);
+            if (pane != null) {
+                pane.close();
+            }
+        }
+    }
+
+    /**
+     * Assembles the window from its panes and emits it. The window payloads are views over the pane payloads, the panes
+     * are closed with the window. Accumulated panes are merged instead.
+     */
+    private void emitPanes(long windowStartNs, long windowEndNs, long[] panes, boolean isPartial,
+            boolean isLateEventResend) {
+
+        if (this.getWindowState() instanceof IncrementalWindowState) {
+            StateEntry window = ((IncrementalWindowState) this.getWindowState()).getMerged(windowStartNs, panes);
+            if (window != null) {
+                logger.info(this.getId() + ">> RELEASE hopping window: " + windowStartNs + ", panes: " + panes.length
+                        + ", merged accumulators: " + window.getKeyedPayloads().size());
+                this.emitWindow(Duration.ofNanos(windowStartNs), Duration.ofNanos(windowEndNs), window, isPartial,
+                        isLateEventResend);
+            }
+            return;
+        }
+
+        Map<String, Object> headers = null;
+        Map<String, List<Collection<byte[]>>> keyedPanePayloads = new LinkedHashMap<>();
+        List<StateEntry> paneEntries = new ArrayList<>(panes.length);
+        int payloadCount = 0;
+
+        for (long paneStartTimeNs : panes) {
+            StateEntry pane = this.getWindowState().get(paneStartTimeNs);
+            if (pane != null) {
+                paneEntries.add(pane);
+                if (headers == null) {
+                    headers = pane.getHeaders();
+                }
+                for (Map.Entry<String, Collection<byte[]>> keyPayloads : pane.getKeyedPayloads().entrySet()) {
+                    keyedPanePayloads.computeIfAbsent(keyPayloads.getKey(), key -> new ArrayList<>())
+                            .add(keyPayloads.getValue());
+                }
+                payloadCount += pane.getPayloadCount();
+            }
+        }
+
+        if (headers == null) {
+            return;
+        }
+
+        Map<String, Collection<byte[]>> keyedPayloads = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Collection<byte[]>>> panePayloads : keyedPanePayloads.entrySet()) {
+            keyedPayloads.put(panePayloads.getKey(), StateEntry.concat(panePayloads.getValue()));
+        }
+
+        logger.info(this.getId() + ">> RELEASE hopping window: " + windowStartNs + ", panes: " + panes.length
+                + ", payload count: " + payloadCount);
+
+        this.emitWindow(Duration.ofNanos(windowStartNs), Duration.ofNanos(windowEndNs),
+                new StateEntry(windowStartNs, headers, keyedPayloads, () -> paneEntries.forEach(StateEntry::close)),
+                isPartial, isLateEventResend);
+    }
+}
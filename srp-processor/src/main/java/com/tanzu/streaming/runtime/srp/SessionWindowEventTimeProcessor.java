@@ -0,0 +1,328 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tanzu.streaming.runtime.srp;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.tanzu.streaming.runtime.srp.key.RecordKeyExtractor;
+import com.tanzu.streaming.runtime.srp.processor.window.state.State;
+import com.tanzu.streaming.runtime.srp.processor.window.state.StateEntry;
+import com.tanzu.streaming.runtime.srp.timestamp.RecordTimestampAssigner;
+import com.tanzu.streaming.runtime.srp.watermark.WatermarkService;
+import com.tanzu.streaming.runtime.srp.watermark.WatermarkService.WatermarkUpdateStatus;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Session window processor. Events are grouped per key into sessions that are closed after an inactivity gap. A
+ * session spans from its first event to the last event plus the gap. When a new (or late) event overlaps several
+ * sessions of the same key, the sessions are merged into the oldest one inside the window State.
+ *
+ * Every session is stored in the State under a unique session id, derived from the session start time. The session
+ * bounds and keys are kept in memory, the key is also stored as the {@link #WINDOW_KEY_HEADER} window header. Sessions
+ * restored by a persistent State (e.g. after restart) get their key back from the header and are treated as [id, id +
+ * gap) sessions. Sessions stored without the header have no key.
+ */
+public class SessionWindowEventTimeProcessor extends TumblingWindowEventTimeProcessor {
+
+    private static final Log logger = LogFactory.getLog(SessionWindowEventTimeProcessor.class);
+
+    private final long sessionGapNs;
+
+    private final RecordKeyExtractor<byte[]> keyExtractor;
+
+    /**
+     * Open sessions per key, ordered by session start time. Sessions of the same key never overlap.
+     */
+    private final Map<String, TreeMap<Long, Session>> sessionsByKey = new HashMap<>();
+
+    /**
+     * All open sessions ordered by session end time.
+     */
+    private final TreeSet<Session> sessionsByEnd = new TreeSet<>(
+            Comparator.<Session> comparingLong(s -> s.endNs).thenComparingLong(s -> s.id));
+
+    private final Map<Long, Session> sessionsById = new HashMap<>();
+
+    public SessionWindowEventTimeProcessor(State windowState, SrpProcessorApplicationProperties properties,
+            RecordTimestampAssigner<byte[]> timestampAssigner, RecordKeyExtractor<byte[]> keyExtractor,
+            WatermarkService watermarkService, StreamBridge streamBridge, int grpcPort,
+            SrpHeaderAugmenter outputHeadersAugmenter) {
+
+        // The session key is tracked by the sessions themselves, so the session state is not keyed.
+        super(windowState, properties, properties.getSessionGap(), timestampAssigner,
+                message -> RecordKeyExtractor.NO_KEY, watermarkService, streamBridge, grpcPort,
+                outputHeadersAugmenter);
+
+        Assert.notNull(properties.getSessionGap(), "The session gap must be set!");
+        Assert.isTrue(!properties.getSessionGap().isNegative() && !properties.getSessionGap().isZero(),
+                "The session gap must be positive!");
+
+        this.sessionGapNs = properties.getSessionGap().toNanos();
+        this.keyExtractor = keyExtractor;
+
+        // Sessions restored by persistent states.
+        for (long sessionId : windowState.keys()) {
+            this.register(new Session(storedSessionKey(windowState, sessionId), sessionId, sessionId,
+                    sessionId + this.sessionGapNs));
+        }
+    }
+
+    @Override
+    public synchronized void onNewMessage(Message<byte[]> inputMessage) {
+
+        this.checkReleaseFailure();
+
+        Duration messageTimestamp = Duration.ofMillis(this.getTimestampAssigner().extractTimestamp(inputMessage));
+
+        if (this.getWatermarkService().updateWatermarks(inputMessage,
+                messageTimestamp) == WatermarkUpdateStatus.DISCARDED) {
+            logger.info("Discard message because it is behind the AllowedLateness");
+            return;
+        }
+
+        String key = this.keyExtractor.extractKey(inputMessage);
+
+        Session session = this.assignSession(key, messageTimestamp.toNanos());
+
+        Map<String, Object> headers = inputMessage.getHeaders();
+        if (key != null && !this.getWindowIndex().contains(session.id)) {
+            // Only the headers of the first session message are stored.
+            headers = new HashMap<>(headers);
+            headers.put(WINDOW_KEY_HEADER, key);
+        }
+        this.getWindowState().put(session.id, headers, inputMessage.getPayload());
+        this.indexWindow(session.id);
+
+        this.evaluateWindowsCompletion(session.id);
+
+        this.evaluateEarlyFiring(session.id, inputMessage.getPayload().length);
+    }
+
+    /**
+     * @return Returns the session key stored in the session headers or null if none.
+     */
+    private static String storedSessionKey(State windowState, long sessionId) {
+        try (StateEntry sessionEntry = windowState.get(sessionId)) {
+            Object key = (sessionEntry != null && sessionEntry.getHeaders() != null)
+                    ? sessionEntry.getHeaders().get(WINDOW_KEY_HEADER)
+                    : null;
+            return (key != null) ? key.toString() : null;
+        }
+    }
+
+    /**
+     * Finds the session for the event, creating a new session or merging the sessions bridged by the event.
+     */
+    private Session assignSession(String key, long eventTimeNs) {
+
+        long startNs = eventTimeNs;
+        long endNs = eventTimeNs + this.sessionGapNs;
+
+        TreeMap<Long, Session> keySessions = this.sessionsByKey.computeIfAbsent(key, k -> new TreeMap<>());
+
+        // Sessions are disjoint and ordered by start, so the overlapping sessions are the newest sessions that start
+        // before the (new) end.
+        List<Session> overlappingSessions = new ArrayList<>();
+        for (Session session : keySessions.headMap(endNs, true).descendingMap().values()) {
+            if (session.endNs < startNs) {
+                break;
+            }
+            overlappingSessions.add(session);
+        }
+
+        if (overlappingSessions.isEmpty()) {
+            Session session = new Session(key, this.allocateSessionId(startNs), startNs, endNs);
+            this.register(session);
+            return session;
+        }
+
+        Session target = overlappingSessions.get(0);
+        for (Session session : overlappingSessions) {
+            startNs = Math.min(startNs, session.startNs);
+            endNs = Math.max(endNs, session.endNs);
+            if (session.id < target.id) {
+                target = session;
+            }
+        }
+
+        for (Session session : overlappingSessions) {
+            if (session != target) {
+                logger.info(this.getId() + ">> MERGE session: " + session.id + " into: " + target.id);
+                this.unregister(session);
+                this.getWindowState().merge(target.id, session.id);
+                this.unindexWindow(session.id);
+            }
+        }
+
+        this.unregister(target);
+        target.startNs = startNs;
+        target.endNs = endNs;
+        this.register(target);
+
+        return target;
+    }
+
+    private long allocateSessionId(long sessionStartNs) {
+        long sessionId = sessionStartNs;
+        while (this.sessionsById.containsKey(sessionId)) {
+            sessionId++;
+        }
+        return sessionId;
+    }
+
+    @Override
+    protected synchronized void evaluateWindowsCompletion(long sessionId) {
+
+        long watermarkMs = this.getWatermarkService().computeWatermarkMs();
+        long watermarkNs = toWatermarkNs(watermarkMs);
+        if (watermarkNs == Long.MIN_VALUE) {
+            return;
+        }
+
+        while (!this.sessionsByEnd.isEmpty() && this.sessionsByEnd.first().endNs <= watermarkNs) {
+            this.releaseSession(this.sessionsByEnd.first(), !IS_PARTIAL_RELEASE, false);
+        }
+
+        this.publishWatermark(watermarkMs);
+    }
+
+    /**
+     * Idle windows release.
+     */
+    @Override
+    public synchronized void releaseWindow(long sessionId, boolean removeWindow, boolean isPartial,
+            boolean isLateEventResend) {
+
+        Session session = this.sessionsById.get(sessionId);
+        if (session == null) {
+            logger.info(this.getId() + "     -> Already Released: " + sessionId);
+            return;
+        }
+
+        if (removeWindow) {
+            this.releaseSession(session, isPartial, isLateEventResend);
+        }
+        else {
+            StateEntry sessionEntry = this.getWindowState().get(session.id);
+            if (sessionEntry != null) {
+                this.emitWindow(Duration.ofNanos(session.startNs), Duration.ofNanos(session.endNs),
+                        windowKey(session), sessionEntry, isPartial, isLateEventResend);
+            }
+        }
+    }
+
+    /**
+     * Partially releases the open session, unless the watermark has already passed the session end.
+     */
+    @Override
+    protected synchronized void fireEarly(long sessionId) {
+        Session session = this.sessionsById.get(sessionId);
+        if (session == null || session.endNs <= toWatermarkNs(this.getWatermarkService().computeWatermarkMs())) {
+            return;
+        }
+        this.releaseWindow(sessionId, !REMOVE_WINDOW, IS_PARTIAL_RELEASE, false);
+    }
+
+    @Override
+    protected synchronized long windowEndNs(long sessionId) {
+        Session session = this.sessionsById.get(sessionId);
+        return (session != null) ? session.endNs : sessionId + this.sessionGapNs;
+    }
+
+    @Override
+    protected synchronized void expireWindow(long sessionId, boolean emitExpired) {
+        Session session = this.sessionsById.get(sessionId);
+        if (session != null && !emitExpired) {
+            this.unregister(session);
+        }
+        super.expireWindow(sessionId, emitExpired);
+    }
+
+    private void releaseSession(Session session, boolean isPartial, boolean isLateEventResend) {
+        this.unregister(session);
+
+        StateEntry sessionEntry = this.removeWindow(session.id);
+
+        if (sessionEntry != null) {
+            logger.info(this.getId() + ">> RELEASE session: " + session.id + ", key: " + session.key
+                    + ", payload count: " + sessionEntry.getPayloadCount());
+
+            this.emitWindow(Duration.ofNanos(session.startNs), Duration.ofNanos(session.endNs), windowKey(session),
+                    sessionEntry, isPartial, isLateEventResend);
+        }
+    }
+
+    private static String windowKey(Session session) {
+        return StringUtils.hasText(session.key) ? session.key : null;
+    }
+
+    private void register(Session session) {
+        if (session.key != null) {
+            this.sessionsByKey.computeIfAbsent(session.key, k -> new TreeMap<>()).put(session.startNs, session);
+        }
+        this.sessionsByEnd.add(session);
+        this.sessionsById.put(session.id, session);
+    }
+
+    private void unregister(Session session) {
+        if (session.key != null) {
+            TreeMap<Long, Session> keySessions = this.sessionsByKey.get(session.key);
+            if (keySessions != null) {
+                keySessions.remove(session.startNs);
+                if (keySessions.isEmpty()) {
+                    this.sessionsByKey.remove(session.key);
+                }
+            }
+        }
+        this.sessionsByEnd.remove(session);
+        this.sessionsById.remove(session.id);
+    }
+
+    private static class Session {
+
+        private final String key;
+
+        private final long id;
+
+        private long startNs;
+
+        /**
+         * Time of the last session event plus the session gap.
+         */
+        private long endNs;
+
+        Session(String key, long id, long startNs, long endNs) {
+            this.key = key;
+            this.id = id;
+            this.startNs = startNs;
+            this.endNs = endNs;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp;
+
+import java.util.Collection;
+
+import com.tanzu.streaming.runtime.srp.processor.window.state.SnapshotOffsets;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+
+import org.springframework.cloud.stream.binder.kafka.KafkaBindingRebalanceListener;
+
+/**
+ * On the initial partitions assignment, seeks the partitions included in the restored window snapshots right after
+ * the snapshot offsets. The messages consumed (and committed) after the last snapshot are replayed into the restored
+ * windows.
+ */
+public class SnapshotOffsetsRebalanceListener implements KafkaBindingRebalanceListener {
+
+    private static final Log logger = LogFactory.getLog(SnapshotOffsetsRebalanceListener.class);
+
+    private final SnapshotOffsets snapshotOffsets;
+
+    public SnapshotOffsetsRebalanceListener(SnapshotOffsets snapshotOffsets) {
+        this.snapshotOffsets = snapshotOffsets;
+    }
+
+    @Override
+    public void onPartitionsAssigned(String bindingName, Consumer<?, ?> consumer,
+            Collection<TopicPartition> partitions, boolean initial) {
+
+        if (!initial || this.snapshotOffsets.isEmpty()) {
+            return;
+        }
+
+        for (TopicPartition partition : partitions) {
+            Long offset = this.snapshotOffsets
+                    .getOffset(SnapshotOffsets.kafkaSource(partition.topic(), partition.partition()));
+            if (offset != null) {
+                logger.info("Replay " + bindingName + " partition: " + partition + " from snapshot offset: "
+                        + (offset + 1));
+                consumer.seek(partition, offset + 1);
+            }
+        }
+    }
+}
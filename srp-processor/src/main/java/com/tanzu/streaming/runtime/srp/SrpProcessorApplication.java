@@ -15,37 +15,70 @@
  */
 package com.tanzu.streaming.runtime.srp;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 import com.tanzu.streaming.runtime.processor.common.avro.AvroMessageReader;
 import com.tanzu.streaming.runtime.processor.common.avro.AvroSchemaMessageConvertor;
 import com.tanzu.streaming.runtime.processor.common.avro.AvroSchemaReaderWriter;
 import com.tanzu.streaming.runtime.processor.common.avro.AvroSchemaRegistryMessageConvertor;
+import com.tanzu.streaming.runtime.srp.SrpProcessorApplicationProperties.LateEventMode;
+import com.tanzu.streaming.runtime.srp.SrpProcessorApplicationProperties.WindowStateType;
+import com.tanzu.streaming.runtime.srp.SrpProcessorApplicationProperties.WorkerSharding;
+import com.tanzu.streaming.runtime.srp.key.JsonPathKeyExtractor;
+import com.tanzu.streaming.runtime.srp.key.MessageHeaderKeyExtractor;
+import com.tanzu.streaming.runtime.srp.key.RecordKeyExtractor;
+import com.tanzu.streaming.runtime.srp.processor.BatchMessages;
 import com.tanzu.streaming.runtime.srp.processor.EventTimeProcessor;
+import com.tanzu.streaming.runtime.srp.processor.window.ExpiredWindowsReaper;
 import com.tanzu.streaming.runtime.srp.processor.window.IdleWindowsReleaser;
 import com.tanzu.streaming.runtime.srp.processor.window.IdleWindowsWatchdog;
+import com.tanzu.streaming.runtime.srp.processor.window.PartitionedWindowProcessor;
 import com.tanzu.streaming.runtime.srp.processor.window.TumblingWindowService;
+import com.tanzu.streaming.runtime.srp.processor.window.accumulator.BuiltInWindowAccumulatorFactory;
+import com.tanzu.streaming.runtime.srp.processor.window.accumulator.WindowAccumulatorFactory;
+import com.tanzu.streaming.runtime.srp.processor.window.accumulator.WindowAccumulatorType;
+import com.tanzu.streaming.runtime.srp.processor.window.state.CheckpointStore;
+import com.tanzu.streaming.runtime.srp.processor.window.state.CheckpointingState;
+import com.tanzu.streaming.runtime.srp.processor.window.state.IncrementalWindowState;
 import com.tanzu.streaming.runtime.srp.processor.window.state.InMemoryState;
+import com.tanzu.streaming.runtime.srp.processor.window.state.LocalFileCheckpointStore;
+import com.tanzu.streaming.runtime.srp.processor.window.state.MappedLogWindowState;
+import com.tanzu.streaming.runtime.srp.processor.window.state.OffHeapWindowState;
 import com.tanzu.streaming.runtime.srp.processor.window.state.RocksDBWindowState;
+import com.tanzu.streaming.runtime.srp.processor.window.state.SnapshotOffsets;
+import com.tanzu.streaming.runtime.srp.processor.window.state.SnapshottingState;
+import com.tanzu.streaming.runtime.srp.processor.window.state.SpillableWindowState;
 import com.tanzu.streaming.runtime.srp.processor.window.state.State;
 import com.tanzu.streaming.runtime.srp.timestamp.DefaultEventHeaderOrProcTimestampAssigner;
 import com.tanzu.streaming.runtime.srp.timestamp.JsonPathTimestampAssigner;
 import com.tanzu.streaming.runtime.srp.timestamp.MessageHeaderTimestampAssigner;
 import com.tanzu.streaming.runtime.srp.timestamp.ProcTimestampAssigner;
 import com.tanzu.streaming.runtime.srp.timestamp.RecordTimestampAssigner;
+import com.tanzu.streaming.runtime.srp.watermark.WatermarkHeartbeatEmitter;
 import com.tanzu.streaming.runtime.srp.watermark.WatermarkService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.fn.spel.SpelFunctionProperties;
 import org.springframework.cloud.function.grpc.FunctionGrpcProperties;
+import org.springframework.cloud.stream.binder.ProducerProperties;
+import org.springframework.cloud.stream.binder.kafka.KafkaBindingRebalanceListener;
+import org.springframework.cloud.stream.config.BindingServiceProperties;
 import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Primary;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.util.StringUtils;
@@ -57,6 +90,20 @@ public class SrpProcessorApplication {
 
 	static final Log logger = LogFactory.getLog(SrpProcessorApplication.class);
 
+	private static final String SINGLE_WINDOW_WORKER = "'${srp.processor.skipAggregation:false}' == 'false'"
+			+ " and ${srp.processor.workers:1} <= 1";
+
+	private static final String EXPIRE_WINDOWS = "'${srp.processor.skipAggregation:false}' == 'false'"
+			+ " and '${srp.processor.windowTtl:}' != ''";
+
+	private static final String RESTORE_OFFSETS = "'${srp.processor.snapshotInterval:}' != ''"
+			+ " or '${srp.processor.checkpointInterval:}' != ''";
+
+	private static final String WATERMARK_HEARTBEAT = "'${srp.processor.watermarkHeartbeatInterval:}' != ''";
+
+	private static final String MULTIPLE_WINDOW_WORKERS = "'${srp.processor.skipAggregation:false}' == 'false'"
+			+ " and ${srp.processor.workers:1} > 1";
+
 	private SrpProcessorApplicationProperties properties;
 
 	public SrpProcessorApplication(SrpProcessorApplicationProperties properties) {
@@ -65,14 +112,36 @@ public class SrpProcessorApplication {
 		logger.info("spelTransformation: " + properties.isEnableSpelTransformation());
 		logger.info("forceGrpcPayloadCollection: " + properties.isForceGrpcPayloadCollection());
 		logger.info("window: " + properties.getWindow());
+		logger.info("windowSlide: " + properties.getWindowSlide());
+		logger.info("sessionGap: " + properties.getSessionGap());
+		logger.info("releaseParallelism: " + properties.getReleaseParallelism());
+		logger.info("releaseStage concurrency: " + properties.getReleaseStageConcurrency() + ", capacity: "
+				+ properties.getReleaseStageCapacity());
+		logger.info("workers: " + properties.getWorkers() + ", sharding: " + properties.getWorkerSharding());
+		logger.info("trigger count: " + properties.getTrigger().getCount() + ", bytes: "
+				+ properties.getTrigger().getBytes() + ", interval: " + properties.getTrigger().getInterval());
 		logger.info("maxOutOfOrderness: " + properties.getMaxOutOfOrderness());
 		logger.info("allowedLateness: " + properties.getAllowedLateness());
+		logger.info("idlePartitionTimeout: " + properties.getIdlePartitionTimeout());
+		logger.info("watermarkHeartbeatInterval: " + properties.getWatermarkHeartbeatInterval());
+		logger.info("reorderBufferCapacity: " + properties.getReorderBufferCapacity());
 		logger.info("LateEventMode: " + properties.getLateEventMode());
+		logger.info("windowTtl: " + properties.getWindowTtl());
 		logger.info("input.timestampExpression: " + properties.getInput().getTimestampExpression());
+		logger.info("input.keyExpression: " + properties.getInput().getKeyExpression());
 		logger.info("input.schemaRegistryUri: " + properties.getInput().getSchemaRegistryUri());
 		logger.info("input.schemaUri: " + properties.getInput().getSchemaUri());
 		logger.info("input.output.headers: " + properties.getOutput().getHeaders());
-		logger.info("stateType: " + properties.getStateType());
+		logger.info("stateType: " + properties.getStateType() + ", stateMemoryBudget: "
+				+ properties.getStateMemoryBudget() + ", rocksDbWalEnabled: " + properties.isRocksDbWalEnabled()
+				+ ", rocksDbChunkSize: " + properties.getRocksDbChunkSize() + ", offHeapSlabSize: "
+				+ properties.getOffHeapSlabSize() + ", logPath: " + properties.getLogPath() + ", logSegmentSize: "
+				+ properties.getLogSegmentSize());
+		logger.info("snapshotInterval: " + properties.getSnapshotInterval() + ", snapshotPath: "
+				+ properties.getSnapshotPath());
+		logger.info("checkpointInterval: " + properties.getCheckpointInterval() + ", checkpointPath: "
+				+ properties.getCheckpointPath() + ", checkpointName: " + properties.getCheckpointName());
+		logger.info("accumulator.type: " + properties.getAccumulator().getType());
 
 		this.properties = properties;
 	}
@@ -118,25 +187,155 @@ public class SrpProcessorApplication {
 		return new JsonPathTimestampAssigner(timestampExpression, avroMessageReader);
 	}
 
+	@Bean
+	public RecordKeyExtractor<byte[]> keyExtractor(AvroMessageReader avroMessageReader) {
+
+		String keyExpression = this.properties.getInput().getKeyExpression();
+
+		if (!StringUtils.hasText(keyExpression)) {
+			return message -> RecordKeyExtractor.NO_KEY;
+		}
+
+		if (keyExpression.startsWith("header.")) {
+			return new MessageHeaderKeyExtractor(keyExpression.substring("header.".length()));
+		}
+
+		keyExpression = (keyExpression.startsWith("payload."))
+				? keyExpression.substring("payload.".length())
+				: keyExpression;
+
+		return new JsonPathKeyExtractor(keyExpression, avroMessageReader);
+	}
+
 	@Bean
 	public WatermarkService watermarkService() {
+		return this.newWatermarkService();
+	}
+
+	private WatermarkService newWatermarkService() {
 		return new WatermarkService()
 				.withMaxOutOfOrderness(this.properties.getMaxOutOfOrderness())
-				.withAllowedLateness(this.properties.getAllowedLateness());
+				.withAllowedLateness(this.properties.getAllowedLateness())
+				.withIdlePartitionTimeout(this.properties.getIdlePartitionTimeout());
 	}
 
+	/**
+	 * The window states are lazy, because with multiple window workers every worker creates its own state.
+	 */
 	@Bean
+	@Lazy
 	@ConditionalOnProperty(value = "srp.processor.stateType", havingValue = "MEMORY", matchIfMissing = true)
-	public State inMemoryState() {
+	public State inMemoryState(SnapshotOffsets snapshotOffsets) {
 		logger.info("Enable In-Memory Window State!");
+		if (this.properties.getSnapshotInterval() != null) {
+			return new SnapshottingState(new InMemoryState(),
+					Paths.get(this.properties.getSnapshotPath(), "state.snapshot"),
+					this.properties.getSnapshotInterval(), snapshotOffsets);
+		}
 		return new InMemoryState();
 	}
 
+	/**
+	 * Offsets restored from the in-memory state snapshots or the RocksDB state checkpoints.
+	 */
+	@Bean
+	public SnapshotOffsets snapshotOffsets() {
+		return new SnapshotOffsets();
+	}
+
+	/**
+	 * Replays the Kafka input after the offsets of the restored snapshots or checkpoints.
+	 */
+	@Bean
+	@ConditionalOnExpression(RESTORE_OFFSETS)
+	public KafkaBindingRebalanceListener snapshotOffsetsRebalanceListener(SnapshotOffsets snapshotOffsets) {
+		return new SnapshotOffsetsRebalanceListener(snapshotOffsets);
+	}
+
 	@Bean
+	@Lazy
 	@ConditionalOnProperty(value = "srp.processor.stateType", havingValue = "ROCKSDB")
-	public State rocksDbState() {
+	public State rocksDbState(SnapshotOffsets snapshotOffsets, ObjectProvider<CheckpointStore> checkpointStore) {
 		logger.info("Enable RocksDB Window State!");
-		return new RocksDBWindowState(this.properties.getRocksDbPath());
+		RocksDBWindowState rocksDBWindowState = new RocksDBWindowState(this.properties.getRocksDbPath(),
+				this.properties.isRocksDbWalEnabled(), this.properties.getRocksDbChunkSize().toBytes());
+		if (this.properties.getCheckpointInterval() != null) {
+			return new CheckpointingState(rocksDBWindowState, this.checkpointStore(checkpointStore),
+					this.checkpointName(null), this.properties.getCheckpointInterval(), snapshotOffsets);
+		}
+		return rocksDBWindowState;
+	}
+
+	/**
+	 * The state checkpoints are stored in the custom CheckpointStore bean, if any, or else in the checkpointPath.
+	 */
+	private CheckpointStore checkpointStore(ObjectProvider<CheckpointStore> checkpointStore) {
+		return checkpointStore.getIfAvailable(() -> new LocalFileCheckpointStore(this.properties.getCheckpointPath()));
+	}
+
+	private String checkpointName(String worker) {
+		String name = this.properties.getCheckpointName();
+		if (!StringUtils.hasText(name)) {
+			name = System.getenv("HOSTNAME");
+		}
+		if (!StringUtils.hasText(name)) {
+			name = "srp-processor";
+		}
+		return (worker != null) ? name + "/" + worker : name;
+	}
+
+	@Bean
+	@Lazy
+	@ConditionalOnProperty(value = "srp.processor.stateType", havingValue = "HYBRID")
+	public State hybridState() {
+		logger.info("Enable Hybrid (spill to disk) Window State!");
+		return new SpillableWindowState(this.properties.getStateMemoryBudget().toBytes(),
+				Paths.get(this.properties.getRocksDbPath(), "spill").toString(), this.properties.isRocksDbWalEnabled(),
+				this.properties.getRocksDbChunkSize().toBytes());
+	}
+
+	@Bean
+	@Lazy
+	@ConditionalOnProperty(value = "srp.processor.stateType", havingValue = "OFF_HEAP")
+	public State offHeapState() {
+		logger.info("Enable Off-Heap Window State!");
+		return new OffHeapWindowState((int) this.properties.getOffHeapSlabSize().toBytes(),
+				OffHeapWindowState.DEFAULT_MAX_POOLED_SLABS);
+	}
+
+	@Bean
+	@Lazy
+	@ConditionalOnProperty(value = "srp.processor.stateType", havingValue = "MAPPED_LOG")
+	public State mappedLogState() {
+		logger.info("Enable Memory-Mapped Log Window State!");
+		return new MappedLogWindowState(this.properties.getLogPath(), this.properties.getLogSegmentSize().toBytes());
+	}
+
+	/**
+	 * Incremental window mode. Takes precedence over the raw-payload MEMORY and ROCKSDB window states.
+	 */
+	@Bean
+	@Lazy
+	@Primary
+	@ConditionalOnProperty(value = "srp.processor.accumulator.type")
+	public State incrementalState(ObjectProvider<WindowAccumulatorFactory> customAccumulatorFactory,
+			AvroMessageReader avroMessageReader) {
+
+		logger.info("Enable Incremental Window State with: " + this.properties.getAccumulator().getType()
+				+ " accumulator!");
+
+		return new IncrementalWindowState(this.accumulatorFactory(customAccumulatorFactory, avroMessageReader));
+	}
+
+	private WindowAccumulatorFactory accumulatorFactory(ObjectProvider<WindowAccumulatorFactory> customAccumulatorFactory,
+			AvroMessageReader avroMessageReader) {
+
+		SrpProcessorApplicationProperties.Accumulator accumulator = this.properties.getAccumulator();
+
+		return (accumulator.getType() == WindowAccumulatorType.CUSTOM)
+				? customAccumulatorFactory.getObject()
+				: new BuiltInWindowAccumulatorFactory(accumulator.getType(), accumulator.getValueExpression(),
+						accumulator.getKeyExpression(), accumulator.getTopN(), avroMessageReader);
 	}
 
 	@Bean
@@ -145,6 +344,27 @@ public class SrpProcessorApplication {
 		return new IdleWindowsReleaser(tumblingWindowService, this.properties.getIdleWindowTimeout());
 	}
 
+	@Bean
+	@ConditionalOnExpression(EXPIRE_WINDOWS)
+	public ExpiredWindowsReaper expiredWindowsReaper(TumblingWindowService tumblingWindowService) {
+		return new ExpiredWindowsReaper(tumblingWindowService, this.properties.getWindowTtl(),
+				this.properties.getAllowedLateness(), this.properties.getLateEventMode() != LateEventMode.DROP);
+	}
+
+	/**
+	 * The heartbeats are sent to every partition of the output binding, as configured by its producer partitionCount.
+	 */
+	@Bean
+	@ConditionalOnExpression(WATERMARK_HEARTBEAT)
+	public WatermarkHeartbeatEmitter watermarkHeartbeatEmitter(EventTimeProcessor eventTimeProcessor,
+			StreamBridge streamBridge, BindingServiceProperties bindingServiceProperties) {
+		String destination = this.properties.getOutput().getDestination();
+		ProducerProperties producerProperties = bindingServiceProperties.getProducerProperties(destination);
+		int partitionCount = producerProperties.isPartitioned() ? producerProperties.getPartitionCount() : 1;
+		return new WatermarkHeartbeatEmitter(eventTimeProcessor, streamBridge, destination, partitionCount,
+				this.properties.getWatermarkHeartbeatInterval());
+	}
+
 	@Bean
 	@ConditionalOnProperty(value = "srp.processor.skipAggregation", havingValue = "false", matchIfMissing = true)
 	public IdleWindowsWatchdog idleWindowsReleaserExecutorService(
@@ -153,17 +373,133 @@ public class SrpProcessorApplication {
 	}
 
 	@Bean
-	@ConditionalOnProperty(value = "srp.processor.skipAggregation", havingValue = "false", matchIfMissing = true)
+	@ConditionalOnExpression(SINGLE_WINDOW_WORKER)
 	public TumblingWindowEventTimeProcessor tumblingWindowProcessorService(
 			State windowState,
-			RecordTimestampAssigner<byte[]> timestampAssigner,
+			RecordTimestampAssigner<byte[]> timestampAssigner, RecordKeyExtractor<byte[]> keyExtractor,
 			WatermarkService watermarkService, StreamBridge streamBridge, FunctionGrpcProperties grpcProperties,
 			SrpHeaderAugmenter outputHeadersAugmenter) {
 
+		return this.newWindowProcessor(windowState, timestampAssigner, keyExtractor, watermarkService, streamBridge,
+				grpcProperties.getPort(), outputHeadersAugmenter);
+	}
+
+	/**
+	 * Multiple window workers. Every worker has its own window processor, state and watermark.
+	 */
+	@Bean
+	@ConditionalOnExpression(MULTIPLE_WINDOW_WORKERS)
+	public PartitionedWindowProcessor partitionedWindowProcessor(
+			ObjectProvider<WindowAccumulatorFactory> customAccumulatorFactory, AvroMessageReader avroMessageReader,
+			SnapshotOffsets snapshotOffsets, ObjectProvider<CheckpointStore> checkpointStore,
+			RecordTimestampAssigner<byte[]> timestampAssigner, RecordKeyExtractor<byte[]> keyExtractor,
+			StreamBridge streamBridge, FunctionGrpcProperties grpcProperties,
+			SrpHeaderAugmenter outputHeadersAugmenter) {
+
+		logger.info("Use: " + this.properties.getWorkers() + " window workers, sharded by: "
+				+ this.properties.getWorkerSharding());
+
+		List<TumblingWindowEventTimeProcessor> workerProcessors = new ArrayList<>();
+		List<State> workerStates = new ArrayList<>();
+		for (int worker = 0; worker < this.properties.getWorkers(); worker++) {
+			State workerState = this.newWorkerState(worker, customAccumulatorFactory, avroMessageReader,
+					snapshotOffsets, checkpointStore);
+			workerStates.add(workerState);
+			workerProcessors.add(this.newWindowProcessor(workerState, timestampAssigner, keyExtractor,
+					this.newWatermarkService(), streamBridge, grpcProperties.getPort(), outputHeadersAugmenter));
+		}
+
+		ToIntFunction<Message<byte[]>> shardFunction = (this.properties.getWorkerSharding() == WorkerSharding.KEY)
+				? message -> keyExtractor.extractKey(message).hashCode()
+				: message -> {
+					Integer partition = message.getHeaders().get(WatermarkService.PARTITION_HEADER, Integer.class);
+					return (partition != null) ? partition : 0;
+				};
+
+		return new PartitionedWindowProcessor(workerProcessors, workerStates, shardFunction,
+				this.properties.getWorkerQueueCapacity());
+	}
+
+	private State newWorkerState(int worker, ObjectProvider<WindowAccumulatorFactory> customAccumulatorFactory,
+			AvroMessageReader avroMessageReader, SnapshotOffsets snapshotOffsets,
+			ObjectProvider<CheckpointStore> checkpointStore) {
+
+		if (this.properties.getAccumulator().getType() != null) {
+			return new IncrementalWindowState(this.accumulatorFactory(customAccumulatorFactory, avroMessageReader));
+		}
+
+		if (this.properties.getStateType() == WindowStateType.ROCKSDB) {
+			RocksDBWindowState rocksDBWindowState = new RocksDBWindowState(
+					Paths.get(this.properties.getRocksDbPath(), "worker-" + worker).toString(),
+					this.properties.isRocksDbWalEnabled(), this.properties.getRocksDbChunkSize().toBytes());
+			if (this.properties.getCheckpointInterval() != null) {
+				CheckpointingState checkpointingState = new CheckpointingState(rocksDBWindowState,
+						this.checkpointStore(checkpointStore), this.checkpointName("worker-" + worker),
+						this.properties.getCheckpointInterval(), snapshotOffsets);
+				checkpointingState.initialize();
+				return checkpointingState;
+			}
+			rocksDBWindowState.initialize();
+			return rocksDBWindowState;
+		}
+
+		if (this.properties.getStateType() == WindowStateType.HYBRID) {
+			// The memory budget is shared by the workers.
+			SpillableWindowState spillableWindowState = new SpillableWindowState(
+					Math.max(1, this.properties.getStateMemoryBudget().toBytes() / this.properties.getWorkers()),
+					Paths.get(this.properties.getRocksDbPath(), "spill", "worker-" + worker).toString(),
+					this.properties.isRocksDbWalEnabled(), this.properties.getRocksDbChunkSize().toBytes());
+			spillableWindowState.initialize();
+			return spillableWindowState;
+		}
+
+		if (this.properties.getStateType() == WindowStateType.MAPPED_LOG) {
+			MappedLogWindowState mappedLogWindowState = new MappedLogWindowState(
+					Paths.get(this.properties.getLogPath(), "worker-" + worker).toString(),
+					this.properties.getLogSegmentSize().toBytes());
+			mappedLogWindowState.initialize();
+			return mappedLogWindowState;
+		}
+
+		if (this.properties.getStateType() == WindowStateType.OFF_HEAP) {
+			return new OffHeapWindowState((int) this.properties.getOffHeapSlabSize().toBytes(),
+					OffHeapWindowState.DEFAULT_MAX_POOLED_SLABS);
+		}
+
+		if (this.properties.getSnapshotInterval() != null) {
+			SnapshottingState snapshottingState = new SnapshottingState(new InMemoryState(),
+					Paths.get(this.properties.getSnapshotPath(), "worker-" + worker + ".snapshot"),
+					this.properties.getSnapshotInterval(), snapshotOffsets);
+			snapshottingState.initialize();
+			return snapshottingState;
+		}
+
+		return new InMemoryState();
+	}
+
+	private TumblingWindowEventTimeProcessor newWindowProcessor(State windowState,
+			RecordTimestampAssigner<byte[]> timestampAssigner, RecordKeyExtractor<byte[]> keyExtractor,
+			WatermarkService watermarkService, StreamBridge streamBridge, int grpcPort,
+			SrpHeaderAugmenter outputHeadersAugmenter) {
+
+		if (this.properties.isSessionWindow()) {
+			logger.info("Use: SessionWindowEventTimeProcessor with: " + timestampAssigner.getClass().getSimpleName());
+
+			return new SessionWindowEventTimeProcessor(windowState, this.properties, timestampAssigner, keyExtractor,
+					watermarkService, streamBridge, grpcPort, outputHeadersAugmenter);
+		}
+
+		if (this.properties.isHoppingWindow()) {
+			logger.info("Use: HoppingWindowEventTimeProcessor with: " + timestampAssigner.getClass().getSimpleName());
+
+			return new HoppingWindowEventTimeProcessor(windowState, this.properties, timestampAssigner, keyExtractor,
+					watermarkService, streamBridge, grpcPort, outputHeadersAugmenter);
+		}
+
 		logger.info("Use: TumblingWindowEventTimeProcessor with: " + timestampAssigner.getClass().getSimpleName());
 
-		return new TumblingWindowEventTimeProcessor(windowState, this.properties, timestampAssigner, watermarkService,
-				streamBridge, grpcProperties.getPort(), outputHeadersAugmenter);
+		return new TumblingWindowEventTimeProcessor(windowState, this.properties, timestampAssigner, keyExtractor,
+				watermarkService, streamBridge, grpcPort, outputHeadersAugmenter);
 	}
 
 	@Bean
@@ -185,22 +521,42 @@ public class SrpProcessorApplication {
 	}
 
 	@Bean
-	public Consumer<Message<byte[]>> proxy(Function<Message<?>, Message<?>> spelFunction,
+	@SuppressWarnings("unchecked")
+	public Consumer<Message<?>> proxy(Function<Message<?>, Message<?>> spelFunction,
 			EventTimeProcessor eventTimeProcessor) {
 
 		logger.info("EventTime Processor: " + eventTimeProcessor.getClass().getName());
 		logger.info("Enabled SpEL Transformation: " + this.properties.isEnableSpelTransformation());
 
 		return message -> {
-			if (this.properties.isEnableSpelTransformation()) {
-				Message<?> transformedMessageWithStringPayload = spelFunction.apply(message);
-				message = MessageBuilder
-						.withPayload(transformedMessageWithStringPayload.getPayload().toString().getBytes())
-						.copyHeaders(transformedMessageWithStringPayload.getHeaders())
-						.build();
+			// Binder batch-mode: the records of one poll are processed as a single batch.
+			if (BatchMessages.isBatch(message)) {
+				List<Message<byte[]>> messages = new ArrayList<>();
+				for (Message<byte[]> batchMessage : BatchMessages.split(message)) {
+					if (WatermarkService.isWatermarkHeartbeat(batchMessage)) {
+						// Keep the heartbeat in order with the batch messages.
+						if (!messages.isEmpty()) {
+							eventTimeProcessor.onNewMessages(messages);
+							messages = new ArrayList<>();
+						}
+						eventTimeProcessor.onWatermarkHeartbeat(batchMessage);
+						continue;
+					}
+					messages.add(this.transform(spelFunction, batchMessage));
+				}
+				if (!messages.isEmpty()) {
+					eventTimeProcessor.onNewMessages(messages);
+				}
+				return;
+			}
+
+			// Watermark-only control message from an upstream processor: never transformed nor handed to the UDF.
+			if (WatermarkService.isWatermarkHeartbeat(message)) {
+				eventTimeProcessor.onWatermarkHeartbeat((Message<byte[]>) message);
+				return;
 			}
 
-			eventTimeProcessor.onNewMessage(message);
+			eventTimeProcessor.onNewMessage(this.transform(spelFunction, (Message<byte[]>) message));
 		};
 
 		// AvroSchemaReaderWriter avroReader = AvroSchemaReaderWriter.from(
@@ -212,6 +568,17 @@ public class SrpProcessorApplication {
 		// System.out.println(record);
 	}
 
+	private Message<byte[]> transform(Function<Message<?>, Message<?>> spelFunction, Message<byte[]> message) {
+		if (this.properties.isEnableSpelTransformation()) {
+			Message<?> transformedMessageWithStringPayload = spelFunction.apply(message);
+			message = MessageBuilder
+					.withPayload(transformedMessageWithStringPayload.getPayload().toString().getBytes())
+					.copyHeaders(transformedMessageWithStringPayload.getHeaders())
+					.build();
+		}
+		return message;
+	}
+
 	// public static class DisableAvroSchemaMessageConverter extends AvroSchemaMessageConverter {
 
 	// public DisableAvroSchemaMessageConverter(AvroSchemaServiceManager manager) {
@@ -19,8 +19,11 @@ package com.tanzu.streaming.runtime.srp;
 import java.time.Duration;
 import java.util.Map;
 
+import com.tanzu.streaming.runtime.srp.processor.window.accumulator.WindowAccumulatorType;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.core.io.Resource;
+import org.springframework.util.unit.DataSize;
 
 @ConfigurationProperties("srp.processor")
 public class SrpProcessorApplicationProperties {
@@ -34,15 +37,90 @@ public class SrpProcessorApplicationProperties {
     };
 
     public enum WindowStateType {
-        MEMORY, ROCKSDB
+        MEMORY, ROCKSDB,
+        /** On-heap within the stateMemoryBudget, the oldest windows spill to a local RocksDB under the rocksDbPath. */
+        HYBRID,
+        /** The payloads are appended to direct memory slabs, outside of the Java heap. */
+        OFF_HEAP,
+        /** Append-only log of memory-mapped segment files under the logPath. */
+        MAPPED_LOG
+    }
+
+    /**
+     * How the input messages are assigned to the window workers.
+     */
+    public enum WorkerSharding {
+        /** By the scst_partition header. */
+        PARTITION,
+        /** By the hash of the input.keyExpression key. */
+        KEY
     }
 
     private String name = "srp-processor";
 
     private Duration window;
 
+    /**
+     * Optional slide interval for hopping (sliding) windows. Must divide the window size. When not set, or equal to the
+     * window, tumbling windows are used.
+     */
+    private Duration windowSlide;
+
+    /**
+     * Inactivity gap that closes a session window. When set, session windows (per input.keyExpression key) are used
+     * instead of time windows.
+     */
+    private Duration sessionGap;
+
     private Duration idleWindowTimeout;
 
+    /**
+     * If set, an input partition without messages for this long is excluded from the watermark, until it receives
+     * messages again. Otherwise a stalled partition holds back the event time of the whole processor.
+     */
+    private Duration idlePartitionTimeout;
+
+    /**
+     * If set, the processor sends, this often, a watermark-only heartbeat message to every output partition. Lets the
+     * downstream processors advance their event time while this processor has no output, e.g. windows not yet complete
+     * or a quiet input. Should be smaller than the downstream idlePartitionTimeout.
+     */
+    private Duration watermarkHeartbeatInterval;
+
+    /**
+     * Capacity, in messages, of the stateless processor (skipAggregation) event-time reorder buffer. When positive, the
+     * valid messages are held until the watermark passes them, e.g. up to the maxOutOfOrderness, and sent in event
+     * time order. When the buffer is full, the new messages are handled as late messages (lateEventMode). The default
+     * (0) sends the messages in arrival order.
+     */
+    private int reorderBufferCapacity = 0;
+
+    /**
+     * If set, the windows that ended more than the allowedLateness plus this TTL ago, in processing time, are expired in
+     * the background: released to the late event handling or dropped when the lateEventMode is DROP. Bounds the
+     * persistent state when the input stops or after long downtimes. Must be larger than the event time lag of the
+     * input.
+     */
+    private Duration windowTtl;
+
+    /**
+     * Number of threads used to compute, in parallel, the per-key aggregates of a released keyed window. Keys are
+     * assigned to threads by key hash. The default (1) computes the aggregates on the releasing thread.
+     */
+    private int releaseParallelism = 1;
+
+    /**
+     * Number of window releases computed concurrently by the asynchronous release stage. When positive, the UDF calls
+     * and the output sends run off the ingest thread, while the output order is preserved. The default (0) releases
+     * the windows synchronously.
+     */
+    private int releaseStageConcurrency = 0;
+
+    /**
+     * Maximum number of window releases held by the release stage. Ingest blocks when the stage is full.
+     */
+    private int releaseStageCapacity = 32;
+
     private Duration maxOutOfOrderness = Duration.ofMillis(0);
 
     private Duration allowedLateness = Duration.ofMillis(0);
@@ -55,6 +133,10 @@ public class SrpProcessorApplicationProperties {
 
     private final Output output = new Output();
 
+    private final Accumulator accumulator = new Accumulator();
+
+    private final Trigger trigger = new Trigger();
+
     private LateEventMode lateEventMode = LateEventMode.DROP;
 
     private boolean enableSpelTransformation = false;
@@ -67,8 +149,73 @@ public class SrpProcessorApplicationProperties {
 
     private WindowStateType stateType = WindowStateType.MEMORY;
 
+    /**
+     * Number of window workers. When larger than 1, every worker processes its shard of the input messages on its own
+     * thread, with its own window state and watermark.
+     */
+    private int workers = 1;
+
+    private WorkerSharding workerSharding = WorkerSharding.PARTITION;
+
+    /**
+     * Capacity of the worker task queues. The consumer blocks when the worker queue is full.
+     */
+    private int workerQueueCapacity = 1024;
+
     private String rocksDbPath = "/tmp/rocksdb-data/";
 
+    /**
+     * If disabled, the RocksDB window state writes skip the write-ahead log. Unflushed windows are lost on crash and
+     * must be replayed from the input (e.g. the Kafka offsets).
+     */
+    private boolean rocksDbWalEnabled = true;
+
+    /**
+     * The RocksDB window state stores the payloads in chunks of about this size. Bounds the memory used to read a
+     * window at release.
+     */
+    private DataSize rocksDbChunkSize = DataSize.ofMegabytes(1);
+
+    /**
+     * Size of the direct memory slabs of the OFF_HEAP window state. Larger payloads get a slab of their own.
+     */
+    private DataSize offHeapSlabSize = DataSize.ofKilobytes(64);
+
+    private String logPath = "/tmp/srp-log/";
+
+    /**
+     * Size of the segment files of the MAPPED_LOG window state. A segment is dropped once all its windows are released.
+     */
+    private DataSize logSegmentSize = DataSize.ofMegabytes(64);
+
+    /**
+     * Estimated on-heap size of the HYBRID window state above which the oldest windows are spilled to disk.
+     */
+    private DataSize stateMemoryBudget = DataSize.ofMegabytes(256);
+
+    /**
+     * If set, the MEMORY window state is periodically snapshot to the snapshotPath and restored on start. The Kafka
+     * input is replayed from the snapshot offsets.
+     */
+    private Duration snapshotInterval;
+
+    private String snapshotPath = "/tmp/srp-snapshots/";
+
+    /**
+     * If set, the ROCKSDB window state is incrementally checkpointed at this interval to the checkpoint store (by
+     * default the checkpointPath directory, e.g. a shared volume) and restored on start when there is no local state.
+     * The Kafka input is replayed from the checkpoint offsets.
+     */
+    private Duration checkpointInterval;
+
+    private String checkpointPath = "/tmp/srp-checkpoints/";
+
+    /**
+     * Name of the state checkpoints in the checkpoint store. Must be stable across pod restarts. Defaults to the
+     * HOSTNAME, i.e. the StatefulSet pod name.
+     */
+    private String checkpointName;
+
     public static class Input {
         /**
          * mutually exclusive with schemaUri
@@ -85,6 +232,13 @@ public class SrpProcessorApplicationProperties {
          */
         private String timestampExpression;
 
+        /**
+         * Expression to extract the grouping key from the message. Uses the header.name prefix for message headers or
+         * JsonPath (optionally prefixed by payload.) for payload fields. When set, the time windows are keyed: every
+         * (key, window) pair is aggregated and released separately.
+         */
+        private String keyExpression;
+
         public String getSchemaRegistryUri() {
             return schemaRegistryUri;
         }
@@ -108,6 +262,14 @@ public class SrpProcessorApplicationProperties {
         public void setTimestampExpression(String timestampExpression) {
             this.timestampExpression = timestampExpression;
         }
+
+        public String getKeyExpression() {
+            return keyExpression;
+        }
+
+        public void setKeyExpression(String keyExpression) {
+            this.keyExpression = keyExpression;
+        }
     }
 
     public static class Output {
@@ -141,6 +303,112 @@ public class SrpProcessorApplicationProperties {
         }
     }
 
+    /**
+     * Incremental (pre-aggregating) window mode. When the type is set, the window state keeps only the accumulated
+     * aggregate, instead of all raw payloads, and the released window contains a single aggregate payload.
+     */
+    public static class Accumulator {
+        /**
+         * Built-in accumulator type or CUSTOM for an application provided WindowAccumulatorFactory bean. Not set by
+         * default, e.g. incremental mode is disabled.
+         */
+        private WindowAccumulatorType type;
+
+        /**
+         * Field expression (payload JsonPath or header.name) of the value to aggregate. Required for SUM, MIN, MAX and
+         * AVG. Optional for TOP_N (counts the messages per key if not set).
+         */
+        private String valueExpression;
+
+        /**
+         * Field expression (payload JsonPath or header.name) of the grouping key. Required for TOP_N.
+         */
+        private String keyExpression;
+
+        /**
+         * Number of top keys emitted by the TOP_N accumulator. Non positive values emit all keys.
+         */
+        private int topN = 10;
+
+        public WindowAccumulatorType getType() {
+            return this.type;
+        }
+
+        public void setType(WindowAccumulatorType type) {
+            this.type = type;
+        }
+
+        public String getValueExpression() {
+            return this.valueExpression;
+        }
+
+        public void setValueExpression(String valueExpression) {
+            this.valueExpression = valueExpression;
+        }
+
+        public String getKeyExpression() {
+            return this.keyExpression;
+        }
+
+        public void setKeyExpression(String keyExpression) {
+            this.keyExpression = keyExpression;
+        }
+
+        public int getTopN() {
+            return this.topN;
+        }
+
+        public void setTopN(int topN) {
+            this.topN = topN;
+        }
+    }
+
+    /**
+     * Early (speculative) window firing. Open windows are released partially (partial=true), without being removed,
+     * when any of the set conditions is met since the last firing. The final window release is not affected. All
+     * conditions are disabled by default.
+     */
+    public static class Trigger {
+        /**
+         * Fire after that many new window events.
+         */
+        private long count = 0;
+
+        /**
+         * Fire after that many bytes of new window payloads.
+         */
+        private long bytes = 0;
+
+        /**
+         * Fire every interval of processing time, if the window has new events.
+         */
+        private Duration interval;
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public void setCount(long count) {
+            this.count = count;
+        }
+
+        public long getBytes() {
+            return this.bytes;
+        }
+
+        public void setBytes(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public Duration getInterval() {
+            return this.interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+    }
+
     public void setSkipAggregation(boolean skipAggregation) {
         this.skipAggregation = skipAggregation;
     }
@@ -173,6 +441,30 @@ public class SrpProcessorApplicationProperties {
         this.window = window;
     }
 
+    public Duration getWindowSlide() {
+        return this.windowSlide;
+    }
+
+    public void setWindowSlide(Duration windowSlide) {
+        this.windowSlide = windowSlide;
+    }
+
+    public boolean isHoppingWindow() {
+        return this.windowSlide != null && !this.windowSlide.equals(this.window);
+    }
+
+    public Duration getSessionGap() {
+        return this.sessionGap;
+    }
+
+    public void setSessionGap(Duration sessionGap) {
+        this.sessionGap = sessionGap;
+    }
+
+    public boolean isSessionWindow() {
+        return this.sessionGap != null;
+    }
+
     public Duration getIdleWindowTimeout() {
         return this.idleWindowTimeout;
     }
@@ -181,6 +473,86 @@ public class SrpProcessorApplicationProperties {
         this.idleWindowTimeout = idleWindowTimeout;
     }
 
+    public Duration getIdlePartitionTimeout() {
+        return this.idlePartitionTimeout;
+    }
+
+    public void setIdlePartitionTimeout(Duration idlePartitionTimeout) {
+        this.idlePartitionTimeout = idlePartitionTimeout;
+    }
+
+    public Duration getWatermarkHeartbeatInterval() {
+        return this.watermarkHeartbeatInterval;
+    }
+
+    public void setWatermarkHeartbeatInterval(Duration watermarkHeartbeatInterval) {
+        this.watermarkHeartbeatInterval = watermarkHeartbeatInterval;
+    }
+
+    public int getReorderBufferCapacity() {
+        return this.reorderBufferCapacity;
+    }
+
+    public void setReorderBufferCapacity(int reorderBufferCapacity) {
+        this.reorderBufferCapacity = reorderBufferCapacity;
+    }
+
+    public Duration getWindowTtl() {
+        return this.windowTtl;
+    }
+
+    public void setWindowTtl(Duration windowTtl) {
+        this.windowTtl = windowTtl;
+    }
+
+    public int getReleaseStageConcurrency() {
+        return this.releaseStageConcurrency;
+    }
+
+    public void setReleaseStageConcurrency(int releaseStageConcurrency) {
+        this.releaseStageConcurrency = releaseStageConcurrency;
+    }
+
+    public int getReleaseStageCapacity() {
+        return this.releaseStageCapacity;
+    }
+
+    public void setReleaseStageCapacity(int releaseStageCapacity) {
+        this.releaseStageCapacity = releaseStageCapacity;
+    }
+
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public WorkerSharding getWorkerSharding() {
+        return this.workerSharding;
+    }
+
+    public void setWorkerSharding(WorkerSharding workerSharding) {
+        this.workerSharding = workerSharding;
+    }
+
+    public int getWorkerQueueCapacity() {
+        return this.workerQueueCapacity;
+    }
+
+    public void setWorkerQueueCapacity(int workerQueueCapacity) {
+        this.workerQueueCapacity = workerQueueCapacity;
+    }
+
+    public int getReleaseParallelism() {
+        return this.releaseParallelism;
+    }
+
+    public void setReleaseParallelism(int releaseParallelism) {
+        this.releaseParallelism = releaseParallelism;
+    }
+
     public Duration getMaxOutOfOrderness() {
         return this.maxOutOfOrderness;
     }
@@ -205,6 +577,14 @@ public class SrpProcessorApplicationProperties {
         return this.output;
     }
 
+    public Accumulator getAccumulator() {
+        return this.accumulator;
+    }
+
+    public Trigger getTrigger() {
+        return this.trigger;
+    }
+
     public LateEventMode getLateEventMode() {
         return this.lateEventMode;
     }
@@ -243,5 +623,93 @@ public class SrpProcessorApplicationProperties {
 
     public void setRocksDbPath(String rocksDbPath) {
         this.rocksDbPath = rocksDbPath;
-    }    
+    }
+
+    public boolean isRocksDbWalEnabled() {
+        return this.rocksDbWalEnabled;
+    }
+
+    public void setRocksDbWalEnabled(boolean rocksDbWalEnabled) {
+        this.rocksDbWalEnabled = rocksDbWalEnabled;
+    }
+
+    public DataSize getRocksDbChunkSize() {
+        return this.rocksDbChunkSize;
+    }
+
+    public void setRocksDbChunkSize(DataSize rocksDbChunkSize) {
+        this.rocksDbChunkSize = rocksDbChunkSize;
+    }
+
+    public DataSize getOffHeapSlabSize() {
+        return this.offHeapSlabSize;
+    }
+
+    public void setOffHeapSlabSize(DataSize offHeapSlabSize) {
+        this.offHeapSlabSize = offHeapSlabSize;
+    }
+
+    public String getLogPath() {
+        return this.logPath;
+    }
+
+    public void setLogPath(String logPath) {
+        this.logPath = logPath;
+    }
+
+    public DataSize getLogSegmentSize() {
+        return this.logSegmentSize;
+    }
+
+    public void setLogSegmentSize(DataSize logSegmentSize) {
+        this.logSegmentSize = logSegmentSize;
+    }
+
+    public DataSize getStateMemoryBudget() {
+        return this.stateMemoryBudget;
+    }
+
+    public void setStateMemoryBudget(DataSize stateMemoryBudget) {
+        this.stateMemoryBudget = stateMemoryBudget;
+    }
+
+    public Duration getSnapshotInterval() {
+        return this.snapshotInterval;
+    }
+
+    public void setSnapshotInterval(Duration snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public String getSnapshotPath() {
+        return this.snapshotPath;
+    }
+
+    public void setSnapshotPath(String snapshotPath) {
+        this.snapshotPath = snapshotPath;
+    }
+
+    public Duration getCheckpointInterval() {
+        return this.checkpointInterval;
+    }
+
+    public void setCheckpointInterval(Duration checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public String getCheckpointPath() {
+        return this.checkpointPath;
+    }
+
+    public void setCheckpointPath(String checkpointPath) {
+        this.checkpointPath = checkpointPath;
+    }
+
+    public String getCheckpointName() {
+        return this.checkpointName;
+    }
+
+    public void setCheckpointName(String checkpointName) {
+        this.checkpointName = checkpointName;
+    }
 }
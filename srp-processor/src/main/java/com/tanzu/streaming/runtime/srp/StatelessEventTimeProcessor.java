@@ -15,14 +15,17 @@
  */
 package com.tanzu.streaming.runtime.srp;
 
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 
 import com.tanzu.streaming.runtime.processor.common.proto.GrpcPayloadCollectionSeDe;
 import com.tanzu.streaming.runtime.srp.SrpProcessorApplicationProperties.LateEventMode;
 import com.tanzu.streaming.runtime.srp.processor.stateless.AbstractStatelessEventTimeProcessor;
+import com.tanzu.streaming.runtime.srp.processor.stateless.EventTimeReorderBuffer;
 import com.tanzu.streaming.runtime.srp.timestamp.RecordTimestampAssigner;
 import com.tanzu.streaming.runtime.srp.watermark.WatermarkService;
+import com.tanzu.streaming.runtime.srp.watermark.WatermarkService.WatermarkUpdateStatus;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -31,7 +34,7 @@ import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 
-public class StatelessEventTimeProcessor extends AbstractStatelessEventTimeProcessor {
+public class StatelessEventTimeProcessor extends AbstractStatelessEventTimeProcessor implements AutoCloseable {
 
     static final Log logger = LogFactory.getLog(StatelessEventTimeProcessor.class);
 
@@ -42,6 +45,17 @@ public class StatelessEventTimeProcessor extends AbstractStatelessEventTimeProce
     private final int grpcPort;
     private final StreamBridge streamBridge;
 
+    /**
+     * Optional event-time reorder stage. Holds the valid messages until the watermark passes them and sends them in
+     * event time order. Null if disabled.
+     */
+    private final EventTimeReorderBuffer<Message<byte[]>> reorderBuffer;
+
+    /**
+     * Watermark of the sent messages: the messages it passed are not buffered nor in process anymore.
+     */
+    private volatile long emittedWatermarkMs = Long.MIN_VALUE;
+
     public StatelessEventTimeProcessor(WatermarkService watermarkService,
             RecordTimestampAssigner<byte[]> timestampAssigner,
             SrpHeaderAugmenter headerAugmenter, SrpProcessorApplicationProperties properties,
@@ -53,6 +67,9 @@ public class StatelessEventTimeProcessor extends AbstractStatelessEventTimeProce
         this.properties = properties;
         this.grpcPort = grpcPort;
         this.streamBridge = streamBridge;
+        this.reorderBuffer = (properties.getReorderBufferCapacity() > 0)
+                ? new EventTimeReorderBuffer<>(properties.getReorderBufferCapacity())
+                : null;
     }
 
     @Override
@@ -60,6 +77,86 @@ public class StatelessEventTimeProcessor extends AbstractStatelessEventTimeProce
 
         Response watermarkResponse = this.doOnNewMessage(message);
 
+        if (this.reorderBuffer == null) {
+            this.process(message, watermarkResponse);
+            this.publishWatermark(watermarkResponse.getWatermarkMs());
+            return;
+        }
+
+        synchronized (this.reorderBuffer) {
+            this.releaseReordered(watermarkResponse.getWatermarkMs());
+
+            long eventTimeMs = watermarkResponse.getMessageEventTime().toMillis();
+            if (watermarkResponse.getMessageUpdateStatus() != WatermarkUpdateStatus.VALID
+                    || eventTimeMs <= watermarkResponse.getWatermarkMs()) {
+                // Late messages can't be ordered anymore and those the watermark already passed need no reordering.
+                this.process(message, watermarkResponse);
+            }
+            else if (!this.reorderBuffer.offer(eventTimeMs, message)) {
+                logger.warn("Reorder buffer full (" + this.reorderBuffer.getCapacity()
+                        + "), handle as late message: " + eventTimeMs);
+                this.process(message, new Response(WatermarkUpdateStatus.LATE,
+                        watermarkResponse.getMessageEventTime(), watermarkResponse.getWatermarkMs()));
+            }
+            this.publishWatermark(watermarkResponse.getWatermarkMs());
+        }
+    }
+
+    @Override
+    public void onWatermarkHeartbeat(Message<byte[]> heartbeat) {
+        super.onWatermarkHeartbeat(heartbeat);
+        long watermarkMs = this.getWatermarkService().computeWatermarkMs();
+        if (this.reorderBuffer != null) {
+            synchronized (this.reorderBuffer) {
+                this.releaseReordered(watermarkMs);
+                this.publishWatermark(watermarkMs);
+            }
+        }
+        else {
+            this.publishWatermark(watermarkMs);
+        }
+    }
+
+    /**
+     * @return Returns the watermark of the sent messages, so a heartbeat never passes a message still buffered or in
+     *         process.
+     */
+    @Override
+    public long getOutputWatermarkMs() {
+        return this.getWatermarkService().hasWatermark() ? this.emittedWatermarkMs : Long.MIN_VALUE;
+    }
+
+    private void publishWatermark(long watermarkMs) {
+        if (watermarkMs > this.emittedWatermarkMs) {
+            this.emittedWatermarkMs = watermarkMs;
+        }
+    }
+
+    /**
+     * Sends, in event time order, the buffered messages the watermark passed. Must be called holding the
+     * reorderBuffer lock.
+     */
+    private void releaseReordered(long watermarkMs) {
+        this.reorderBuffer.releaseUpTo(watermarkMs, (eventTimeMs, bufferedMessage) -> this.process(bufferedMessage,
+                new Response(WatermarkUpdateStatus.VALID, Duration.ofMillis(eventTimeMs), watermarkMs)));
+    }
+
+    /**
+     * Flushes the reorder buffer, so no buffered message is lost on shutdown.
+     */
+    @Override
+    public void close() {
+        if (this.reorderBuffer != null) {
+            synchronized (this.reorderBuffer) {
+                long watermarkMs = this.getWatermarkService().computeWatermarkMs();
+                this.reorderBuffer.releaseAll((eventTimeMs, bufferedMessage) -> this.process(bufferedMessage,
+                        new Response(WatermarkUpdateStatus.VALID, Duration.ofMillis(eventTimeMs), watermarkMs)));
+            }
+        }
+    }
+
+    private void process(Message<byte[]> message, Response watermarkResponse) {
+
         MessageBuilder<?> messageBuilder = null;
 
         if (this.properties.isSkipUdf()) {
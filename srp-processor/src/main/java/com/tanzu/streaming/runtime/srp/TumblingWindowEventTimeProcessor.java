@@ -22,7 +22,10 @@ import java.util.List;
 
 import com.tanzu.streaming.runtime.processor.common.proto.GrpcPayloadCollectionSeDe;
 import com.tanzu.streaming.runtime.srp.SrpProcessorApplicationProperties.LateEventMode;
+import com.tanzu.streaming.runtime.srp.key.RecordKeyExtractor;
 import com.tanzu.streaming.runtime.srp.processor.window.AbstractTumblingWindowEventProcessor;
+import com.tanzu.streaming.runtime.srp.processor.window.EarlyFiringTrigger;
+import com.tanzu.streaming.runtime.srp.processor.window.WindowReleaseStage;
 import com.tanzu.streaming.runtime.srp.processor.window.state.State;
 import com.tanzu.streaming.runtime.srp.processor.window.state.StateEntry;
 import com.tanzu.streaming.runtime.srp.timestamp.RecordTimestampAssigner;
@@ -53,7 +56,34 @@ public class TumblingWindowEventTimeProcessor extends AbstractTumblingWindowEven
             RecordTimestampAssigner<byte[]> timestampAssigner, WatermarkService watermarkService,
             StreamBridge streamBridge, int grpcPort, SrpHeaderAugmenter outputHeadersAugmenter) {
 
-        super(windowState, watermarkService, properties.getWindow(), timestampAssigner, properties.getName());
+        this(windowState, properties, timestampAssigner, message -> RecordKeyExtractor.NO_KEY, watermarkService,
+                streamBridge, grpcPort, outputHeadersAugmenter);
+    }
+
+    /**
+     * @param keyExtractor Groups the window messages by key. Every (key, window) pair is aggregated separately.
+     */
+    public TumblingWindowEventTimeProcessor(State windowState, SrpProcessorApplicationProperties properties,
+            RecordTimestampAssigner<byte[]> timestampAssigner, RecordKeyExtractor<byte[]> keyExtractor,
+            WatermarkService watermarkService, StreamBridge streamBridge, int grpcPort,
+            SrpHeaderAugmenter outputHeadersAugmenter) {
+
+        this(windowState, properties, properties.getWindow(), timestampAssigner, keyExtractor, watermarkService,
+                streamBridge, grpcPort, outputHeadersAugmenter);
+    }
+
+    /**
+     * @param windowInterval Interval used to bucket the input messages in the windowState. Sub-classes can use
+     *        interval different from the configured window (e.g. the pane size of sliding windows).
+     */
+    protected TumblingWindowEventTimeProcessor(State windowState, SrpProcessorApplicationProperties properties,
+            Duration windowInterval, RecordTimestampAssigner<byte[]> timestampAssigner,
+            RecordKeyExtractor<byte[]> keyExtractor, WatermarkService watermarkService, StreamBridge streamBridge,
+            int grpcPort, SrpHeaderAugmenter outputHeadersAugmenter) {
+
+        super(windowState, watermarkService, windowInterval, timestampAssigner, keyExtractor,
+                properties.getReleaseParallelism(), releaseStage(properties), earlyTrigger(properties),
+                properties.getName());
 
         this.streamBridge = streamBridge;
         this.grpcPort = grpcPort;
@@ -61,6 +91,19 @@ public class TumblingWindowEventTimeProcessor extends AbstractTumblingWindowEven
         this.properties = properties;
     }
 
+    private static WindowReleaseStage releaseStage(SrpProcessorApplicationProperties properties) {
+        if (properties.getReleaseStageConcurrency() <= 0) {
+            return null;
+        }
+        return new WindowReleaseStage(properties.getName(), properties.getReleaseStageConcurrency(),
+                Math.max(properties.getReleaseStageCapacity(), properties.getReleaseStageConcurrency()));
+    }
+
+    private static EarlyFiringTrigger earlyTrigger(SrpProcessorApplicationProperties properties) {
+        return EarlyFiringTrigger.of(properties.getTrigger().getCount(), properties.getTrigger().getBytes(),
+                properties.getTrigger().getInterval());
+    }
+
     @Override
     public List<MessageBuilder<?>> computeWindowAggregate(Duration windowStartTime, Duration windowEndTime,
             StateEntry windowAggregate, boolean isPartial) {
@@ -73,6 +116,10 @@ public class TumblingWindowEventTimeProcessor extends AbstractTumblingWindowEven
                 .setHeader("windowEndTime", windowEndTime.toMillis())
                 .setHeader("partial", isPartial);
 
+        if (windowAggregate.isKeyed() && windowAggregate.getKey() != null) {
+            aggregatedGrpcMessageBuilder.setHeader(WINDOW_KEY_HEADER, windowAggregate.getKey());
+        }
+
         if (this.properties.isSkipUdf()) {
             return Arrays.asList(aggregatedGrpcMessageBuilder);
         }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.key;
+
+import com.tanzu.streaming.runtime.processor.common.avro.AvroMessageReader;
+import com.tanzu.streaming.runtime.processor.common.avro.AvroUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.integration.json.JsonPathUtils;
+import org.springframework.messaging.Message;
+
+/**
+ * Uses JsonPath expression to extract the key form the the payload. Works with any payloads that can be converted into
+ * JSON internally.
+ * 
+ * In case of Avro payload format, requires an avroMessageReader to parse it into GenericRecord.
+ */
+public class JsonPathKeyExtractor implements RecordKeyExtractor<byte[]> {
+
+    private static final Log logger = LogFactory.getLog(JsonPathKeyExtractor.class);
+
+    private final String jsonPath;
+
+    private final AvroMessageReader avroMessageReader;
+
+    public JsonPathKeyExtractor(String jsonPath, AvroMessageReader avroMessageReader) {
+        this.jsonPath = jsonPath.startsWith("$.") ? jsonPath : "$." + jsonPath;
+        this.avroMessageReader = avroMessageReader;
+    }
+
+    @Override
+    public String extractKey(Message<byte[]> message) {
+        try {
+            Object payload = AvroUtil.toJsonPayload(message, this.avroMessageReader);
+            Object result = JsonPathUtils.evaluate(payload, this.jsonPath);
+            if (result != null) {
+                return result.toString();
+            }
+        }
+        catch (Exception e) {
+            logger.error("Failed to extract key with jsonPath: " + this.jsonPath, e);
+        }
+        return RecordKeyExtractor.NO_KEY;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tanzu.streaming.runtime.srp.key;
+
+import org.springframework.messaging.Message;
+
+/**
+ * Extracts the grouping key of a record (e.g. the user of a click event). Keys can be extracted from existing header
+ * or payload fields.
+ */
+public interface RecordKeyExtractor<T> {
+
+    /**
+     * Key used for records without a key or when no key expression is configured.
+     */
+    String NO_KEY = "";
+
+    /**
+     * @param record The element to extract the key from.
+     * @return The record key or {@link #NO_KEY} if the record has no key.
+     */
+    String extractKey(Message<T> record);
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * Splits the binder batch-mode messages (e.g. consumer batch-mode=true) into per-record messages.
+ *
+ * A batch message has a List payload. The per-record headers are taken from the binder's batch headers list
+ * (kafka_batchConvertedHeaders or amqp_batchedHeaders) and from the List valued headers with one value per record
+ * (e.g. kafka_receivedPartitionId, kafka_offset). The remaining headers are shared by all records.
+ */
+public final class BatchMessages {
+
+    public static final String KAFKA_BATCH_CONVERTED_HEADERS = "kafka_batchConvertedHeaders";
+
+    public static final String RABBIT_BATCHED_HEADERS = "amqp_batchedHeaders";
+
+    private BatchMessages() {
+    }
+
+    public static boolean isBatch(Message<?> message) {
+        return message.getPayload() instanceof List;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static List<Message<byte[]>> split(Message<?> batchMessage) {
+
+        List<?> payloads = (List<?>) batchMessage.getPayload();
+        MessageHeaders batchHeaders = batchMessage.getHeaders();
+
+        List<Map<String, Object>> recordHeaders = batchHeaders.containsKey(KAFKA_BATCH_CONVERTED_HEADERS)
+                ? (List<Map<String, Object>>) batchHeaders.get(KAFKA_BATCH_CONVERTED_HEADERS)
+                : (List<Map<String, Object>>) batchHeaders.get(RABBIT_BATCHED_HEADERS);
+
+        List<Message<byte[]>> messages = new ArrayList<>(payloads.size());
+
+        for (int i = 0; i < payloads.size(); i++) {
+            MessageBuilder<byte[]> builder = MessageBuilder.withPayload(toBytes(payloads.get(i)));
+
+            for (Map.Entry<String, Object> header : batchHeaders.entrySet()) {
+                String name = header.getKey();
+                Object value = header.getValue();
+                if (KAFKA_BATCH_CONVERTED_HEADERS.equals(name) || RABBIT_BATCHED_HEADERS.equals(name)
+                        || MessageHeaders.ID.equals(name) || MessageHeaders.TIMESTAMP.equals(name)) {
+                    continue;
+                }
+                if (value instanceof List && ((List<?>) value).size() == payloads.size()) {
+                    value = ((List<?>) value).get(i);
+                }
+                if (value != null) {
+                    builder.setHeader(name, value);
+                }
+            }
+
+            if (recordHeaders != null && i < recordHeaders.size() && recordHeaders.get(i) != null) {
+                builder.copyHeaders(recordHeaders.get(i));
+            }
+
+            messages.add(builder.build());
+        }
+
+        return messages;
+    }
+
+    private static byte[] toBytes(Object payload) {
+        if (payload instanceof byte[]) {
+            return (byte[]) payload;
+        }
+        return payload.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.tanzu.streaming.runtime.srp.processor;
 
+import java.util.List;
+
 import com.tanzu.streaming.runtime.srp.watermark.WatermarkService;
 
 import org.springframework.messaging.Message;
@@ -30,5 +32,34 @@ public interface EventTimeProcessor {
      */
     void onNewMessage(Message<byte[]> message);
 
+    /**
+     * Handles the time-event messages of one consumer batch (e.g. poll), in order.
+     * @param messages
+     */
+    default void onNewMessages(List<Message<byte[]>> messages) {
+        for (Message<byte[]> message : messages) {
+            this.onNewMessage(message);
+        }
+    }
+
+    /**
+     * Handles a watermark heartbeat, i.e. advances the event time without a new event. Heartbeats are never passed to
+     * the UDF nor stored.
+     * @param heartbeat
+     */
+    default void onWatermarkHeartbeat(Message<byte[]> heartbeat) {
+        this.getWatermarkService().onWatermarkHeartbeat(heartbeat);
+    }
+
     WatermarkService getWatermarkService();
+
+    /**
+     * @return Returns the watermark propagated downstream by the watermark heartbeats or Long.MIN_VALUE until the
+     *         processor has a watermark. Processors that send their outputs asynchronously, or concurrently with this
+     *         call, must return a watermark that passes only the outputs already sent.
+     */
+    default long getOutputWatermarkMs() {
+        WatermarkService watermarkService = this.getWatermarkService();
+        return watermarkService.hasWatermark() ? watermarkService.computeWatermarkMs() : Long.MIN_VALUE;
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.stateless;
+
+import java.util.Arrays;
+
+import org.springframework.util.Assert;
+
+/**
+ * Bounded event-time reorder buffer. Holds the events until the watermark passes them and releases them in event time
+ * order, the events with equal event times in arrival order.
+ *
+ * Binary min-heap over primitive arrays: the event times and arrival sequences are kept in long arrays, so the sift
+ * comparisons don't dereference the entries and no node is allocated per event. The arrays grow by doubling, up to
+ * the capacity. Not thread safe.
+ */
+public class EventTimeReorderBuffer<T> {
+
+    private static final int INITIAL_SIZE = 64;
+
+    private final int capacity;
+
+    private long[] eventTimes;
+
+    private long[] sequences;
+
+    private Object[] entries;
+
+    private int size = 0;
+
+    private long nextSequence = 0;
+
+    @FunctionalInterface
+    public interface ReleaseHandler<T> {
+        void release(long eventTimeMs, T entry);
+    }
+
+    /**
+     * @param capacity maximum number of buffered events.
+     */
+    public EventTimeReorderBuffer(int capacity) {
+        Assert.isTrue(capacity > 0, "The reorder buffer capacity must be positive!");
+        this.capacity = capacity;
+        int initialSize = Math.min(capacity, INITIAL_SIZE);
+        this.eventTimes = new long[initialSize];
+        this.sequences = new long[initialSize];
+        this.entries = new Object[initialSize];
+    }
+
+    /**
+     * @return Returns false if the buffer is full and the event is not buffered.
+     */
+    public boolean offer(long eventTimeMs, T entry) {
+        if (this.size == this.capacity) {
+            return false;
+        }
+        if (this.size == this.eventTimes.length) {
+            int newSize = (int) Math.min((long) this.capacity, 2L * this.size);
+            this.eventTimes = Arrays.copyOf(this.eventTimes, newSize);
+            this.sequences = Arrays.copyOf(this.sequences, newSize);
+            this.entries = Arrays.copyOf(this.entries, newSize);
+        }
+        this.siftUp(this.size++, eventTimeMs, this.nextSequence++, entry);
+        return true;
+    }
+
+    /**
+     * Releases, in event time order, the events with event time less or equal to the watermark.
+     *
+     * @return Returns the number of released events.
+     */
+    public int releaseUpTo(long watermarkMs, ReleaseHandler<T> handler) {
+        int released = 0;
+        while (this.size > 0 && this.eventTimes[0] <= watermarkMs) {
+            long eventTimeMs = this.eventTimes[0];
+            handler.release(eventTimeMs, this.poll());
+            released++;
+        }
+        return released;
+    }
+
+    /**
+     * Releases all events, in event time order.
+     */
+    public int releaseAll(ReleaseHandler<T> handler) {
+        return this.releaseUpTo(Long.MAX_VALUE, handler);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T poll() {
+        T head = (T) this.entries[0];
+        int last = --this.size;
+        if (last > 0) {
+            this.siftDown(0, this.eventTimes[last], this.sequences[last], this.entries[last]);
+        }
+        this.entries[last] = null;
+        return head;
+    }
+
+    /**
+     * Moves the parents down into the hole at i until the event fits, then places the event there.
+     */
+    private void siftUp(int i, long eventTime, long sequence, Object entry) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!less(eventTime, sequence, this.eventTimes[parent], this.sequences[parent])) {
+                break;
+            }
+            this.move(parent, i);
+            i = parent;
+        }
+        this.set(i, eventTime, sequence, entry);
+    }
+
+    /**
+     * Moves the smaller children up into the hole at i until the event fits, then places the event there.
+     */
+    private void siftDown(int i, long eventTime, long sequence, Object entry) {
+        int half = this.size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < this.size
+                    && less(this.eventTimes[right], this.sequences[right], this.eventTimes[child],
+                            this.sequences[child])) {
+                child = right;
+            }
+            if (!less(this.eventTimes[child], this.sequences[child], eventTime, sequence)) {
+                break;
+            }
+            this.move(child, i);
+            i = child;
+        }
+        this.set(i, eventTime, sequence, entry);
+    }
+
+    private static boolean less(long eventTime1, long sequence1, long eventTime2, long sequence2) {
+        return eventTime1 < eventTime2 || (eventTime1 == eventTime2 && sequence1 < sequence2);
+    }
+
+    private void move(int from, int to) {
+        this.eventTimes[to] = this.eventTimes[from];
+        this.sequences[to] = this.sequences[from];
+        this.entries[to] = this.entries[from];
+    }
+
+    private void set(int i, long eventTime, long sequence, Object entry) {
+        this.eventTimes[i] = eventTime;
+        this.sequences[i] = sequence;
+        this.entries[i] = entry;
+    }
+}
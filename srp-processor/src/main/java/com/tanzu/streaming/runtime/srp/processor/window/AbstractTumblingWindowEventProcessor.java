@@ -16,8 +16,19 @@
 package com.tanzu.streaming.runtime.srp.processor.window;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import com.tanzu.streaming.runtime.srp.key.RecordKeyExtractor;
 import com.tanzu.streaming.runtime.srp.processor.EventTimeProcessor;
 import com.tanzu.streaming.runtime.srp.processor.window.state.State;
 import com.tanzu.streaming.runtime.srp.processor.window.state.StateEntry;
@@ -30,7 +41,8 @@ import org.apache.commons.logging.LogFactory;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 
-public abstract class AbstractTumblingWindowEventProcessor implements EventTimeProcessor, TumblingWindowService {
+public abstract class AbstractTumblingWindowEventProcessor
+        implements EventTimeProcessor, TumblingWindowService, AutoCloseable {
 
     static final Log logger = LogFactory.getLog(AbstractTumblingWindowEventProcessor.class);
 
@@ -38,8 +50,25 @@ public abstract class AbstractTumblingWindowEventProcessor implements EventTimeP
 
     public final static boolean REMOVE_WINDOW = true;
 
+    /**
+     * Header carrying the key of keyed windows. Set on both the UDF input and the window output messages.
+     */
+    public final static String WINDOW_KEY_HEADER = "windowKey";
+
+    /**
+     * Window completion evaluation not caused by a message, e.g. by a watermark heartbeat. Matches no window, so no
+     * late window is re-sent.
+     */
+    protected final static long NO_MESSAGE_WINDOW = Long.MAX_VALUE;
+
     private final State windowState;
 
+    /**
+     * Sorted index of the windows currently held by the windowState. Used to evaluate only the windows that can be
+     * completed by the current watermark and to find the oldest window without scanning the state keys.
+     */
+    private final WindowIndex windowIndex;
+
     private final WatermarkService watermarkService;
 
     private Duration windowInterval = Duration.ofSeconds(3);
@@ -48,13 +77,77 @@ public abstract class AbstractTumblingWindowEventProcessor implements EventTimeP
 
     private String id;
 
+    /**
+     * Groups the window messages by key. Keyed windows are aggregated and released per (key, window).
+     */
+    private final RecordKeyExtractor<byte[]> keyExtractor;
+
+    /**
+     * Single threaded executors computing the per-key aggregates of keyed windows. The key hash selects the executor.
+     * Null when the aggregates are computed on the releasing thread.
+     */
+    private final ExecutorService[] keyedReleaseExecutors;
+
+    /**
+     * Optional asynchronous release stage. When set, the window aggregates are computed and sent off the releasing
+     * (e.g. ingest) thread. Null for synchronous releases.
+     */
+    private final WindowReleaseStage releaseStage;
+
+    /**
+     * Optional early firing policy. Partially releases the open windows before their final release. Null if disabled.
+     */
+    private final EarlyFiringTrigger earlyTrigger;
+
+    private final List<WindowLifecycleListener> windowListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Watermark of the windows sent without release stage, see {@link #publishWatermark(long)}.
+     */
+    private volatile long emittedWatermarkMs = Long.MIN_VALUE;
+
     public AbstractTumblingWindowEventProcessor(State windowState, WatermarkService watermarkService,
             Duration windowInterval, RecordTimestampAssigner<byte[]> timestampAssigner, String id) {
+        this(windowState, watermarkService, windowInterval, timestampAssigner, message -> RecordKeyExtractor.NO_KEY,
+                1, null, null, id);
+    }
+
+    /**
+     * @param keyExtractor extracts the window grouping key.
+     * @param releaseParallelism number of threads computing the per-key aggregates of a keyed window.
+     * @param releaseStage optional asynchronous release stage. Closed together with the processor.
+     * @param earlyTrigger optional early firing policy. Closed together with the processor.
+     */
+    public AbstractTumblingWindowEventProcessor(State windowState, WatermarkService watermarkService,
+            Duration windowInterval, RecordTimestampAssigner<byte[]> timestampAssigner,
+            RecordKeyExtractor<byte[]> keyExtractor, int releaseParallelism, WindowReleaseStage releaseStage,
+            EarlyFiringTrigger earlyTrigger, String id) {
         this.windowState = windowState;
+        this.windowIndex = new WindowIndex();
+        // Windows restored by persistent states (e.g. RocksDB).
+        this.windowIndex.addAll(windowState.keys());
         this.watermarkService = watermarkService;
         this.windowInterval = windowInterval;
         this.timestampAssigner = timestampAssigner;
+        this.keyExtractor = keyExtractor;
+        this.releaseStage = releaseStage;
         this.id = id;
+
+        if (releaseParallelism > 1) {
+            this.keyedReleaseExecutors = new ExecutorService[releaseParallelism];
+            for (int i = 0; i < releaseParallelism; i++) {
+                this.keyedReleaseExecutors[i] = Executors.newSingleThreadExecutor();
+            }
+        }
+        else {
+            this.keyedReleaseExecutors = null;
+        }
+
+        this.earlyTrigger = earlyTrigger;
+        if (earlyTrigger != null) {
+            earlyTrigger.setFiring(this::fireEarly);
+            this.addWindowLifecycleListener(earlyTrigger);
+        }
     }
 
     @Override
@@ -65,6 +158,8 @@ public abstract class AbstractTumblingWindowEventProcessor implements EventTimeP
     @Override
     public void onNewMessage(Message<byte[]> inputMessage) {
 
+        this.checkReleaseFailure();
+
         Duration messageTimestamp = Duration.ofMillis(this.timestampAssigner.extractTimestamp(inputMessage));
 
         if (this.watermarkService.updateWatermarks(inputMessage, messageTimestamp) == WatermarkUpdateStatus.DISCARDED) {
@@ -75,10 +170,50 @@ public abstract class AbstractTumblingWindowEventProcessor implements EventTimeP
         long messageWindowStartTimeNs = this.computeWindowStartTime(
                 messageTimestamp, this.windowInterval).toNanos();
 
-        this.windowState.put(messageWindowStartTimeNs, inputMessage.getHeaders(), inputMessage.getPayload());
+        String key = this.keyExtractor.extractKey(inputMessage);
+
+        this.windowState.put(messageWindowStartTimeNs, key, inputMessage.getHeaders(), inputMessage.getPayload());
+        this.indexWindow(messageWindowStartTimeNs);
 
         // Check the existing windows for completion.
         this.evaluateWindowsCompletion(messageWindowStartTimeNs);
+
+        this.evaluateEarlyFiring(messageWindowStartTimeNs, inputMessage.getPayload().length);
+    }
+
+    /**
+     * Advances the watermark and completes the windows it passed.
+     */
+    @Override
+    public void onWatermarkHeartbeat(Message<byte[]> heartbeat) {
+        this.checkReleaseFailure();
+        this.watermarkService.onWatermarkHeartbeat(heartbeat);
+        this.evaluateWindowsCompletion(NO_MESSAGE_WINDOW);
+    }
+
+    /**
+     * Handles the messages of one consumer batch within a single window state write batch.
+     */
+    @Override
+    public void onNewMessages(List<Message<byte[]>> inputMessages) {
+        this.windowState.beginBatch();
+        try {
+            for (Message<byte[]> inputMessage : inputMessages) {
+                this.onNewMessage(inputMessage);
+            }
+        }
+        finally {
+            this.windowState.commitBatch();
+        }
+    }
+
+    /**
+     * Rethrows an asynchronous release failure, so it fails the input binding instead of losing the window output.
+     */
+    protected void checkReleaseFailure() {
+        if (this.releaseStage != null) {
+            this.releaseStage.checkFailure();
+        }
     }
 
     /**
@@ -92,74 +227,381 @@ public abstract class AbstractTumblingWindowEventProcessor implements EventTimeP
         return Duration.ofNanos(messageTimestamp.toNanos() - (messageTimestamp.toNanos() % windowInterval.toNanos()));
     }
 
-    private void evaluateWindowsCompletion(long messageWindowStartTimeNs) {
+    protected void evaluateWindowsCompletion(long messageWindowStartTimeNs) {
 
-        for (long windowStartTimeNs : this.windowState.keys()) {
+        // Only the windows with windowEndTime <= watermark can be completed.
+        long watermarkMs = this.watermarkService.computeWatermarkMs();
+        long watermarkNs = toWatermarkNs(watermarkMs);
+        if (watermarkNs == Long.MIN_VALUE) {
+            return;
+        }
 
-            Duration windowEndTime = Duration.ofNanos(windowStartTimeNs + windowInterval.toNanos());
+        long maxCompletedWindowStartTimeNs = watermarkNs - this.windowInterval.toNanos();
 
-            if (this.watermarkService.isOlderThanWatermark(windowEndTime)) {
+        for (long windowStartTimeNs : this.windowIndex.headTo(maxCompletedWindowStartTimeNs)) {
 
-                if (!this.watermarkService.isAllowedLatenessEnabled()
-                        || !this.watermarkService.isOlderThanAllowedLateness(windowEndTime)) {
-                    this.releaseWindow(windowStartTimeNs, REMOVE_WINDOW, !IS_PARTIAL_RELEASE, false);
-                }
-                else {
-                    if (messageWindowStartTimeNs == windowStartTimeNs) {
-                        // re-send AllowedLateness window only if new message was added to it.
-                        this.releaseWindow(windowStartTimeNs, !REMOVE_WINDOW, !IS_PARTIAL_RELEASE, true);
-                    }
+            Duration windowEndTime = Duration.ofNanos(windowStartTimeNs + windowInterval.toNanos());
+
+            if (!this.watermarkService.isAllowedLatenessEnabled()
+                    || !this.watermarkService.isOlderThanAllowedLateness(windowEndTime)) {
+                this.releaseWindow(windowStartTimeNs, REMOVE_WINDOW, !IS_PARTIAL_RELEASE, false);
+            }
+            else {
+                if (messageWindowStartTimeNs == windowStartTimeNs) {
+                    // re-send AllowedLateness window only if new message was added to it.
+                    this.releaseWindow(windowStartTimeNs, !REMOVE_WINDOW, !IS_PARTIAL_RELEASE, true);
                 }
             }
         }
+
+        this.publishWatermark(watermarkMs);
+    }
+
+    /**
+     * Publishes the watermark for the heartbeats, once the windows it completed are sent. Must be called after the
+     * windows completed by the watermark are released.
+     */
+    protected void publishWatermark(long watermarkMs) {
+        if (this.releaseStage != null) {
+            this.releaseStage.publishWatermark(watermarkMs);
+        }
+        else if (watermarkMs > this.emittedWatermarkMs) {
+            this.emittedWatermarkMs = watermarkMs;
+        }
+    }
+
+    /**
+     * @return Returns the watermark of the sent windows. Unlike the input watermark, it does not pass the completed
+     *         windows still in the release stage.
+     */
+    @Override
+    public long getOutputWatermarkMs() {
+        return (this.releaseStage != null) ? this.releaseStage.getPublishedWatermarkMs() : this.emittedWatermarkMs;
+    }
+
+    @Override
+    public void expireWindows(long maxWindowEndNs, boolean emitExpired) {
+        // The windows start before they end, so only the windows starting before the max end are candidates.
+        for (long windowId : this.windowIndex.headTo(maxWindowEndNs)) {
+            if (this.windowEndNs(windowId) <= maxWindowEndNs) {
+                logger.info(id + ">> EXPIRE window: " + windowId + (emitExpired ? ", release as late event" : ", drop"));
+                this.expireWindow(windowId, emitExpired);
+            }
+        }
+    }
+
+    /**
+     * @return Returns the end time of the window, the latest end time for the windows containing a pane.
+     */
+    protected long windowEndNs(long windowId) {
+        return windowId + this.windowInterval.toNanos();
+    }
+
+    protected void expireWindow(long windowId, boolean emitExpired) {
+        if (emitExpired) {
+            this.releaseWindow(windowId, REMOVE_WINDOW, !IS_PARTIAL_RELEASE, true);
+        }
+        else {
+            StateEntry expiredWindow = this.removeWindow(windowId);
+            if (expiredWindow != null) {
+                expiredWindow.close();
+            }
+        }
+    }
+
+    /**
+     * Accounts the new window event in the early firing trigger and fires the window if a count or size condition is
+     * met. Must be called after the window completion evaluation, so that completed windows are not fired early.
+     */
+    protected void evaluateEarlyFiring(long windowId, int payloadSize) {
+        if (this.earlyTrigger != null && this.earlyTrigger.onElement(windowId, payloadSize)
+                && this.windowIndex.contains(windowId)) {
+            this.fireEarly(windowId);
+        }
+    }
+
+    /**
+     * Partially releases the window, without removing it. Windows already completed by the watermark are skipped.
+     */
+    protected void fireEarly(long windowStartTimeNs) {
+        long watermarkNs = toWatermarkNs(this.watermarkService.computeWatermarkMs());
+        if (watermarkNs != Long.MIN_VALUE && windowStartTimeNs + this.windowInterval.toNanos() <= watermarkNs) {
+            return;
+        }
+        logger.info(id + ">> EARLY FIRING window: " + windowStartTimeNs);
+        this.releaseWindow(windowStartTimeNs, !REMOVE_WINDOW, IS_PARTIAL_RELEASE, false);
+    }
+
+    /**
+     * Sets the executor of the processing-time early firings. By default the firings run on the trigger timer thread.
+     * Single-writer setups (e.g. window workers) should run them on the window owner thread.
+     */
+    public void setEarlyFiringExecutor(Executor executor) {
+        if (this.earlyTrigger != null) {
+            this.earlyTrigger.setExecutor(executor);
+        }
+    }
+
+    /**
+     * Converts the (millisecond) watermark into the largest nanosecond time t for which Duration.ofNanos(t).toMillis()
+     * <= watermark. E.g. all windows with windowEndTime <= t are older than the watermark. Returns Long.MIN_VALUE for
+     * the initial watermark, when no events have been seen yet.
+     */
+    protected static long toWatermarkNs(long watermarkMs) {
+        final long nanosInMilli = Duration.ofMillis(1).toNanos();
+        if (watermarkMs <= (Long.MIN_VALUE / nanosInMilli) + 1) {
+            return Long.MIN_VALUE;
+        }
+        if (watermarkMs >= (Long.MAX_VALUE / nanosInMilli) - 1) {
+            return Long.MAX_VALUE;
+        }
+        return ((watermarkMs + 1) * nanosInMilli) - 1;
     }
 
     @Override
     public void releaseWindow(long windowStartTimeNs, boolean removeWindow, boolean isPartial,
             boolean isLateEventResend) {
 
-        logger.info(">> KEYS#: " + this.windowState.keys().size());
+        logger.info(">> KEYS#: " + this.windowIndex.size());
 
         StateEntry releasedAggregate = removeWindow
-                ? this.windowState.delete(windowStartTimeNs)
+                ? this.removeWindow(windowStartTimeNs)
                 : this.windowState.get(windowStartTimeNs);
 
         if (releasedAggregate != null) {
             logger.info(id + ">> RELEASE window: " + windowStartTimeNs + ", payload count: "
-                    + releasedAggregate.getPayloads().size());
-            Duration outputEventTime = Duration.ofNanos(windowStartTimeNs + windowInterval.toNanos());
-            Duration outputWatermark = Duration.ofMillis(this.watermarkService.computeWatermarkMs());
+                    + releasedAggregate.getPayloadCount());
 
             Duration windowStartTime = Duration.ofNanos(windowStartTimeNs);
             Duration windowEndTime = windowStartTime.plus(windowInterval);
 
-            List<MessageBuilder<?>> outputMessageBuilders = this.computeWindowAggregate(windowStartTime,
-                    windowEndTime, releasedAggregate, isPartial);
+            this.emitWindow(windowStartTime, windowEndTime, releasedAggregate, isPartial, isLateEventResend);
+        }
+        else {
+            logger.info(id + "     -> Already Released: " + windowStartTimeNs);
+            // Do nothing
+        }
+    }
+
+    /**
+     * Emits a non-keyed window.
+     */
+    protected void emitWindow(Duration windowStartTime, Duration windowEndTime, StateEntry windowAggregate,
+            boolean isPartial, boolean isLateEventResend) {
+        this.emitWindow(windowStartTime, windowEndTime, null, windowAggregate, isPartial, isLateEventResend);
+    }
 
-            for (MessageBuilder<?> outputMessageBuilder : outputMessageBuilders) {
+    /**
+     * Computes the window aggregate and sends the result downstream. The output event time is the window end time and
+     * the output watermark is the watermark at release time.
+     *
+     * Keyed windows, with no explicit windowKey, are aggregated per key. Every key group is passed separately to the
+     * UDF and the per-key results are sent in the key order of the StateEntry.
+     *
+     * With a release stage, the aggregate is computed and sent asynchronously, in the same order as the releases.
+     *
+     * @param windowKey optional key of keyed windows, added as the {@link #WINDOW_KEY_HEADER} output header.
+     */
+    protected void emitWindow(Duration windowStartTime, Duration windowEndTime, String windowKey,
+            StateEntry windowAggregate, boolean isPartial, boolean isLateEventResend) {
 
-                outputMessageBuilder
-                        .setHeader("eventtime", outputEventTime.toMillis())
-                        .setHeader("watermark", outputWatermark.toMillis());
+        Duration outputEventTime = windowEndTime;
+        Duration outputWatermark = Duration.ofMillis(this.watermarkService.computeWatermarkMs());
 
-                if (isLateEventResend) {
-                    this.handleLateEvent(outputEventTime, outputWatermark, outputMessageBuilder);
-                }
-                else {
-                    this.send(outputEventTime, outputWatermark, outputMessageBuilder);
-                }
-            }
+        if (this.releaseStage == null) {
+            this.sendWindowOutputs(this.computeWindowOutputs(windowStartTime, windowEndTime, windowKey,
+                    windowAggregate, isPartial), outputEventTime, outputWatermark, isLateEventResend);
         }
         else {
-            logger.info(id + "     -> Already Released: " + windowStartTimeNs);
-            // Do nothing
+            this.releaseStage.submit(
+                    () -> this.computeWindowOutputs(windowStartTime, windowEndTime, windowKey, windowAggregate,
+                            isPartial),
+                    windowOutputs -> this.sendWindowOutputs(windowOutputs, outputEventTime, outputWatermark,
+                            isLateEventResend));
+        }
+    }
+
+    /**
+     * Closes the window aggregate once computed.
+     *
+     * @return Returns the window output messages by window key (null for non-keyed windows), in output order.
+     */
+    private Map<String, List<MessageBuilder<?>>> computeWindowOutputs(Duration windowStartTime,
+            Duration windowEndTime, String windowKey, StateEntry windowAggregate, boolean isPartial) {
+        try {
+            return this.computeKeyedWindowOutputs(windowStartTime, windowEndTime, windowKey, windowAggregate,
+                    isPartial);
+        }
+        finally {
+            windowAggregate.close();
+        }
+    }
+
+    private Map<String, List<MessageBuilder<?>>> computeKeyedWindowOutputs(Duration windowStartTime,
+            Duration windowEndTime, String windowKey, StateEntry windowAggregate, boolean isPartial) {
+
+        if (windowKey != null || !windowAggregate.isKeyed()) {
+            return Collections.singletonMap(windowKey,
+                    this.computeWindowAggregate(windowStartTime, windowEndTime, windowAggregate, isPartial));
+        }
+
+        Map<String, List<MessageBuilder<?>>> windowOutputs = new LinkedHashMap<>();
+        List<String> keys = new ArrayList<>(windowAggregate.getKeyedPayloads().keySet());
+
+        if (this.keyedReleaseExecutors == null || keys.size() == 1) {
+            for (String key : keys) {
+                windowOutputs.put(key, this.computeWindowAggregate(windowStartTime, windowEndTime,
+                        keyEntry(windowAggregate, key), isPartial));
+            }
+            return windowOutputs;
+        }
+
+        List<Future<List<MessageBuilder<?>>>> keyAggregates = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            StateEntry keyEntry = keyEntry(windowAggregate, key);
+            ExecutorService executor = this.keyedReleaseExecutors[Math
+                    .floorMod(key.hashCode(), this.keyedReleaseExecutors.length)];
+            keyAggregates.add(executor
+                    .submit(() -> this.computeWindowAggregate(windowStartTime, windowEndTime, keyEntry, isPartial)));
+        }
+
+        for (int i = 0; i < keys.size(); i++) {
+            try {
+                windowOutputs.put(keys.get(i), keyAggregates.get(i).get());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while aggregating the window: " + windowStartTime, e);
+            }
+            catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to aggregate the window: " + windowStartTime
+                        + " for key: " + keys.get(i), e.getCause());
+            }
+        }
+        return windowOutputs;
+    }
+
+    private void sendWindowOutputs(Map<String, List<MessageBuilder<?>>> windowOutputs, Duration outputEventTime,
+            Duration outputWatermark, boolean isLateEventResend) {
+        for (Map.Entry<String, List<MessageBuilder<?>>> windowOutput : windowOutputs.entrySet()) {
+            this.sendWindowOutput(windowOutput.getValue(), outputEventTime, outputWatermark, windowOutput.getKey(),
+                    isLateEventResend);
+        }
+    }
+
+    private static StateEntry keyEntry(StateEntry windowAggregate, String key) {
+        return new StateEntry(windowAggregate.getTimestamp(), windowAggregate.getHeaders(),
+                Collections.singletonMap(key, windowAggregate.getKeyedPayloads().get(key)));
+    }
+
+    private void sendWindowOutput(List<MessageBuilder<?>> outputMessageBuilders, Duration outputEventTime,
+            Duration outputWatermark, String windowKey, boolean isLateEventResend) {
+
+        for (MessageBuilder<?> outputMessageBuilder : outputMessageBuilders) {
+
+            outputMessageBuilder
+                    .setHeader("eventtime", outputEventTime.toMillis())
+                    .setHeader("watermark", outputWatermark.toMillis());
+
+            if (windowKey != null) {
+                outputMessageBuilder.setHeader(WINDOW_KEY_HEADER, windowKey);
+            }
+
+            if (isLateEventResend) {
+                this.handleLateEvent(outputEventTime, outputWatermark, outputMessageBuilder);
+            }
+            else {
+                this.send(outputEventTime, outputWatermark, outputMessageBuilder);
+            }
+        }
+    }
+
+    /**
+     * Removes the window from both the state and the window index.
+     *
+     * @return Returns the removed window content or null if the window doesn't exist. The entry must be closed.
+     */
+    protected StateEntry removeWindow(long windowStartTimeNs) {
+        StateEntry stateEntry = this.windowState.delete(windowStartTimeNs);
+        this.unindexWindow(windowStartTimeNs);
+        return stateEntry;
+    }
+
+    /**
+     * Adds the window to the window index and notifies the listeners if the window is new.
+     */
+    protected boolean indexWindow(long windowId) {
+        boolean added = this.windowIndex.add(windowId);
+        if (added) {
+            for (WindowLifecycleListener listener : this.windowListeners) {
+                listener.onWindowOpened(windowId);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Removes the window from the window index and notifies the listeners if the window was present.
+     */
+    protected boolean unindexWindow(long windowId) {
+        boolean removed = this.windowIndex.remove(windowId);
+        if (removed) {
+            for (WindowLifecycleListener listener : this.windowListeners) {
+                listener.onWindowClosed(windowId);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void addWindowLifecycleListener(WindowLifecycleListener listener) {
+        this.windowListeners.add(listener);
+        for (long windowId : this.windowIndex.headTo(Long.MAX_VALUE)) {
+            listener.onWindowOpened(windowId);
         }
     }
 
     @Override
     public long getOldestWindowId() {
-        return this.windowState.keys().stream()
-                .mapToLong(l -> l)
-                .min().orElse(-1L);
+        return this.windowIndex.first();
+    }
+
+    protected State getWindowState() {
+        return this.windowState;
+    }
+
+    protected WindowIndex getWindowIndex() {
+        return this.windowIndex;
+    }
+
+    protected Duration getWindowInterval() {
+        return this.windowInterval;
+    }
+
+    protected RecordTimestampAssigner<byte[]> getTimestampAssigner() {
+        return this.timestampAssigner;
+    }
+
+    protected String getId() {
+        return this.id;
+    }
+
+    @Override
+    public void close() {
+        if (this.earlyTrigger != null) {
+            this.earlyTrigger.close();
+        }
+        try {
+            if (this.releaseStage != null) {
+                this.releaseStage.close();
+            }
+        }
+        finally {
+            if (this.keyedReleaseExecutors != null) {
+                for (ExecutorService executor : this.keyedReleaseExecutors) {
+                    executor.shutdownNow();
+                }
+            }
+        }
     }
 }
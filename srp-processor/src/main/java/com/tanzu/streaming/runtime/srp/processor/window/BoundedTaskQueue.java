@@ -0,0 +1,128 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.util.Assert;
+
+/**
+ * Bounded, lock-free, multi-producer single-consumer ring queue.
+ *
+ * Every slot has a sequence number. Producers claim a position with a CAS on the tail and publish the element by
+ * advancing the slot sequence. The single consumer reads the slot once its sequence is published and releases the slot
+ * for the next lap.
+ *
+ * @see <a href="https://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue">Bounded MPMC queue</a>
+ */
+public class BoundedTaskQueue<E> {
+
+    private final Object[] buffer;
+
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Next position to consume. Written by the consumer thread only.
+     */
+    private volatile long head = 0;
+
+    /**
+     * @param capacity queue capacity. Rounded up to the next power of two.
+     */
+    public BoundedTaskQueue(int capacity) {
+        Assert.isTrue(capacity > 0 && capacity <= (1 << 30), "Invalid queue capacity: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Can be called by multiple producers.
+     *
+     * @return Returns false if the queue is full.
+     */
+    public boolean offer(E element) {
+        Assert.notNull(element, "Null elements are not supported!");
+        long position = this.tail.get();
+        while (true) {
+            int index = (int) (position & this.mask);
+            long difference = this.sequences.get(index) - position;
+            if (difference == 0) {
+                if (this.tail.compareAndSet(position, position + 1)) {
+                    this.buffer[index] = element;
+                    // Volatile write: publishes the element before any subsequent consumer wake-up check.
+                    this.sequences.set(index, position + 1);
+                    return true;
+                }
+                position = this.tail.get();
+            }
+            else if (difference < 0) {
+                // The slot from the previous lap is not consumed yet.
+                return false;
+            }
+            else {
+                position = this.tail.get();
+            }
+        }
+    }
+
+    /**
+     * Must be called only by the consumer thread.
+     *
+     * @return Returns the oldest element or null if the queue is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long position = this.head;
+        int index = (int) (position & this.mask);
+        if (this.sequences.get(index) != position + 1) {
+            return null;
+        }
+        E element = (E) this.buffer[index];
+        this.buffer[index] = null;
+        this.sequences.set(index, position + this.mask + 1);
+        this.head = position + 1;
+        return element;
+    }
+
+    /**
+     * @return Returns true if there is no published element to consume.
+     */
+    public boolean isEmpty() {
+        long position = this.head;
+        return this.sequences.get((int) (position & this.mask)) != position + 1;
+    }
+
+    public int size() {
+        return (int) Math.max(0, this.tail.get() - this.head);
+    }
+
+    public int capacity() {
+        return this.buffer.length;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
+
+import org.springframework.util.Assert;
+
+/**
+ * Early (speculative) firing policy for open windows. A window fires a partial result, without being removed, when
+ * any of the configured conditions is met since its last firing:
+ *
+ * <ul>
+ * <li>everyCount - number of new window events.</li>
+ * <li>everyBytes - total payload size of the new window events.</li>
+ * <li>everyInterval - processing time, if the window received new events. Uses a {@link HashedWheelTimer}.</li>
+ * </ul>
+ *
+ * The final (watermark or idle) window release is not affected. The trigger tracks the windows through the
+ * {@link WindowLifecycleListener} callbacks.
+ */
+public class EarlyFiringTrigger implements WindowLifecycleListener, AutoCloseable {
+
+    private static final Duration MAX_TICK_DURATION = Duration.ofMillis(100);
+
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private final long everyCount;
+
+    private final long everyBytes;
+
+    private final Duration everyInterval;
+
+    private final HashedWheelTimer timer;
+
+    private final ConcurrentHashMap<Long, WindowTriggerState> windows = new ConcurrentHashMap<>();
+
+    private volatile LongConsumer firing = windowId -> {
+    };
+
+    /**
+     * Runs the processing-time firings. Defaults to the timer thread.
+     */
+    private volatile Executor executor = Runnable::run;
+
+    /**
+     * @param everyCount fire after that many new events. Disabled if not positive.
+     * @param everyBytes fire after that many new payload bytes. Disabled if not positive.
+     * @param everyInterval fire periodically, in processing time. Disabled if null.
+     */
+    public EarlyFiringTrigger(long everyCount, long everyBytes, Duration everyInterval) {
+        Assert.isTrue(everyInterval == null || (!everyInterval.isNegative() && !everyInterval.isZero()),
+                "The trigger interval must be positive!");
+        this.everyCount = everyCount;
+        this.everyBytes = everyBytes;
+        this.everyInterval = everyInterval;
+        this.timer = (everyInterval != null)
+                ? new HashedWheelTimer("srp-early-trigger-timer", tickDuration(everyInterval), TICKS_PER_WHEEL)
+                : null;
+    }
+
+    /**
+     * @return Returns a trigger for the configured conditions or null if none is set.
+     */
+    public static EarlyFiringTrigger of(long everyCount, long everyBytes, Duration everyInterval) {
+        if (everyCount <= 0 && everyBytes <= 0 && everyInterval == null) {
+            return null;
+        }
+        return new EarlyFiringTrigger(everyCount, everyBytes, everyInterval);
+    }
+
+    private static Duration tickDuration(Duration everyInterval) {
+        if (everyInterval.dividedBy(8).compareTo(MAX_TICK_DURATION) >= 0) {
+            return MAX_TICK_DURATION;
+        }
+        return Duration.ofMillis(Math.max(1, everyInterval.dividedBy(8).toMillis()));
+    }
+
+    /**
+     * @param firing partially releases the window with the given id.
+     */
+    public void setFiring(LongConsumer firing) {
+        this.firing = firing;
+    }
+
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Accounts a new window event.
+     *
+     * @return Returns true if the window must fire now. The window's counters are reset.
+     */
+    public boolean onElement(long windowId, int payloadSize) {
+        WindowTriggerState triggerState = this.windows.get(windowId);
+        return triggerState != null && triggerState.add(payloadSize, this.everyCount, this.everyBytes);
+    }
+
+    @Override
+    public void onWindowOpened(long windowId) {
+        WindowTriggerState triggerState = new WindowTriggerState();
+        if (this.windows.putIfAbsent(windowId, triggerState) == null && this.timer != null) {
+            this.schedule(windowId, triggerState);
+        }
+    }
+
+    @Override
+    public void onWindowClosed(long windowId) {
+        WindowTriggerState triggerState = this.windows.remove(windowId);
+        if (triggerState != null) {
+            triggerState.cancel();
+        }
+    }
+
+    private void schedule(long windowId, WindowTriggerState triggerState) {
+        triggerState.setTimeout(this.timer.newTimeout(() -> this.onTimer(windowId, triggerState),
+                this.everyInterval));
+    }
+
+    private void onTimer(long windowId, WindowTriggerState triggerState) {
+        if (this.windows.get(windowId) != triggerState) {
+            // Window closed.
+            return;
+        }
+        this.executor.execute(() -> {
+            if (this.windows.get(windowId) == triggerState && triggerState.resetIfPending()) {
+                this.firing.accept(windowId);
+            }
+        });
+        this.schedule(windowId, triggerState);
+    }
+
+    @Override
+    public void close() {
+        if (this.timer != null) {
+            this.timer.close();
+        }
+        this.windows.clear();
+    }
+
+    private static class WindowTriggerState {
+
+        private long count = 0;
+
+        private long bytes = 0;
+
+        private HashedWheelTimer.Timeout timeout;
+
+        private boolean cancelled = false;
+
+        synchronized boolean add(int payloadSize, long everyCount, long everyBytes) {
+            this.count++;
+            this.bytes += payloadSize;
+            if ((everyCount > 0 && this.count >= everyCount) || (everyBytes > 0 && this.bytes >= everyBytes)) {
+                this.count = 0;
+                this.bytes = 0;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return Returns true if there were new events since the last firing.
+         */
+        synchronized boolean resetIfPending() {
+            boolean pending = this.count > 0;
+            this.count = 0;
+            this.bytes = 0;
+            return pending;
+        }
+
+        synchronized void setTimeout(HashedWheelTimer.Timeout timeout) {
+            if (this.cancelled) {
+                timeout.cancel();
+            }
+            this.timeout = timeout;
+        }
+
+        synchronized void cancel() {
+            this.cancelled = true;
+            if (this.timeout != null) {
+                this.timeout.cancel();
+            }
+        }
+    }
+}
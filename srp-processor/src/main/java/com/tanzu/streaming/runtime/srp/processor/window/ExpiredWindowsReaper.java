@@ -0,0 +1,109 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Expires the windows that ended more than the allowed lateness plus the window TTL ago, in processing time.
+ *
+ * The watermark only advances with new messages, so without input the completed windows would stay in the state.
+ * E.g. after a long downtime, a persistent state restores windows that are far behind the allowed lateness. The
+ * reaper checks the windows on start and then periodically, and releases the expired windows as late events or drops
+ * them.
+ *
+ * The TTL must be larger than the event time lag of the input (e.g. when reprocessing old events), otherwise windows
+ * still in use are expired.
+ */
+public class ExpiredWindowsReaper implements AutoCloseable {
+
+    private static final Log logger = LogFactory.getLog(ExpiredWindowsReaper.class);
+
+    private static final Duration MAX_CHECK_INTERVAL = Duration.ofMinutes(1);
+
+    private static final Duration MIN_CHECK_INTERVAL = Duration.ofSeconds(1);
+
+    private final TumblingWindowService tumblingWindowService;
+
+    private final Duration windowTtl;
+
+    private final Duration allowedLateness;
+
+    private final boolean emitExpired;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param windowTtl time after the end of the allowed lateness after which a window expires.
+     * @param emitExpired if true the expired windows are released as late events, otherwise dropped.
+     */
+    public ExpiredWindowsReaper(TumblingWindowService tumblingWindowService, Duration windowTtl,
+            Duration allowedLateness, boolean emitExpired) {
+        this.tumblingWindowService = tumblingWindowService;
+        this.windowTtl = windowTtl;
+        this.allowedLateness = (allowedLateness != null) ? allowedLateness : Duration.ZERO;
+        this.emitExpired = emitExpired;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("srp-expired-windows-"));
+    }
+
+    /**
+     * Expires the windows now and then every half TTL, between 1 second and 1 minute.
+     */
+    @PostConstruct
+    public void start() {
+        Duration checkInterval = this.windowTtl.dividedBy(2);
+        if (checkInterval.compareTo(MAX_CHECK_INTERVAL) > 0) {
+            checkInterval = MAX_CHECK_INTERVAL;
+        }
+        if (checkInterval.compareTo(MIN_CHECK_INTERVAL) < 0) {
+            checkInterval = MIN_CHECK_INTERVAL;
+        }
+        logger.info("Expire the windows older than: " + this.windowTtl + " after the allowed lateness, check every: "
+                + checkInterval + ", emit expired: " + this.emitExpired);
+        this.scheduler.scheduleWithFixedDelay(this::expireWindows, 0, checkInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void expireWindows() {
+        try {
+            long maxWindowEndNs = Duration.ofMillis(System.currentTimeMillis()).minus(this.allowedLateness)
+                    .minus(this.windowTtl).toNanos();
+            this.tumblingWindowService.expireWindows(maxWindowEndNs, this.emitExpired);
+        }
+        catch (Exception e) {
+            // Keep the schedule running.
+            logger.error("Failed to expire the windows", e);
+        }
+    }
+
+    @Override
+    @PreDestroy
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+}
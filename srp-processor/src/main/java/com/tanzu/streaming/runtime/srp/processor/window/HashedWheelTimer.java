@@ -0,0 +1,340 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.util.Assert;
+
+/**
+ * Processing-time timer service backed by a hashed timer wheel. Used for the idle-window timeouts and the
+ * processing-time window triggers.
+ *
+ * The wheel is a ring of buckets, each covering one tick. A timer is hashed into the bucket of its deadline tick and
+ * keeps the number of full wheel rotations left. Scheduling and cancelling are O(1). Every tick the timer thread
+ * expires all due timers of the current bucket in one pass. The timer precision is one tick.
+ *
+ * New timers and cancellations are handed to the timer thread through lock-free queues, so only the timer thread
+ * touches the buckets. The timer tasks are run on the timer thread and should be short, or hand off their work.
+ *
+ * @see <a href="http://www.cs.columbia.edu/~nahum/w6998/papers/sosp87-timing-wheels.pdf">Hashed and Hierarchical
+ *      Timing Wheels</a>
+ */
+public class HashedWheelTimer implements AutoCloseable {
+
+    private static final Log logger = LogFactory.getLog(HashedWheelTimer.class);
+
+    /**
+     * Upper bound of new timers moved into the wheel per tick. Keeps a burst of new timers from delaying the tick.
+     */
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private static final int INIT = 0, STARTED = 1, STOPPED = 2;
+
+    private final long tickDurationNs;
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger state = new AtomicInteger(INIT);
+
+    private final Thread timerThread;
+
+    /**
+     * Origin of the timer deadlines and ticks.
+     */
+    private final long startTimeNs;
+
+    /**
+     * Current tick. Accessed by the timer thread only.
+     */
+    private long tick;
+
+    /**
+     * @param name timer thread name.
+     * @param tickDuration wheel tick (e.g. timer precision).
+     * @param ticksPerWheel number of buckets, rounded up to a power of two.
+     */
+    public HashedWheelTimer(String name, Duration tickDuration, int ticksPerWheel) {
+        Assert.isTrue(!tickDuration.isNegative() && !tickDuration.isZero(), "The tick duration must be positive!");
+        Assert.isTrue(ticksPerWheel > 0 && ticksPerWheel <= (1 << 30), "Invalid ticksPerWheel: " + ticksPerWheel);
+
+        int wheelSize = Integer.highestOneBit(ticksPerWheel);
+        if (wheelSize < ticksPerWheel) {
+            wheelSize <<= 1;
+        }
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            this.wheel[i] = new Bucket();
+        }
+        this.mask = wheelSize - 1;
+        this.tickDurationNs = tickDuration.toNanos();
+        this.startTimeNs = System.nanoTime();
+
+        this.timerThread = new Thread(this::run, name);
+        this.timerThread.setDaemon(true);
+    }
+
+    public void start() {
+        if (this.state.compareAndSet(INIT, STARTED)) {
+            this.timerThread.start();
+        }
+    }
+
+    /**
+     * Schedules the task to run once after the delay. Starts the timer if not started yet.
+     *
+     * @return Returns the handle to cancel the timer.
+     */
+    public Timeout newTimeout(Runnable task, Duration delay) {
+        Assert.notNull(task, "Null timer task!");
+        this.start();
+        Assert.state(this.state.get() == STARTED, "The timer is stopped!");
+
+        long deadlineNs = System.nanoTime() - this.startTimeNs + Math.max(0, delay.toNanos());
+        Timeout timeout = new Timeout(this, task, deadlineNs);
+        this.newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the timer thread. Pending timers are discarded.
+     */
+    @Override
+    public void close() {
+        if (this.state.getAndSet(STOPPED) == STARTED) {
+            this.timerThread.interrupt();
+            try {
+                this.timerThread.join(TimeUnit.SECONDS.toMillis(1));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        while (this.state.get() == STARTED) {
+            if (!this.waitForNextTick()) {
+                continue;
+            }
+            this.removeCancelledTimeouts();
+            this.transferNewTimeouts();
+            this.wheel[(int) (this.tick & this.mask)].expireTimeouts();
+            this.tick++;
+        }
+    }
+
+    /**
+     * Sleeps until the end of the current tick.
+     *
+     * @return Returns false if the timer was stopped while waiting.
+     */
+    private boolean waitForNextTick() {
+        long tickDeadlineNs = this.tickDurationNs * (this.tick + 1);
+        while (true) {
+            long sleepNs = tickDeadlineNs - (System.nanoTime() - this.startTimeNs);
+            if (sleepNs <= 0) {
+                return true;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNs);
+            }
+            catch (InterruptedException e) {
+                if (this.state.get() != STARTED) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private void transferNewTimeouts() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = this.newTimeouts.poll();
+            if (timeout == null) {
+                break;
+            }
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            long deadlineTick = timeout.deadlineNs / this.tickDurationNs;
+            timeout.remainingRounds = (deadlineTick - this.tick) / this.wheel.length;
+            // Timers already due go to the current bucket.
+            long ticks = Math.max(deadlineTick, this.tick);
+            this.wheel[(int) (ticks & this.mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelledTimeouts() {
+        Timeout timeout;
+        while ((timeout = this.cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * @return Returns the number of timers not yet expired or cancelled.
+     */
+    public int pendingTimeouts() {
+        int pending = this.newTimeouts.size();
+        for (Bucket bucket : this.wheel) {
+            pending += bucket.size;
+        }
+        return pending;
+    }
+
+    /**
+     * Handle of a scheduled timer task.
+     */
+    public static final class Timeout {
+
+        private static final int ST_PENDING = 0, ST_CANCELLED = 1, ST_EXPIRED = 2;
+
+        private final HashedWheelTimer timer;
+
+        private final Runnable task;
+
+        private final long deadlineNs;
+
+        private final AtomicInteger status = new AtomicInteger(ST_PENDING);
+
+        // Bucket linked list. Accessed by the timer thread only.
+        private long remainingRounds;
+
+        private Bucket bucket;
+
+        private Timeout next;
+
+        private Timeout prev;
+
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadlineNs) {
+            this.timer = timer;
+            this.task = task;
+            this.deadlineNs = deadlineNs;
+        }
+
+        /**
+         * @return Returns true if the timer was cancelled before it expired.
+         */
+        public boolean cancel() {
+            if (!this.status.compareAndSet(ST_PENDING, ST_CANCELLED)) {
+                return false;
+            }
+            this.timer.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return this.status.get() == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return this.status.get() == ST_EXPIRED;
+        }
+
+        private void expire() {
+            if (!this.status.compareAndSet(ST_PENDING, ST_EXPIRED)) {
+                return;
+            }
+            try {
+                this.task.run();
+            }
+            catch (RuntimeException e) {
+                logger.error("Timer task failed", e);
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of the timers hashed to one tick. Accessed by the timer thread only.
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+
+        private Timeout tail;
+
+        private volatile int size;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (this.head == null) {
+                this.head = this.tail = timeout;
+            }
+            else {
+                this.tail.next = timeout;
+                timeout.prev = this.tail;
+                this.tail = timeout;
+            }
+            this.size++;
+        }
+
+        void expireTimeouts() {
+            Timeout timeout = this.head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    this.remove(timeout);
+                    timeout.expire();
+                }
+                else if (timeout.isCancelled()) {
+                    this.remove(timeout);
+                }
+                else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = timeout.prev;
+            }
+            if (timeout == this.head) {
+                this.head = next;
+            }
+            if (timeout == this.tail) {
+                this.tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            this.size--;
+        }
+    }
+}
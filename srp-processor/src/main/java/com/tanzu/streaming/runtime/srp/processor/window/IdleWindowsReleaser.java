@@ -16,102 +16,118 @@
 package com.tanzu.streaming.runtime.srp.processor.window;
 
 import java.time.Duration;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.Delayed;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-public class IdleWindowsReleaser implements Runnable {
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Partially releases the windows that are still open idleTimeoutInterval after they have been opened (e.g. because no
+ * new events advance the watermark).
+ *
+ * Every open window has its own idle timer in a {@link HashedWheelTimer}. The timer is armed when the window is opened
+ * and cancelled when the window is released, so any number of idle windows are released as soon as their own timeout
+ * expires. The releases run on a dedicated thread to keep the timer ticks accurate.
+ *
+ * The timers are keyed by window id. With multiple window workers, the {@link PartitionedWindowProcessor} reference
+ * counts the window ids shared by the workers, so a timer is cancelled only once every worker closed the window.
+ */
+public class IdleWindowsReleaser implements WindowLifecycleListener, AutoCloseable {
 
     private static final Log logger = LogFactory.getLog(IdleWindowsReleaser.class);
 
-    private BlockingQueue<IdleWindowHolder> queue;
-    private TumblingWindowService tumblingWindowService;
-    private Duration idleTimeoutInterval;
-    private boolean exitFlag = false;
+    private static final Duration MAX_TICK_DURATION = Duration.ofMillis(100);
+
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private final TumblingWindowService tumblingWindowService;
+
+    private final Duration idleTimeoutInterval;
 
+    private final HashedWheelTimer timer;
+
+    private final ExecutorService releaseExecutor;
+
+    private final ConcurrentHashMap<Long, HashedWheelTimer.Timeout> idleTimeouts = new ConcurrentHashMap<>();
+
+    /**
+     * @param idleTimeoutInterval idle timeout. If null, the idle windows are not released.
+     */
     public IdleWindowsReleaser(TumblingWindowService tumblingWindowService, Duration idleTimeoutInterval) {
-        this.queue = new DelayQueue<>();
         this.tumblingWindowService = tumblingWindowService;
         this.idleTimeoutInterval = idleTimeoutInterval;
-        this.add(new IdleWindowHolder(-1, this.idleTimeoutInterval));
+        this.timer = new HashedWheelTimer("srp-idle-windows-timer", tickDuration(idleTimeoutInterval),
+                TICKS_PER_WHEEL);
+        this.releaseExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("srp-idle-release-"));
     }
 
-    private void add(IdleWindowHolder idleWindowHolder) {
-        this.queue.add(idleWindowHolder);
-    }
-
-    @Override
-    public void run() {
-        while (!exitFlag || !queue.isEmpty()) {
-            try {
-                IdleWindowHolder idleWindowHolder = this.queue.take();
-                if (idleWindowHolder.getTimeWindowId() > 0) {
-                    logger.info(
-                            ">> FIRE IDLE WINDOW: " + idleWindowHolder.getTimeWindowId()
-                                    + ", attempt partial release...");
-                    this.tumblingWindowService.releaseWindow(idleWindowHolder.getTimeWindowId(),
-                            AbstractTumblingWindowEventProcessor.REMOVE_WINDOW,
-                            AbstractTumblingWindowEventProcessor.IS_PARTIAL_RELEASE, false);
-                }
-
-                long oldestWindowId = this.tumblingWindowService.getOldestWindowId();
-                this.add(new IdleWindowHolder(oldestWindowId, this.idleTimeoutInterval));
-                if (oldestWindowId > 0) {
-                    logger.info(">> ADD TO IDLE WINDOW: " + oldestWindowId);
-                }
-            }
-            catch (InterruptedException e) {
-                e.printStackTrace();
-                this.add(new IdleWindowHolder(-1, this.idleTimeoutInterval));
-            }
+    /**
+     * The tick is the timer precision: at most 1/16 of the idle timeout.
+     */
+    private static Duration tickDuration(Duration idleTimeoutInterval) {
+        if (idleTimeoutInterval == null || idleTimeoutInterval.dividedBy(16).compareTo(MAX_TICK_DURATION) >= 0) {
+            return MAX_TICK_DURATION;
         }
+        return Duration.ofMillis(Math.max(1, idleTimeoutInterval.dividedBy(16).toMillis()));
     }
 
-    public void stopIdleReleaser() {
-        this.exitFlag = true;
+    /**
+     * Starts the timer and arms the idle timers of all open windows.
+     */
+    public void start() {
+        if (this.idleTimeoutInterval == null) {
+            logger.info("No idle window timeout is configured. Idle windows release is disabled.");
+            return;
+        }
+        this.timer.start();
+        this.tumblingWindowService.addWindowLifecycleListener(this);
     }
 
-    public BlockingQueue<IdleWindowHolder> getQueue() {
-        return queue;
+    @Override
+    public void onWindowOpened(long windowId) {
+        this.idleTimeouts.computeIfAbsent(windowId,
+                id -> this.timer.newTimeout(() -> this.fireIdleWindow(id), this.idleTimeoutInterval));
     }
 
-    static class IdleWindowHolder implements Delayed {
-
-        private final long timeWindowId;
-        private final long startTime;
-
-        public IdleWindowHolder(long timeWindowId, Duration delay) {
-            this.timeWindowId = timeWindowId;
-            this.startTime = System.currentTimeMillis() + delay.toMillis();
+    @Override
+    public void onWindowClosed(long windowId) {
+        HashedWheelTimer.Timeout timeout = this.idleTimeouts.remove(windowId);
+        if (timeout != null) {
+            timeout.cancel();
         }
+    }
 
-        @Override
-        public int compareTo(Delayed o) {
-            return saturatedCast(this.startTime - ((IdleWindowHolder) o).startTime);
+    private void fireIdleWindow(long windowId) {
+        if (this.idleTimeouts.remove(windowId) == null) {
+            return;
         }
+        this.releaseExecutor.execute(() -> {
+            logger.info(">> FIRE IDLE WINDOW: " + windowId + ", attempt partial release...");
+            this.tumblingWindowService.releaseWindow(windowId,
+                    AbstractTumblingWindowEventProcessor.REMOVE_WINDOW,
+                    AbstractTumblingWindowEventProcessor.IS_PARTIAL_RELEASE, false);
+        });
+    }
 
-        public static int saturatedCast(long value) {
-            if (value > Integer.MAX_VALUE) {
-                return Integer.MAX_VALUE;
-            }
-            if (value < Integer.MIN_VALUE) {
-                return Integer.MIN_VALUE;
-            }
-            return (int) value;
-        }
+    /**
+     * @return Returns the number of windows with an armed idle timer.
+     */
+    public int getIdleTimeoutCount() {
+        return this.idleTimeouts.size();
+    }
 
-        @Override
-        public long getDelay(TimeUnit unit) {
-            long diff = startTime - System.currentTimeMillis();
-            return unit.convert(diff, TimeUnit.MILLISECONDS);
-        }
+    public void stopIdleReleaser() {
+        this.timer.close();
+        this.idleTimeouts.clear();
+        this.releaseExecutor.shutdown();
+    }
 
-        public long getTimeWindowId() {
-            return timeWindowId;
-        }
+    @Override
+    public void close() {
+        this.stopIdleReleaser();
     }
 }
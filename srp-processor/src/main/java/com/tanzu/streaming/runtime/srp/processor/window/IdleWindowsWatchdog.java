@@ -16,41 +16,30 @@
 package com.tanzu.streaming.runtime.srp.processor.window;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
+/**
+ * Starts and stops the idle windows releaser together with the application context.
+ */
 public class IdleWindowsWatchdog implements AutoCloseable {
 
-    private final ExecutorService executor;
-
     private final IdleWindowsReleaser idleWindowsReleaser;
 
     public IdleWindowsWatchdog(IdleWindowsReleaser idleWindowsReleaser) {
         this.idleWindowsReleaser = idleWindowsReleaser;
-        this.executor = Executors.newFixedThreadPool(2);
     }
 
     @PostConstruct
     public void initialize() {
-        Future<?> feature = this.executor.submit(this.idleWindowsReleaser);
+        this.idleWindowsReleaser.start();
     }
 
     @Override
     @PreDestroy
     public void close() throws IOException {
         this.idleWindowsReleaser.stopIdleReleaser();
-        try {
-            this.executor.awaitTermination(1, TimeUnit.SECONDS);
-        }
-        catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        this.executor.shutdown();
     }
 
 }
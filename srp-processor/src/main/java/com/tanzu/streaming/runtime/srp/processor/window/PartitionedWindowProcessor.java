@@ -0,0 +1,399 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ToIntFunction;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.tanzu.streaming.runtime.srp.processor.EventTimeProcessor;
+import com.tanzu.streaming.runtime.srp.processor.window.state.State;
+import com.tanzu.streaming.runtime.srp.processor.window.state.StateEntry;
+import com.tanzu.streaming.runtime.srp.watermark.WatermarkService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.Assert;
+
+/**
+ * Spreads the window processing over multiple single-writer workers. Every worker owns a window processor, with its
+ * own state, window index and watermark, and a thread that consumes a bounded lock-free task queue.
+ *
+ * The consumer thread only selects the worker (e.g. by input partition or by key hash) and enqueues the message, so a
+ * slow window release stalls only the messages of the same worker. Messages of the same shard are processed in
+ * arrival order. When the worker queue is full the consumer thread waits, which applies backpressure to the binder.
+ *
+ * A worker stops at the first failed task and the failure is rethrown to the consumer thread by the next message
+ * handed to the worker, which fails the binding instead of dropping the window updates.
+ *
+ * Note that the worker watermarks are computed only from the messages of the worker's shard.
+ */
+public class PartitionedWindowProcessor implements EventTimeProcessor, TumblingWindowService, AutoCloseable {
+
+    private static final Log logger = LogFactory.getLog(PartitionedWindowProcessor.class);
+
+    private static final long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final long BACKPRESSURE_PARK_NS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Worker[] workers;
+
+    private final ToIntFunction<Message<byte[]>> shardFunction;
+
+    /**
+     * @param workerProcessors one window processor per worker.
+     * @param workerStates the worker window states, closed together with the workers.
+     * @param shardFunction computes the message shard (e.g. partition or key hash). The worker is selected by the shard
+     *        modulo the number of workers.
+     * @param queueCapacity capacity of every worker queue.
+     */
+    public PartitionedWindowProcessor(List<? extends AbstractTumblingWindowEventProcessor> workerProcessors,
+            List<State> workerStates, ToIntFunction<Message<byte[]>> shardFunction, int queueCapacity) {
+
+        Assert.notEmpty(workerProcessors, "At least one worker is required!");
+        Assert.isTrue(workerStates.size() == workerProcessors.size(), "Every worker must have a state!");
+
+        this.shardFunction = shardFunction;
+        this.workers = new Worker[workerProcessors.size()];
+        for (int i = 0; i < this.workers.length; i++) {
+            Worker worker = new Worker(i, workerProcessors.get(i), workerStates.get(i), queueCapacity);
+            // The processing-time early firings must run on the worker thread too.
+            worker.processor.setEarlyFiringExecutor(worker::submit);
+            this.workers[i] = worker;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        for (Worker worker : this.workers) {
+            worker.thread.start();
+        }
+    }
+
+    @Override
+    public void onNewMessage(Message<byte[]> message) {
+        Worker worker = this.workers[Math.floorMod(this.shardFunction.applyAsInt(message), this.workers.length)];
+        worker.submit(() -> worker.processor.onNewMessage(message));
+    }
+
+    /**
+     * Splits the batch by worker and hands every worker its sub-batch as a single task, so the worker state commits
+     * one write batch per consumer batch.
+     */
+    @Override
+    public void onNewMessages(List<Message<byte[]>> messages) {
+        List<List<Message<byte[]>>> workerBatches = new ArrayList<>(this.workers.length);
+        for (int i = 0; i < this.workers.length; i++) {
+            workerBatches.add(new ArrayList<>());
+        }
+        for (Message<byte[]> message : messages) {
+            workerBatches.get(Math.floorMod(this.shardFunction.applyAsInt(message), this.workers.length))
+                    .add(message);
+        }
+        for (int i = 0; i < this.workers.length; i++) {
+            List<Message<byte[]>> workerBatch = workerBatches.get(i);
+            if (!workerBatch.isEmpty()) {
+                Worker worker = this.workers[i];
+                worker.submit(() -> worker.processor.onNewMessages(workerBatch));
+            }
+        }
+    }
+
+    /**
+     * A heartbeat has no key, so it is handed to every worker. Workers not reading the heartbeat's partition only hold
+     * their watermark back to it.
+     */
+    @Override
+    public void onWatermarkHeartbeat(Message<byte[]> heartbeat) {
+        for (Worker worker : this.workers) {
+            worker.submit(() -> worker.processor.onWatermarkHeartbeat(heartbeat));
+        }
+    }
+
+    /**
+     * @return Returns the minimum output watermark of the workers, Long.MIN_VALUE until every worker has sent the
+     *         windows of a watermark. The windows queued on a worker are not passed.
+     */
+    @Override
+    public long getOutputWatermarkMs() {
+        long watermarkMs = Long.MAX_VALUE;
+        for (Worker worker : this.workers) {
+            watermarkMs = Math.min(watermarkMs, worker.processor.getOutputWatermarkMs());
+        }
+        return watermarkMs;
+    }
+
+    /**
+     * Every worker tracks the watermark of its own shard.
+     *
+     * @return Returns the watermark service of the first worker.
+     */
+    @Override
+    public WatermarkService getWatermarkService() {
+        return this.workers[0].processor.getWatermarkService();
+    }
+
+    /**
+     * Idle windows release. The window id is not tied to a single worker, so the release is handed to every worker
+     * that holds the window, on the worker's own thread.
+     */
+    @Override
+    public void releaseWindow(long windowStartTimeNs, boolean removeWindow, boolean isPartial,
+            boolean isLateEventResend) {
+        for (Worker worker : this.workers) {
+            if (worker.processor.getWindowIndex().contains(windowStartTimeNs)) {
+                worker.submit(() -> worker.processor.releaseWindow(windowStartTimeNs, removeWindow, isPartial,
+                        isLateEventResend));
+            }
+        }
+    }
+
+    /**
+     * Every worker expires its own windows, on the worker's own thread.
+     */
+    @Override
+    public void expireWindows(long maxWindowEndNs, boolean emitExpired) {
+        for (Worker worker : this.workers) {
+            worker.submit(() -> worker.processor.expireWindows(maxWindowEndNs, emitExpired));
+        }
+    }
+
+    @Override
+    public long getOldestWindowId() {
+        long oldestWindowId = WindowIndex.NO_WINDOW;
+        for (Worker worker : this.workers) {
+            long workerOldestWindowId = worker.processor.getOldestWindowId();
+            if (workerOldestWindowId != WindowIndex.NO_WINDOW
+                    && (oldestWindowId == WindowIndex.NO_WINDOW || workerOldestWindowId < oldestWindowId)) {
+                oldestWindowId = workerOldestWindowId;
+            }
+        }
+        return oldestWindowId;
+    }
+
+    @Override
+    public List<MessageBuilder<?>> computeWindowAggregate(Duration windowStartTime, Duration windowEndTime,
+            StateEntry windowAggregate, boolean isPartial) {
+        return this.workers[0].processor.computeWindowAggregate(windowStartTime, windowEndTime, windowAggregate,
+                isPartial);
+    }
+
+    @Override
+    public void send(Duration aggregateEventTime, Duration outputWatermark, MessageBuilder<?> messageBuilder) {
+        this.workers[0].processor.send(aggregateEventTime, outputWatermark, messageBuilder);
+    }
+
+    @Override
+    public void handleLateEvent(Duration aggregateEventTime, Duration outputWatermark,
+            MessageBuilder<?> messageBuilder) {
+        this.workers[0].processor.handleLateEvent(aggregateEventTime, outputWatermark, messageBuilder);
+    }
+
+    /**
+     * The workers share the window ids, so the listener is registered with every worker through a single reference
+     * counting listener. The window is opened by the first worker that opens it and closed by the last worker that
+     * closes it, e.g. a worker releasing its window doesn't cancel the idle timer of the other workers' window.
+     */
+    @Override
+    public void addWindowLifecycleListener(WindowLifecycleListener listener) {
+        WindowLifecycleListener sharedWindowListener = new SharedWindowListener(listener);
+        for (Worker worker : this.workers) {
+            worker.processor.addWindowLifecycleListener(sharedWindowListener);
+        }
+    }
+
+    public int getWorkerCount() {
+        return this.workers.length;
+    }
+
+    /**
+     * Drains the pending worker tasks, waits for the worker threads to end and then closes the worker processors and
+     * states.
+     *
+     * @throws IllegalStateException if a worker or its window releases failed.
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        for (Worker worker : this.workers) {
+            worker.running = false;
+            worker.thread.interrupt();
+        }
+        boolean interrupted = false;
+        for (Worker worker : this.workers) {
+            // The processor and the state must not be closed while the worker may still write them.
+            while (worker.thread.isAlive()) {
+                try {
+                    worker.thread.join();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            try {
+                worker.processor.close();
+            }
+            catch (RuntimeException e) {
+                // e.g. a failed window release. Surfaced once all the workers are closed.
+                if (worker.failure == null) {
+                    worker.failure = e;
+                }
+            }
+            if (worker.state instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) worker.state).close();
+                }
+                catch (Exception e) {
+                    logger.error("Failed to close the state of " + worker.thread.getName(), e);
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        for (Worker worker : this.workers) {
+            worker.checkFailure();
+        }
+    }
+
+    private static class SharedWindowListener implements WindowLifecycleListener {
+
+        private final WindowLifecycleListener listener;
+
+        /**
+         * Number of workers holding the window.
+         */
+        private final ConcurrentHashMap<Long, Integer> windowReferences = new ConcurrentHashMap<>();
+
+        SharedWindowListener(WindowLifecycleListener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * The listener is notified within the reference update, so the opening and closing of a window, by different
+         * workers, reach it in order.
+         */
+        @Override
+        public void onWindowOpened(long windowId) {
+            this.windowReferences.compute(windowId, (id, references) -> {
+                if (references == null) {
+                    this.listener.onWindowOpened(id);
+                    return 1;
+                }
+                return references + 1;
+            });
+        }
+
+        @Override
+        public void onWindowClosed(long windowId) {
+            this.windowReferences.computeIfPresent(windowId, (id, references) -> {
+                if (references > 1) {
+                    return references - 1;
+                }
+                this.listener.onWindowClosed(id);
+                return null;
+            });
+        }
+    }
+
+    private static class Worker implements Runnable {
+
+        private final AbstractTumblingWindowEventProcessor processor;
+
+        private final State state;
+
+        private final BoundedTaskQueue<Runnable> queue;
+
+        private final Thread thread;
+
+        private volatile boolean running = true;
+
+        private volatile boolean parked = false;
+
+        private volatile RuntimeException failure;
+
+        Worker(int workerId, AbstractTumblingWindowEventProcessor processor, State state, int queueCapacity) {
+            this.processor = processor;
+            this.state = state;
+            this.queue = new BoundedTaskQueue<>(queueCapacity);
+            this.thread = new Thread(this, "srp-window-worker-" + workerId);
+        }
+
+        /**
+         * @throws IllegalStateException if the worker failed, so the failure reaches the binding.
+         */
+        void submit(Runnable task) {
+            this.checkFailure();
+            while (!this.queue.offer(task)) {
+                this.checkFailure();
+                // Queue is full: hold the producer until the worker catches up.
+                LockSupport.unpark(this.thread);
+                LockSupport.parkNanos(BACKPRESSURE_PARK_NS);
+            }
+            if (this.parked) {
+                LockSupport.unpark(this.thread);
+            }
+        }
+
+        void checkFailure() {
+            RuntimeException failure = this.failure;
+            if (failure != null) {
+                throw new IllegalStateException(this.thread.getName() + " failed", failure);
+            }
+        }
+
+        /**
+         * Stops at the first task failure: the failed and the pending tasks are not processed and the failure is
+         * rethrown to the next submit or close.
+         */
+        @Override
+        public void run() {
+            while (this.running || !this.queue.isEmpty()) {
+                // The close interrupt only wakes the worker. Clear it, so the interruptible state channels are not
+                // closed under the draining tasks.
+                Thread.interrupted();
+                Runnable task = this.queue.poll();
+                if (task == null) {
+                    this.parked = true;
+                    // Re-check after announcing the park, so a concurrent submit either is seen or unparks us.
+                    if (this.running && this.queue.isEmpty()) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NS);
+                    }
+                    this.parked = false;
+                    continue;
+                }
+                try {
+                    task.run();
+                }
+                catch (RuntimeException e) {
+                    logger.error(this.thread.getName() + " failed to process task", e);
+                    this.failure = e;
+                    this.running = false;
+                    return;
+                }
+            }
+        }
+    }
+}
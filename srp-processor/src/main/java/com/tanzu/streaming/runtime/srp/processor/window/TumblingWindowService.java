@@ -50,4 +50,19 @@ public interface TumblingWindowService {
         void releaseWindow(long windowStartTimeNs, boolean removeWindow, boolean isPartial, boolean isLateEventResend);
 
         long getOldestWindowId();
+
+        /**
+         * Removes the windows that ended at or before the given time, e.g. windows left over by a long downtime.
+         *
+         * @param maxWindowEndNs the windows ending at or before this time are expired.
+         * @param emitExpired if true the expired windows are released as late events, otherwise they are dropped
+         *        without being aggregated.
+         */
+        void expireWindows(long maxWindowEndNs, boolean emitExpired);
+
+        /**
+         * Registers a listener for the window open and close events. The listener is immediately notified about the
+         * already open windows (e.g. restored from a persistent state).
+         */
+        void addWindowLifecycleListener(WindowLifecycleListener listener);
 }
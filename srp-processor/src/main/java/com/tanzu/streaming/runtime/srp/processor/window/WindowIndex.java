@@ -0,0 +1,184 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Sorted set of the open window ids (e.g. window start timestamps), kept as primitive longs next to the window State.
+ *
+ * The ids are stored in ascending order in the [head, head + size) range of a growable array. Windows are (mostly)
+ * created in increasing time order and released from the oldest, so the common add and remove operations touch only
+ * the ends of the range and are O(1). Out-of-order ids fall back to a binary search and an array shift.
+ *
+ * The index is shared by the consumer and the idle-windows releaser threads, therefore all operations are
+ * synchronized.
+ */
+public class WindowIndex {
+
+    public static final long NO_WINDOW = -1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] windows = new long[INITIAL_CAPACITY];
+
+    private int head = 0;
+
+    private int size = 0;
+
+    /**
+     * @param windowId window id to add.
+     * @return true if the id was not already present.
+     */
+    public synchronized boolean add(long windowId) {
+        if (this.size == 0 || windowId > this.windows[this.head + this.size - 1]) {
+            // Fast path: a window newer than all open windows.
+            this.ensureTailCapacity();
+            this.windows[this.head + this.size] = windowId;
+            this.size++;
+            return true;
+        }
+
+        int position = Arrays.binarySearch(this.windows, this.head, this.head + this.size, windowId);
+        if (position >= 0) {
+            return false;
+        }
+
+        this.ensureTailCapacity();
+        // ensureTailCapacity can compact the array, so compute the insertion point after it.
+        int insertionPoint = -(Arrays.binarySearch(this.windows, this.head, this.head + this.size, windowId) + 1);
+        System.arraycopy(this.windows, insertionPoint, this.windows, insertionPoint + 1,
+                this.head + this.size - insertionPoint);
+        this.windows[insertionPoint] = windowId;
+        this.size++;
+        return true;
+    }
+
+    public synchronized void addAll(Collection<Long> windowIds) {
+        for (long windowId : windowIds) {
+            this.add(windowId);
+        }
+    }
+
+    /**
+     * @param windowId window id to remove.
+     * @return true if the id was present.
+     */
+    public synchronized boolean remove(long windowId) {
+        if (this.size == 0) {
+            return false;
+        }
+
+        if (this.windows[this.head] == windowId) {
+            // Fast path: releasing the oldest window.
+            this.head++;
+            this.size--;
+            if (this.size == 0) {
+                this.head = 0;
+            }
+            return true;
+        }
+
+        int position = Arrays.binarySearch(this.windows, this.head, this.head + this.size, windowId);
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(this.windows, position + 1, this.windows, position, this.head + this.size - position - 1);
+        this.size--;
+        return true;
+    }
+
+    public synchronized boolean contains(long windowId) {
+        return this.size > 0 && Arrays.binarySearch(this.windows, this.head, this.head + this.size, windowId) >= 0;
+    }
+
+    /**
+     * @return Returns the oldest (smallest) window id or {@link #NO_WINDOW} if the index is empty.
+     */
+    public synchronized long first() {
+        return (this.size > 0) ? this.windows[this.head] : NO_WINDOW;
+    }
+
+    /**
+     * @param maxWindowId inclusive upper bound.
+     * @return Returns a snapshot, in ascending order, of all window ids lower or equal to the maxWindowId.
+     */
+    public synchronized long[] headTo(long maxWindowId) {
+        int end = this.head;
+        int limit = this.head + this.size;
+        while (end < limit && this.windows[end] <= maxWindowId) {
+            end++;
+        }
+        return Arrays.copyOfRange(this.windows, this.head, end);
+    }
+
+    /**
+     * @param fromWindowId inclusive lower bound.
+     * @param toWindowId inclusive upper bound.
+     * @return Returns a snapshot, in ascending order, of the window ids in the [fromWindowId, toWindowId] range.
+     */
+    public synchronized long[] range(long fromWindowId, long toWindowId) {
+        int limit = this.head + this.size;
+        int from = this.lowerBound(fromWindowId);
+        int to = from;
+        while (to < limit && this.windows[to] <= toWindowId) {
+            to++;
+        }
+        return Arrays.copyOfRange(this.windows, from, to);
+    }
+
+    /**
+     * @param windowId lower bound.
+     * @return Returns the smallest window id greater or equal to the windowId or {@link #NO_WINDOW} if there is none.
+     */
+    public synchronized long ceiling(long windowId) {
+        int position = this.lowerBound(windowId);
+        return (position < this.head + this.size) ? this.windows[position] : NO_WINDOW;
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @return Returns the position of the first window id greater or equal to the windowId.
+     */
+    private int lowerBound(long windowId) {
+        int position = Arrays.binarySearch(this.windows, this.head, this.head + this.size, windowId);
+        return (position >= 0) ? position : -(position + 1);
+    }
+
+    private void ensureTailCapacity() {
+        if (this.head + this.size < this.windows.length) {
+            return;
+        }
+        if (this.head > 0 && this.size < this.windows.length / 2) {
+            // Reuse the space freed by the released (oldest) windows.
+            System.arraycopy(this.windows, this.head, this.windows, 0, this.size);
+        }
+        else {
+            long[] newWindows = new long[this.windows.length * 2];
+            System.arraycopy(this.windows, this.head, newWindows, 0, this.size);
+            this.windows = newWindows;
+        }
+        this.head = 0;
+    }
+}
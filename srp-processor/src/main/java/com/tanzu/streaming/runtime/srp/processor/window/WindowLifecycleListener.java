@@ -0,0 +1,35 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window;
+
+/**
+ * Notified when windows are added to or removed from the window index of a processor. Used to arm and cancel the
+ * per-window timers.
+ *
+ * The callbacks are invoked on the thread that opens or closes the window and must not block.
+ */
+public interface WindowLifecycleListener {
+
+    /**
+     * @param windowId id (e.g. start time) of the new window.
+     */
+    void onWindowOpened(long windowId);
+
+    /**
+     * @param windowId id of the released (or merged) window.
+     */
+    void onWindowClosed(long windowId);
+}
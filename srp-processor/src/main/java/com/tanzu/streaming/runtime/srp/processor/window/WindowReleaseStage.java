@@ -0,0 +1,233 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Bounded asynchronous stage for the window releases. The window aggregates (e.g. the UDF calls) are computed
+ * concurrently on the stage threads, while the results are sent strictly in submission order. The output order is the
+ * same as with synchronous releases.
+ *
+ * The stage holds at most capacity releases, either computing or waiting for their turn to be sent. When it is full,
+ * submit blocks the caller (e.g. the ingest thread) until a release completes.
+ *
+ * The released windows are already removed from the state, so a release that fails to compute or send is not lost
+ * silently: the first failure is rethrown to the caller thread by the next submit, checkFailure or close.
+ */
+public class WindowReleaseStage implements AutoCloseable {
+
+    private static final Log logger = LogFactory.getLog(WindowReleaseStage.class);
+
+    private final ExecutorService executor;
+
+    private final Semaphore permits;
+
+    private final int capacity;
+
+    /**
+     * Releases in submission order. Guarded by itself.
+     */
+    private final Deque<PendingRelease<?>> pendingReleases = new ArrayDeque<>();
+
+    /**
+     * First failed release, if any.
+     */
+    private volatile RuntimeException failure;
+
+    /**
+     * Highest watermark whose releases have all been sent. Written holding the pendingReleases lock.
+     */
+    private volatile long publishedWatermarkMs = Long.MIN_VALUE;
+
+    /**
+     * @param name stage name, used as the thread name prefix.
+     * @param concurrency number of releases computed concurrently.
+     * @param capacity maximum number of releases in the stage.
+     */
+    public WindowReleaseStage(String name, int concurrency, int capacity) {
+        Assert.isTrue(concurrency > 0, "The release concurrency must be positive!");
+        Assert.isTrue(capacity >= concurrency, "The release capacity must not be smaller than the concurrency!");
+        this.executor = Executors.newFixedThreadPool(concurrency,
+                new CustomizableThreadFactory(name + "-release-"));
+        this.capacity = capacity;
+        this.permits = new Semaphore(capacity);
+    }
+
+    /**
+     * Computes the release asynchronously and passes the result to the output once all previously submitted releases
+     * have been sent. Blocks while the stage is full.
+     *
+     * @param computation computes the window output (e.g. calls the UDF).
+     * @param output sends the window output downstream.
+     * @throws IllegalStateException if a previous release failed.
+     */
+    public <T> void submit(Supplier<T> computation, Consumer<T> output) {
+        this.checkFailure();
+        try {
+            this.permits.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the release stage", e);
+        }
+
+        PendingRelease<T> release = new PendingRelease<>(output);
+        synchronized (this.pendingReleases) {
+            this.pendingReleases.add(release);
+        }
+
+        this.executor.execute(() -> {
+            try {
+                release.result = computation.get();
+            }
+            catch (RuntimeException e) {
+                release.failure = e;
+            }
+            this.complete(release);
+        });
+    }
+
+    /**
+     * Marks the release as computed and sends all consecutive computed releases from the head of the queue.
+     */
+    private void complete(PendingRelease<?> release) {
+        synchronized (this.pendingReleases) {
+            release.computed = true;
+            while (!this.pendingReleases.isEmpty() && this.pendingReleases.peek().computed) {
+                PendingRelease<?> head = this.pendingReleases.poll();
+                try {
+                    head.send();
+                    this.advancePublishedWatermark(head.watermarkMs);
+                }
+                catch (RuntimeException e) {
+                    logger.error("Failed to release the window", e);
+                    if (this.failure == null) {
+                        this.failure = e;
+                    }
+                }
+                finally {
+                    this.permits.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes the watermark once all the releases submitted so far have been sent, i.e. the windows it completed are
+     * downstream. Must be called after the releases of the windows completed by the watermark are submitted.
+     */
+    public void publishWatermark(long watermarkMs) {
+        synchronized (this.pendingReleases) {
+            PendingRelease<?> last = this.pendingReleases.peekLast();
+            if (last == null) {
+                this.advancePublishedWatermark(watermarkMs);
+            }
+            else {
+                last.watermarkMs = Math.max(last.watermarkMs, watermarkMs);
+            }
+        }
+    }
+
+    /**
+     * @return Returns the highest published watermark whose releases have all been sent, or Long.MIN_VALUE.
+     */
+    public long getPublishedWatermarkMs() {
+        return this.publishedWatermarkMs;
+    }
+
+    private void advancePublishedWatermark(long watermarkMs) {
+        if (watermarkMs > this.publishedWatermarkMs) {
+            this.publishedWatermarkMs = watermarkMs;
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if a release failed to compute or send.
+     */
+    public void checkFailure() {
+        RuntimeException failure = this.failure;
+        if (failure != null) {
+            throw new IllegalStateException("A window release failed", failure);
+        }
+    }
+
+    /**
+     * @return Returns the number of releases in the stage.
+     */
+    public int size() {
+        return this.capacity - this.permits.availablePermits();
+    }
+
+    /**
+     * Waits for the in-flight releases to be sent and stops the stage threads.
+     *
+     * @throws IllegalStateException if a release failed.
+     */
+    @Override
+    public void close() {
+        try {
+            if (!this.permits.tryAcquire(this.capacity, 5, TimeUnit.SECONDS)) {
+                logger.warn("Closing the release stage with " + this.size() + " pending releases");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.executor.shutdownNow();
+        this.checkFailure();
+    }
+
+    private static class PendingRelease<T> {
+
+        private final Consumer<T> output;
+
+        private T result;
+
+        private RuntimeException failure;
+
+        private boolean computed = false;
+
+        /**
+         * Watermark published once this release is sent.
+         */
+        private long watermarkMs = Long.MIN_VALUE;
+
+        PendingRelease(Consumer<T> output) {
+            this.output = output;
+        }
+
+        void send() {
+            if (this.failure != null) {
+                throw this.failure;
+            }
+            this.output.accept(this.result);
+        }
+    }
+}
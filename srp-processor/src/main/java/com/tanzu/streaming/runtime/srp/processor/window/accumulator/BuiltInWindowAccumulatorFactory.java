@@ -0,0 +1,67 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.accumulator;
+
+import com.tanzu.streaming.runtime.processor.common.avro.AvroMessageReader;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Creates the built-in accumulators. The value and key field expressions are resolved once and shared by all
+ * accumulator instances.
+ */
+public class BuiltInWindowAccumulatorFactory implements WindowAccumulatorFactory {
+
+    private final WindowAccumulatorType type;
+
+    private final PayloadFieldExtractor valueExtractor;
+
+    private final PayloadFieldExtractor keyExtractor;
+
+    private final int topN;
+
+    public BuiltInWindowAccumulatorFactory(WindowAccumulatorType type, String valueExpression, String keyExpression,
+            int topN, AvroMessageReader avroMessageReader) {
+
+        Assert.notNull(type, "Accumulator type can not be null!");
+        Assert.isTrue(type != WindowAccumulatorType.CUSTOM, "The CUSTOM accumulator type is not a built-in type!");
+
+        if (type != WindowAccumulatorType.COUNT && type != WindowAccumulatorType.TOP_N) {
+            Assert.hasText(valueExpression, "The " + type + " accumulator requires a value expression!");
+        }
+        if (type == WindowAccumulatorType.TOP_N) {
+            Assert.hasText(keyExpression, "The TOP_N accumulator requires a key expression!");
+        }
+
+        this.type = type;
+        this.valueExtractor = StringUtils.hasText(valueExpression)
+                ? new PayloadFieldExtractor(valueExpression, avroMessageReader)
+                : null;
+        this.keyExtractor = StringUtils.hasText(keyExpression)
+                ? new PayloadFieldExtractor(keyExpression, avroMessageReader)
+                : null;
+        this.topN = topN;
+    }
+
+    @Override
+    public WindowAccumulator create() {
+        if (this.type == WindowAccumulatorType.TOP_N) {
+            return new TopNWindowAccumulator(this.keyExtractor, this.valueExtractor, this.topN);
+        }
+        return new NumericWindowAccumulator(this.type, this.valueExtractor);
+    }
+}
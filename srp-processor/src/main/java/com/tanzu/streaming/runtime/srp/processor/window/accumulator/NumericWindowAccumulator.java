@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.accumulator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Keeps a constant-size count/sum/min/max/avg aggregate of a numeric field. The COUNT type doesn't need a value field.
+ * The result is a JSON object like: {"count": 10, "sum": 123.0}.
+ */
+public class NumericWindowAccumulator implements WindowAccumulator {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final WindowAccumulatorType type;
+
+    private final PayloadFieldExtractor valueExtractor;
+
+    private long count = 0;
+
+    private double sum = 0;
+
+    private double min = Double.POSITIVE_INFINITY;
+
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public NumericWindowAccumulator(WindowAccumulatorType type, PayloadFieldExtractor valueExtractor) {
+        this.type = type;
+        this.valueExtractor = valueExtractor;
+    }
+
+    @Override
+    public void add(Map<String, Object> headers, byte[] payload) {
+        this.count++;
+
+        if (this.type == WindowAccumulatorType.COUNT) {
+            return;
+        }
+
+        Double value = toDouble(this.valueExtractor.extract(headers, payload));
+        if (value != null) {
+            this.sum += value;
+            this.min = Math.min(this.min, value);
+            this.max = Math.max(this.max, value);
+        }
+    }
+
+    @Override
+    public void merge(WindowAccumulator other) {
+        NumericWindowAccumulator otherNumeric = (NumericWindowAccumulator) other;
+        this.count += otherNumeric.count;
+        this.sum += otherNumeric.sum;
+        this.min = Math.min(this.min, otherNumeric.min);
+        this.max = Math.max(this.max, otherNumeric.max);
+    }
+
+    @Override
+    public byte[] getResult() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", this.count);
+        switch (this.type) {
+        case SUM:
+            result.put("sum", this.sum);
+            break;
+        case MIN:
+            result.put("min", (this.count > 0) ? this.min : null);
+            break;
+        case MAX:
+            result.put("max", (this.count > 0) ? this.max : null);
+            break;
+        case AVG:
+            result.put("avg", (this.count > 0) ? this.sum / this.count : null);
+            break;
+        default:
+            break;
+        }
+        try {
+            return objectMapper.writeValueAsBytes(result);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to encode the window aggregate", e);
+        }
+    }
+
+    static Double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value != null) {
+            try {
+                return Double.valueOf(value.toString());
+            }
+            catch (NumberFormatException e) {
+                // Not a numeric value.
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.accumulator;
+
+import java.util.Map;
+
+import com.tanzu.streaming.runtime.processor.common.avro.AvroMessageReader;
+import com.tanzu.streaming.runtime.processor.common.avro.AvroUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.integration.json.JsonPathUtils;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.GenericMessage;
+import org.springframework.util.Assert;
+import org.springframework.util.MimeType;
+
+/**
+ * Extracts a single field value from a message, using the same expression conventions as the SrpHeaderAugmenter. The
+ * 'header.' prefix selects a message header and the (optional) 'payload.' prefix selects a JsonPath expression
+ * evaluated against the message payload. Avro payloads are converted to JSON with the avroMessageReader.
+ */
+public class PayloadFieldExtractor {
+
+    private static final Log logger = LogFactory.getLog(PayloadFieldExtractor.class);
+
+    private static final String PAYLOAD_PREFIX = "payload.";
+
+    private static final String HEADER_PREFIX = "header.";
+
+    private final String headerName;
+
+    private final String jsonPath;
+
+    private final AvroMessageReader avroMessageReader;
+
+    public PayloadFieldExtractor(String expression, AvroMessageReader avroMessageReader) {
+        Assert.hasText(expression, "Field expression can not be empty!");
+        if (expression.startsWith(HEADER_PREFIX)) {
+            this.headerName = expression.substring(HEADER_PREFIX.length());
+            this.jsonPath = null;
+        }
+        else {
+            String path = expression.startsWith(PAYLOAD_PREFIX) ? expression.substring(PAYLOAD_PREFIX.length())
+                    : expression;
+            this.headerName = null;
+            this.jsonPath = path.startsWith("$") ? path : "$." + path;
+        }
+        this.avroMessageReader = avroMessageReader;
+    }
+
+    public Object extract(Map<String, Object> headers, byte[] payload) {
+        if (this.headerName != null) {
+            return headers.get(this.headerName);
+        }
+        try {
+            Object jsonPayload = payload;
+            if (isAvro(headers)) {
+                jsonPayload = AvroUtil.toJsonPayload(new GenericMessage<>(payload, headers), this.avroMessageReader);
+            }
+            return JsonPathUtils.evaluate(jsonPayload, this.jsonPath);
+        }
+        catch (Exception e) {
+            logger.error("Failed to run jsonPath: " + this.jsonPath, e);
+        }
+        return null;
+    }
+
+    private boolean isAvro(Map<String, Object> headers) {
+        Object contentType = headers.get(MessageHeaders.CONTENT_TYPE);
+        if (contentType == null) {
+            return false;
+        }
+        MimeType mimeType = (contentType instanceof MimeType) ? (MimeType) contentType
+                : MimeType.valueOf(contentType.toString());
+        return AvroUtil.isAvroContentType(mimeType);
+    }
+}
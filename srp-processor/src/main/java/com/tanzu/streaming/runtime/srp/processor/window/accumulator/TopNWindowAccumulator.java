@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.accumulator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Sums a numeric field (or counts the messages if no value field is configured) per key and emits the top N keys
+ * ordered by the accumulated value. Memory is proportional to the number of distinct keys in the window.
+ *
+ * The result is a JSON object like: {"count": 10, "top": [{"key": "song1", "value": 6.0}, ...]}.
+ */
+public class TopNWindowAccumulator implements WindowAccumulator {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final PayloadFieldExtractor keyExtractor;
+
+    private final PayloadFieldExtractor valueExtractor;
+
+    private final int topN;
+
+    private final Map<String, double[]> valuesByKey = new HashMap<>();
+
+    private long count = 0;
+
+    /**
+     * @param keyExtractor extracts the grouping key.
+     * @param valueExtractor optional, extracts the value to sum. If null every message adds 1.
+     * @param topN number of top keys to emit. Non positive values emit all keys.
+     */
+    public TopNWindowAccumulator(PayloadFieldExtractor keyExtractor, PayloadFieldExtractor valueExtractor, int topN) {
+        this.keyExtractor = keyExtractor;
+        this.valueExtractor = valueExtractor;
+        this.topN = topN;
+    }
+
+    @Override
+    public void add(Map<String, Object> headers, byte[] payload) {
+        this.count++;
+
+        Object key = this.keyExtractor.extract(headers, payload);
+        if (key == null) {
+            return;
+        }
+
+        double value = 1;
+        if (this.valueExtractor != null) {
+            Double extractedValue = NumericWindowAccumulator.toDouble(this.valueExtractor.extract(headers, payload));
+            if (extractedValue == null) {
+                return;
+            }
+            value = extractedValue;
+        }
+
+        this.valuesByKey.computeIfAbsent(key.toString(), k -> new double[1])[0] += value;
+    }
+
+    @Override
+    public void merge(WindowAccumulator other) {
+        TopNWindowAccumulator otherTopN = (TopNWindowAccumulator) other;
+        this.count += otherTopN.count;
+        otherTopN.valuesByKey.forEach(
+                (key, value) -> this.valuesByKey.computeIfAbsent(key, k -> new double[1])[0] += value[0]);
+    }
+
+    @Override
+    public byte[] getResult() {
+        List<Map<String, Object>> top = this.valuesByKey.entrySet().stream()
+                .sorted((e1, e2) -> Double.compare(e2.getValue()[0], e1.getValue()[0]))
+                .limit((this.topN > 0) ? this.topN : Long.MAX_VALUE)
+                .map(e -> {
+                    Map<String, Object> item = new LinkedHashMap<>();
+                    item.put("key", e.getKey());
+                    item.put("value", e.getValue()[0]);
+                    return item;
+                })
+                .collect(Collectors.toCollection(ArrayList::new));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", this.count);
+        result.put("top", top);
+        try {
+            return objectMapper.writeValueAsBytes(result);
+        }
+        catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to encode the window aggregate", e);
+        }
+    }
+}
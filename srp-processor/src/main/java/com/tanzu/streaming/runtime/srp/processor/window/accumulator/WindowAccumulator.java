@@ -0,0 +1,58 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.accumulator;
+
+import java.util.Map;
+
+/**
+ * Incrementally folds the window's messages into an aggregate, so that the window state holds the aggregate instead of
+ * every raw payload.
+ *
+ * Implementations are not required to be thread-safe. The caller serializes the access to a single accumulator
+ * instance.
+ */
+public interface WindowAccumulator {
+
+    /**
+     * Folds a new window message into the accumulator.
+     *
+     * @param headers message headers.
+     * @param payload message payload.
+     */
+    void add(Map<String, Object> headers, byte[] payload);
+
+    /**
+     * Folds the state of another accumulator, created by the same factory, into this one. Required to merge session
+     * windows.
+     *
+     * @param other accumulator to merge from.
+     */
+    default void merge(WindowAccumulator other) {
+        throw new UnsupportedOperationException(this.getClass().getSimpleName() + " doesn't support merging!");
+    }
+
+    /**
+     * @return Returns the encoded aggregate to be emitted when the window is released.
+     */
+    byte[] getResult();
+
+    /**
+     * @return Returns the content type of the result payload.
+     */
+    default String getResultContentType() {
+        return "application/json";
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Describes a state checkpoint in the {@link CheckpointStore}: the checkpoint files, by local file name, with the
+ * names of the blobs holding them, and the input offsets the checkpoint includes.
+ *
+ * <pre>
+ * magic (int), version (int), checkpoint id (long), created at ms (long)
+ * offset count (int), per offset: source (UTF), offset (long)
+ * file count (int), per file: local name (UTF), blob name (UTF), size (long)
+ * CRC32 of all preceding bytes (long)
+ * </pre>
+ */
+public class CheckpointManifest {
+
+    private static final int MAGIC = 0x53525043; // SRPC
+
+    private static final int VERSION = 1;
+
+    private final long id;
+
+    private final long createdAtMs;
+
+    private final Map<String, Long> offsets;
+
+    private final Map<String, String> files;
+
+    private final Map<String, Long> fileSizes;
+
+    /**
+     * @param offsets input offsets by source (e.g. topic:partition) included by the checkpoint.
+     * @param files blob names by local file name.
+     * @param fileSizes file sizes by local file name.
+     */
+    public CheckpointManifest(long id, long createdAtMs, Map<String, Long> offsets, Map<String, String> files,
+            Map<String, Long> fileSizes) {
+        this.id = id;
+        this.createdAtMs = createdAtMs;
+        this.offsets = offsets;
+        this.files = files;
+        this.fileSizes = fileSizes;
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    public long getCreatedAtMs() {
+        return this.createdAtMs;
+    }
+
+    public Map<String, Long> getOffsets() {
+        return this.offsets;
+    }
+
+    public Map<String, String> getFiles() {
+        return this.files;
+    }
+
+    public long getFileSize(String localName) {
+        return this.fileSizes.getOrDefault(localName, 0L);
+    }
+
+    public long getSize() {
+        return this.fileSizes.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public void writeTo(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(
+                new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(file)), crc))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(this.id);
+            out.writeLong(this.createdAtMs);
+            out.writeInt(this.offsets.size());
+            for (Map.Entry<String, Long> offset : this.offsets.entrySet()) {
+                out.writeUTF(offset.getKey());
+                out.writeLong(offset.getValue());
+            }
+            out.writeInt(this.files.size());
+            for (Map.Entry<String, String> fileEntry : this.files.entrySet()) {
+                out.writeUTF(fileEntry.getKey());
+                out.writeUTF(fileEntry.getValue());
+                out.writeLong(this.getFileSize(fileEntry.getKey()));
+            }
+            out.writeLong(crc.getValue());
+        }
+    }
+
+    /**
+     * @throws IOException if the file can not be read or is corrupted.
+     */
+    public static CheckpointManifest readFrom(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(
+                new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file)), crc))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a checkpoint manifest: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint manifest version: " + version);
+            }
+            long id = in.readLong();
+            long createdAtMs = in.readLong();
+            int offsetCount = in.readInt();
+            Map<String, Long> offsets = new HashMap<>(offsetCount * 2);
+            for (int i = 0; i < offsetCount; i++) {
+                offsets.put(in.readUTF(), in.readLong());
+            }
+            int fileCount = in.readInt();
+            Map<String, String> files = new LinkedHashMap<>(fileCount * 2);
+            Map<String, Long> fileSizes = new HashMap<>(fileCount * 2);
+            for (int i = 0; i < fileCount; i++) {
+                String localName = in.readUTF();
+                files.put(localName, in.readUTF());
+                fileSizes.put(localName, in.readLong());
+            }
+            long expectedCrc = crc.getValue();
+            if (in.readLong() != expectedCrc) {
+                throw new IOException("Corrupted checkpoint manifest: " + file);
+            }
+            return new CheckpointManifest(id, createdAtMs, offsets, files, fileSizes);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Blob store the state checkpoints are shipped to, e.g. an object store bucket or a shared volume. The blobs are
+ * immutable and addressed by '/' separated names.
+ */
+public interface CheckpointStore {
+
+    /**
+     * Uploads the file content under the name. The blob must only become visible once completely written.
+     */
+    void put(String name, Path file) throws IOException;
+
+    /**
+     * Downloads the blob content to the file.
+     */
+    void get(String name, Path file) throws IOException;
+
+    /**
+     * @return Returns the names of the blobs starting with the prefix.
+     */
+    List<String> list(String prefix) throws IOException;
+
+    /**
+     * Deletes the blob, if it exists.
+     */
+    void delete(String name) throws IOException;
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.util.Assert;
+
+/**
+ * {@link RocksDBWindowState} with periodic, incremental checkpoints shipped to a {@link CheckpointStore}. A new pod
+ * (e.g. a rescheduled StatefulSet pod) without local state restores the latest checkpoint before consuming, so only
+ * the input after the checkpoint is replayed.
+ *
+ * The RocksDB checkpoint is created on the processing thread, right after a message is added (or after the batch of a
+ * consumer poll), so it includes exactly the messages up to the tracked input offsets. Creating it flushes the
+ * memtables and hard links the SST files. The files are uploaded asynchronously, at most one upload is in flight. The
+ * SST files are immutable, so every SST file is uploaded once and shared by the following checkpoints. Only the new
+ * SST files and the small RocksDB metadata files (MANIFEST, CURRENT, OPTIONS) are uploaded per checkpoint.
+ *
+ * Blob layout under the checkpoint name:
+ *
+ * <pre>
+ * shared/&lt;run id&gt;-&lt;sst file&gt; - SST files, shared by the checkpoints.
+ * checkpoint-&lt;id&gt;/&lt;file&gt;    - the other files of a checkpoint.
+ * checkpoint-&lt;id&gt;.manifest  - the {@link CheckpointManifest}, uploaded last.
+ * </pre>
+ *
+ * The shared files are prefixed with the id of the run that uploaded them, because the SST file numbers of a state
+ * started empty can collide with the ones of a previous run. The last two checkpoints are retained.
+ *
+ * The Kafka offsets are tracked like in the {@link SnapshottingState}. On restore, the offsets are published to the
+ * {@link SnapshotOffsets}, so the input is replayed after them, and the replayed messages already contained in the
+ * checkpoint are skipped. A local state, if present, is more recent than any checkpoint and is used instead.
+ */
+public class CheckpointingState implements State, AutoCloseable {
+
+    private static final Log logger = LogFactory.getLog(CheckpointingState.class);
+
+    private static final int RETAINED_CHECKPOINTS = 2;
+
+    private static final String SST_SUFFIX = ".sst";
+
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    private final RocksDBWindowState delegate;
+
+    private final CheckpointStore checkpointStore;
+
+    /**
+     * Blob name prefix of the checkpoints of this state.
+     */
+    private final String checkpointName;
+
+    private final long checkpointIntervalMs;
+
+    private final SnapshotOffsets snapshotOffsets;
+
+    /**
+     * Last offset added to the state, by source.
+     */
+    private final Map<String, Long> offsets = new ConcurrentHashMap<>();
+
+    /**
+     * Offsets of the restored checkpoint, by source.
+     */
+    private Map<String, Long> restoredOffsets = Collections.emptyMap();
+
+    /**
+     * Stored checkpoints, oldest first. Accessed by the checkpoint thread, after the restore.
+     */
+    private final Deque<CheckpointManifest> checkpoints = new ArrayDeque<>();
+
+    /**
+     * Blob names of the already stored SST files, by local file name. Accessed by the checkpoint thread, after the
+     * restore.
+     */
+    private final Map<String, String> storedFiles = new HashMap<>();
+
+    private final ExecutorService checkpointExecutor;
+
+    private final AtomicBoolean checkpointInFlight = new AtomicBoolean(false);
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private volatile long lastCheckpointMs;
+
+    /**
+     * Accessed by the processing thread only.
+     */
+    private long lastCheckpointId;
+
+    private long runId;
+
+    /**
+     * Set between beginBatch and commitBatch. Accessed by the processing thread only.
+     */
+    private boolean inBatch = false;
+
+    /**
+     * @param delegate not yet initialized RocksDB state. Initialized, after the restore, by {@link #initialize()}.
+     * @param checkpointName blob name prefix of the state checkpoints. Must be unique per state and stable across pod
+     *        restarts (e.g. the StatefulSet pod name).
+     * @param snapshotOffsets receives the restored offsets. Can be null.
+     */
+    public CheckpointingState(RocksDBWindowState delegate, CheckpointStore checkpointStore, String checkpointName,
+            Duration checkpointInterval, SnapshotOffsets snapshotOffsets) {
+        Assert.notNull(delegate, "The RocksDB state must be set!");
+        Assert.notNull(checkpointStore, "The checkpoint store must be set!");
+        Assert.hasText(checkpointName, "The checkpoint name must be set!");
+        Assert.isTrue(checkpointInterval != null && !checkpointInterval.isNegative() && !checkpointInterval.isZero(),
+                "The checkpoint interval must be positive!");
+        this.delegate = delegate;
+        this.checkpointStore = checkpointStore;
+        this.checkpointName = checkpointName;
+        this.checkpointIntervalMs = checkpointInterval.toMillis();
+        this.snapshotOffsets = snapshotOffsets;
+        this.checkpointExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "srp-state-checkpoint-" + checkpointName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Restores the latest checkpoint, if there is no local state, and opens the RocksDB state. Must be called before
+     * the state is used.
+     */
+    @PostConstruct
+    public void initialize() {
+        this.lastCheckpointMs = System.currentTimeMillis();
+        this.runId = this.lastCheckpointMs;
+        try {
+            this.loadCheckpoints();
+            this.restoreLatestCheckpoint();
+        }
+        catch (IOException | RuntimeException e) {
+            logger.warn("Failed to restore the state checkpoint: " + this.checkpointName + ", starting empty", e);
+        }
+        this.delegate.initialize();
+    }
+
+    private void loadCheckpoints() throws IOException {
+        String prefix = this.checkpointName + "/";
+        List<String> manifestNames = this.checkpointStore.list(prefix).stream()
+                .filter(name -> name.endsWith(MANIFEST_SUFFIX) && name.indexOf('/', prefix.length()) < 0)
+                .collect(Collectors.toList());
+        List<CheckpointManifest> manifests = new ArrayList<>();
+        Path manifestFile = Files.createTempFile("srp-checkpoint", MANIFEST_SUFFIX);
+        try {
+            for (String manifestName : manifestNames) {
+                try {
+                    this.checkpointStore.get(manifestName, manifestFile);
+                    manifests.add(CheckpointManifest.readFrom(manifestFile));
+                }
+                catch (IOException e) {
+                    logger.warn("Skip the checkpoint manifest: " + manifestName, e);
+                }
+            }
+        }
+        finally {
+            Files.deleteIfExists(manifestFile);
+        }
+        manifests.sort(Comparator.comparingLong(CheckpointManifest::getId));
+        this.checkpoints.addAll(manifests);
+        if (!manifests.isEmpty()) {
+            this.lastCheckpointId = manifests.get(manifests.size() - 1).getId();
+        }
+    }
+
+    private void restoreLatestCheckpoint() throws IOException {
+        Path databasePath = Paths.get(this.delegate.getDatabasePath()).toAbsolutePath();
+        // The restore and the checkpoint directories are created next to the database.
+        Files.createDirectories(databasePath.getParent());
+        if (!isEmptyDirectory(databasePath)) {
+            logger.info("Local state found: " + databasePath + ", the checkpoint is not restored");
+            return;
+        }
+        CheckpointManifest latest = this.checkpoints.peekLast();
+        if (latest == null) {
+            logger.info("No state checkpoint: " + this.checkpointName);
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Path restoreDirectory = databasePath.resolveSibling(databasePath.getFileName() + ".restore");
+        deleteDirectory(restoreDirectory);
+        Files.createDirectories(restoreDirectory);
+        try {
+            for (Map.Entry<String, String> file : latest.getFiles().entrySet()) {
+                Path localFile = restoreDirectory.resolve(file.getKey());
+                this.checkpointStore.get(file.getValue(), localFile);
+                if (Files.size(localFile) != latest.getFileSize(file.getKey())) {
+                    throw new IOException("Unexpected size of the checkpoint file: " + file.getValue());
+                }
+            }
+            Files.deleteIfExists(databasePath);
+            Files.move(restoreDirectory, databasePath, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            deleteDirectory(restoreDirectory);
+        }
+
+        latest.getFiles().forEach((localName, blobName) -> {
+            if (localName.endsWith(SST_SUFFIX)) {
+                this.storedFiles.put(localName, blobName);
+            }
+        });
+        this.restoredOffsets = latest.getOffsets();
+        this.offsets.putAll(latest.getOffsets());
+        if (this.snapshotOffsets != null) {
+            this.snapshotOffsets.merge(latest.getOffsets());
+        }
+        logger.info("Restored state checkpoint: " + this.checkpointName + "/checkpoint-" + latest.getId()
+                + ", files: " + latest.getFiles().size() + ", bytes: " + latest.getSize() + ", offsets: "
+                + latest.getOffsets() + ", created at: " + latest.getCreatedAtMs() + ", in: "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    @Override
+    public Set<Long> keys() {
+        return this.delegate.keys();
+    }
+
+    @Override
+    public void put(long timestamp, String key, Map<String, Object> headers, byte[] payload) {
+        String source = SnapshotOffsets.kafkaSource(headers);
+        Long offset = (source != null) ? SnapshotOffsets.kafkaOffset(headers) : null;
+        if (offset != null) {
+            Long restoredOffset = this.restoredOffsets.get(source);
+            if (restoredOffset != null && offset <= restoredOffset) {
+                // Replayed message, already in the restored checkpoint.
+                return;
+            }
+        }
+
+        this.delegate.put(timestamp, key, headers, payload);
+
+        if (offset != null) {
+            this.offsets.put(source, offset);
+        }
+        if (!this.inBatch) {
+            this.checkpointIfDue();
+        }
+    }
+
+    @Override
+    public StateEntry get(long timestamp) {
+        return this.delegate.get(timestamp);
+    }
+
+    @Override
+    public StateEntry delete(long timestamp) {
+        return this.delegate.delete(timestamp);
+    }
+
+    @Override
+    public void merge(long targetTimestamp, long sourceTimestamp) {
+        this.delegate.merge(targetTimestamp, sourceTimestamp);
+    }
+
+    @Override
+    public void beginBatch() {
+        this.delegate.beginBatch();
+        this.inBatch = true;
+    }
+
+    @Override
+    public void commitBatch() {
+        this.delegate.commitBatch();
+        this.inBatch = false;
+        this.checkpointIfDue();
+    }
+
+    /**
+     * Creates a checkpoint, if the interval has elapsed and the previous checkpoint is uploaded, and uploads it
+     * asynchronously.
+     */
+    private void checkpointIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - this.lastCheckpointMs < this.checkpointIntervalMs
+                || !this.checkpointInFlight.compareAndSet(false, true)) {
+            return;
+        }
+        this.lastCheckpointMs = now;
+        Path directory = null;
+        try {
+            long id = this.nextCheckpointId(now);
+            directory = this.createLocalCheckpoint(id);
+            Map<String, Long> checkpointOffsets = new HashMap<>(this.offsets);
+            Path checkpointDirectory = directory;
+            this.checkpointExecutor.execute(() -> {
+                try {
+                    this.upload(id, now, checkpointOffsets, checkpointDirectory);
+                }
+                catch (IOException | RuntimeException e) {
+                    logger.error("Failed to upload the state checkpoint: " + this.checkpointName + "/checkpoint-"
+                            + id, e);
+                }
+                finally {
+                    deleteDirectory(checkpointDirectory);
+                    this.checkpointInFlight.set(false);
+                }
+            });
+        }
+        catch (Exception e) {
+            if (directory != null) {
+                deleteDirectory(directory);
+            }
+            this.checkpointInFlight.set(false);
+            logger.error("Failed to create the state checkpoint: " + this.checkpointName, e);
+        }
+    }
+
+    private long nextCheckpointId(long now) {
+        this.lastCheckpointId = Math.max(now, this.lastCheckpointId + 1);
+        return this.lastCheckpointId;
+    }
+
+    private Path createLocalCheckpoint(long id) throws Exception {
+        Path databasePath = Paths.get(this.delegate.getDatabasePath()).toAbsolutePath();
+        Path directory = databasePath.resolveSibling(databasePath.getFileName() + ".checkpoint-" + id);
+        deleteDirectory(directory);
+        this.delegate.createCheckpoint(directory);
+        return directory;
+    }
+
+    /**
+     * Uploads the new files of the local checkpoint, then its manifest, and deletes the expired checkpoints.
+     */
+    private void upload(long id, long createdAtMs, Map<String, Long> checkpointOffsets, Path directory)
+            throws IOException {
+        List<Path> localFiles;
+        try (Stream<Path> list = Files.list(directory)) {
+            localFiles = list.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        Map<String, String> files = new LinkedHashMap<>();
+        Map<String, Long> fileSizes = new HashMap<>();
+        long uploadedBytes = 0;
+        for (Path localFile : localFiles) {
+            String localName = localFile.getFileName().toString();
+            long size = Files.size(localFile);
+            boolean shared = localName.endsWith(SST_SUFFIX);
+            String blobName = shared ? this.storedFiles.get(localName) : null;
+            if (blobName == null) {
+                blobName = shared ? this.checkpointName + "/shared/" + this.runId + "-" + localName
+                        : this.checkpointName + "/checkpoint-" + id + "/" + localName;
+                this.checkpointStore.put(blobName, localFile);
+                uploadedBytes += size;
+                if (shared) {
+                    this.storedFiles.put(localName, blobName);
+                }
+            }
+            files.put(localName, blobName);
+            fileSizes.put(localName, size);
+        }
+        // The compacted SST files are not part of the new checkpoints.
+        this.storedFiles.keySet().retainAll(files.keySet());
+
+        CheckpointManifest manifest = new CheckpointManifest(id, createdAtMs, checkpointOffsets, files, fileSizes);
+        Path manifestFile = directory.resolveSibling(directory.getFileName() + MANIFEST_SUFFIX);
+        try {
+            manifest.writeTo(manifestFile);
+            this.checkpointStore.put(this.manifestName(id), manifestFile);
+        }
+        finally {
+            Files.deleteIfExists(manifestFile);
+        }
+        this.checkpoints.addLast(manifest);
+
+        logger.info("State checkpoint: " + this.checkpointName + "/checkpoint-" + id + ", files: " + files.size()
+                + ", bytes: " + manifest.getSize() + ", uploaded bytes: " + uploadedBytes + ", in: "
+                + (System.currentTimeMillis() - createdAtMs) + "ms");
+
+        this.deleteExpiredCheckpoints();
+    }
+
+    /**
+     * Deletes the manifests of the not retained checkpoints first, then their files not used by the retained ones.
+     */
+    private void deleteExpiredCheckpoints() {
+        while (this.checkpoints.size() > RETAINED_CHECKPOINTS) {
+            CheckpointManifest expired = this.checkpoints.pollFirst();
+            Set<String> retainedFiles = this.checkpoints.stream()
+                    .flatMap(checkpoint -> checkpoint.getFiles().values().stream())
+                    .collect(Collectors.toSet());
+            try {
+                this.checkpointStore.delete(this.manifestName(expired.getId()));
+                for (String blobName : expired.getFiles().values()) {
+                    if (!retainedFiles.contains(blobName)) {
+                        this.checkpointStore.delete(blobName);
+                    }
+                }
+            }
+            catch (IOException e) {
+                logger.warn("Failed to delete the expired state checkpoint: " + this.checkpointName
+                        + "/checkpoint-" + expired.getId(), e);
+            }
+        }
+    }
+
+    private String manifestName(long id) {
+        return this.checkpointName + "/checkpoint-" + id + MANIFEST_SUFFIX;
+    }
+
+    private static boolean isEmptyDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return true;
+        }
+        try (Stream<Path> list = Files.list(directory)) {
+            return !list.findAny().isPresent();
+        }
+    }
+
+    private static void deleteDirectory(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(file);
+            }
+        }
+        catch (IOException e) {
+            logger.warn("Failed to delete the local checkpoint: " + directory, e);
+        }
+    }
+
+    /**
+     * Waits for the in-flight upload and stores a final checkpoint. The processing must be stopped.
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        if (!this.closed.compareAndSet(false, true)) {
+            return;
+        }
+        this.checkpointExecutor.shutdown();
+        try {
+            this.checkpointExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long now = System.currentTimeMillis();
+        Path directory = null;
+        try {
+            long id = this.nextCheckpointId(now);
+            directory = this.createLocalCheckpoint(id);
+            this.upload(id, now, new HashMap<>(this.offsets), directory);
+        }
+        catch (Exception e) {
+            logger.error("Failed to store the final state checkpoint: " + this.checkpointName, e);
+        }
+        finally {
+            if (directory != null) {
+                deleteDirectory(directory);
+            }
+        }
+        this.delegate.close();
+    }
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.util.SerializationUtils;
+
+/**
+ * Compact binary codec of the window headers, used by the persistent window states and the state snapshots.
+ *
+ * <pre>
+ * version (byte), header count (varint), per header:
+ *     name reference (varint): 0 followed by the inline name (varint length + UTF-8), or the dictionary id + 1
+ *     type tag (byte), value
+ * </pre>
+ *
+ * Only the String, Number, Boolean, Character and enum headers are stored. The enum headers are stored as their name
+ * and decoded as String. The integral numbers are zigzag varints, the other numbers are fixed size or, for the
+ * BigInteger and BigDecimal values, their two's-complement bytes.
+ *
+ * The header names are replaced by ids from a {@link NameDictionary}, shared by all the headers of a store. The store
+ * persists the dictionary. The headers stored with Java serialization, by the former versions, are still decoded.
+ *
+ * The codec is thread safe.
+ */
+public class HeaderCodec {
+
+    public static final byte VERSION = 1;
+
+    /**
+     * First bytes of a Java serialization stream.
+     */
+    private static final byte JAVA_SERIALIZATION_MAGIC_0 = (byte) 0xAC;
+    private static final byte JAVA_SERIALIZATION_MAGIC_1 = (byte) 0xED;
+
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte SHORT = 4;
+    private static final byte BYTE = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte FLOAT = 7;
+    private static final byte FALSE = 8;
+    private static final byte TRUE = 9;
+    private static final byte CHAR = 10;
+    private static final byte BIG_INTEGER = 11;
+    private static final byte BIG_DECIMAL = 12;
+
+    private final NameDictionary dictionary;
+
+    public HeaderCodec(NameDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public NameDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    /**
+     * @return Returns true if the header value is stored by the codec.
+     */
+    public static boolean isEncodable(Object value) {
+        return value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof Character || value instanceof Enum;
+    }
+
+    public byte[] encode(Map<String, Object> headers) {
+        Output output = new Output();
+        output.writeByte(VERSION);
+        int count = 0;
+        if (headers != null) {
+            for (Object value : headers.values()) {
+                if (isEncodable(value)) {
+                    count++;
+                }
+            }
+        }
+        output.writeVarInt(count);
+        if (count > 0) {
+            for (Map.Entry<String, Object> header : headers.entrySet()) {
+                if (isEncodable(header.getValue())) {
+                    int id = this.dictionary.idOf(header.getKey());
+                    if (id < 0) {
+                        output.writeVarInt(0);
+                        output.writeString(header.getKey());
+                    }
+                    else {
+                        output.writeVarInt(id + 1);
+                    }
+                    writeValue(output, header.getValue());
+                }
+            }
+        }
+        return output.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> decode(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length > 1 && bytes[0] == JAVA_SERIALIZATION_MAGIC_0 && bytes[1] == JAVA_SERIALIZATION_MAGIC_1) {
+            return (Map<String, Object>) SerializationUtils.deserialize(bytes);
+        }
+        Input input = new Input(bytes);
+        byte version = input.readByte();
+        if (version != VERSION) {
+            throw new IllegalStateException("Unsupported headers version: " + version);
+        }
+        int count = input.readVarInt();
+        Map<String, Object> headers = new HashMap<>(Math.max(4, count * 2));
+        for (int i = 0; i < count; i++) {
+            int nameReference = input.readVarInt();
+            String name = (nameReference == 0) ? input.readString() : this.dictionary.nameOf(nameReference - 1);
+            headers.put(name, readValue(input));
+        }
+        return headers;
+    }
+
+    private static void writeValue(Output output, Object value) {
+        if (value instanceof String) {
+            output.writeByte(STRING);
+            output.writeString((String) value);
+        }
+        else if (value instanceof Integer) {
+            output.writeByte(INT);
+            output.writeVarLong(zigzag((Integer) value));
+        }
+        else if (value instanceof Long) {
+            output.writeByte(LONG);
+            output.writeVarLong(zigzag((Long) value));
+        }
+        else if (value instanceof Short) {
+            output.writeByte(SHORT);
+            output.writeVarLong(zigzag((Short) value));
+        }
+        else if (value instanceof Byte) {
+            output.writeByte(BYTE);
+            output.writeByte((Byte) value);
+        }
+        else if (value instanceof Double) {
+            output.writeByte(DOUBLE);
+            output.writeFixedLong(Double.doubleToRawLongBits((Double) value));
+        }
+        else if (value instanceof Float) {
+            output.writeByte(FLOAT);
+            output.writeVarLong(Float.floatToRawIntBits((Float) value) & 0xFFFFFFFFL);
+        }
+        else if (value instanceof Boolean) {
+            output.writeByte(((Boolean) value) ? TRUE : FALSE);
+        }
+        else if (value instanceof Character) {
+            output.writeByte(CHAR);
+            output.writeVarLong((Character) value);
+        }
+        else if (value instanceof BigInteger) {
+            output.writeByte(BIG_INTEGER);
+            output.writeBytes(((BigInteger) value).toByteArray());
+        }
+        else if (value instanceof Enum) {
+            output.writeByte(STRING);
+            output.writeString(((Enum<?>) value).name());
+        }
+        else {
+            // BigDecimal and the other Number types (e.g. AtomicLong).
+            BigDecimal decimal = (value instanceof BigDecimal) ? (BigDecimal) value : new BigDecimal(value.toString());
+            output.writeByte(BIG_DECIMAL);
+            output.writeVarLong(zigzag(decimal.scale()));
+            output.writeBytes(decimal.unscaledValue().toByteArray());
+        }
+    }
+
+    private static Object readValue(Input input) {
+        byte type = input.readByte();
+        switch (type) {
+        case STRING:
+            return input.readString();
+        case INT:
+            return (int) unzigzag(input.readVarLong());
+        case LONG:
+            return unzigzag(input.readVarLong());
+        case SHORT:
+            return (short) unzigzag(input.readVarLong());
+        case BYTE:
+            return input.readByte();
+        case DOUBLE:
+            return Double.longBitsToDouble(input.readFixedLong());
+        case FLOAT:
+            return Float.intBitsToFloat((int) input.readVarLong());
+        case FALSE:
+            return Boolean.FALSE;
+        case TRUE:
+            return Boolean.TRUE;
+        case CHAR:
+            return (char) input.readVarLong();
+        case BIG_INTEGER:
+            return new BigInteger(input.readBytes());
+        case BIG_DECIMAL:
+            int scale = (int) unzigzag(input.readVarLong());
+            return new BigDecimal(new BigInteger(input.readBytes()), scale);
+        default:
+            throw new IllegalStateException("Unknown header type: " + type);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Header name ids of a store. New names are assigned the next id and reported to the listener, before the id is
+     * used, so the store can persist them. Stored names are added back with {@link #define(int, String)}.
+     *
+     * The dictionary is bounded, the names above the limit (e.g. generated header names) are stored inline.
+     */
+    public static class NameDictionary {
+
+        public static final int DEFAULT_MAX_NAMES = 4096;
+
+        /**
+         * Called with the id and the name of every new dictionary entry.
+         */
+        public interface Listener {
+            void onNewName(int id, String name);
+        }
+
+        private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+        private volatile String[] names = new String[16];
+
+        private final int maxNames;
+
+        private final Listener listener;
+
+        public NameDictionary() {
+            this(DEFAULT_MAX_NAMES, null);
+        }
+
+        /**
+         * @param listener notified of the new names. Can be null.
+         */
+        public NameDictionary(int maxNames, Listener listener) {
+            this.maxNames = maxNames;
+            this.listener = listener;
+        }
+
+        /**
+         * @return Returns the id of the name, assigning a new id if needed, or -1 if the dictionary is full.
+         */
+        public int idOf(String name) {
+            Integer id = this.ids.get(name);
+            return (id != null) ? id : this.assign(name);
+        }
+
+        private synchronized int assign(String name) {
+            Integer id = this.ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            if (this.ids.size() >= this.maxNames) {
+                return -1;
+            }
+            int newId = this.ids.size();
+            if (this.listener != null) {
+                this.listener.onNewName(newId, name);
+            }
+            this.define(newId, name);
+            return newId;
+        }
+
+        /**
+         * Adds a stored entry.
+         */
+        public synchronized void define(int id, String name) {
+            String[] currentNames = this.names;
+            if (id >= currentNames.length) {
+                currentNames = Arrays.copyOf(currentNames, Math.max(id + 1, currentNames.length * 2));
+            }
+            currentNames[id] = name;
+            this.names = currentNames;
+            this.ids.put(name, id);
+        }
+
+        public String nameOf(int id) {
+            String[] currentNames = this.names;
+            String name = (id < currentNames.length) ? currentNames[id] : null;
+            if (name == null) {
+                throw new IllegalStateException("Unknown header name id: " + id);
+            }
+            return name;
+        }
+
+        /**
+         * @return Returns the names, indexed by id.
+         */
+        public synchronized String[] getNames() {
+            return Arrays.copyOf(this.names, this.ids.size());
+        }
+
+        public int size() {
+            return this.ids.size();
+        }
+    }
+
+    private static class Output {
+
+        private byte[] buffer = new byte[64];
+
+        private int count;
+
+        void writeByte(int value) {
+            this.ensureCapacity(1);
+            this.buffer[this.count++] = (byte) value;
+        }
+
+        void writeVarInt(int value) {
+            this.writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            this.ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                this.buffer[this.count++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.buffer[this.count++] = (byte) value;
+        }
+
+        void writeFixedLong(long value) {
+            this.ensureCapacity(Long.BYTES);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                this.buffer[this.count++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeString(String value) {
+            this.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void writeBytes(byte[] bytes) {
+            this.writeVarInt(bytes.length);
+            this.ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, this.buffer, this.count, bytes.length);
+            this.count += bytes.length;
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (this.count + bytes > this.buffer.length) {
+                this.buffer = Arrays.copyOf(this.buffer, Math.max(this.count + bytes, this.buffer.length * 2));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(this.buffer, this.count);
+        }
+    }
+
+    private static class Input {
+
+        private final byte[] buffer;
+
+        private int position;
+
+        Input(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        byte readByte() {
+            if (this.position >= this.buffer.length) {
+                throw new IllegalStateException("Truncated headers");
+            }
+            return this.buffer[this.position++];
+        }
+
+        int readVarInt() {
+            return (int) this.readVarLong();
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = this.readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Malformed varint");
+        }
+
+        long readFixedLong() {
+            long value = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                value = (value << 8) | (this.readByte() & 0xFF);
+            }
+            return value;
+        }
+
+        String readString() {
+            int length = this.readVarInt();
+            String value = new String(this.buffer, this.position, this.checkLength(length), StandardCharsets.UTF_8);
+            this.position += length;
+            return value;
+        }
+
+        byte[] readBytes() {
+            int length = this.readVarInt();
+            byte[] bytes = Arrays.copyOfRange(this.buffer, this.position, this.position + this.checkLength(length));
+            this.position += length;
+            return bytes;
+        }
+
+        private int checkLength(int length) {
+            if (length < 0 || this.position + length > this.buffer.length) {
+                throw new IllegalStateException("Truncated headers");
+            }
+            return length;
+        }
+    }
+}
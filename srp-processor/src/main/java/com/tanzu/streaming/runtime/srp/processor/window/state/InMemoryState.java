@@ -16,9 +16,14 @@
 package com.tanzu.streaming.runtime.srp.processor.window.state;
 
 import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -28,15 +33,16 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.springframework.messaging.Message;
-import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.support.MessageBuilder;
-import org.springframework.util.CollectionUtils;
 
 public class InMemoryState implements State, AutoCloseable {
 
     private static final Log logger = LogFactory.getLog(InMemoryState.class);
 
-    private final ConcurrentHashMap<Long, ConcurrentLinkedQueue<Message<byte[]>>> tumblingWindows = new ConcurrentHashMap<>();
+    /**
+     * Window start timestamp to the window's per-key message queues.
+     */
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<String, ConcurrentLinkedQueue<Message<byte[]>>>> tumblingWindows = new ConcurrentHashMap<>();
 
     /**
      * @return Returns current window keys (e.g. timestamps). Order is not guaranteed.
@@ -47,35 +53,138 @@ public class InMemoryState implements State, AutoCloseable {
     }
 
     @Override
-    public void put(long timestamp, Map<String, Object> headers, byte[] payload) {
-        if (!this.tumblingWindows.containsKey(timestamp)) {
-            logger.info(">> START WINDOW: " + timestamp);
-            this.tumblingWindows.putIfAbsent(timestamp, new ConcurrentLinkedQueue<>());
-        }
+    public void put(long timestamp, String key, Map<String, Object> headers, byte[] payload) {
+        ConcurrentHashMap<String, ConcurrentLinkedQueue<Message<byte[]>>> window = this.tumblingWindows.computeIfAbsent(
+                timestamp, ts -> {
+                    logger.info(">> START WINDOW: " + ts);
+                    return new ConcurrentHashMap<>();
+                });
 
-        // Add the input message to the tumbling window's queue
-        Optional.ofNullable(this.tumblingWindows.get(timestamp))
-                .ifPresent(windowQueue -> windowQueue
-                        .add(MessageBuilder.withPayload(payload).copyHeaders(headers).build()));
+        // Add the input message to the key's queue of the tumbling window
+        window.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>())
+                .add(MessageBuilder.withPayload(payload).copyHeaders(headers).build());
     }
 
+    /**
+     * The window can still change, so the payload references are copied. The payloads themselves are shared.
+     */
     @Override
     public StateEntry get(long timestamp) {
-        return toSateEntry(timestamp, this.tumblingWindows.get(timestamp));
+        return toSateEntry(timestamp, this.tumblingWindows.get(timestamp), true);
     }
 
+    /**
+     * The removed window doesn't change anymore, so the entry is a view over its message queues.
+     */
     @Override
     public StateEntry delete(long timestamp) {
-        return toSateEntry(timestamp, this.tumblingWindows.remove(timestamp));
+        return toSateEntry(timestamp, this.tumblingWindows.remove(timestamp), false);
     }
 
-    private StateEntry toSateEntry(long timestamp, ConcurrentLinkedQueue<Message<byte[]>> queue) {
-        if (!CollectionUtils.isEmpty(queue)) {
-            List<byte[]> payloads = queue.stream().map(m -> m.getPayload()).collect(Collectors.toList());
-            MessageHeaders headers = queue.iterator().next().getHeaders();
-            return new StateEntry(timestamp, headers, payloads);
+    /**
+     * @return Returns a copy of all windows. Only the payload references are copied, so it is cheap enough to be taken
+     *         between two messages, on the processing thread.
+     */
+    public List<StateEntry> capture() {
+        List<StateEntry> windows = new ArrayList<>(this.tumblingWindows.size());
+        for (Map.Entry<Long, ConcurrentHashMap<String, ConcurrentLinkedQueue<Message<byte[]>>>> window : this.tumblingWindows
+                .entrySet()) {
+            StateEntry entry = toSateEntry(window.getKey(), window.getValue(), true);
+            if (entry != null) {
+                windows.add(entry);
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * Adds the content of the windows, e.g. from a snapshot.
+     */
+    public void restore(Collection<StateEntry> windows) {
+        for (StateEntry window : windows) {
+            for (Map.Entry<String, Collection<byte[]>> keyPayloads : window.getKeyedPayloads().entrySet()) {
+                for (byte[] payload : keyPayloads.getValue()) {
+                    this.put(window.getTimestamp(), keyPayloads.getKey(), window.getHeaders(), payload);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void merge(long targetTimestamp, long sourceTimestamp) {
+        ConcurrentHashMap<String, ConcurrentLinkedQueue<Message<byte[]>>> source = this.tumblingWindows.remove(sourceTimestamp);
+        if (source != null) {
+            ConcurrentHashMap<String, ConcurrentLinkedQueue<Message<byte[]>>> target = this.tumblingWindows
+                    .computeIfAbsent(targetTimestamp, ts -> new ConcurrentHashMap<>());
+            source.forEach((key, queue) -> target.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).addAll(queue));
+        }
+    }
+
+    private StateEntry toSateEntry(long timestamp,
+            ConcurrentHashMap<String, ConcurrentLinkedQueue<Message<byte[]>>> window, boolean copyPayloadReferences) {
+        if (window == null) {
+            return null;
+        }
+        Map<String, Object> headers = null;
+        Map<String, Collection<byte[]>> keyedPayloads = new LinkedHashMap<>();
+        for (Map.Entry<String, ConcurrentLinkedQueue<Message<byte[]>>> keyQueue : window.entrySet()) {
+            if (!keyQueue.getValue().isEmpty()) {
+                if (headers == null) {
+                    headers = keyQueue.getValue().iterator().next().getHeaders();
+                }
+                keyedPayloads.put(keyQueue.getKey(), copyPayloadReferences
+                        ? keyQueue.getValue().stream().map(m -> m.getPayload()).collect(Collectors.toList())
+                        : new PayloadView(keyQueue.getValue()));
+            }
+        }
+        return keyedPayloads.isEmpty() ? null : new StateEntry(timestamp, headers, keyedPayloads);
+    }
+
+    /**
+     * Payload references of a removed message queue, without copying the payloads. The references are snapshot when
+     * the view is created, so the view is stable even if a late put still appends to the removed queue.
+     */
+    private static class PayloadView extends AbstractCollection<byte[]> {
+
+        private final byte[][] payloads;
+
+        private final int size;
+
+        PayloadView(Collection<Message<byte[]>> messages) {
+            this.payloads = new byte[messages.size()][];
+            int size = 0;
+            for (Iterator<Message<byte[]>> iterator = messages.iterator(); iterator.hasNext()
+                    && size < this.payloads.length;) {
+                this.payloads[size++] = iterator.next().getPayload();
+            }
+            this.size = size;
+        }
+
+        @Override
+        public Iterator<byte[]> iterator() {
+            return new Iterator<byte[]>() {
+
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return this.next < PayloadView.this.size;
+                }
+
+                @Override
+                public byte[] next() {
+                    if (!this.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return PayloadView.this.payloads[this.next++];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return this.size;
         }
-        return null;
     }
 
     @Override
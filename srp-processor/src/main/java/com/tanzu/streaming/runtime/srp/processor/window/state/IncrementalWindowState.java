@@ -0,0 +1,177 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.tanzu.streaming.runtime.srp.processor.window.accumulator.WindowAccumulator;
+import com.tanzu.streaming.runtime.srp.processor.window.accumulator.WindowAccumulatorFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.messaging.MessageHeaders;
+
+/**
+ * Pre-aggregating window state. Instead of buffering the raw payloads, every message is folded into the window's
+ * {@link WindowAccumulator} on arrival. The released StateEntry contains a single payload per key: the accumulated
+ * result. Keyed windows keep a separate accumulator for every key of the window.
+ *
+ * The state size is proportional to the number of windows (and accumulator keys) rather than the number of events.
+ */
+public class IncrementalWindowState implements State, AutoCloseable {
+
+    private static final Log logger = LogFactory.getLog(IncrementalWindowState.class);
+
+    private final ConcurrentHashMap<Long, WindowAccumulation> windows = new ConcurrentHashMap<>();
+
+    private final WindowAccumulatorFactory accumulatorFactory;
+
+    public IncrementalWindowState(WindowAccumulatorFactory accumulatorFactory) {
+        this.accumulatorFactory = accumulatorFactory;
+    }
+
+    @Override
+    public Set<Long> keys() {
+        return this.windows.keySet();
+    }
+
+    @Override
+    public void put(long timestamp, String key, Map<String, Object> headers, byte[] payload) {
+        WindowAccumulation accumulation = this.windows.computeIfAbsent(timestamp, ts -> {
+            logger.info(">> START WINDOW: " + ts);
+            return new WindowAccumulation(headers, this.accumulatorFactory);
+        });
+        accumulation.add(key, headers, payload);
+    }
+
+    @Override
+    public StateEntry get(long timestamp) {
+        return toStateEntry(timestamp, this.windows.get(timestamp));
+    }
+
+    @Override
+    public StateEntry delete(long timestamp) {
+        return toStateEntry(timestamp, this.windows.remove(timestamp));
+    }
+
+    @Override
+    public void merge(long targetTimestamp, long sourceTimestamp) {
+        WindowAccumulation source = this.windows.remove(sourceTimestamp);
+        if (source != null) {
+            WindowAccumulation target = this.windows.putIfAbsent(targetTimestamp, source);
+            if (target != null) {
+                target.merge(source);
+            }
+        }
+    }
+
+    /**
+     * Merges the accumulators of the windows into a new, temporary, accumulation. The windows are not changed. Used to
+     * assemble the hopping windows from their accumulated panes, whose results can't be concatenated.
+     *
+     * @param timestamp id of the returned entry.
+     * @param timestamps windows to merge. Missing windows are skipped.
+     * @return Returns the merged entry or null if none of the windows exist.
+     */
+    public StateEntry getMerged(long timestamp, long[] timestamps) {
+        WindowAccumulation merged = null;
+        for (long windowTimestamp : timestamps) {
+            WindowAccumulation accumulation = this.windows.get(windowTimestamp);
+            if (accumulation != null) {
+                if (merged == null) {
+                    merged = new WindowAccumulation(accumulation.getHeaders(), this.accumulatorFactory);
+                }
+                merged.mergeCopy(accumulation);
+            }
+        }
+        return toStateEntry(timestamp, merged);
+    }
+
+    private StateEntry toStateEntry(long timestamp, WindowAccumulation accumulation) {
+        if (accumulation == null) {
+            return null;
+        }
+        return new StateEntry(timestamp, accumulation.getHeaders(), accumulation.getResults());
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.windows.clear();
+    }
+
+    private static class WindowAccumulation {
+
+        private final Map<String, Object> headers;
+
+        private final WindowAccumulatorFactory accumulatorFactory;
+
+        private final Map<String, WindowAccumulator> accumulators = new LinkedHashMap<>();
+
+        WindowAccumulation(Map<String, Object> firstMessageHeaders, WindowAccumulatorFactory accumulatorFactory) {
+            this.accumulatorFactory = accumulatorFactory;
+            WindowAccumulator accumulator = accumulatorFactory.create();
+            this.headers = new HashMap<>(firstMessageHeaders);
+            this.headers.put(MessageHeaders.CONTENT_TYPE, accumulator.getResultContentType());
+        }
+
+        synchronized void add(String key, Map<String, Object> headers, byte[] payload) {
+            this.accumulators.computeIfAbsent(key, k -> this.accumulatorFactory.create()).add(headers, payload);
+        }
+
+        void merge(WindowAccumulation other) {
+            synchronized (this) {
+                synchronized (other) {
+                    other.accumulators.forEach((key, otherAccumulator) -> {
+                        WindowAccumulator accumulator = this.accumulators.putIfAbsent(key, otherAccumulator);
+                        if (accumulator != null) {
+                            accumulator.merge(otherAccumulator);
+                        }
+                    });
+                }
+            }
+        }
+
+        /**
+         * Merges the other accumulators into new accumulators, so the other accumulation is neither changed nor shared.
+         */
+        void mergeCopy(WindowAccumulation other) {
+            synchronized (this) {
+                synchronized (other) {
+                    other.accumulators.forEach((key, otherAccumulator) -> this.accumulators
+                            .computeIfAbsent(key, k -> this.accumulatorFactory.create()).merge(otherAccumulator));
+                }
+            }
+        }
+
+        synchronized Map<String, Collection<byte[]>> getResults() {
+            Map<String, Collection<byte[]>> results = new LinkedHashMap<>();
+            this.accumulators.forEach((key, accumulator) ->
+                    results.put(key, Collections.singletonList(accumulator.getResult())));
+            return results;
+        }
+
+        Map<String, Object> getHeaders() {
+            return this.headers;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * {@link CheckpointStore} over a local directory, e.g. a mounted shared volume. The blob names are the file paths
+ * relative to the root directory. The files are copied next to the target and atomically moved in place.
+ */
+public class LocalFileCheckpointStore implements CheckpointStore {
+
+    private static final String DEFAULT_ROOT_PATH = "/tmp/srp-checkpoints/";
+
+    private final Path root;
+
+    public LocalFileCheckpointStore(String rootPath) {
+        this.root = Paths.get(StringUtils.hasText(rootPath) ? rootPath : DEFAULT_ROOT_PATH).toAbsolutePath()
+                .normalize();
+    }
+
+    @Override
+    public void put(String name, Path file) throws IOException {
+        Path target = this.resolve(name);
+        Files.createDirectories(target.getParent());
+        Path tmpFile = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.copy(file, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmpFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void get(String name, Path file) throws IOException {
+        Files.copy(this.resolve(name), file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public List<String> list(String prefix) throws IOException {
+        Path prefixPath = this.resolve(prefix);
+        // The prefix can end within a file or directory name.
+        Path directory = (prefix.endsWith("/") || Files.isDirectory(prefixPath)) ? prefixPath : prefixPath.getParent();
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(path -> !path.getFileName().toString().endsWith(".tmp"))
+                    .map(path -> this.root.relativize(path).toString().replace('\\', '/'))
+                    .filter(name -> name.startsWith(prefix))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public void delete(String name) throws IOException {
+        Files.deleteIfExists(this.resolve(name));
+    }
+
+    private Path resolve(String name) {
+        Path path = this.root.resolve(name).normalize();
+        Assert.isTrue(path.startsWith(this.root), "The blob name is outside of the store: " + name);
+        return path;
+    }
+}
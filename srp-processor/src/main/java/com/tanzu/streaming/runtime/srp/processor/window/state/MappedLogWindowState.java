@@ -0,0 +1,661 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Window state stored in an append-only log of memory-mapped segment files.
+ *
+ * Every change is appended to the active segment as a record:
+ *
+ * <pre>
+ * body length (int), type (byte), window start (long), body, CRC32 of the type and body (int)
+ *
+ * HEADERS - the {@link HeaderCodec} encoded headers (int length + bytes), written when the window is created
+ * PAYLOAD - record key (short length + UTF-8), payload (int length + bytes)
+ * DELETE - the window was deleted
+ * MERGE - source window start (long), the source window was merged into the window
+ * </pre>
+ *
+ * A new segment is started when the record does not fit in the active one. The windows are indexed in memory, by
+ * window start, with the log positions of their payloads. Reads copy the payloads straight from the mapped segments.
+ *
+ * A segment is dropped once none of its windows is live anymore. The segments are dropped in log order, so the
+ * DELETE and MERGE records always outlive the records they apply to. For tumbling windows, released in order, the
+ * log is append then bulk delete, without compaction.
+ *
+ * On start, the segments are replayed to rebuild the index. A torn record (bad length or checksum) ends the replay
+ * of its segment and the new records are appended to a new segment. The mapped pages are written back by the OS, so
+ * the state survives process restarts. The active segment is forced to disk on close only.
+ *
+ * The header name dictionary of the {@link HeaderCodec} is kept in the header-names file, next to the segments.
+ *
+ * The put, delete and merge of a window are serialized by the window index, the appends by the log lock.
+ */
+public class MappedLogWindowState implements State, AutoCloseable {
+
+    private static final Log logger = LogFactory.getLog(MappedLogWindowState.class);
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private static final String DEFAULT_LOG_PATH = "/tmp/srp-log/";
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String HEADER_NAMES_FILE = "header-names";
+
+    private static final byte HEADERS = 1;
+    private static final byte PAYLOAD = 2;
+    private static final byte DELETE = 3;
+    private static final byte MERGE = 4;
+
+    /**
+     * Body length and CRC32 of every record.
+     */
+    private static final int FRAME_BYTES = Integer.BYTES + Integer.BYTES;
+
+    /**
+     * Type and window start of every record.
+     */
+    private static final int RECORD_HEADER_BYTES = 1 + Long.BYTES;
+
+    private final Path logPath;
+
+    private final long segmentBytes;
+
+    private final ConcurrentHashMap<Long, Window> windows = new ConcurrentHashMap<>();
+
+    private final HeaderCodec headerCodec;
+
+    /**
+     * Guards the appends and the segments.
+     */
+    private final Object logLock = new Object();
+
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+
+    private Segment activeSegment;
+
+    private int nextSegmentId;
+
+    private final CRC32 checksum = new CRC32();
+
+    private FileChannel headerNamesChannel;
+
+    public MappedLogWindowState() {
+        this(DEFAULT_LOG_PATH, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * @param segmentBytes size of the segment files. Larger records get a segment of their own size.
+     */
+    public MappedLogWindowState(String logPath, long segmentBytes) {
+        Assert.isTrue(segmentBytes > FRAME_BYTES + RECORD_HEADER_BYTES && segmentBytes <= Integer.MAX_VALUE,
+                "The segment size must be positive and less than 2GB");
+        this.logPath = Paths.get(StringUtils.hasText(logPath) ? logPath : DEFAULT_LOG_PATH);
+        this.segmentBytes = segmentBytes;
+        this.headerCodec = new HeaderCodec(
+                new HeaderCodec.NameDictionary(HeaderCodec.NameDictionary.DEFAULT_MAX_NAMES, this::storeHeaderName));
+    }
+
+    @PostConstruct
+    public void initialize() {
+        try {
+            Files.createDirectories(this.logPath);
+            this.retrieveHeaderNames();
+            this.headerNamesChannel = FileChannel.open(this.logPath.resolve(HEADER_NAMES_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            synchronized (this.logLock) {
+                this.replaySegments();
+                this.rollSegment(this.segmentBytes);
+                this.dropReleasedSegments();
+            }
+            logger.info("Window log: " + this.logPath + ", windows: " + this.windows.size() + ", segments: "
+                    + this.segments.size());
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Failed to open the window log: " + this.logPath, e);
+        }
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        this.close();
+    }
+
+    @Override
+    public Set<Long> keys() {
+        return this.windows.keySet();
+    }
+
+    @Override
+    public void put(long timestamp, String key, Map<String, Object> headers, byte[] payload) {
+        this.windows.compute(timestamp, (windowStart, window) -> {
+            synchronized (this.logLock) {
+                if (window == null) {
+                    byte[] encodedHeaders = this.headerCodec.encode(headers);
+                    // The stored headers, as they are after a restart.
+                    window = new Window(this.headerCodec.decode(encodedHeaders));
+                    ByteBuffer body = this.beginRecord(HEADERS, windowStart, Integer.BYTES + encodedHeaders.length);
+                    body.putInt(encodedHeaders.length).put(encodedHeaders);
+                    window.touch(this.endRecord());
+                }
+                byte[] encodedKey = key.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer body = this.beginRecord(PAYLOAD, windowStart,
+                        Short.BYTES + encodedKey.length + Integer.BYTES + payload.length);
+                body.putShort((short) encodedKey.length).put(encodedKey);
+                long payloadPosition = position(this.activeSegment.id, body.position());
+                body.putInt(payload.length).put(payload);
+                window.touch(this.endRecord());
+                window.keyPositions(key).add(payloadPosition);
+            }
+            return window;
+        });
+    }
+
+    /**
+     * The window can still change, so the entry is a view over the payloads added so far.
+     */
+    @Override
+    public StateEntry get(long timestamp) {
+        StateEntry[] entry = new StateEntry[1];
+        this.windows.computeIfPresent(timestamp, (windowStart, window) -> {
+            entry[0] = this.toStateEntry(windowStart, window);
+            return window;
+        });
+        return entry[0];
+    }
+
+    /**
+     * The entry keeps reading from the window segments, even if they are dropped meanwhile.
+     */
+    @Override
+    public StateEntry delete(long timestamp) {
+        StateEntry[] entry = new StateEntry[1];
+        this.windows.computeIfPresent(timestamp, (windowStart, window) -> {
+            entry[0] = this.toStateEntry(windowStart, window);
+            synchronized (this.logLock) {
+                this.beginRecord(DELETE, windowStart, 0);
+                this.endRecord();
+                this.release(window);
+                this.dropReleasedSegments();
+            }
+            return null;
+        });
+        return entry[0];
+    }
+
+    @Override
+    public void merge(long targetTimestamp, long sourceTimestamp) {
+        Window[] source = new Window[1];
+        this.windows.computeIfPresent(sourceTimestamp, (windowStart, window) -> {
+            synchronized (this.logLock) {
+                this.beginRecord(MERGE, targetTimestamp, Long.BYTES).putLong(sourceTimestamp);
+                this.endRecord();
+            }
+            source[0] = window;
+            return null;
+        });
+        if (source[0] != null) {
+            this.windows.compute(targetTimestamp, (windowStart, target) -> {
+                if (target == null) {
+                    return source[0];
+                }
+                synchronized (this.logLock) {
+                    target.mergeFrom(source[0], this.segments);
+                }
+                return target;
+            });
+        }
+    }
+
+    /**
+     * @return Returns the number of segment files.
+     */
+    public int getSegmentCount() {
+        synchronized (this.logLock) {
+            return this.segments.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this.logLock) {
+            if (this.activeSegment != null) {
+                this.activeSegment.buffer.force();
+            }
+            this.segments.clear();
+            this.activeSegment = null;
+        }
+        if (this.headerNamesChannel != null) {
+            try {
+                this.headerNamesChannel.close();
+            }
+            catch (IOException e) {
+                logger.warn("Failed to close the header names file of the window log: " + this.logPath, e);
+            }
+        }
+        this.windows.clear();
+    }
+
+    /**
+     * Must be called holding the window lock. The payload views capture the window segments, so that a dropped
+     * segment stays mapped while the entry is read.
+     */
+    private StateEntry toStateEntry(long timestamp, Window window) {
+        Map<String, Collection<byte[]>> keyedPayloads = new LinkedHashMap<>();
+        Map<Integer, ByteBuffer> segmentBuffers = new HashMap<>();
+        synchronized (this.logLock) {
+            for (Integer segmentId : window.segments) {
+                Segment segment = this.segments.get(segmentId);
+                if (segment != null) {
+                    segmentBuffers.put(segmentId, segment.buffer);
+                }
+            }
+        }
+        for (Map.Entry<String, KeyPositions> keyPositions : window.keys.entrySet()) {
+            if (keyPositions.getValue().count > 0) {
+                keyedPayloads.put(keyPositions.getKey(), new LogPayloads(segmentBuffers,
+                        Arrays.copyOf(keyPositions.getValue().positions, keyPositions.getValue().count)));
+            }
+        }
+        return keyedPayloads.isEmpty() ? null : new StateEntry(timestamp, window.headers, keyedPayloads);
+    }
+
+    /**
+     * Starts a record in the active segment, rolling a new segment if it doesn't fit. Must be called holding the log
+     * lock.
+     * @return Returns the active segment buffer, positioned at the record body.
+     */
+    private ByteBuffer beginRecord(byte type, long windowStart, int bodyBytes) {
+        int recordBytes = FRAME_BYTES + RECORD_HEADER_BYTES + bodyBytes;
+        if (this.activeSegment.buffer.remaining() < recordBytes) {
+            try {
+                this.rollSegment(Math.max(this.segmentBytes, recordBytes));
+            }
+            catch (IOException e) {
+                throw new IllegalStateException("Failed to start a new window log segment", e);
+            }
+        }
+        ByteBuffer buffer = this.activeSegment.buffer;
+        buffer.putInt(RECORD_HEADER_BYTES + bodyBytes);
+        buffer.put(type);
+        buffer.putLong(windowStart);
+        return buffer;
+    }
+
+    /**
+     * Appends the checksum of the started record.
+     * @return Returns the segment of the record.
+     */
+    private Segment endRecord() {
+        ByteBuffer buffer = this.activeSegment.buffer;
+        this.checksum.reset();
+        this.checksum.update(buffer.duplicate().position(this.activeSegment.recordStart + Integer.BYTES)
+                .limit(buffer.position()));
+        buffer.putInt((int) this.checksum.getValue());
+        this.activeSegment.recordStart = buffer.position();
+        return this.activeSegment;
+    }
+
+    private void rollSegment(long bytes) throws IOException {
+        int id = this.nextSegmentId++;
+        Path file = this.logPath.resolve(SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            if (this.activeSegment != null) {
+                this.activeSegment.buffer.force();
+            }
+            this.activeSegment = new Segment(id, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes));
+            this.segments.put(id, this.activeSegment);
+        }
+        this.dropReleasedSegments();
+    }
+
+    /**
+     * Must be called holding the log lock.
+     */
+    private void release(Window window) {
+        for (Integer segmentId : window.segments) {
+            Segment segment = this.segments.get(segmentId);
+            if (segment != null) {
+                segment.liveWindows--;
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest segments without live windows. The mapping is released by the garbage collector, once no
+     * entry reads from it.
+     */
+    private void dropReleasedSegments() {
+        while (!this.segments.isEmpty()) {
+            Segment oldest = this.segments.firstEntry().getValue();
+            if (oldest == this.activeSegment || oldest.liveWindows > 0) {
+                return;
+            }
+            this.segments.remove(oldest.id);
+            try {
+                Files.deleteIfExists(oldest.file);
+            }
+            catch (IOException e) {
+                // The index no longer references the segment. A leftover file only costs disk space.
+                logger.warn("Failed to delete the released window log segment: " + oldest.file, e);
+            }
+        }
+    }
+
+    private void replaySegments() throws IOException {
+        List<Path> segmentFiles;
+        try (Stream<Path> files = Files.list(this.logPath)) {
+            segmentFiles = files.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                    && file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted((file1, file2) -> Integer.compare(segmentId(file1), segmentId(file2)))
+                    .collect(Collectors.toList());
+        }
+        for (Path file : segmentFiles) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                Segment segment = new Segment(segmentId(file), file,
+                        channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+                this.segments.put(segment.id, segment);
+                this.nextSegmentId = segment.id + 1;
+                this.replay(segment);
+            }
+        }
+    }
+
+    /**
+     * Applies the records of the segment to the index. The released segments are dropped after the replay of all
+     * segments.
+     */
+    private void replay(Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        while (buffer.remaining() >= FRAME_BYTES + RECORD_HEADER_BYTES) {
+            int recordStart = buffer.position();
+            int bodyBytes = buffer.getInt();
+            if (bodyBytes < RECORD_HEADER_BYTES || bodyBytes > buffer.remaining() - Integer.BYTES) {
+                if (bodyBytes != 0) {
+                    logger.warn("Torn record in window log segment: " + segment.file + ", at: " + recordStart);
+                }
+                return;
+            }
+            this.checksum.reset();
+            this.checksum.update(buffer.duplicate().limit(buffer.position() + bodyBytes));
+            if (buffer.getInt(buffer.position() + bodyBytes) != (int) this.checksum.getValue()) {
+                logger.warn("Corrupted record in window log segment: " + segment.file + ", at: " + recordStart);
+                return;
+            }
+            byte type = buffer.get();
+            long windowStart = buffer.getLong();
+            switch (type) {
+            case HEADERS:
+                byte[] encodedHeaders = new byte[buffer.getInt()];
+                buffer.get(encodedHeaders);
+                this.windows.computeIfAbsent(windowStart, ws -> new Window(this.headerCodec.decode(encodedHeaders)))
+                        .touch(segment);
+                break;
+            case PAYLOAD:
+                byte[] encodedKey = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(encodedKey);
+                long payloadPosition = position(segment.id, buffer.position());
+                buffer.position(buffer.position() + Integer.BYTES + buffer.getInt(buffer.position()));
+                Window window = this.windows.computeIfAbsent(windowStart, ws -> new Window(new HashMap<>()));
+                window.touch(segment);
+                window.keyPositions(new String(encodedKey, StandardCharsets.UTF_8)).add(payloadPosition);
+                break;
+            case DELETE:
+                Window deleted = this.windows.remove(windowStart);
+                if (deleted != null) {
+                    this.release(deleted);
+                }
+                break;
+            case MERGE:
+                Window source = this.windows.remove(buffer.getLong());
+                if (source != null) {
+                    Window target = this.windows.putIfAbsent(windowStart, source);
+                    if (target != null) {
+                        target.mergeFrom(source, this.segments);
+                    }
+                }
+                break;
+            default:
+                logger.warn("Unknown record type: " + type + " in window log segment: " + segment.file);
+                return;
+            }
+            buffer.position(recordStart + Integer.BYTES + bodyBytes + Integer.BYTES);
+        }
+    }
+
+    private void retrieveHeaderNames() throws IOException {
+        Path file = this.logPath.resolve(HEADER_NAMES_FILE);
+        if (Files.exists(file)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            int id = 0;
+            while (buffer.remaining() >= Short.BYTES) {
+                int length = buffer.getShort() & 0xFFFF;
+                if (length > buffer.remaining()) {
+                    break;
+                }
+                byte[] name = new byte[length];
+                buffer.get(name);
+                this.headerCodec.getDictionary().define(id++, new String(name, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * The names are stored in id order, before any record using them.
+     */
+    private void storeHeaderName(int id, String name) {
+        byte[] encodedName = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(Short.BYTES + encodedName.length);
+        buffer.putShort((short) encodedName.length).put(encodedName).flip();
+        try {
+            while (buffer.hasRemaining()) {
+                this.headerNamesChannel.write(buffer);
+            }
+            this.headerNamesChannel.force(false);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Failed to store the header name: " + name, e);
+        }
+    }
+
+    private static int segmentId(Path file) {
+        String fileName = file.getFileName().toString();
+        return Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static long position(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static class Segment {
+
+        private final int id;
+
+        private final Path file;
+
+        /**
+         * Written by the log lock holder only. The readers use duplicates.
+         */
+        private final MappedByteBuffer buffer;
+
+        private int recordStart;
+
+        /**
+         * Live windows with records in the segment.
+         */
+        private int liveWindows;
+
+        Segment(int id, Path file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Window {
+
+        private final Map<String, Object> headers;
+
+        private final TreeMap<String, KeyPositions> keys = new TreeMap<>();
+
+        /**
+         * Segments with records of the window.
+         */
+        private final Set<Integer> segments = new HashSet<>(4);
+
+        Window(Map<String, Object> headers) {
+            this.headers = headers;
+        }
+
+        KeyPositions keyPositions(String key) {
+            return this.keys.computeIfAbsent(key, k -> new KeyPositions());
+        }
+
+        void touch(Segment segment) {
+            if (this.segments.add(segment.id)) {
+                segment.liveWindows++;
+            }
+        }
+
+        void mergeFrom(Window source, Map<Integer, Segment> logSegments) {
+            source.keys.forEach((key, positions) -> this.keyPositions(key).addAll(positions));
+            for (Integer segmentId : source.segments) {
+                if (!this.segments.add(segmentId)) {
+                    Segment segment = logSegments.get(segmentId);
+                    if (segment != null) {
+                        segment.liveWindows--;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Log positions of the payloads of a window key: the segment id in the high and the offset in the low 32 bits.
+     */
+    private static class KeyPositions {
+
+        private long[] positions = new long[8];
+
+        private int count;
+
+        void add(long position) {
+            if (this.count == this.positions.length) {
+                this.positions = Arrays.copyOf(this.positions, this.count * 2);
+            }
+            this.positions[this.count++] = position;
+        }
+
+        void addAll(KeyPositions other) {
+            for (int i = 0; i < other.count; i++) {
+                this.add(other.positions[i]);
+            }
+        }
+    }
+
+    /**
+     * Payloads of a window key, copied from the segments as they are read.
+     */
+    private static class LogPayloads extends AbstractCollection<byte[]> {
+
+        private final Map<Integer, ByteBuffer> segmentBuffers;
+
+        private final long[] positions;
+
+        LogPayloads(Map<Integer, ByteBuffer> segmentBuffers, long[] positions) {
+            this.segmentBuffers = segmentBuffers;
+            this.positions = positions;
+        }
+
+        @Override
+        public Iterator<byte[]> iterator() {
+            return new Iterator<byte[]>() {
+
+                private int next = 0;
+
+                private int currentSegmentId = -1;
+
+                private ByteBuffer current;
+
+                @Override
+                public boolean hasNext() {
+                    return this.next < positions.length;
+                }
+
+                @Override
+                public byte[] next() {
+                    if (!this.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    long position = positions[this.next++];
+                    int segmentId = (int) (position >>> 32);
+                    if (segmentId != this.currentSegmentId) {
+                        this.current = segmentBuffers.get(segmentId).duplicate();
+                        this.currentSegmentId = segmentId;
+                    }
+                    this.current.position((int) position);
+                    byte[] payload = new byte[this.current.getInt()];
+                    this.current.get(payload);
+                    return payload;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return this.positions.length;
+        }
+    }
+}
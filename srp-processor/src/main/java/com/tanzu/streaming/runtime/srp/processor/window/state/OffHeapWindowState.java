@@ -0,0 +1,385 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.util.Assert;
+
+/**
+ * Window state that keeps the payloads outside of the Java heap.
+ *
+ * The payload bytes of every window key are appended, length prefixed, to direct memory slabs. The window headers are
+ * kept once, from the first window message. So a buffered event costs no heap objects, apart from the slab
+ * bookkeeping.
+ *
+ * The slabs of a deleted window are returned to a bounded pool and reused by the new windows. The slabs are reference
+ * counted, so a slab is only reused after the window is deleted and all entries reading from it are closed. Payloads
+ * larger than the slab size get a slab of their own, that is not pooled. Such slabs, and the released slabs above the
+ * pool bound, are freed by the garbage collector: until then they still count against -XX:MaxDirectMemorySize and
+ * against the {@link #getAllocatedBytes()}.
+ *
+ * The put, delete and merge of a window are serialized by the window map. The entries are views over the slab content
+ * at the time of the get or delete. The payloads are copied to the heap as they are read.
+ */
+public class OffHeapWindowState implements State, AutoCloseable {
+
+    private static final Log logger = LogFactory.getLog(OffHeapWindowState.class);
+
+    public static final int DEFAULT_SLAB_BYTES = 64 * 1024;
+
+    public static final int DEFAULT_MAX_POOLED_SLABS = 1024;
+
+    /**
+     * Length prefix of every payload in a slab.
+     */
+    private static final int LENGTH_BYTES = Integer.BYTES;
+
+    /**
+     * Accounts the freeing of the not pooled slabs.
+     */
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final ConcurrentHashMap<Long, Window> windows = new ConcurrentHashMap<>();
+
+    private final int slabBytes;
+
+    private final int maxPooledSlabs;
+
+    private final ConcurrentLinkedQueue<Slab> slabPool = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pooledSlabs = new AtomicInteger();
+
+    /**
+     * Direct memory held by the live slabs and by the released, not pooled, slabs not yet freed.
+     */
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    public OffHeapWindowState() {
+        this(DEFAULT_SLAB_BYTES, DEFAULT_MAX_POOLED_SLABS);
+    }
+
+    /**
+     * @param slabBytes size of the direct memory slabs the payloads are appended to.
+     * @param maxPooledSlabs number of free slabs kept for reuse. The other released slabs are left to the garbage
+     *        collector.
+     */
+    public OffHeapWindowState(int slabBytes, int maxPooledSlabs) {
+        Assert.isTrue(slabBytes > LENGTH_BYTES, "The slab size must be larger than " + LENGTH_BYTES + " bytes");
+        Assert.isTrue(maxPooledSlabs >= 0, "The maxPooledSlabs must not be negative");
+        this.slabBytes = slabBytes;
+        this.maxPooledSlabs = maxPooledSlabs;
+    }
+
+    @Override
+    public Set<Long> keys() {
+        return this.windows.keySet();
+    }
+
+    @Override
+    public void put(long timestamp, String key, Map<String, Object> headers, byte[] payload) {
+        this.windows.compute(timestamp, (ts, window) -> {
+            if (window == null) {
+                logger.info(">> START WINDOW: " + ts);
+                window = new Window(new LinkedHashMap<>(headers));
+            }
+            window.keys.computeIfAbsent(key, k -> new KeySlabs()).append(payload);
+            return window;
+        });
+    }
+
+    /**
+     * The window can still change, so the entry is a view over the payloads added so far.
+     */
+    @Override
+    public StateEntry get(long timestamp) {
+        StateEntry[] entry = new StateEntry[1];
+        this.windows.computeIfPresent(timestamp, (ts, window) -> {
+            entry[0] = this.toStateEntry(ts, window, false);
+            return window;
+        });
+        return entry[0];
+    }
+
+    /**
+     * The returned entry takes over the window slabs. They are released when the entry is closed.
+     */
+    @Override
+    public StateEntry delete(long timestamp) {
+        Window window = this.windows.remove(timestamp);
+        return (window != null) ? this.toStateEntry(timestamp, window, true) : null;
+    }
+
+    /**
+     * Moves the source slabs to the target window. No payload is copied.
+     */
+    @Override
+    public void merge(long targetTimestamp, long sourceTimestamp) {
+        Window source = this.windows.remove(sourceTimestamp);
+        if (source != null) {
+            this.windows.compute(targetTimestamp, (ts, target) -> {
+                if (target == null) {
+                    return source;
+                }
+                source.keys.forEach((key, sourceSlabs) -> target.keys.computeIfAbsent(key, k -> new KeySlabs())
+                        .moveFrom(sourceSlabs));
+                return target;
+            });
+        }
+    }
+
+    /**
+     * @return Returns the direct memory used by the window payloads, excluding the pooled slabs. Includes the released
+     *         slabs that are not pooled (e.g. of oversized payloads) until the garbage collector frees them.
+     */
+    public long getAllocatedBytes() {
+        return this.allocatedBytes.get();
+    }
+
+    @Override
+    public void close() {
+        for (Long timestamp : this.windows.keySet()) {
+            StateEntry entry = this.delete(timestamp);
+            if (entry != null) {
+                entry.close();
+            }
+        }
+        this.slabPool.clear();
+        this.pooledSlabs.set(0);
+    }
+
+    /**
+     * Must be called holding the window lock. The entry holds a reference to all the window slabs. For deleted windows
+     * the entry takes over the window's own references instead.
+     */
+    private StateEntry toStateEntry(long timestamp, Window window, boolean deleted) {
+        List<Slab> referencedSlabs = new ArrayList<>();
+        Map<String, Collection<byte[]>> keyedPayloads = new LinkedHashMap<>();
+        for (Map.Entry<String, KeySlabs> key : window.keys.entrySet()) {
+            KeySlabs keySlabs = key.getValue();
+            if (keySlabs.payloadCount > 0) {
+                int[] limits = new int[keySlabs.slabs.size()];
+                for (int i = 0; i < limits.length; i++) {
+                    Slab slab = keySlabs.slabs.get(i);
+                    limits[i] = slab.position;
+                    if (!deleted) {
+                        slab.retain();
+                    }
+                    referencedSlabs.add(slab);
+                }
+                keyedPayloads.put(key.getKey(), new SlabPayloads(new ArrayList<>(keySlabs.slabs), limits,
+                        keySlabs.payloadCount));
+            }
+            else if (deleted) {
+                referencedSlabs.addAll(keySlabs.slabs);
+            }
+        }
+        AutoCloseable release = () -> referencedSlabs.forEach(this::release);
+        if (keyedPayloads.isEmpty()) {
+            try {
+                release.close();
+            }
+            catch (Exception e) {
+                logger.error("Failed to release the slabs of window: " + timestamp, e);
+            }
+            return null;
+        }
+        return new StateEntry(timestamp, window.headers, keyedPayloads, release);
+    }
+
+    private Slab allocate(int minBytes) {
+        if (minBytes <= this.slabBytes) {
+            Slab slab = this.slabPool.poll();
+            if (slab != null) {
+                this.pooledSlabs.decrementAndGet();
+                slab.reset();
+                this.allocatedBytes.addAndGet(slab.buffer.capacity());
+                return slab;
+            }
+        }
+        int capacity = Math.max(minBytes, this.slabBytes);
+        this.allocatedBytes.addAndGet(capacity);
+        return new Slab(ByteBuffer.allocateDirect(capacity));
+    }
+
+    private void release(Slab slab) {
+        if (slab.refs.decrementAndGet() == 0) {
+            if (slab.buffer.capacity() == this.slabBytes) {
+                if (this.pooledSlabs.incrementAndGet() <= this.maxPooledSlabs) {
+                    this.allocatedBytes.addAndGet(-slab.buffer.capacity());
+                    this.slabPool.add(slab);
+                    return;
+                }
+                this.pooledSlabs.decrementAndGet();
+            }
+            // Not pooled: the direct memory stays allocated until the buffer is garbage collected.
+            AtomicLong allocatedBytes = this.allocatedBytes;
+            long capacity = slab.buffer.capacity();
+            CLEANER.register(slab.buffer, () -> allocatedBytes.addAndGet(-capacity));
+        }
+    }
+
+    private static class Window {
+
+        private final Map<String, Object> headers;
+
+        private final Map<String, KeySlabs> keys = new LinkedHashMap<>();
+
+        Window(Map<String, Object> headers) {
+            this.headers = headers;
+        }
+    }
+
+    /**
+     * The slabs of a window key. The payloads are appended to the last slab.
+     */
+    private class KeySlabs {
+
+        private final List<Slab> slabs = new ArrayList<>(1);
+
+        private int payloadCount;
+
+        void append(byte[] payload) {
+            int recordBytes = LENGTH_BYTES + payload.length;
+            Slab last = this.slabs.isEmpty() ? null : this.slabs.get(this.slabs.size() - 1);
+            if (last == null || last.remaining() < recordBytes) {
+                last = allocate(recordBytes);
+                this.slabs.add(last);
+            }
+            last.append(payload);
+            this.payloadCount++;
+        }
+
+        void moveFrom(KeySlabs source) {
+            this.slabs.addAll(source.slabs);
+            this.payloadCount += source.payloadCount;
+        }
+    }
+
+    private static class Slab {
+
+        private final ByteBuffer buffer;
+
+        /**
+         * Written bytes. Only the appends of the window lock holder change it.
+         */
+        private int position;
+
+        /**
+         * The owner window holds one reference, every open entry over the slab another one.
+         */
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        Slab(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int remaining() {
+            return this.buffer.capacity() - this.position;
+        }
+
+        /**
+         * Only the window lock holder writes through the slab buffer, the readers use duplicates of it.
+         */
+        void append(byte[] payload) {
+            this.buffer.putInt(payload.length).put(payload);
+            this.position = this.buffer.position();
+        }
+
+        void retain() {
+            this.refs.incrementAndGet();
+        }
+
+        void reset() {
+            this.buffer.clear();
+            this.position = 0;
+            this.refs.set(1);
+        }
+    }
+
+    /**
+     * The payloads of a key, up to the slab limits captured when the entry was created.
+     */
+    private static class SlabPayloads extends AbstractCollection<byte[]> {
+
+        private final List<Slab> slabs;
+
+        private final int[] limits;
+
+        private final int size;
+
+        SlabPayloads(List<Slab> slabs, int[] limits, int size) {
+            this.slabs = slabs;
+            this.limits = limits;
+            this.size = size;
+        }
+
+        @Override
+        public Iterator<byte[]> iterator() {
+            return new Iterator<byte[]>() {
+
+                private int slabIndex = -1;
+
+                private ByteBuffer current;
+
+                @Override
+                public boolean hasNext() {
+                    while (this.current == null || !this.current.hasRemaining()) {
+                        if (this.slabIndex + 1 >= slabs.size()) {
+                            return false;
+                        }
+                        this.slabIndex++;
+                        this.current = slabs.get(this.slabIndex).buffer.duplicate();
+                        this.current.limit(limits[this.slabIndex]).position(0);
+                    }
+                    return true;
+                }
+
+                @Override
+                public byte[] next() {
+                    if (!this.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    byte[] payload = new byte[this.current.getInt()];
+                    this.current.get(payload);
+                    return payload;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+    }
+}
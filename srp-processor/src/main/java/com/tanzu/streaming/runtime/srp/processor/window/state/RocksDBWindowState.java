@@ -16,43 +16,172 @@
 package com.tanzu.streaming.runtime.srp.processor.window.state;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.flink.api.common.typeutils.TypeSerializer;
 import org.apache.flink.api.common.typeutils.base.array.BytePrimitiveArraySerializer;
 import org.apache.flink.core.memory.DataOutputSerializer;
 import org.apache.flink.runtime.state.ListDelimitedSerializer;
+import org.rocksdb.Checkpoint;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.Env;
 import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
+import org.rocksdb.Snapshot;
 import org.rocksdb.StringAppendOperator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
 
-import org.springframework.util.SerializationUtils;
+import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
+/**
+ * RocksDB backed window state. Uses the column families:
+ *
+ * <ul>
+ * <li>payload-chunks - the payloads of a window are stored as delimited merge lists under the &lt;window
+ * start&gt;&lt;record key&gt;&lt;chunk&gt; keys. A new chunk (4 bytes big-endian sequence number) is started when the
+ * current one exceeds the chunk size. Non-keyed windows use the empty record key. All keys of a window are adjacent
+ * and share the window start prefix.</li>
+ * <li>windows - one entry per window, under the &lt;window start&gt; key, holding the window headers, encoded by the
+ * {@link HeaderCodec}.</li>
+ * <li>header-names - the header name dictionary of the store, the 4 bytes big-endian id to the UTF-8 name.</li>
+ * <li>chunk-index - the chunks of a window record key, under the &lt;window start&gt;&lt;record key&gt; key: the
+ * chunk ranges, the size of the last chunk and the payload count. Written together with every payload, so a restart
+ * restores the windows from one entry per record key, without reading the payloads.</li>
+ * </ul>
+ *
+ * A merge doesn't read nor rewrite the payloads: the chunk ranges of the source record keys are appended to the ones
+ * of the target keys. The merged chunks keep their source window start keys and are deleted with the target window.
+ * Until then, a new window with the same start as a merged one numbers its chunks after the merged chunks.
+ *
+ * The window start is encoded as 8 big-endian bytes with a flipped sign bit, so the byte order of the keys matches
+ * the numeric order of the window starts (including negative ones) and windows can be range seeked.
+ *
+ * The chunks of the windows are tracked in memory, so adding a message to a window is a single write batch (the
+ * payload merge and the chunk index put), without reads. Data stored with the legacy layouts (TS:/HD: prefixes, the
+ * not chunked payloads column family and no chunk index) is migrated on start.
+ *
+ * The entries returned by {@link #get(long)} and {@link #delete(long)} read from a RocksDB snapshot and decode the
+ * payloads one chunk at a time, while iterated. Such entries must be closed to release the snapshot. The peak memory
+ * used to read a window is bounded by the chunk size, not by the window size. Note that the release still serializes
+ * the whole window into a single output collection (see GrpcPayloadCollectionSeDe).
+ *
+ * The state supports concurrent readers and a writer (e.g. the consumer and the idle windows release threads) without
+ * a global lock. Window reads use a RocksDB snapshot, and the puts and deletes of the same window are serialized by
+ * the window's entry in the keys map.
+ *
+ * Between {@link #beginBatch()} and {@link #commitBatch()} the writes are collected in a RocksDB WriteBatch and
+ * written at once. Reads write the pending batch first. The write-ahead log can be disabled when the input can be
+ * replayed (e.g. from the Kafka offsets).
+ */
 public class RocksDBWindowState implements State, AutoCloseable {
 
+    private static final Log logger = LogFactory.getLog(RocksDBWindowState.class);
+
+    /**
+     * Legacy layout payloads key prefix.
+     */
     public static final byte[] TIMESTAMP_PREFIX = "TS:".getBytes();
+
+    /**
+     * Legacy layout headers key prefix.
+     */
     public static final byte[] HEADERS_PREFIX = "HD:".getBytes();
 
+    /**
+     * Default size above which a new payload chunk is started.
+     */
+    public static final long DEFAULT_CHUNK_BYTES = 1024 * 1024;
+
+    private static final byte[] PAYLOAD_CHUNKS_COLUMN_FAMILY = "payload-chunks".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] WINDOWS_COLUMN_FAMILY = "windows".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEADER_NAMES_COLUMN_FAMILY = "header-names".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CHUNK_INDEX_COLUMN_FAMILY = "chunk-index".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Legacy, not chunked, payloads column family.
+     */
+    private static final byte[] PAYLOADS_COLUMN_FAMILY = "payloads".getBytes(StandardCharsets.UTF_8);
+
     private static final String DEFAULT_DB_PATH = "/tmp/rocksdb-data/";
-    private static final String cfdbPath = "./rocksdb-data-cf/";
 
     private final TypeSerializer<byte[]> typeSerializer;
-    private final ListDelimitedSerializer listDelimitedSerializer;
+
+    /**
+     * The ListDelimitedSerializer keeps mutable (de)serialization buffers, so every thread uses its own.
+     */
+    private final ThreadLocal<ListDelimitedSerializer> listDelimitedSerializerThreadLocal;
     private final ThreadLocal<DataOutputSerializer> dataOutputViewThreadLocal;
-    private final ConcurrentHashMap<Long, Object> keys;
+
+    /**
+     * Windows with stored headers and their payload chunks. A window's chunks are guarded by its keys map entry.
+     */
+    private final ConcurrentHashMap<Long, WindowChunks> keys;
+
+    /**
+     * Chunks of the merged windows, still read by the windows they were merged into, by window start.
+     */
+    private final ConcurrentHashMap<Long, MergedChunks> mergedChunks = new ConcurrentHashMap<>();
     private final String databasePath;
+    private final boolean writeAheadLogEnabled;
+    private final long chunkBytes;
+    private final HeaderCodec headerCodec;
+
+    /**
+     * Snapshots, and their read options, held by the not yet closed entries.
+     */
+    private final ConcurrentHashMap<Snapshot, ReadOptions> openSnapshots = new ConcurrentHashMap<>();
+
+    /**
+     * Pending writes of the current batch. Null when not batching. Guarded by the batchLock.
+     */
+    private WriteBatch writeBatch;
+    private final Object batchLock = new Object();
 
-    private Options options;
+    private DBOptions dbOptions;
+    private ColumnFamilyOptions defaultOptions;
+    private ColumnFamilyOptions payloadsOptions;
+    private ColumnFamilyOptions windowsOptions;
+    private ColumnFamilyOptions headerNamesOptions;
+    private ColumnFamilyOptions chunkIndexOptions;
+    private WriteOptions writeOptions;
+    /**
+     * The header names are always written to the write-ahead log. The stored headers must not outlive their names.
+     */
+    private WriteOptions headerNamesWriteOptions;
+    private final List<ColumnFamilyHandle> columnFamilyHandles = new ArrayList<>();
+    private ColumnFamilyHandle payloadsColumnFamily;
+    private ColumnFamilyHandle windowsColumnFamily;
+    private ColumnFamilyHandle headerNamesColumnFamily;
+    private ColumnFamilyHandle chunkIndexColumnFamily;
     private RocksDB db;
 
     public RocksDBWindowState() {
@@ -60,30 +189,97 @@ public class RocksDBWindowState implements State, AutoCloseable {
     }
 
     public RocksDBWindowState(String databasePath) {
+        this(databasePath, true);
+    }
+
+    /**
+     * @param writeAheadLogEnabled if false, the writes skip the RocksDB write-ahead log. The not yet flushed writes are
+     *        lost on crash.
+     */
+    public RocksDBWindowState(String databasePath, boolean writeAheadLogEnabled) {
+        this(databasePath, writeAheadLogEnabled, DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param chunkBytes encoded size above which a new payload chunk is started. Bounds the memory used to read a
+     *        window.
+     */
+    public RocksDBWindowState(String databasePath, boolean writeAheadLogEnabled, long chunkBytes) {
+
+        Assert.isTrue(chunkBytes > 0, "The chunk size must be positive!");
 
         this.databasePath = (StringUtils.hasText(databasePath)) ? databasePath : DEFAULT_DB_PATH;
+        this.writeAheadLogEnabled = writeAheadLogEnabled;
+        this.chunkBytes = chunkBytes;
 
         this.typeSerializer = BytePrimitiveArraySerializer.INSTANCE;
-        this.listDelimitedSerializer = new ListDelimitedSerializer();
+        this.listDelimitedSerializerThreadLocal = ThreadLocal.withInitial(ListDelimitedSerializer::new);
         this.dataOutputViewThreadLocal = ThreadLocal.withInitial(() -> new DataOutputSerializer(128));
         this.keys = new ConcurrentHashMap<>();
+        this.headerCodec = new HeaderCodec(
+                new HeaderCodec.NameDictionary(HeaderCodec.NameDictionary.DEFAULT_MAX_NAMES, this::storeHeaderName));
     }
 
     @PostConstruct
     public void initialize() {
         RocksDB.loadLibrary();
-        this.options = new Options()
+        this.dbOptions = new DBOptions()
                 .setCreateIfMissing(true)
-                .useFixedLengthPrefixExtractor(0)
-                // .setDbLogDir(dbpath + "/logs/")
+                .setCreateMissingColumnFamilies(true);
+        this.dbOptions.setEnv(Env.getDefault());
+        this.dbOptions.getEnv().setBackgroundThreads(2);
+        this.payloadsOptions = new ColumnFamilyOptions()
+                .useFixedLengthPrefixExtractor(Long.BYTES)
                 .setMergeOperator(new StringAppendOperator());
-        this.options.getEnv().setBackgroundThreads(2);
+        this.windowsOptions = new ColumnFamilyOptions();
+        this.headerNamesOptions = new ColumnFamilyOptions();
+        this.chunkIndexOptions = new ColumnFamilyOptions();
+        // The default column family holds the legacy layout merge lists, if any.
+        this.defaultOptions = new ColumnFamilyOptions().setMergeOperator(new StringAppendOperator());
+        this.writeOptions = new WriteOptions().setDisableWAL(!this.writeAheadLogEnabled);
+        this.headerNamesWriteOptions = new WriteOptions();
+
+        List<ColumnFamilyDescriptor> columnFamilyDescriptors = new ArrayList<>(Arrays.asList(
+                new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, this.defaultOptions),
+                new ColumnFamilyDescriptor(PAYLOAD_CHUNKS_COLUMN_FAMILY, this.payloadsOptions),
+                new ColumnFamilyDescriptor(WINDOWS_COLUMN_FAMILY, this.windowsOptions),
+                new ColumnFamilyDescriptor(HEADER_NAMES_COLUMN_FAMILY, this.headerNamesOptions),
+                new ColumnFamilyDescriptor(CHUNK_INDEX_COLUMN_FAMILY, this.chunkIndexOptions)));
+        boolean hasChunkIndex = this.hasColumnFamily(CHUNK_INDEX_COLUMN_FAMILY);
+        boolean hasLegacyPayloads = this.hasColumnFamily(PAYLOADS_COLUMN_FAMILY);
+        if (hasLegacyPayloads) {
+            columnFamilyDescriptors.add(new ColumnFamilyDescriptor(PAYLOADS_COLUMN_FAMILY, this.payloadsOptions));
+        }
         try {
-            this.db = RocksDB.open(this.options, this.databasePath);
+            this.db = RocksDB.open(this.dbOptions, this.databasePath, columnFamilyDescriptors,
+                    this.columnFamilyHandles);
+            this.payloadsColumnFamily = this.columnFamilyHandles.get(1);
+            this.windowsColumnFamily = this.columnFamilyHandles.get(2);
+            this.headerNamesColumnFamily = this.columnFamilyHandles.get(3);
+            this.chunkIndexColumnFamily = this.columnFamilyHandles.get(4);
+            this.migrateLegacyLayout();
+            if (hasLegacyPayloads) {
+                this.migrateLegacyPayloads(this.columnFamilyHandles.get(5));
+            }
+            if (!hasChunkIndex) {
+                this.buildChunkIndex();
+            }
+            this.retrieveHeaderNames();
             this.retrieveStoredState();
         }
         catch (RocksDBException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Failed to open the window state: " + this.databasePath, e);
+        }
+    }
+
+    private boolean hasColumnFamily(byte[] columnFamilyName) {
+        try (Options options = new Options()) {
+            return RocksDB.listColumnFamilies(options, this.databasePath).stream()
+                    .anyMatch(name -> Arrays.equals(name, columnFamilyName));
+        }
+        catch (RocksDBException e) {
+            // No database yet.
+            return false;
         }
     }
 
@@ -92,23 +288,160 @@ public class RocksDBWindowState implements State, AutoCloseable {
         this.close();
     }
 
+    private void retrieveHeaderNames() {
+        try (RocksIterator iterator = this.db.newIterator(this.headerNamesColumnFamily)) {
+            iterator.seekToFirst();
+            while (iterator.isValid()) {
+                this.headerCodec.getDictionary().define(ByteBuffer.wrap(iterator.key()).getInt(),
+                        new String(iterator.value(), StandardCharsets.UTF_8));
+                iterator.next();
+            }
+        }
+    }
+
+    private void storeHeaderName(int id, String name) {
+        try {
+            this.db.put(this.headerNamesColumnFamily, this.headerNamesWriteOptions,
+                    ByteBuffer.allocate(Integer.BYTES).putInt(id).array(), name.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (RocksDBException e) {
+            throw new IllegalStateException("Failed to store the header name: " + name, e);
+        }
+    }
+
+    /**
+     * Restores the windows and their chunks from the windows and the chunk index column families, without reading the
+     * payloads.
+     */
     public void retrieveStoredState() {
-        // retrieve
-        RocksIterator iterator = this.db.newIterator();
+        try (RocksIterator iterator = this.db.newIterator(this.windowsColumnFamily)) {
+            iterator.seekToFirst();
+            while (iterator.isValid()) {
+                this.keys.putIfAbsent(decodeWindowStart(iterator.key(), 0), new WindowChunks());
+                iterator.next();
+            }
+        }
+        try (RocksIterator iterator = this.db.newIterator(this.chunkIndexColumnFamily)) {
+            iterator.seekToFirst();
+            while (iterator.isValid()) {
+                byte[] key = iterator.key();
+                WindowChunks windowChunks = this.keys.get(decodeWindowStart(key, 0));
+                if (windowChunks != null) {
+                    String recordKey = new String(key, Long.BYTES, key.length - Long.BYTES, StandardCharsets.UTF_8);
+                    KeyChunks keyChunks = KeyChunks.decode(iterator.value());
+                    windowChunks.put(recordKey, keyChunks);
+                    for (ChunkRange range : keyChunks.ranges) {
+                        if (range.windowStart != decodeWindowStart(key, 0)) {
+                            this.reserveMergedChunks(range.windowStart, recordKey, range.lastChunk);
+                        }
+                    }
+                }
+                iterator.next();
+            }
+        }
+        logger.info("Restored windows: " + this.keys.size() + ", merged windows: " + this.mergedChunks.size());
+    }
 
-        iterator.seekToFirst();
-        iterator.seek(TIMESTAMP_PREFIX);
-        while (iterator.isValid()) {
-            byte[] key = iterator.key();
-            byte[] value = iterator.value();
+    /**
+     * Builds the chunk index of a store written without it, from the payload chunk keys. The next put to a key starts
+     * a new chunk and the payload counts are unknown.
+     */
+    private void buildChunkIndex() throws RocksDBException {
+        Map<Long, WindowChunks> windows = new TreeMap<>();
+        try (RocksIterator iterator = this.db.newIterator(this.windowsColumnFamily)) {
+            iterator.seekToFirst();
+            while (iterator.isValid()) {
+                windows.put(decodeWindowStart(iterator.key(), 0), new WindowChunks());
+                iterator.next();
+            }
+        }
+        if (windows.isEmpty()) {
+            return;
+        }
+        try (RocksIterator iterator = this.db.newIterator(this.payloadsColumnFamily)) {
+            iterator.seekToFirst();
+            while (iterator.isValid()) {
+                byte[] key = iterator.key();
+                WindowChunks windowChunks = windows.get(decodeWindowStart(key, 0));
+                if (windowChunks != null) {
+                    KeyChunks keyChunks = windowChunks.get(decodeRecordKey(key));
+                    if (keyChunks == null) {
+                        keyChunks = new KeyChunks(0);
+                        keyChunks.ranges.add(new ChunkRange(decodeWindowStart(key, 0), 0, -1));
+                        keyChunks.lastChunkBytes = this.chunkBytes;
+                        keyChunks.payloadCount = -1;
+                        windowChunks.put(decodeRecordKey(key), keyChunks);
+                    }
+                    ChunkRange range = keyChunks.ranges.get(0);
+                    range.lastChunk = Math.max(range.lastChunk, decodeChunk(key));
+                    keyChunks.nextChunk = range.lastChunk + 1;
+                }
+                iterator.next();
+            }
+        }
+        try (WriteBatch batch = new WriteBatch()) {
+            for (Map.Entry<Long, WindowChunks> window : windows.entrySet()) {
+                for (Map.Entry<String, KeyChunks> keyChunks : window.getValue().entrySet()) {
+                    batch.put(this.chunkIndexColumnFamily, this.chunkIndexKey(window.getKey(), keyChunks.getKey()),
+                            keyChunks.getValue().encode());
+                }
+            }
+            // Always logged: the index is built only once, when its column family is created.
+            this.db.write(this.headerNamesWriteOptions, batch);
+        }
+        logger.info("Built the chunk index of windows: " + windows.size());
+    }
 
-            // if (key.length == 8) {
-            this.keys.putIfAbsent(bytesToLong(key), Void.TYPE);
-            // }
-            iterator.next();
-            System.out.println(">>> Key len:" + key.length);
+    /**
+     * Moves the entries of the legacy single keyspace layout, stored in the default column family, into the first
+     * payload chunks and the windows column family.
+     */
+    private void migrateLegacyLayout() throws RocksDBException {
+        int migrated = 0;
+        try (RocksIterator iterator = this.db.newIterator()) {
+            iterator.seekToFirst();
+            while (iterator.isValid()) {
+                byte[] key = iterator.key();
+                if (hasPrefix(key, TIMESTAMP_PREFIX) && key.length >= TIMESTAMP_PREFIX.length + Long.BYTES) {
+                    long windowStart = bytesToLong(key, TIMESTAMP_PREFIX.length);
+                    byte[] recordKey = Arrays.copyOfRange(key, TIMESTAMP_PREFIX.length + Long.BYTES, key.length);
+                    this.db.merge(this.payloadsColumnFamily, chunkKey(windowStart, recordKey, 0), iterator.value());
+                    migrated++;
+                }
+                else if (hasPrefix(key, HEADERS_PREFIX) && key.length == HEADERS_PREFIX.length + Long.BYTES) {
+                    this.db.put(this.windowsColumnFamily,
+                            encodeWindowStart(bytesToLong(key, HEADERS_PREFIX.length)), iterator.value());
+                }
+                this.db.delete(key);
+                iterator.next();
+            }
+        }
+        if (migrated > 0) {
+            logger.info("Migrated legacy payload lists: " + migrated);
         }
-        System.out.println("Keys Size: " + keys.size());
+    }
+
+    /**
+     * Moves the &lt;window start&gt;&lt;record key&gt; payload lists into the first chunk of the key and drops the
+     * legacy payloads column family.
+     */
+    private void migrateLegacyPayloads(ColumnFamilyHandle legacyPayloadsColumnFamily) throws RocksDBException {
+        int migrated = 0;
+        try (RocksIterator iterator = this.db.newIterator(legacyPayloadsColumnFamily)) {
+            iterator.seekToFirst();
+            while (iterator.isValid()) {
+                byte[] key = iterator.key();
+                this.db.merge(this.payloadsColumnFamily,
+                        chunkKey(decodeWindowStart(key, 0), Arrays.copyOfRange(key, Long.BYTES, key.length), 0),
+                        iterator.value());
+                migrated++;
+                iterator.next();
+            }
+        }
+        this.db.dropColumnFamily(legacyPayloadsColumnFamily);
+        this.columnFamilyHandles.remove(legacyPayloadsColumnFamily);
+        legacyPayloadsColumnFamily.close();
+        logger.info("Migrated not chunked payload lists: " + migrated);
     }
 
     @Override
@@ -116,85 +449,620 @@ public class RocksDBWindowState implements State, AutoCloseable {
         return this.keys.keySet();
     }
 
+    /**
+     * The payload (and for new windows, the headers) is written while holding the window's keys map entry, so it never
+     * interleaves with a concurrent delete of the same window.
+     */
     @Override
-    public void put(long windowStartTimeNs, Map<String, Object> headers, byte[] payload) {
+    public void put(long windowStartTimeNs, String key, Map<String, Object> headers, byte[] payload) {
         try {
             this.typeSerializer.serialize(payload, this.dataOutputViewThreadLocal.get());
-            this.db.merge(withTimestampPrefix(longToBytes(windowStartTimeNs)),
-                    this.dataOutputViewThreadLocal.get().getCopyOfBuffer());
+            byte[] encodedPayload = this.dataOutputViewThreadLocal.get().getCopyOfBuffer();
             this.dataOutputViewThreadLocal.get().clear();
 
-            this.keys.putIfAbsent(windowStartTimeNs, Void.TYPE);
+            this.keys.compute(windowStartTimeNs, (windowStart, windowChunks) -> {
+                boolean isNewWindow = (windowChunks == null);
+                if (isNewWindow) {
+                    windowChunks = new WindowChunks();
+                }
+                KeyChunks keyChunks = this.keyChunks(windowStart, windowChunks, key);
+                int chunk = keyChunks.append(windowStart, encodedPayload.length, this.chunkBytes);
+                this.writePayload(windowStart, key, chunk, keyChunks.encode(), isNewWindow ? headers : null,
+                        encodedPayload);
+                return windowChunks;
+            });
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Failed to serialize the payload of window: " + windowStartTimeNs, e);
+        }
+    }
+
+    /**
+     * Writes the payload together with the chunk index of its record key, so they are restored consistently.
+     *
+     * @param encodedChunks the encoded chunks of the record key, including the payload.
+     * @param headers the window headers to store, or null if already stored.
+     */
+    private void writePayload(long windowStartTimeNs, String key, int chunk, byte[] encodedChunks,
+            Map<String, Object> headers, byte[] encodedPayload) {
+        try {
+            synchronized (this.batchLock) {
+                if (this.writeBatch != null) {
+                    this.addPayload(this.writeBatch, windowStartTimeNs, key, chunk, encodedChunks, headers,
+                            encodedPayload);
+                    return;
+                }
+            }
 
-            if (this.db.get(withHeadersPrefix(longToBytes(windowStartTimeNs))) == null) {
-                Map<Object, Object> filteredHeaders = headers.entrySet().stream()
-                        .filter(es -> es.getValue().getClass().isPrimitive() || es.getValue().getClass().isEnum()
-                                || (es.getValue() instanceof String)
-                                || (es.getValue() instanceof Number))
-                        .collect(Collectors.toMap(e -> e.getKey(), e -> e.getValue()));
-                // filteredHeaders.entrySet().stream()
-                // .forEach(es -> System.out.println(es.getKey() + ":" + es.getKey().getClass().getSimpleName()
-                // + " - " + es.getValue() + " : " + es.getValue().getClass().getSimpleName()));
-                byte[] headerBytes = SerializationUtils.serialize(filteredHeaders);
-                this.db.put(withHeadersPrefix(longToBytes(windowStartTimeNs)), headerBytes);
+            try (WriteBatch batch = new WriteBatch()) {
+                this.addPayload(batch, windowStartTimeNs, key, chunk, encodedChunks, headers, encodedPayload);
+                this.db.write(this.writeOptions, batch);
             }
         }
-        catch (IOException e) {
-            e.printStackTrace();
+        catch (RocksDBException e) {
+            throw new IllegalStateException("Failed to write the payload of window: " + windowStartTimeNs, e);
+        }
+    }
+
+    private void addPayload(WriteBatch batch, long windowStartTimeNs, String key, int chunk, byte[] encodedChunks,
+            Map<String, Object> headers, byte[] encodedPayload) throws RocksDBException {
+        batch.merge(this.payloadsColumnFamily, chunkKey(windowStartTimeNs, key, chunk), encodedPayload);
+        batch.put(this.chunkIndexColumnFamily, this.chunkIndexKey(windowStartTimeNs, key), encodedChunks);
+        if (headers != null) {
+            batch.put(this.windowsColumnFamily, encodeWindowStart(windowStartTimeNs), this.headerCodec.encode(headers));
+        }
+    }
+
+    @Override
+    public void beginBatch() {
+        synchronized (this.batchLock) {
+            if (this.writeBatch == null) {
+                this.writeBatch = new WriteBatch();
+            }
+        }
+    }
+
+    @Override
+    public void commitBatch() {
+        synchronized (this.batchLock) {
+            if (this.writeBatch != null) {
+                try {
+                    this.writePendingBatch();
+                }
+                catch (RocksDBException e) {
+                    throw new IllegalStateException("Failed to write the window state batch", e);
+                }
+                finally {
+                    this.writeBatch.close();
+                    this.writeBatch = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the pending batch, if any. The batch stays open.
+     */
+    public void flush() {
+        try {
+            this.flushBatch();
         }
         catch (RocksDBException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Failed to write the pending batch", e);
+        }
+    }
+
+    /**
+     * Writes the pending batch, if any, so that the following reads see it. The batch stays open.
+     */
+    private void flushBatch() throws RocksDBException {
+        synchronized (this.batchLock) {
+            if (this.writeBatch != null) {
+                this.writePendingBatch();
+            }
         }
     }
 
+    private void writePendingBatch() throws RocksDBException {
+        if (this.writeBatch.count() > 0) {
+            this.db.write(this.writeOptions, this.writeBatch);
+            this.writeBatch.clear();
+        }
+    }
+
+    /**
+     * @return Returns a snapshot backed entry. Must be closed.
+     */
     @Override
     public StateEntry get(long timestamp) {
-        return this.internalGet(timestamp);
+        AtomicReference<StateEntry> entry = new AtomicReference<>();
+        this.keys.computeIfPresent(timestamp, (windowStart, windowChunks) -> {
+            try {
+                this.flushBatch();
+                entry.set(this.readWindow(windowStart, windowChunks));
+            }
+            catch (RocksDBException e) {
+                throw new IllegalStateException("Failed to read window: " + windowStart, e);
+            }
+            return windowChunks;
+        });
+        return entry.get();
     }
 
+    /**
+     * Removes the window while holding its keys map entry. Concurrent deletes of the same window return the window
+     * content only once. The returned entry reads the removed window from a snapshot and must be closed.
+     */
     @Override
     public StateEntry delete(long timestamp) {
-        try {
-            StateEntry stateEntry = this.internalGet(timestamp);
-            this.db.delete(withTimestampPrefix(longToBytes(timestamp)));
-            this.db.delete(withHeadersPrefix(longToBytes(timestamp)));
-            this.keys.remove(timestamp);
-            return stateEntry;
+        AtomicReference<StateEntry> deletedEntry = new AtomicReference<>();
+        this.keys.computeIfPresent(timestamp, (windowStart, windowChunks) -> {
+            try (WriteBatch batch = new WriteBatch()) {
+                this.flushBatch();
+                deletedEntry.set(this.readWindow(windowStart, windowChunks));
+                this.deleteWindow(batch, windowStart, windowChunks);
+                this.db.write(this.writeOptions, batch);
+                this.releaseMergedChunks(windowStart, windowChunks);
+                return null;
+            }
+            catch (RocksDBException e) {
+                StateEntry entry = deletedEntry.getAndSet(null);
+                if (entry != null) {
+                    entry.close();
+                }
+                throw new IllegalStateException("Failed to delete window: " + windowStart, e);
+            }
+        });
+        return deletedEntry.get();
+    }
+
+    /**
+     * The source is taken and removed while holding its keys map entry, like the puts and deletes, so a concurrent put
+     * to the source starts a new window, numbering its chunks after the merged ones. The source chunk ranges are then
+     * appended to the target record keys, while holding the target's keys map entry. No payload is read or written.
+     */
+    @Override
+    public void merge(long targetTimestamp, long sourceTimestamp) {
+        if (targetTimestamp == sourceTimestamp) {
+            return;
         }
-        catch (RocksDBException e) {
-            e.printStackTrace();
+        WindowChunks[] sourceChunks = new WindowChunks[1];
+        byte[][] sourceHeaders = new byte[1][];
+        this.keys.computeIfPresent(sourceTimestamp, (windowStart, windowChunks) -> {
+            try (WriteBatch batch = new WriteBatch()) {
+                this.flushBatch();
+                sourceHeaders[0] = this.db.get(this.windowsColumnFamily, encodeWindowStart(windowStart));
+                this.deleteWindowEntries(batch, windowStart, windowChunks);
+                this.db.write(this.writeOptions, batch);
+            }
+            catch (RocksDBException e) {
+                throw new IllegalStateException("Failed to remove the merged window: " + windowStart, e);
+            }
+            for (Map.Entry<String, KeyChunks> keyChunks : windowChunks.entrySet()) {
+                for (ChunkRange range : keyChunks.getValue().ranges) {
+                    if (range.windowStart == windowStart) {
+                        this.reserveMergedChunks(windowStart, keyChunks.getKey(), range.lastChunk);
+                    }
+                }
+            }
+            sourceChunks[0] = windowChunks;
+            return null;
+        });
+        if (sourceChunks[0] == null) {
+            return;
+        }
+
+        this.keys.compute(targetTimestamp, (windowStart, targetChunks) -> {
+            try (WriteBatch batch = new WriteBatch()) {
+                WindowChunks mergedChunks = (targetChunks != null) ? targetChunks : new WindowChunks();
+                for (Map.Entry<String, KeyChunks> sourceKeyChunks : sourceChunks[0].entrySet()) {
+                    KeyChunks targetKeyChunks = this.keyChunks(windowStart, mergedChunks, sourceKeyChunks.getKey());
+                    targetKeyChunks.ranges.addAll(sourceKeyChunks.getValue().ranges);
+                    targetKeyChunks.addPayloadCount(sourceKeyChunks.getValue().payloadCount);
+                    batch.put(this.chunkIndexColumnFamily,
+                            this.chunkIndexKey(windowStart, sourceKeyChunks.getKey()), targetKeyChunks.encode());
+                }
+                if (targetChunks == null && sourceHeaders[0] != null) {
+                    batch.put(this.windowsColumnFamily, encodeWindowStart(windowStart), sourceHeaders[0]);
+                }
+
+                this.flushBatch();
+                this.db.write(this.writeOptions, batch);
+                return (targetChunks != null || !mergedChunks.isEmpty()) ? mergedChunks : null;
+            }
+            catch (RocksDBException e) {
+                throw new IllegalStateException(
+                        "Failed to merge window: " + sourceTimestamp + " into: " + windowStart, e);
+            }
+        });
+    }
+
+    /**
+     * @return Returns the chunks of the window record key, new chunks are numbered after the merged ones.
+     */
+    private KeyChunks keyChunks(long windowStart, WindowChunks windowChunks, String key) {
+        KeyChunks keyChunks = windowChunks.get(key);
+        if (keyChunks == null) {
+            MergedChunks merged = this.mergedChunks.get(windowStart);
+            Integer lastMergedChunk = (merged != null) ? merged.lastChunks.get(key) : null;
+            keyChunks = new KeyChunks((lastMergedChunk != null) ? lastMergedChunk + 1 : 0);
+            windowChunks.put(key, keyChunks);
+        }
+        return keyChunks;
+    }
+
+    private void reserveMergedChunks(long windowStart, String key, int lastChunk) {
+        this.mergedChunks.compute(windowStart, (start, merged) -> {
+            MergedChunks reserved = (merged != null) ? merged : new MergedChunks();
+            reserved.lastChunks.merge(key, lastChunk, Math::max);
+            reserved.references++;
+            return reserved;
+        });
+    }
+
+    /**
+     * Releases the merged chunk ranges of the deleted window. Must be called once the chunks are deleted.
+     */
+    private void releaseMergedChunks(long timestamp, WindowChunks windowChunks) {
+        for (Map.Entry<String, KeyChunks> keyChunks : windowChunks.entrySet()) {
+            for (ChunkRange range : keyChunks.getValue().ranges) {
+                if (range.windowStart != timestamp) {
+                    this.mergedChunks.computeIfPresent(range.windowStart,
+                            (start, merged) -> (--merged.references > 0) ? merged : null);
+                }
+            }
         }
-        return null;
     }
 
-    private StateEntry internalGet(long timestamp) {
+    /**
+     * Creates a window entry, reading the payload chunks lazily from a new snapshot. The pending batch must be flushed.
+     * @return Returns the entry or null if the window has no payloads.
+     */
+    private StateEntry readWindow(long timestamp, WindowChunks windowChunks) throws RocksDBException {
+        if (windowChunks.isEmpty()) {
+            return null;
+        }
+        Snapshot snapshot = this.db.getSnapshot();
+        ReadOptions readOptions = new ReadOptions().setSnapshot(snapshot);
+        this.openSnapshots.put(snapshot, readOptions);
+        AutoCloseable release = () -> this.releaseSnapshot(snapshot);
+
         try {
-            byte[] encodedPayloads = this.db.get(withTimestampPrefix(longToBytes(timestamp)));
-            if (encodedPayloads != null) {
-                List<byte[]> payloads = this.listDelimitedSerializer.deserializeList(encodedPayloads,
-                        this.typeSerializer);
+            byte[] headerBytes = this.db.get(this.windowsColumnFamily, readOptions, encodeWindowStart(timestamp));
+            Map<String, Object> headers = this.headerCodec.decode(headerBytes);
+
+            Map<String, Collection<byte[]>> keyedPayloads = new LinkedHashMap<>();
+            for (Map.Entry<String, KeyChunks> keyChunks : windowChunks.entrySet()) {
+                keyedPayloads.put(keyChunks.getKey(), new ChunkedPayloads(readOptions, timestamp, keyChunks.getKey(),
+                        keyChunks.getValue().copyRanges(), keyChunks.getValue().payloadCount));
+            }
+            return new StateEntry(timestamp, headers, keyedPayloads, release);
+        }
+        catch (RocksDBException | RuntimeException e) {
+            this.releaseSnapshot(snapshot);
+            throw e;
+        }
+    }
 
-                byte[] headerBytes = this.db.get(withHeadersPrefix(longToBytes(timestamp)));
-                Map<String, Object> headers = (Map<String, Object>) SerializationUtils.deserialize(headerBytes);
+    private void releaseSnapshot(Snapshot snapshot) {
+        ReadOptions readOptions = this.openSnapshots.remove(snapshot);
+        if (readOptions != null) {
+            this.db.releaseSnapshot(snapshot);
+            readOptions.close();
+        }
+    }
 
-                return new StateEntry(timestamp, headers, payloads);
+    /**
+     * Adds the deletion of the window payload chunks, including the merged ones, chunk index and headers to the batch.
+     * The pending batch must be flushed.
+     */
+    private void deleteWindow(WriteBatch batch, long timestamp, WindowChunks windowChunks) throws RocksDBException {
+        for (Map.Entry<String, KeyChunks> keyChunks : windowChunks.entrySet()) {
+            for (ChunkRange range : keyChunks.getValue().ranges) {
+                if (range.firstChunk <= range.lastChunk) {
+                    batch.deleteRange(this.payloadsColumnFamily,
+                            chunkKey(range.windowStart, keyChunks.getKey(), range.firstChunk),
+                            chunkKey(range.windowStart, keyChunks.getKey(), range.lastChunk + 1));
+                }
             }
         }
-        catch (RocksDBException e) {
-            e.printStackTrace();
+        this.deleteWindowEntries(batch, timestamp, windowChunks);
+    }
+
+    /**
+     * Adds the deletion of the window chunk index and headers, but not of the payload chunks, to the batch.
+     */
+    private void deleteWindowEntries(WriteBatch batch, long timestamp, WindowChunks windowChunks)
+            throws RocksDBException {
+        for (Map.Entry<String, KeyChunks> keyChunks : windowChunks.entrySet()) {
+            batch.delete(this.chunkIndexColumnFamily, this.chunkIndexKey(timestamp, keyChunks.getKey()));
+        }
+        batch.delete(this.windowsColumnFamily, encodeWindowStart(timestamp));
+    }
+
+    public String getDatabasePath() {
+        return this.databasePath;
+    }
+
+    /**
+     * Creates a RocksDB checkpoint of the state in the directory, that must not exist. The memtables are flushed
+     * first, so the checkpoint includes all writes, also with the write-ahead log disabled. The SST files are hard
+     * linked, not copied.
+     */
+    public void createCheckpoint(Path directory) throws RocksDBException {
+        this.flushBatch();
+        try (Checkpoint checkpoint = Checkpoint.create(this.db)) {
+            checkpoint.createCheckpoint(directory.toString());
         }
-        return null;
     }
 
     @Override
     public void close() {
+        this.commitBatch();
+        for (Snapshot snapshot : this.openSnapshots.keySet()) {
+            this.releaseSnapshot(snapshot);
+        }
+        for (ColumnFamilyHandle columnFamilyHandle : this.columnFamilyHandles) {
+            columnFamilyHandle.close();
+        }
+        this.columnFamilyHandles.clear();
         if (this.db != null) {
             this.db.close();
         }
-        if (this.options != null) {
-            this.options.close();
+        if (this.writeOptions != null) {
+            this.writeOptions.close();
+        }
+        if (this.payloadsOptions != null) {
+            this.payloadsOptions.close();
+        }
+        if (this.windowsOptions != null) {
+            this.windowsOptions.close();
+        }
+        if (this.headerNamesOptions != null) {
+            this.headerNamesOptions.close();
+        }
+        if (this.chunkIndexOptions != null) {
+            this.chunkIndexOptions.close();
+        }
+        if (this.headerNamesWriteOptions != null) {
+            this.headerNamesWriteOptions.close();
+        }
+        if (this.defaultOptions != null) {
+            this.defaultOptions.close();
+        }
+        if (this.dbOptions != null) {
+            this.dbOptions.close();
         }
         this.keys.clear();
+        this.mergedChunks.clear();
+    }
+
+    /**
+     * Payloads of a record key, decoded one chunk at a time from the entry's snapshot.
+     */
+    private class ChunkedPayloads extends AbstractCollection<byte[]> {
+
+        private final ReadOptions readOptions;
+        private final long windowStart;
+        private final String key;
+        private final List<ChunkRange> ranges;
+
+        /**
+         * Negative until counted, if unknown.
+         */
+        private long payloadCount;
+
+        ChunkedPayloads(ReadOptions readOptions, long windowStart, String key, List<ChunkRange> ranges,
+                long payloadCount) {
+            this.readOptions = readOptions;
+            this.windowStart = windowStart;
+            this.key = key;
+            this.ranges = ranges;
+            this.payloadCount = payloadCount;
+        }
+
+        @Override
+        public Iterator<byte[]> iterator() {
+            return new Iterator<byte[]>() {
+
+                private int nextRange = 0;
+                private ChunkRange range;
+                private int nextChunk = 0;
+                private Iterator<byte[]> chunkPayloads = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!this.chunkPayloads.hasNext()) {
+                        if (this.range != null && this.nextChunk <= this.range.lastChunk) {
+                            this.chunkPayloads = readChunk(this.range.windowStart, this.nextChunk++).iterator();
+                        }
+                        else if (this.nextRange < ranges.size()) {
+                            this.range = ranges.get(this.nextRange++);
+                            this.nextChunk = this.range.firstChunk;
+                        }
+                        else {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+
+                @Override
+                public byte[] next() {
+                    if (!this.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return this.chunkPayloads.next();
+                }
+            };
+        }
+
+        private List<byte[]> readChunk(long chunkWindowStart, int chunk) {
+            try {
+                byte[] encodedPayloads = db.get(payloadsColumnFamily, this.readOptions,
+                        chunkKey(chunkWindowStart, this.key, chunk));
+                if (encodedPayloads == null) {
+                    return Collections.emptyList();
+                }
+                return listDelimitedSerializerThreadLocal.get().deserializeList(encodedPayloads, typeSerializer);
+            }
+            catch (RocksDBException e) {
+                throw new IllegalStateException("Failed to read the payloads of window: " + this.windowStart, e);
+            }
+        }
+
+        @Override
+        public int size() {
+            if (this.payloadCount < 0) {
+                long count = 0;
+                for (ChunkRange range : this.ranges) {
+                    for (int chunk = range.firstChunk; chunk <= range.lastChunk; chunk++) {
+                        count += this.readChunk(range.windowStart, chunk).size();
+                    }
+                }
+                this.payloadCount = count;
+            }
+            return (int) this.payloadCount;
+        }
+    }
+
+    /**
+     * Payload chunks of a window, by record key. The keys are sorted, like the stored chunk keys.
+     */
+    private static class WindowChunks {
+
+        private final TreeMap<String, KeyChunks> keyChunks = new TreeMap<>();
+
+        KeyChunks get(String key) {
+            return this.keyChunks.get(key);
+        }
+
+        void put(String key, KeyChunks chunks) {
+            this.keyChunks.put(key, chunks);
+        }
+
+        boolean isEmpty() {
+            return this.keyChunks.isEmpty();
+        }
+
+        Set<Map.Entry<String, KeyChunks>> entrySet() {
+            return this.keyChunks.entrySet();
+        }
+    }
+
+    /**
+     * Consecutive chunks of a record key, stored under the window start of the window that wrote them.
+     */
+    private static class ChunkRange {
+
+        private final long windowStart;
+        private final int firstChunk;
+        private int lastChunk;
+
+        ChunkRange(long windowStart, int firstChunk, int lastChunk) {
+            this.windowStart = windowStart;
+            this.firstChunk = firstChunk;
+            this.lastChunk = lastChunk;
+        }
+    }
+
+    /**
+     * Chunks of a window record key, in payload order: the window's own chunks and the chunks of the windows merged
+     * into it. The payloads are appended to the own chunk range when it is the last range, otherwise to a new one.
+     */
+    private static class KeyChunks {
+
+        private final List<ChunkRange> ranges = new ArrayList<>();
+
+        /**
+         * Next own chunk. The own chunks are numbered after the chunks of a merged window with the same start.
+         */
+        private int nextChunk;
+        private long lastChunkBytes = 0;
+
+        /**
+         * Negative if unknown (e.g. migrated windows).
+         */
+        private long payloadCount = 0;
+
+        KeyChunks(int nextChunk) {
+            this.nextChunk = nextChunk;
+        }
+
+        /**
+         * Accounts a new encoded payload.
+         * @return Returns the chunk to append the payload to.
+         */
+        int append(long windowStart, int encodedBytes, long chunkBytes) {
+            ChunkRange last = this.ranges.isEmpty() ? null : this.ranges.get(this.ranges.size() - 1);
+            if (last == null || last.windowStart != windowStart) {
+                last = new ChunkRange(windowStart, this.nextChunk, this.nextChunk - 1);
+                this.ranges.add(last);
+            }
+            if (last.lastChunk < last.firstChunk
+                    || (this.lastChunkBytes > 0 && this.lastChunkBytes + encodedBytes > chunkBytes)) {
+                last.lastChunk = this.nextChunk++;
+                this.lastChunkBytes = 0;
+            }
+            // Plus the list delimiter.
+            this.lastChunkBytes += encodedBytes + 1;
+            if (this.payloadCount >= 0) {
+                this.payloadCount++;
+            }
+            return last.lastChunk;
+        }
+
+        void addPayloadCount(long count) {
+            this.payloadCount = (this.payloadCount < 0 || count < 0) ? -1 : this.payloadCount + count;
+        }
+
+        /**
+         * @return Returns a copy of the ranges, unaffected by the later appends.
+         */
+        List<ChunkRange> copyRanges() {
+            List<ChunkRange> copy = new ArrayList<>(this.ranges.size());
+            for (ChunkRange range : this.ranges) {
+                copy.add(new ChunkRange(range.windowStart, range.firstChunk, range.lastChunk));
+            }
+            return copy;
+        }
+
+        /**
+         * @return Returns the chunk index entry: the next chunk, the last chunk size, the payload count and the chunk
+         *         ranges.
+         */
+        byte[] encode() {
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + 2 * Long.BYTES + Integer.BYTES
+                    + this.ranges.size() * (Long.BYTES + 2 * Integer.BYTES));
+            buffer.putInt(this.nextChunk).putLong(this.lastChunkBytes).putLong(this.payloadCount)
+                    .putInt(this.ranges.size());
+            for (ChunkRange range : this.ranges) {
+                buffer.putLong(range.windowStart).putInt(range.firstChunk).putInt(range.lastChunk);
+            }
+            return buffer.array();
+        }
+
+        static KeyChunks decode(byte[] bytes) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            KeyChunks keyChunks = new KeyChunks(buffer.getInt());
+            keyChunks.lastChunkBytes = buffer.getLong();
+            keyChunks.payloadCount = buffer.getLong();
+            int rangeCount = buffer.getInt();
+            for (int i = 0; i < rangeCount; i++) {
+                keyChunks.ranges.add(new ChunkRange(buffer.getLong(), buffer.getInt(), buffer.getInt()));
+            }
+            return keyChunks;
+        }
+    }
+
+    /**
+     * Last merged chunk by record key and the number of ranges still referencing them.
+     */
+    private static class MergedChunks {
+
+        private final Map<String, Integer> lastChunks = new ConcurrentHashMap<>();
+
+        private int references;
     }
 
     public byte[] longToBytes(long longValue) {
@@ -206,27 +1074,76 @@ public class RocksDBWindowState implements State, AutoCloseable {
         return result;
     }
 
-    private long bytesToLong(final byte[] bytes) {
+    private long bytesToLong(final byte[] bytes, int offset) {
         long result = 0;
-        for (int i = 0; i < Long.BYTES; i++) {
+        for (int i = offset; i < offset + Long.BYTES; i++) {
             result <<= Byte.SIZE;
             result |= (bytes[i] & 0xFF);
         }
         return result;
     }
 
-    private byte[] concat(byte[] first, byte[] second) {
-        byte[] result = new byte[first.length + second.length];
-        System.arraycopy(first, 0, result, 0, first.length);
-        System.arraycopy(second, 0, result, first.length, second.length);
+    /**
+     * Order preserving window start encoding. Flipping the sign bit sorts the negative values first.
+     */
+    private byte[] encodeWindowStart(long windowStart) {
+        return longToBytes(windowStart ^ Long.MIN_VALUE);
+    }
+
+    private long decodeWindowStart(byte[] bytes, int offset) {
+        return bytesToLong(bytes, offset) ^ Long.MIN_VALUE;
+    }
+
+    private boolean hasPrefix(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] chunkKey(long windowStartTimeNs, String key, int chunk) {
+        return chunkKey(windowStartTimeNs,
+                (key == null) ? new byte[0] : key.getBytes(StandardCharsets.UTF_8), chunk);
+    }
+
+    /**
+     * @return Returns the &lt;window start&gt;&lt;record key&gt;&lt;chunk&gt; key.
+     */
+    private byte[] chunkKey(long windowStartTimeNs, byte[] recordKey, int chunk) {
+        byte[] result = new byte[Long.BYTES + recordKey.length + Integer.BYTES];
+        System.arraycopy(encodeWindowStart(windowStartTimeNs), 0, result, 0, Long.BYTES);
+        System.arraycopy(recordKey, 0, result, Long.BYTES, recordKey.length);
+        for (int i = 0; i < Integer.BYTES; i++) {
+            result[result.length - 1 - i] = (byte) (chunk >>> (i * Byte.SIZE));
+        }
+        return result;
+    }
+
+    /**
+     * @return Returns the &lt;window start&gt;&lt;record key&gt; chunk index key.
+     */
+    private byte[] chunkIndexKey(long windowStartTimeNs, String key) {
+        byte[] recordKey = (key == null) ? new byte[0] : key.getBytes(StandardCharsets.UTF_8);
+        byte[] result = new byte[Long.BYTES + recordKey.length];
+        System.arraycopy(encodeWindowStart(windowStartTimeNs), 0, result, 0, Long.BYTES);
+        System.arraycopy(recordKey, 0, result, Long.BYTES, recordKey.length);
         return result;
     }
 
-    private byte[] withTimestampPrefix(byte[] data) {
-        return concat(TIMESTAMP_PREFIX, data);
+    private static String decodeRecordKey(byte[] chunkKey) {
+        return new String(chunkKey, Long.BYTES, chunkKey.length - Long.BYTES - Integer.BYTES, StandardCharsets.UTF_8);
     }
 
-    private byte[] withHeadersPrefix(byte[] data) {
-        return concat(HEADERS_PREFIX, data);
+    private static int decodeChunk(byte[] chunkKey) {
+        int chunk = 0;
+        for (int i = chunkKey.length - Integer.BYTES; i < chunkKey.length; i++) {
+            chunk = (chunk << Byte.SIZE) | (chunkKey[i] & 0xFF);
+        }
+        return chunk;
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Input offsets restored from the window snapshots or checkpoints, by source (e.g. topic:partition). The input is
+ * replayed after these offsets. With multiple snapshots (e.g. one per window worker) the lowest offset of a source is
+ * kept, so every snapshot gets the messages it is missing. Every {@link SnapshottingState} and
+ * {@link CheckpointingState} skips the replayed messages it already contains.
+ */
+public class SnapshotOffsets {
+
+    public static final String KAFKA_TOPIC_HEADER = "kafka_receivedTopic";
+    public static final String KAFKA_PARTITION_HEADER = "kafka_receivedPartitionId";
+    public static final String KAFKA_OFFSET_HEADER = "kafka_offset";
+
+    private final ConcurrentHashMap<String, Long> offsets = new ConcurrentHashMap<>();
+
+    public static String kafkaSource(String topic, int partition) {
+        return topic + ":" + partition;
+    }
+
+    /**
+     * @return Returns the Kafka source of the message headers or null if not received from Kafka.
+     */
+    public static String kafkaSource(Map<String, Object> headers) {
+        Object topic = headers.get(KAFKA_TOPIC_HEADER);
+        Long partition = toLong(headers.get(KAFKA_PARTITION_HEADER));
+        return (topic != null && partition != null) ? kafkaSource(topic.toString(), partition.intValue()) : null;
+    }
+
+    /**
+     * @return Returns the Kafka offset of the message headers or null if not received from Kafka.
+     */
+    public static Long kafkaOffset(Map<String, Object> headers) {
+        return toLong(headers.get(KAFKA_OFFSET_HEADER));
+    }
+
+    private static Long toLong(Object value) {
+        return (value instanceof Number) ? ((Number) value).longValue() : null;
+    }
+
+    public void merge(Map<String, Long> snapshotOffsets) {
+        snapshotOffsets.forEach((source, offset) -> this.offsets.merge(source, offset, Math::min));
+    }
+
+    /**
+     * @return Returns the last offset included by all snapshots or null if unknown.
+     */
+    public Long getOffset(String source) {
+        return this.offsets.get(source);
+    }
+
+    public boolean isEmpty() {
+        return this.offsets.isEmpty();
+    }
+}
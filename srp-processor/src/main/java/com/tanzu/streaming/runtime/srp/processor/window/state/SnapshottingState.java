@@ -0,0 +1,250 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.util.Assert;
+
+/**
+ * {@link InMemoryState} with periodic local snapshots, restored on start.
+ *
+ * The snapshot is captured on the processing thread, right after a message is added (or after the batch of a
+ * consumer poll), so it includes exactly the messages up to the tracked input offsets. Capturing copies only the
+ * message references. Writing the {@link WindowSnapshot} file is asynchronous, at most one write is in flight.
+ *
+ * The Kafka offsets are tracked from the kafka_receivedTopic, kafka_receivedPartitionId and kafka_offset headers. On
+ * restore, the offsets are published to the {@link SnapshotOffsets}, so the input can be replayed after them. Replayed
+ * messages already contained in the snapshot are skipped.
+ */
+public class SnapshottingState implements State, AutoCloseable {
+
+    private static final Log logger = LogFactory.getLog(SnapshottingState.class);
+
+    private final InMemoryState delegate;
+
+    private final Path snapshotFile;
+
+    private final long snapshotIntervalMs;
+
+    private final SnapshotOffsets snapshotOffsets;
+
+    /**
+     * Last offset added to the state, by source.
+     */
+    private final Map<String, Long> offsets = new ConcurrentHashMap<>();
+
+    /**
+     * Offsets of the restored snapshot, by source.
+     */
+    private Map<String, Long> restoredOffsets = Collections.emptyMap();
+
+    private final ExecutorService snapshotExecutor;
+
+    private final AtomicBoolean snapshotInFlight = new AtomicBoolean(false);
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private volatile long lastSnapshotMs;
+
+    /**
+     * Set between beginBatch and commitBatch. Accessed by the processing thread only.
+     */
+    private boolean inBatch = false;
+
+    /**
+     * @param snapshotOffsets receives the restored offsets. Can be null.
+     */
+    public SnapshottingState(InMemoryState delegate, Path snapshotFile, Duration snapshotInterval,
+            SnapshotOffsets snapshotOffsets) {
+        Assert.notNull(delegate, "The in-memory state must be set!");
+        Assert.notNull(snapshotFile, "The snapshot file must be set!");
+        Assert.isTrue(snapshotInterval != null && !snapshotInterval.isNegative() && !snapshotInterval.isZero(),
+                "The snapshot interval must be positive!");
+        this.delegate = delegate;
+        this.snapshotFile = snapshotFile;
+        this.snapshotIntervalMs = snapshotInterval.toMillis();
+        this.snapshotOffsets = snapshotOffsets;
+        this.snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "srp-state-snapshot-" + snapshotFile.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Restores the last snapshot, if any. Must be called before the state is used.
+     */
+    @PostConstruct
+    public void initialize() {
+        this.lastSnapshotMs = System.currentTimeMillis();
+        try {
+            Files.createDirectories(this.snapshotFile.getParent());
+            if (!Files.exists(this.snapshotFile)) {
+                logger.info("No window snapshot: " + this.snapshotFile);
+                return;
+            }
+            long start = System.currentTimeMillis();
+            WindowSnapshot snapshot = WindowSnapshot.readFrom(this.snapshotFile);
+            this.delegate.restore(snapshot.getWindows());
+            this.restoredOffsets = snapshot.getOffsets();
+            this.offsets.putAll(snapshot.getOffsets());
+            if (this.snapshotOffsets != null) {
+                this.snapshotOffsets.merge(snapshot.getOffsets());
+            }
+            logger.info("Restored window snapshot: " + this.snapshotFile + ", windows: "
+                    + snapshot.getWindows().size() + ", offsets: " + snapshot.getOffsets() + ", created at: "
+                    + snapshot.getCreatedAtMs() + ", in: " + (System.currentTimeMillis() - start) + "ms");
+        }
+        catch (IOException | RuntimeException e) {
+            logger.warn("Failed to restore the window snapshot: " + this.snapshotFile + ", starting empty", e);
+        }
+    }
+
+    @Override
+    public Set<Long> keys() {
+        return this.delegate.keys();
+    }
+
+    @Override
+    public void put(long timestamp, String key, Map<String, Object> headers, byte[] payload) {
+        String source = SnapshotOffsets.kafkaSource(headers);
+        Long offset = (source != null) ? SnapshotOffsets.kafkaOffset(headers) : null;
+        if (offset != null) {
+            Long restoredOffset = this.restoredOffsets.get(source);
+            if (restoredOffset != null && offset <= restoredOffset) {
+                // Replayed message, already in the restored snapshot.
+                return;
+            }
+        }
+
+        this.delegate.put(timestamp, key, headers, payload);
+
+        if (offset != null) {
+            this.offsets.put(source, offset);
+        }
+        if (!this.inBatch) {
+            this.snapshotIfDue();
+        }
+    }
+
+    @Override
+    public StateEntry get(long timestamp) {
+        return this.delegate.get(timestamp);
+    }
+
+    @Override
+    public StateEntry delete(long timestamp) {
+        return this.delegate.delete(timestamp);
+    }
+
+    @Override
+    public void merge(long targetTimestamp, long sourceTimestamp) {
+        this.delegate.merge(targetTimestamp, sourceTimestamp);
+    }
+
+    @Override
+    public void beginBatch() {
+        this.inBatch = true;
+    }
+
+    @Override
+    public void commitBatch() {
+        this.inBatch = false;
+        this.snapshotIfDue();
+    }
+
+    /**
+     * Captures a snapshot, if the interval has elapsed and the previous snapshot is written, and writes it
+     * asynchronously.
+     */
+    private void snapshotIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - this.lastSnapshotMs < this.snapshotIntervalMs || !this.snapshotInFlight.compareAndSet(false, true)) {
+            return;
+        }
+        this.lastSnapshotMs = now;
+        WindowSnapshot snapshot = this.capture(now);
+        try {
+            this.snapshotExecutor.execute(() -> {
+                try {
+                    this.write(snapshot);
+                }
+                finally {
+                    this.snapshotInFlight.set(false);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            this.snapshotInFlight.set(false);
+            logger.error("Failed to schedule the window snapshot: " + this.snapshotFile, e);
+        }
+    }
+
+    private WindowSnapshot capture(long now) {
+        return new WindowSnapshot(now, new HashMap<>(this.offsets), this.delegate.capture());
+    }
+
+    private void write(WindowSnapshot snapshot) {
+        try {
+            long start = System.currentTimeMillis();
+            long bytes = snapshot.writeTo(this.snapshotFile);
+            logger.info("Window snapshot: " + this.snapshotFile + ", windows: " + snapshot.getWindows().size()
+                    + ", bytes: " + bytes + ", in: " + (System.currentTimeMillis() - start) + "ms");
+        }
+        catch (IOException e) {
+            logger.error("Failed to write the window snapshot: " + this.snapshotFile, e);
+        }
+    }
+
+    /**
+     * Waits for the in-flight snapshot and writes a final one. The processing must be stopped.
+     */
+    @Override
+    @PreDestroy
+    public void close() throws IOException {
+        if (!this.closed.compareAndSet(false, true)) {
+            return;
+        }
+        this.snapshotExecutor.shutdown();
+        try {
+            this.snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.write(this.capture(System.currentTimeMillis()));
+        this.delegate.close();
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.util.Assert;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Memory bounded window state. The windows are kept on-heap, in an {@link InMemoryState}, while their estimated size
+ * is within the memory budget. Above the budget, the coldest windows are spilled to a local {@link RocksDBWindowState}.
+ * The windows are released in window start order, so the coldest are the newest (latest window start first), while
+ * the oldest windows, released next, stay on-heap. A spilled window stays on disk, new messages are appended there and
+ * the window is read back transparently on get and delete.
+ *
+ * The window size is estimated from the payload sizes plus a fixed per-message overhead.
+ *
+ * A spilled window is flushed to the spill store right away, also within an open write batch, so the following reads
+ * see it.
+ *
+ * The spill store is a cache of this state and is wiped on start. Like the in-memory state, the windows do not
+ * survive restarts.
+ */
+public class SpillableWindowState implements State, AutoCloseable {
+
+    private static final Log logger = LogFactory.getLog(SpillableWindowState.class);
+
+    /**
+     * Estimated on-heap size of a stored message, excluding the payload (message, headers and queue node).
+     */
+    static final long MESSAGE_OVERHEAD_BYTES = 128;
+
+    private final long memoryBudgetBytes;
+
+    private final String spillPath;
+
+    private final InMemoryState memoryState = new InMemoryState();
+
+    private final RocksDBWindowState spillState;
+
+    /**
+     * Estimated size of the on-heap windows, ordered by window start. Guarded by this.
+     */
+    private final TreeMap<Long, Long> memoryWindowBytes = new TreeMap<>();
+
+    /**
+     * Guarded by this.
+     */
+    private final Set<Long> spilledWindows = new HashSet<>();
+
+    private long memoryBytes = 0;
+
+    private long spilledWindowCount = 0;
+
+    /**
+     * @param memoryBudgetBytes estimated on-heap size above which the newest windows are spilled to disk.
+     * @param spillPath directory of the spill store. Its content is deleted on start.
+     */
+    public SpillableWindowState(long memoryBudgetBytes, String spillPath) {
+        this(memoryBudgetBytes, spillPath, true);
+    }
+
+    /**
+     * @param writeAheadLogEnabled whether the spill store writes use the RocksDB write-ahead log.
+     */
+    public SpillableWindowState(long memoryBudgetBytes, String spillPath, boolean writeAheadLogEnabled) {
+        this(memoryBudgetBytes, spillPath, writeAheadLogEnabled, RocksDBWindowState.DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param chunkBytes payload chunk size of the spill store.
+     */
+    public SpillableWindowState(long memoryBudgetBytes, String spillPath, boolean writeAheadLogEnabled,
+            long chunkBytes) {
+        Assert.isTrue(memoryBudgetBytes > 0, "The memory budget must be positive!");
+        Assert.hasText(spillPath, "The spill path must be set!");
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.spillPath = spillPath;
+        this.spillState = new RocksDBWindowState(spillPath, writeAheadLogEnabled, chunkBytes);
+    }
+
+    @PostConstruct
+    public void initialize() {
+        FileSystemUtils.deleteRecursively(new File(this.spillPath));
+        new File(this.spillPath).mkdirs();
+        this.spillState.initialize();
+        logger.info("Spillable window state with memory budget: " + this.memoryBudgetBytes + " bytes, spill path: "
+                + this.spillPath);
+    }
+
+    @PreDestroy
+    public void preDestroy() throws IOException {
+        this.close();
+    }
+
+    /**
+     * @return Returns a snapshot of the on-heap and the spilled window keys.
+     */
+    @Override
+    public synchronized Set<Long> keys() {
+        Set<Long> keys = new HashSet<>(this.memoryWindowBytes.keySet());
+        keys.addAll(this.spilledWindows);
+        return keys;
+    }
+
+    @Override
+    public synchronized void put(long timestamp, String key, Map<String, Object> headers, byte[] payload) {
+        if (this.spilledWindows.contains(timestamp)) {
+            this.spillState.put(timestamp, key, headers, payload);
+            return;
+        }
+
+        this.memoryState.put(timestamp, key, headers, payload);
+        long messageBytes = payload.length + MESSAGE_OVERHEAD_BYTES;
+        this.memoryWindowBytes.merge(timestamp, messageBytes, Long::sum);
+        this.memoryBytes += messageBytes;
+
+        while (this.memoryBytes > this.memoryBudgetBytes && !this.memoryWindowBytes.isEmpty()) {
+            this.spill(this.memoryWindowBytes.lastKey());
+        }
+    }
+
+    @Override
+    public synchronized StateEntry get(long timestamp) {
+        return this.spilledWindows.contains(timestamp)
+                ? this.spillState.get(timestamp)
+                : this.memoryState.get(timestamp);
+    }
+
+    @Override
+    public synchronized StateEntry delete(long timestamp) {
+        if (this.spilledWindows.remove(timestamp)) {
+            return this.spillState.delete(timestamp);
+        }
+        this.releaseMemory(timestamp);
+        return this.memoryState.delete(timestamp);
+    }
+
+    /**
+     * Merges on-heap windows in memory. If either window is spilled, both are merged in the spill store.
+     */
+    @Override
+    public synchronized void merge(long targetTimestamp, long sourceTimestamp) {
+        if (!this.spilledWindows.contains(targetTimestamp) && !this.spilledWindows.contains(sourceTimestamp)) {
+            Long sourceBytes = this.memoryWindowBytes.remove(sourceTimestamp);
+            if (sourceBytes != null) {
+                this.memoryWindowBytes.merge(targetTimestamp, sourceBytes, Long::sum);
+            }
+            this.memoryState.merge(targetTimestamp, sourceTimestamp);
+            return;
+        }
+
+        this.spill(targetTimestamp);
+        this.spill(sourceTimestamp);
+        this.spilledWindows.remove(sourceTimestamp);
+        this.spillState.merge(targetTimestamp, sourceTimestamp);
+        if (this.spillState.keys().contains(targetTimestamp)) {
+            this.spilledWindows.add(targetTimestamp);
+        }
+    }
+
+    @Override
+    public synchronized void beginBatch() {
+        this.spillState.beginBatch();
+    }
+
+    @Override
+    public synchronized void commitBatch() {
+        this.spillState.commitBatch();
+    }
+
+    /**
+     * Moves the on-heap window, if any, to the spill store and flushes the spill store's pending batch.
+     */
+    private void spill(long timestamp) {
+        StateEntry window = this.memoryState.delete(timestamp);
+        this.releaseMemory(timestamp);
+        if (window == null) {
+            return;
+        }
+        for (Map.Entry<String, Collection<byte[]>> keyPayloads : window.getKeyedPayloads().entrySet()) {
+            for (byte[] payload : keyPayloads.getValue()) {
+                this.spillState.put(timestamp, keyPayloads.getKey(), window.getHeaders(), payload);
+            }
+        }
+        this.spillState.flush();
+        this.spilledWindows.add(timestamp);
+        this.spilledWindowCount++;
+        logger.info(">> SPILL WINDOW: " + timestamp + ", payload count: " + window.getPayloadCount()
+                + ", memory bytes: " + this.memoryBytes);
+        window.close();
+    }
+
+    private void releaseMemory(long timestamp) {
+        Long windowBytes = this.memoryWindowBytes.remove(timestamp);
+        if (windowBytes != null) {
+            this.memoryBytes -= windowBytes;
+        }
+    }
+
+    /**
+     * @return Returns the estimated size of the on-heap windows.
+     */
+    public synchronized long getMemoryBytes() {
+        return this.memoryBytes;
+    }
+
+    /**
+     * @return Returns the number of windows spilled to disk since start.
+     */
+    public synchronized long getSpilledWindowCount() {
+        return this.spilledWindowCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.memoryState.close();
+        this.spillState.close();
+        this.memoryWindowBytes.clear();
+        this.spilledWindows.clear();
+        this.memoryBytes = 0;
+    }
+}
@@ -21,16 +21,54 @@ import java.util.Set;
 /**
  * Represents the aggregated Windowed State.
  *
- * Keys are the window's start time timestamp.
+ * Keys are the window's start time timestamp. Within a window the payloads can be further grouped by a record key
+ * (e.g. keyed windows).
  *
  */
 public interface State {
 
     Set<Long> keys();
 
-    void put(long timestamp, Map<String, Object> headers, byte[] payload);
+    /**
+     * Adds the payload to a non-keyed window.
+     */
+    default void put(long timestamp, Map<String, Object> headers, byte[] payload) {
+        this.put(timestamp, StateEntry.NO_KEY, headers, payload);
+    }
+
+    /**
+     * Adds the payload to the key's group of the window.
+     *
+     * @param timestamp window id.
+     * @param key record key or {@link StateEntry#NO_KEY}.
+     * @param headers message headers. Only the headers of the first window message are retained.
+     * @param payload message payload.
+     */
+    void put(long timestamp, String key, Map<String, Object> headers, byte[] payload);
 
     StateEntry get(long timestamp);
 
     StateEntry delete(long timestamp);
+
+    /**
+     * Moves all entries of the source window into the target window and removes the source window. The source headers
+     * are used if the target window doesn't exist yet. Used to merge overlapping session windows.
+     *
+     * @param targetTimestamp window to merge into.
+     * @param sourceTimestamp window to merge from and remove.
+     */
+    void merge(long targetTimestamp, long sourceTimestamp);
+
+    /**
+     * Starts a write batch (e.g. for the messages of one consumer poll). Until {@link #commitBatch()}, the state can
+     * buffer the writes and apply them together. Reads always see the buffered writes. No-op by default.
+     */
+    default void beginBatch() {
+    }
+
+    /**
+     * Applies the writes buffered since {@link #beginBatch()} and ends the batch. No-op by default.
+     */
+    default void commitBatch() {
+    }
 }
@@ -15,30 +15,166 @@
  */
 package com.tanzu.streaming.runtime.srp.processor.window.state;
 
+import java.util.AbstractCollection;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
-public class StateEntry {
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Window content. The payloads are grouped by key, for windows that are not keyed all payloads are under the
+ * {@link #NO_KEY} key.
+ *
+ * The payload collections can be lazy views over the state storage (e.g. decoded chunk by chunk from RocksDB), so the
+ * payloads should be consumed incrementally with {@link #cursor()} rather than copied. An entry can hold state
+ * resources (e.g. a RocksDB snapshot) until it is closed.
+ */
+public class StateEntry implements AutoCloseable {
+
+    private static final Log logger = LogFactory.getLog(StateEntry.class);
+
+    /**
+     * Key used by non-keyed windows.
+     */
+    public static final String NO_KEY = "";
 
     private final long timestamp;
     private final Map<String, Object> headers;
-    private final Collection<byte[]> payloads;
+    private final Map<String, Collection<byte[]>> keyedPayloads;
+    private final AutoCloseable resource;
 
     public StateEntry(long timestamp, Map<String, Object> headers, Collection<byte[]> payloads) {
+        this(timestamp, headers, Collections.singletonMap(NO_KEY, payloads));
+    }
+
+    public StateEntry(long timestamp, Map<String, Object> headers, Map<String, Collection<byte[]>> keyedPayloads) {
+        this(timestamp, headers, keyedPayloads, null);
+    }
+
+    /**
+     * @param resource released when the entry is closed, e.g. the storage snapshot the payload views read from. Can be
+     *        null.
+     */
+    public StateEntry(long timestamp, Map<String, Object> headers, Map<String, Collection<byte[]>> keyedPayloads,
+            AutoCloseable resource) {
         this.timestamp = timestamp;
         this.headers = headers;
-        this.payloads = payloads;
+        this.keyedPayloads = keyedPayloads;
+        this.resource = resource;
     }
 
     public long getTimestamp() {
         return timestamp;
     }
 
+    /**
+     * @return Returns all window payloads. For keyed windows, a view combining the payloads of all keys.
+     */
     public Collection<byte[]> getPayloads() {
-        return payloads;
+        if (this.keyedPayloads.size() == 1) {
+            return this.keyedPayloads.values().iterator().next();
+        }
+        return concat(this.keyedPayloads.values());
+    }
+
+    /**
+     * @return Returns a cursor over all window payloads, key group after key group. Every call starts a new pass.
+     */
+    public Iterator<byte[]> cursor() {
+        return this.getPayloads().iterator();
+    }
+
+    /**
+     * @return Returns the window payloads grouped by key.
+     */
+    public Map<String, Collection<byte[]>> getKeyedPayloads() {
+        return keyedPayloads;
+    }
+
+    /**
+     * @return Returns true if the entry contains payloads grouped by (non empty) keys.
+     */
+    public boolean isKeyed() {
+        return !(this.keyedPayloads.size() == 1 && this.keyedPayloads.containsKey(NO_KEY));
+    }
+
+    /**
+     * @return Returns the key of a single key entry or null if the entry contains multiple keys.
+     */
+    public String getKey() {
+        return (this.keyedPayloads.size() == 1) ? this.keyedPayloads.keySet().iterator().next() : null;
+    }
+
+    public int getPayloadCount() {
+        int count = 0;
+        for (Collection<byte[]> keyPayloads : this.keyedPayloads.values()) {
+            count += keyPayloads.size();
+        }
+        return count;
     }
 
     public Map<String, Object> getHeaders() {
         return headers;
     }
+
+    /**
+     * Releases the entry resources. The payload views can not be read afterwards.
+     */
+    @Override
+    public void close() {
+        if (this.resource != null) {
+            try {
+                this.resource.close();
+            }
+            catch (Exception e) {
+                logger.warn("Failed to release the state entry resources", e);
+            }
+        }
+    }
+
+    /**
+     * @return Returns a view of the payloads of all collections, in order. Nothing is copied.
+     */
+    public static Collection<byte[]> concat(Collection<Collection<byte[]>> payloadCollections) {
+        return new AbstractCollection<byte[]>() {
+
+            @Override
+            public Iterator<byte[]> iterator() {
+                Iterator<Collection<byte[]>> collections = payloadCollections.iterator();
+                return new Iterator<byte[]>() {
+
+                    private Iterator<byte[]> current = Collections.emptyIterator();
+
+                    @Override
+                    public boolean hasNext() {
+                        while (!this.current.hasNext() && collections.hasNext()) {
+                            this.current = collections.next().iterator();
+                        }
+                        return this.current.hasNext();
+                    }
+
+                    @Override
+                    public byte[] next() {
+                        if (!this.hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return this.current.next();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                int size = 0;
+                for (Collection<byte[]> payloads : payloadCollections) {
+                    size += payloads.size();
+                }
+                return size;
+            }
+        };
+    }
 }
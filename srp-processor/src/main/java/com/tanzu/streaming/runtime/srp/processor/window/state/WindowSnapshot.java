@@ -0,0 +1,394 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Point in time copy of the windows of a state and of the input offsets the windows include. Stored in a compact
+ * binary file, written and read through a file channel with a direct buffer:
+ *
+ * <pre>
+ * magic (int), version (int), created at ms (long)
+ * offset count (int), per offset: source (short length + UTF-8), offset (long)
+ * header name count (int), per name: short length + UTF-8
+ * window count (int), per window:
+ *     window start (long), headers (int length + {@link HeaderCodec} bytes), key count (int), per key:
+ *         key (short length + UTF-8), payload count (int), per payload: int length + bytes
+ * CRC32 of all preceding bytes (long)
+ * </pre>
+ *
+ * The header names of the windows form the snapshot's header name dictionary. The version 1 snapshots had no
+ * dictionary and Java serialized headers.
+ *
+ * The file is written next to the target and atomically moved in place, so a crash while writing leaves the previous
+ * snapshot intact.
+ */
+public class WindowSnapshot {
+
+    private static final int MAGIC = 0x53525053; // SRPS
+
+    private static final int VERSION = 2;
+
+    private static final int BUFFER_BYTES = 1024 * 1024;
+
+    private final long createdAtMs;
+
+    private final Map<String, Long> offsets;
+
+    private final List<StateEntry> windows;
+
+    /**
+     * @param offsets input offsets by source (e.g. topic:partition). The windows include all messages up to and
+     *        including the offsets.
+     * @param windows windows content.
+     */
+    public WindowSnapshot(long createdAtMs, Map<String, Long> offsets, List<StateEntry> windows) {
+        this.createdAtMs = createdAtMs;
+        this.offsets = offsets;
+        this.windows = windows;
+    }
+
+    public long getCreatedAtMs() {
+        return this.createdAtMs;
+    }
+
+    public Map<String, Long> getOffsets() {
+        return this.offsets;
+    }
+
+    public List<StateEntry> getWindows() {
+        return this.windows;
+    }
+
+    /**
+     * @return Returns the number of written bytes.
+     */
+    public long writeTo(Path file) throws IOException {
+        Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+        long size;
+        try (ChannelWriter writer = new ChannelWriter(FileChannel.open(tmpFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            writer.putInt(MAGIC);
+            writer.putInt(VERSION);
+            writer.putLong(this.createdAtMs);
+
+            writer.putInt(this.offsets.size());
+            for (Map.Entry<String, Long> offset : this.offsets.entrySet()) {
+                writer.putString(offset.getKey());
+                writer.putLong(offset.getValue());
+            }
+
+            // The headers are encoded first, to collect the header names.
+            HeaderCodec headerCodec = new HeaderCodec(new HeaderCodec.NameDictionary());
+            List<byte[]> encodedHeaders = new ArrayList<>(this.windows.size());
+            for (StateEntry window : this.windows) {
+                encodedHeaders.add(headerCodec.encode(window.getHeaders()));
+            }
+            String[] headerNames = headerCodec.getDictionary().getNames();
+            writer.putInt(headerNames.length);
+            for (String headerName : headerNames) {
+                writer.putString(headerName);
+            }
+
+            writer.putInt(this.windows.size());
+            for (int w = 0; w < this.windows.size(); w++) {
+                StateEntry window = this.windows.get(w);
+                writer.putLong(window.getTimestamp());
+                writer.putBytes(encodedHeaders.get(w));
+                writer.putInt(window.getKeyedPayloads().size());
+                for (Map.Entry<String, Collection<byte[]>> keyPayloads : window.getKeyedPayloads().entrySet()) {
+                    writer.putString(keyPayloads.getKey());
+                    writer.putInt(keyPayloads.getValue().size());
+                    for (byte[] payload : keyPayloads.getValue()) {
+                        writer.putBytes(payload);
+                    }
+                }
+            }
+            size = writer.finish();
+        }
+        Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    /**
+     * @return Returns the snapshot stored in the file.
+     * @throws IOException if the file can not be read or is corrupted.
+     */
+    public static WindowSnapshot readFrom(Path file) throws IOException {
+        try (ChannelReader reader = new ChannelReader(FileChannel.open(file, StandardOpenOption.READ))) {
+            if (reader.getInt() != MAGIC) {
+                throw new IOException("Not a window snapshot: " + file);
+            }
+            int version = reader.getInt();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported window snapshot version: " + version);
+            }
+            long createdAtMs = reader.getLong();
+
+            int offsetCount = reader.getInt();
+            Map<String, Long> offsets = new HashMap<>(offsetCount * 2);
+            for (int i = 0; i < offsetCount; i++) {
+                offsets.put(reader.getString(), reader.getLong());
+            }
+
+            HeaderCodec headerCodec = new HeaderCodec(new HeaderCodec.NameDictionary());
+            int headerNameCount = (version == 1) ? 0 : reader.getInt();
+            for (int i = 0; i < headerNameCount; i++) {
+                headerCodec.getDictionary().define(i, reader.getString());
+            }
+
+            int windowCount = reader.getInt();
+            List<StateEntry> windows = new ArrayList<>(windowCount);
+            for (int i = 0; i < windowCount; i++) {
+                long windowStart = reader.getLong();
+                Map<String, Object> headers = headerCodec.decode(reader.getBytes());
+                int keyCount = reader.getInt();
+                Map<String, Collection<byte[]>> keyedPayloads = new LinkedHashMap<>(keyCount * 2);
+                for (int k = 0; k < keyCount; k++) {
+                    String key = reader.getString();
+                    int payloadCount = reader.getInt();
+                    List<byte[]> payloads = new ArrayList<>(payloadCount);
+                    for (int p = 0; p < payloadCount; p++) {
+                        payloads.add(reader.getBytes());
+                    }
+                    keyedPayloads.put(key, payloads);
+                }
+                windows.add(new StateEntry(windowStart, headers, keyedPayloads));
+            }
+            reader.verifyChecksum();
+            return new WindowSnapshot(createdAtMs, offsets, windows);
+        }
+    }
+
+    private static class ChannelWriter implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final CRC32 checksum = new CRC32();
+        private long size = 0;
+
+        ChannelWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            this.ensureRemaining(Integer.BYTES);
+            this.buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            this.ensureRemaining(Long.BYTES);
+            this.buffer.putLong(value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("String too long for a window snapshot: " + bytes.length);
+            }
+            this.ensureRemaining(Short.BYTES);
+            this.buffer.putShort((short) bytes.length);
+            this.putRaw(bytes);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            this.putInt(bytes.length);
+            this.putRaw(bytes);
+        }
+
+        private void putRaw(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!this.buffer.hasRemaining()) {
+                    this.flush();
+                }
+                int length = Math.min(this.buffer.remaining(), bytes.length - offset);
+                this.buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        private void ensureRemaining(int bytes) throws IOException {
+            if (this.buffer.remaining() < bytes) {
+                this.flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            this.buffer.flip();
+            this.checksum.update(this.buffer.duplicate());
+            this.size += this.buffer.remaining();
+            while (this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+            this.buffer.clear();
+        }
+
+        /**
+         * Writes the checksum and syncs the file.
+         * @return Returns the file size.
+         */
+        long finish() throws IOException {
+            this.flush();
+            this.buffer.putLong(this.checksum.getValue());
+            this.buffer.flip();
+            this.size += this.buffer.remaining();
+            while (this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+            this.buffer.clear();
+            this.channel.force(true);
+            return this.size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    private static class ChannelReader implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final CRC32 checksum = new CRC32();
+
+        /**
+         * File bytes covered by the checksum, not yet read into the buffer.
+         */
+        private long unread;
+
+        ChannelReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.unread = channel.size() - Long.BYTES;
+            if (this.unread < 0) {
+                throw new IOException("Truncated window snapshot");
+            }
+            this.buffer.flip();
+        }
+
+        int getInt() throws IOException {
+            this.ensureAvailable(Integer.BYTES);
+            return this.buffer.getInt();
+        }
+
+        long getLong() throws IOException {
+            this.ensureAvailable(Long.BYTES);
+            return this.buffer.getLong();
+        }
+
+        String getString() throws IOException {
+            this.ensureAvailable(Short.BYTES);
+            return new String(this.getRaw(this.buffer.getShort() & 0xFFFF), StandardCharsets.UTF_8);
+        }
+
+        byte[] getBytes() throws IOException {
+            int length = this.getInt();
+            if (length < 0 || length > this.buffer.remaining() + this.unread) {
+                throw new IOException("Corrupted window snapshot");
+            }
+            return this.getRaw(length);
+        }
+
+        private byte[] getRaw(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                if (!this.buffer.hasRemaining()) {
+                    this.fill();
+                }
+                int chunk = Math.min(this.buffer.remaining(), length - offset);
+                this.buffer.get(bytes, offset, chunk);
+                offset += chunk;
+            }
+            return bytes;
+        }
+
+        private void ensureAvailable(int bytes) throws IOException {
+            if (this.buffer.remaining() < bytes) {
+                this.fill();
+                if (this.buffer.remaining() < bytes) {
+                    throw new IOException("Truncated window snapshot");
+                }
+            }
+        }
+
+        /**
+         * Keeps the not consumed bytes and reads more, up to the checksum.
+         */
+        private void fill() throws IOException {
+            this.buffer.compact();
+            if (this.unread == 0) {
+                this.buffer.flip();
+                throw new IOException("Truncated window snapshot");
+            }
+            int limit = (int) Math.min(this.buffer.remaining(), this.unread);
+            ByteBuffer target = this.buffer.duplicate();
+            target.limit(target.position() + limit);
+            int start = target.position();
+            while (target.hasRemaining()) {
+                if (this.channel.read(target) < 0) {
+                    throw new IOException("Truncated window snapshot");
+                }
+            }
+            ByteBuffer read = this.buffer.duplicate();
+            read.position(start).limit(start + limit);
+            this.checksum.update(read);
+            this.unread -= limit;
+            this.buffer.position(start + limit);
+            this.buffer.flip();
+        }
+
+        /**
+         * Consumes the remaining content and compares the stored checksum.
+         */
+        void verifyChecksum() throws IOException {
+            if (this.buffer.hasRemaining() || this.unread > 0) {
+                throw new IOException("Corrupted window snapshot, unexpected trailing bytes");
+            }
+            ByteBuffer stored = ByteBuffer.allocate(Long.BYTES);
+            while (stored.hasRemaining()) {
+                if (this.channel.read(stored) < 0) {
+                    throw new IOException("Truncated window snapshot");
+                }
+            }
+            stored.flip();
+            if (stored.getLong() != this.checksum.getValue()) {
+                throw new IOException("Corrupted window snapshot, checksum mismatch");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+}
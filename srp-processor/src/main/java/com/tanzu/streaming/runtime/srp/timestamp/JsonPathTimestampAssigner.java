@@ -16,9 +16,17 @@
 package com.tanzu.streaming.runtime.srp.timestamp;
 
 import java.io.IOException;
+import java.util.regex.Pattern;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.tanzu.streaming.runtime.processor.common.avro.AvroMessageReader;
 import com.tanzu.streaming.runtime.processor.common.avro.AvroUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import org.springframework.integration.json.JsonPathUtils;
 import org.springframework.messaging.Message;
@@ -29,57 +37,121 @@ import org.springframework.messaging.Message;
  * 
  * In case of Avro payload format, requires an avroMessageReader to parse it into GenericRecord. The avroMessageReader
  * is not needed for non Avro payload formats.
+ *
+ * Simple dotted paths (e.g. $.meta.ts) are compiled into a streaming scan: the payload is tokenized only up to the
+ * timestamp field and the other fields' values are skipped without being materialized. When the scan can't find the
+ * field (e.g. missing field, array on the path, malformed JSON) and for the complex expressions (e.g. filters,
+ * wildcards or array indexes) the full JsonPath evaluation is used, so the results and errors stay the JsonPath ones.
+ * Unlike JsonPath, the scan uses the first of duplicated field names and doesn't validate the payload after the
+ * timestamp field.
  */
 public class JsonPathTimestampAssigner implements RecordTimestampAssigner<byte[]> {
 
+    private static final Log logger = LogFactory.getLog(JsonPathTimestampAssigner.class);
+
+    private static final Pattern SIMPLE_PATH = Pattern
+            .compile("[A-Za-z_][A-Za-z0-9_\\-]*(\\.[A-Za-z_][A-Za-z0-9_\\-]*)*");
+
+    /**
+     * Scan result for which the full JsonPath evaluation decides.
+     */
+    private static final long NOT_SCANNED = Long.MAX_VALUE;
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
     private final String jsonPath;
 
+    /**
+     * Field names along the path, for the streaming scan. Null for the complex expressions.
+     */
+    private final SerializableString[] fieldNames;
+
     private final AvroMessageReader avroMessageReader;
 
     public JsonPathTimestampAssigner(String jsonPath, AvroMessageReader avroMessageReader) {
         this.jsonPath = jsonPath.startsWith("$.") ? jsonPath : "$." + jsonPath;
+        this.fieldNames = compile(this.jsonPath.substring("$.".length()));
         this.avroMessageReader = avroMessageReader;
     }
 
+    private static SerializableString[] compile(String path) {
+        if (!SIMPLE_PATH.matcher(path).matches()) {
+            return null;
+        }
+        String[] names = path.split("\\.");
+        SerializableString[] fieldNames = new SerializableString[names.length];
+        for (int i = 0; i < names.length; i++) {
+            fieldNames[i] = new SerializedString(names[i]);
+        }
+        return fieldNames;
+    }
+
     @Override
     public long extractTimestamp(Message<byte[]> message) {
         try {
             Object payload = AvroUtil.toJsonPayload(message, avroMessageReader);
+            if (this.fieldNames != null) {
+                long timestamp = this.scan(payload);
+                if (timestamp != NOT_SCANNED) {
+                    return timestamp;
+                }
+            }
             Object result = JsonPathUtils.evaluate(payload, jsonPath);
             if (result != null && result instanceof Number) {
                 return ((Number) result).longValue();
             }
         }
         catch (IOException e) {
-            e.printStackTrace();
+            logger.warn("Failed to evaluate the timestamp path: " + this.jsonPath, e);
         }
 
         return RecordTimestampAssigner.NO_TIMESTAMP;
     }
 
-    public static void main(String[] args) throws IOException {
-        String json = "{" +
-                "\"firstName\": \"John\"," +
-                "\"lastName\": \"doe\"," +
-                "\"age\": 26," +
-                "\"address\": {" +
-                "\"streetAddress\": \"naist street\"," +
-                "\"city\": \"Nara\"," +
-                "\"postalCode\": \"630-0192\"" +
-                "}," +
-                "\"phoneNumbers\": [" +
-                "{" +
-                "\"type\": \"iPhone\"," +
-                "\"number\": \"0123-4567-8888\"" +
-                "}," +
-                "{" +
-                "\"type\": \"home\"," +
-                "\"number\": \"0123-4567-8910\"" +
-                "}" +
-                "]" +
-                "}";
-
-        Object value = JsonPathUtils.evaluate(json.getBytes(), "$.lastName");
-        System.out.println(value);
+    /**
+     * Walks the path field by field, skipping the values of the other fields, and stops at the timestamp field.
+     *
+     * @return Returns the timestamp, NO_TIMESTAMP for a non numeric field (as JsonPath would) or NOT_SCANNED if the
+     *         field was not reached.
+     */
+    private long scan(Object payload) {
+        if (!(payload instanceof byte[])) {
+            return NOT_SCANNED;
+        }
+        try (JsonParser parser = jsonFactory.createParser((byte[]) payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return NOT_SCANNED;
+            }
+            for (int i = 0; i < this.fieldNames.length; i++) {
+                while (!parser.nextFieldName(this.fieldNames[i])) {
+                    if (parser.currentToken() != JsonToken.FIELD_NAME) {
+                        // End of the object (or input) without the field.
+                        return NOT_SCANNED;
+                    }
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+                JsonToken value = parser.nextToken();
+                if (i < this.fieldNames.length - 1) {
+                    if (value != JsonToken.START_OBJECT) {
+                        return NOT_SCANNED;
+                    }
+                }
+                else if (value == JsonToken.VALUE_NUMBER_INT) {
+                    return parser.getLongValue();
+                }
+                else if (value == JsonToken.VALUE_NUMBER_FLOAT) {
+                    return (long) parser.getDoubleValue();
+                }
+                else if (value == null) {
+                    return NOT_SCANNED;
+                }
+            }
+            return RecordTimestampAssigner.NO_TIMESTAMP;
+        }
+        catch (IOException e) {
+            // Malformed JSON or a number out of the long range.
+            return NOT_SCANNED;
+        }
     }
 }
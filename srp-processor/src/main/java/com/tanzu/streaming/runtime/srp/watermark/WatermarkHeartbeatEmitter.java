@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.watermark;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.tanzu.streaming.runtime.srp.processor.EventTimeProcessor;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.cloud.stream.binder.BinderHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.Assert;
+
+/**
+ * Periodically sends the processor watermark to every output partition, as watermark-only heartbeat messages.
+ *
+ * The output messages carry the watermark, but a processor without output (e.g. windows not yet complete, filtered
+ * or quiet input) leaves the downstream event time behind. The heartbeat watermark is the processor output watermark,
+ * which only passes the outputs already sent, so no output is late for the downstream. The heartbeats are marked by the
+ * {@link WatermarkService#WATERMARK_HEARTBEAT_HEADER} header, so the downstream processors only advance their
+ * watermark with them. A heartbeat is sent only when the watermark advanced since the last one, so a stalled
+ * processor still becomes idle for the downstream idle partition detection.
+ *
+ * With a partitioned output binding, every partition is addressed by the partition override header, otherwise a
+ * single heartbeat is sent.
+ */
+public class WatermarkHeartbeatEmitter implements AutoCloseable {
+
+    private static final Log logger = LogFactory.getLog(WatermarkHeartbeatEmitter.class);
+
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+
+    private final EventTimeProcessor eventTimeProcessor;
+
+    private final StreamBridge streamBridge;
+
+    private final String destination;
+
+    private final int partitionCount;
+
+    private final Duration interval;
+
+    private final ScheduledExecutorService scheduler;
+
+    private long lastSentWatermarkMs = Long.MIN_VALUE;
+
+    /**
+     * @param destination output binding the heartbeats are sent to.
+     * @param partitionCount number of output partitions, 1 if the output is not partitioned.
+     * @param interval heartbeat interval.
+     */
+    public WatermarkHeartbeatEmitter(EventTimeProcessor eventTimeProcessor, StreamBridge streamBridge,
+            String destination, int partitionCount, Duration interval) {
+        Assert.isTrue(partitionCount > 0, "The partition count must be positive!");
+        Assert.isTrue(interval != null && !interval.isNegative() && !interval.isZero(),
+                "The heartbeat interval must be positive!");
+        this.eventTimeProcessor = eventTimeProcessor;
+        this.streamBridge = streamBridge;
+        this.destination = destination;
+        this.partitionCount = partitionCount;
+        this.interval = interval;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("srp-watermark-heartbeat-"));
+    }
+
+    @PostConstruct
+    public void start() {
+        logger.info("Send watermark heartbeats every: " + this.interval + " to: " + this.destination
+                + ", partitions: " + this.partitionCount);
+        this.scheduler.scheduleWithFixedDelay(this::sendHeartbeats, this.interval.toMillis(),
+                this.interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void sendHeartbeats() {
+        try {
+            long watermarkMs = this.eventTimeProcessor.getOutputWatermarkMs();
+            if (watermarkMs == Long.MIN_VALUE || watermarkMs <= this.lastSentWatermarkMs) {
+                return;
+            }
+            for (int partition = 0; partition < this.partitionCount; partition++) {
+                this.streamBridge.send(this.destination, this.heartbeat(watermarkMs, partition));
+            }
+            this.lastSentWatermarkMs = watermarkMs;
+        }
+        catch (Exception e) {
+            // Keep the schedule running.
+            logger.error("Failed to send the watermark heartbeats to: " + this.destination, e);
+        }
+    }
+
+    private Message<byte[]> heartbeat(long watermarkMs, int partition) {
+        MessageBuilder<byte[]> heartbeat = MessageBuilder.withPayload(EMPTY_PAYLOAD)
+                .setHeader(WatermarkService.WATERMARK_HEARTBEAT_HEADER, true)
+                .setHeader(WatermarkService.WATERMARK_HEADER, watermarkMs);
+        if (this.partitionCount > 1) {
+            heartbeat.setHeader(BinderHeaders.PARTITION_OVERRIDE, partition);
+        }
+        return heartbeat.build();
+    }
+
+    @Override
+    @PreDestroy
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+}
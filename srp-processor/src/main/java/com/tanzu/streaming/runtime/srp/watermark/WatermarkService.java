@@ -17,6 +17,7 @@
 package com.tanzu.streaming.runtime.srp.watermark;
 
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -43,11 +44,45 @@ public class WatermarkService {
     public static final String WATERMARK_HEADER = "watermark";
     public static final String EVENTTIME_HEADER = "eventtime";
 
-    private ConcurrentHashMap<Integer, AtomicLong> partitionToWatermarkMap = new ConcurrentHashMap<>();
+    /**
+     * Marks the watermark-only control messages. A heartbeat carries no event, only the sender's watermark header.
+     */
+    public static final String WATERMARK_HEARTBEAT_HEADER = "watermarkHeartbeat";
+
+    /**
+     * Tree value of the idle partitions, never the minimum of active ones.
+     */
+    private static final long IDLE = Long.MAX_VALUE;
+
+    private ConcurrentHashMap<Integer, PartitionWatermark> partitionToWatermarkMap = new ConcurrentHashMap<>();
+
+    /**
+     * Global watermark, the minimum of the partition watermarks. Maintained incrementally by the updates, so reading
+     * it is a single volatile read.
+     */
+    private volatile long watermarkMs = Long.MIN_VALUE + 1;
+
+    /**
+     * Minimum of the partition watermarks, by partition slot. Guarded by the watermarkLock.
+     */
+    private final MinTree partitionWatermarks = new MinTree();
+
+    private final Object watermarkLock = new Object();
 
     private Duration maxOutOfOrderness = Duration.ofMillis(0);
     private Duration allowedLateness = Duration.ofMillis(0);
 
+    /**
+     * Partitions without messages for this long are excluded from the global watermark. Zero disables the idleness
+     * detection.
+     */
+    private long idlePartitionTimeoutMs = 0;
+
+    /**
+     * Last time the partitions were checked for idleness. Guarded by the watermarkLock.
+     */
+    private long lastIdlenessCheckMs = 0;
+
     public enum WatermarkUpdateStatus {
         VALID, LATE, DISCARDED
     }
@@ -64,6 +99,24 @@ public class WatermarkService {
 
     public WatermarkService withMaxOutOfOrderness(Duration maxOutOfOrderness) {
         this.maxOutOfOrderness = maxOutOfOrderness;
+        synchronized (this.watermarkLock) {
+            if (this.partitionToWatermarkMap.isEmpty()) {
+                this.watermarkMs = this.initialWatermarkMs();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Similar to Flink's withIdleness. A partition without messages for the idle timeout no longer holds back the
+     * global watermark, until it receives a message again. The discarded (older than the allowed lateness) messages
+     * don't reactivate a partition. The partitions are checked for idleness on the updates, at most every half idle
+     * timeout.
+     *
+     * @param idlePartitionTimeout idle timeout. Null or zero disables the idleness detection.
+     */
+    public WatermarkService withIdlePartitionTimeout(Duration idlePartitionTimeout) {
+        this.idlePartitionTimeoutMs = (idlePartitionTimeout != null) ? idlePartitionTimeout.toMillis() : 0;
         return this;
     }
 
@@ -123,48 +176,205 @@ public class WatermarkService {
 
         WatermarkUpdateStatus messageUpdateStatus = WatermarkUpdateStatus.VALID;
 
-        if (this.computeWatermarkMs() > messageTimestamp.toMillis()) {
+        long currentWatermarkMs = this.computeWatermarkMs();
+        if (currentWatermarkMs > messageTimestamp.toMillis()) {
 
             logger.info("Late message: " + messageTimestamp);
 
             messageUpdateStatus = WatermarkUpdateStatus.LATE;
 
-            if ((this.computeWatermarkMs() - this.getAllowedLateness().toMillis()) > messageTimestamp.toMillis()) {
+            if ((currentWatermarkMs - this.getAllowedLateness().toMillis()) > messageTimestamp.toMillis()) {
                 // https://nightlies.apache.org/flink/flink-docs-release-1.15/docs/dev/datastream/operators/windows/#getting-late-data-as-a-side-output
                 logger.info("Discard message older than the (Watermark - AllowedLateness): " + messageTimestamp);
                 return WatermarkUpdateStatus.DISCARDED; // Discard
             }
         }
 
-        long newWatermarkMs = timestampToWatermark.watermark(messageTimestamp);
+        this.advancePartitionWatermark(messagePartition, timestampToWatermark.watermark(messageTimestamp));
 
-        if (!this.partitionToWatermarkMap.containsKey(messagePartition)) {
-            this.partitionToWatermarkMap.putIfAbsent(messagePartition,
-                    new AtomicLong(Long.MIN_VALUE + this.getMaxOutOfOrderness().toMillis() + 1));
-        }
+        return messageUpdateStatus;
+    }
+
+    /**
+     * Advances the partition watermark to the heartbeat's watermark header. Unlike the events, heartbeats are never
+     * late: a heartbeat behind the current watermark only keeps its partition active.
+     */
+    public void onWatermarkHeartbeat(Message<?> heartbeat) {
+        Integer partition = heartbeat.getHeaders().containsKey(PARTITION_HEADER)
+                ? heartbeat.getHeaders().get(PARTITION_HEADER, Integer.class)
+                : 0;
+        Long watermarkMs = heartbeat.getHeaders().get(WATERMARK_HEADER, Long.class);
+
+        Assert.notNull(partition, "Partition can't be null!");
+        Assert.notNull(watermarkMs, "Watermark heartbeat without watermark header!");
+
+        this.advancePartitionWatermark(partition, watermarkMs);
+    }
+
+    public static boolean isWatermarkHeartbeat(Message<?> message) {
+        return message.getHeaders().containsKey(WATERMARK_HEARTBEAT_HEADER);
+    }
 
-        AtomicLong oldWatermark = this.partitionToWatermarkMap.get(messagePartition);
+    /**
+     * @return Returns true once the watermark advanced past its initial value.
+     */
+    public boolean hasWatermark() {
+        return this.computeWatermarkMs() > this.initialWatermarkMs();
+    }
 
+    private void advancePartitionWatermark(int messagePartition, long newWatermarkMs) {
         // Update in-partition Watermark!
-        boolean success = true;
-        long watermarkUpdateMs = Long.MIN_VALUE;
-        do {
-            long oldSourceWatermarkValueMs = oldWatermark.get();
-            watermarkUpdateMs = Math.max(oldSourceWatermarkValueMs, newWatermarkMs);
-            success = oldWatermark.compareAndSet(oldSourceWatermarkValueMs, watermarkUpdateMs);
+        synchronized (this.watermarkLock) {
+            PartitionWatermark partitionWatermark = this.partitionToWatermarkMap.get(messagePartition);
+            if (partitionWatermark == null) {
+                long initialWatermarkMs = this.initialWatermarkMs();
+                partitionWatermark = new PartitionWatermark(messagePartition,
+                        this.partitionWatermarks.add(initialWatermarkMs), initialWatermarkMs);
+                this.partitionToWatermarkMap.put(messagePartition, partitionWatermark);
+            }
+            if (this.idlePartitionTimeoutMs > 0) {
+                this.updateIdleness(partitionWatermark, System.currentTimeMillis());
+            }
+            if (newWatermarkMs > partitionWatermark.get()) {
+                partitionWatermark.set(newWatermarkMs);
+                this.partitionWatermarks.update(partitionWatermark.slot, newWatermarkMs);
+            }
+            long minWatermarkMs = this.partitionWatermarks.min();
+            if (minWatermarkMs != IDLE) {
+                this.watermarkMs = minWatermarkMs;
+            }
         }
-        while (!success);
+    }
 
-        Assert.notNull(watermarkUpdateMs, "Watermark can't be null!");
+    /**
+     * @return Returns the global watermark, i.e. the minimum of the partition watermarks.
+     */
+    public long computeWatermarkMs() {
+        return this.watermarkMs;
+    }
 
-        return messageUpdateStatus;
+    /**
+     * Reactivates the message partition, if idle, and excludes the other idle partitions from the global watermark.
+     * Must be called holding the watermarkLock.
+     */
+    private void updateIdleness(PartitionWatermark messagePartitionWatermark, long nowMs) {
+        messagePartitionWatermark.lastMessageMs = nowMs;
+        if (messagePartitionWatermark.idle) {
+            // The watermark doesn't go back, the partition's messages older than the watermark are late.
+            long watermarkMs = Math.max(messagePartitionWatermark.get(), this.watermarkMs);
+            messagePartitionWatermark.set(watermarkMs);
+            messagePartitionWatermark.idle = false;
+            this.partitionWatermarks.update(messagePartitionWatermark.slot, watermarkMs);
+            logger.info("Partition: " + messagePartitionWatermark.partition + " is active again");
+        }
+
+        if (nowMs - this.lastIdlenessCheckMs < this.idlePartitionTimeoutMs / 2) {
+            return;
+        }
+        this.lastIdlenessCheckMs = nowMs;
+        for (PartitionWatermark partitionWatermark : this.partitionToWatermarkMap.values()) {
+            if (!partitionWatermark.idle && nowMs - partitionWatermark.lastMessageMs >= this.idlePartitionTimeoutMs) {
+                partitionWatermark.idle = true;
+                this.partitionWatermarks.update(partitionWatermark.slot, IDLE);
+                logger.info("Partition: " + partitionWatermark.partition + " is idle, its watermark: "
+                        + partitionWatermark.get() + " no longer holds back the watermark");
+            }
+        }
     }
 
-    public long computeWatermarkMs() {
-        return this.partitionToWatermarkMap.values().stream()
-                .mapToLong(l -> l.longValue())
-                .min()
-                .orElse(Long.MIN_VALUE + this.getMaxOutOfOrderness().toMillis() + 1);
+    private long initialWatermarkMs() {
+        return Long.MIN_VALUE + this.getMaxOutOfOrderness().toMillis() + 1;
+    }
+
+    private static class PartitionWatermark extends AtomicLong {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int partition;
+
+        /**
+         * Slot of the partition in the partitionWatermarks tree. Idle partitions hold the IDLE value there.
+         */
+        private final int slot;
+
+        /**
+         * Guarded by the watermarkLock.
+         */
+        private long lastMessageMs;
+
+        /**
+         * Guarded by the watermarkLock.
+         */
+        private boolean idle;
+
+        PartitionWatermark(int partition, int slot, long initialWatermarkMs) {
+            super(initialWatermarkMs);
+            this.partition = partition;
+            this.slot = slot;
+        }
     }
 
+    /**
+     * Min segment tree over primitive longs. The leaves hold the slot values, every inner node the minimum of its
+     * children and the root the minimum of all slots. An update walks up only while the node minimums change.
+     */
+    private static class MinTree {
+
+        /**
+         * Node i has the children 2i and 2i+1. The leaves are at [capacity, 2 * capacity). Unused leaves hold
+         * Long.MAX_VALUE.
+         */
+        private long[] nodes;
+
+        private int capacity;
+
+        private int size;
+
+        MinTree() {
+            this.capacity = 8;
+            this.nodes = new long[2 * this.capacity];
+            Arrays.fill(this.nodes, Long.MAX_VALUE);
+        }
+
+        /**
+         * @return Returns the slot of the new value.
+         */
+        int add(long value) {
+            if (this.size == this.capacity) {
+                this.grow();
+            }
+            int slot = this.size++;
+            this.update(slot, value);
+            return slot;
+        }
+
+        void update(int slot, long value) {
+            int node = this.capacity + slot;
+            this.nodes[node] = value;
+            while (node > 1) {
+                int parent = node >>> 1;
+                long min = Math.min(this.nodes[2 * parent], this.nodes[2 * parent + 1]);
+                if (this.nodes[parent] == min) {
+                    break;
+                }
+                this.nodes[parent] = min;
+                node = parent;
+            }
+        }
+
+        long min() {
+            return this.nodes[1];
+        }
+
+        private void grow() {
+            long[] leaves = Arrays.copyOfRange(this.nodes, this.capacity, 2 * this.capacity);
+            this.capacity *= 2;
+            this.nodes = new long[2 * this.capacity];
+            Arrays.fill(this.nodes, Long.MAX_VALUE);
+            System.arraycopy(leaves, 0, this.nodes, this.capacity, leaves.length);
+            for (int node = this.capacity - 1; node > 0; node--) {
+                this.nodes[node] = Math.min(this.nodes[2 * node], this.nodes[2 * node + 1]);
+            }
+        }
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tanzu.streaming.runtime.srp;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.tanzu.streaming.runtime.processor.common.proto.GrpcPayloadCollectionSeDe;
+import com.tanzu.streaming.runtime.srp.processor.window.AbstractTumblingWindowEventProcessor;
+import com.tanzu.streaming.runtime.srp.processor.window.state.InMemoryState;
+import com.tanzu.streaming.runtime.srp.processor.window.state.State;
+import com.tanzu.streaming.runtime.srp.watermark.WatermarkService;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SessionWindowEventTimeProcessorTests {
+
+    private static final String TIME_HEADER = "time";
+
+    private static final String KEY_HEADER = "user";
+
+    private final List<Message<?>> sent = new CopyOnWriteArrayList<>();
+
+    @Test
+    void shouldMergeTheEventsWithinTheSessionGap() {
+        SessionWindowEventTimeProcessor processor = this.processor(new InMemoryState());
+
+        processor.onNewMessage(event("a", 1000));
+        processor.onNewMessage(event("a", 1500));
+        processor.onNewMessage(event("b", 1700));
+        processor.onNewMessage(event("a", 20000));
+
+        assertThat(this.sent).hasSize(2);
+        assertSession(this.sent.get(0), "a", 1000, 2500, 2);
+        assertSession(this.sent.get(1), "b", 1700, 2700, 1);
+    }
+
+    @Test
+    void shouldMergeTheSessionsBridgedByALateEvent() {
+        SessionWindowEventTimeProcessor processor = this.processor(new InMemoryState());
+
+        processor.onNewMessage(event("a", 1000));
+        processor.onNewMessage(event("a", 2500));
+        processor.onNewMessage(event("a", 1800));
+        processor.onNewMessage(event("b", 20000));
+
+        assertThat(this.sent).hasSize(1);
+        assertSession(this.sent.get(0), "a", 1000, 3500, 3);
+    }
+
+    @Test
+    void shouldRestoreTheSessionKeys() {
+        State windowState = new InMemoryState();
+        this.processor(windowState).onNewMessage(event("a", 1000));
+
+        // A new processor over the same state, e.g. after a restart.
+        SessionWindowEventTimeProcessor processor = this.processor(windowState);
+        processor.onNewMessage(event("a", 1500));
+        processor.onNewMessage(event("b", 20000));
+
+        assertThat(this.sent).hasSize(1);
+        assertSession(this.sent.get(0), "a", 1000, 2500, 2);
+    }
+
+    private SessionWindowEventTimeProcessor processor(State windowState) {
+        SrpProcessorApplicationProperties properties = new SrpProcessorApplicationProperties();
+        properties.setName("test");
+        properties.setSessionGap(Duration.ofMillis(1000));
+        properties.setSkipUdf(true);
+        properties.getOutput().setDestination("output");
+
+        // Captures the window outputs instead of sending them.
+        return new SessionWindowEventTimeProcessor(windowState, properties,
+                message -> message.getHeaders().get(TIME_HEADER, Long.class),
+                message -> message.getHeaders().get(KEY_HEADER, String.class),
+                new WatermarkService().withMaxOutOfOrderness(Duration.ofMillis(5000)), null, 0,
+                new SrpHeaderAugmenter(Collections.emptyMap(), null)) {
+
+            @Override
+            public void send(Duration aggregateEventTime, Duration outputWatermark,
+                    MessageBuilder<?> messageBuilder) {
+                sent.add(messageBuilder.build());
+            }
+        };
+    }
+
+    private static Message<byte[]> event(String key, long timeMs) {
+        return MessageBuilder.withPayload((key + "@" + timeMs).getBytes())
+                .setHeader(TIME_HEADER, timeMs)
+                .setHeader(KEY_HEADER, key)
+                .setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.TEXT_PLAIN_VALUE)
+                .build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertSession(Message<?> output, String key, long startMs, long endMs, int eventCount) {
+        assertThat(output.getHeaders().get(AbstractTumblingWindowEventProcessor.WINDOW_KEY_HEADER)).isEqualTo(key);
+        assertThat(output.getHeaders().get("windowStartTime")).isEqualTo(startMs);
+        assertThat(output.getHeaders().get("windowEndTime")).isEqualTo(endMs);
+        assertThat(GrpcPayloadCollectionSeDe.decodeFromToGrpcPayloadCollection((Message<byte[]>) output))
+                .hasSize(eventCount);
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tanzu.streaming.runtime.srp.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.tanzu.streaming.runtime.srp.processor.window.state.RocksDBWindowState;
+import com.tanzu.streaming.runtime.srp.processor.window.state.State;
+import com.tanzu.streaming.runtime.srp.processor.window.state.StateEntry;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.api.common.typeutils.base.array.BytePrimitiveArraySerializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.apache.flink.runtime.state.ListDelimitedSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.StringAppendOperator;
+
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.SerializationUtils;
+
+/**
+ * RocksDB window state put and get: the legacy single keyspace layout (TS:/HD: prefixed keys, a merged payload list
+ * and Java serialized headers read back on every put) versus the column family layout of the
+ * {@link RocksDBWindowState} (chunked payloads, header written once, no reads on put).
+ *
+ * The put writes windows of messagesPerWindow messages and deletes the older windows, like the window releases. The
+ * get reads all the payloads of a window with messagesPerWindow messages.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RocksDBLayoutBenchmark {
+
+    private static final long READ_WINDOW = -1L;
+
+    @Param({ "legacy", "columnFamilies" })
+    public String layout;
+
+    @Param({ "1000" })
+    public int messagesPerWindow;
+
+    @Param({ "256" })
+    public int payloadBytes;
+
+    private Path databasePath;
+
+    private State state;
+
+    private byte[] payload;
+
+    private final Map<String, Object> headers = new HashMap<>();
+
+    private long putCount = 0;
+
+    @Setup
+    public void setup() throws IOException, RocksDBException {
+        this.databasePath = Files.createTempDirectory("srp-rocksdb-layout");
+        if ("legacy".equals(this.layout)) {
+            this.state = new LegacyLayoutState(this.databasePath.toString());
+        }
+        else {
+            RocksDBWindowState rocksDBWindowState = new RocksDBWindowState(this.databasePath.toString());
+            rocksDBWindowState.initialize();
+            this.state = rocksDBWindowState;
+        }
+        this.payload = new byte[this.payloadBytes];
+        this.headers.put("contentType", "application/json");
+        this.headers.put("kafka_offset", 42L);
+
+        for (int i = 0; i < this.messagesPerWindow; i++) {
+            this.state.put(READ_WINDOW, this.headers, this.payload);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ((AutoCloseable) this.state).close();
+        FileSystemUtils.deleteRecursively(this.databasePath);
+    }
+
+    @Benchmark
+    public void put() {
+        long putCount = this.putCount++;
+        long windowStart = putCount / this.messagesPerWindow;
+        if (putCount % this.messagesPerWindow == 0 && windowStart >= 2) {
+            StateEntry releasedWindow = this.state.delete(windowStart - 2);
+            if (releasedWindow != null) {
+                releasedWindow.close();
+            }
+        }
+        this.state.put(windowStart, this.headers, this.payload);
+    }
+
+    @Benchmark
+    public long get() {
+        long payloadBytes = 0;
+        try (StateEntry window = this.state.get(READ_WINDOW)) {
+            for (byte[] payload : window.getPayloads()) {
+                payloadBytes += payload.length;
+            }
+        }
+        return payloadBytes;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RocksDBLayoutBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    /**
+     * The RocksDB window state layout before the column families: the payloads of a window are appended to a single
+     * TS: key and the headers, stored under the HD: key, are read on every put to check if the window is new.
+     */
+    private static class LegacyLayoutState implements State, AutoCloseable {
+
+        private final TypeSerializer<byte[]> typeSerializer = BytePrimitiveArraySerializer.INSTANCE;
+
+        private final ListDelimitedSerializer listDelimitedSerializer = new ListDelimitedSerializer();
+
+        private final DataOutputSerializer dataOutputView = new DataOutputSerializer(128);
+
+        private final ConcurrentHashMap<Long, Object> keys = new ConcurrentHashMap<>();
+
+        private final Options options;
+
+        private final RocksDB db;
+
+        LegacyLayoutState(String databasePath) throws RocksDBException {
+            RocksDB.loadLibrary();
+            this.options = new Options().setCreateIfMissing(true).setMergeOperator(new StringAppendOperator());
+            this.db = RocksDB.open(this.options, databasePath);
+        }
+
+        @Override
+        public Set<Long> keys() {
+            return this.keys.keySet();
+        }
+
+        @Override
+        public void put(long timestamp, String key, Map<String, Object> headers, byte[] payload) {
+            try {
+                this.typeSerializer.serialize(payload, this.dataOutputView);
+                this.db.merge(prefixed(RocksDBWindowState.TIMESTAMP_PREFIX, timestamp),
+                        this.dataOutputView.getCopyOfBuffer());
+                this.dataOutputView.clear();
+                this.keys.putIfAbsent(timestamp, Void.TYPE);
+
+                byte[] headersKey = prefixed(RocksDBWindowState.HEADERS_PREFIX, timestamp);
+                if (this.db.get(headersKey) == null) {
+                    this.db.put(headersKey, SerializationUtils.serialize(new HashMap<>(headers)));
+                }
+            }
+            catch (IOException | RocksDBException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public StateEntry get(long timestamp) {
+            try {
+                byte[] encodedPayloads = this.db.get(prefixed(RocksDBWindowState.TIMESTAMP_PREFIX, timestamp));
+                if (encodedPayloads == null) {
+                    return null;
+                }
+                List<byte[]> payloads = this.listDelimitedSerializer.deserializeList(encodedPayloads,
+                        this.typeSerializer);
+                Map<String, Object> headers = (Map<String, Object>) SerializationUtils
+                        .deserialize(this.db.get(prefixed(RocksDBWindowState.HEADERS_PREFIX, timestamp)));
+                return new StateEntry(timestamp, headers, payloads);
+            }
+            catch (RocksDBException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public StateEntry delete(long timestamp) {
+            StateEntry stateEntry = this.get(timestamp);
+            try {
+                this.db.delete(prefixed(RocksDBWindowState.TIMESTAMP_PREFIX, timestamp));
+                this.db.delete(prefixed(RocksDBWindowState.HEADERS_PREFIX, timestamp));
+            }
+            catch (RocksDBException e) {
+                throw new IllegalStateException(e);
+            }
+            this.keys.remove(timestamp);
+            return stateEntry;
+        }
+
+        @Override
+        public void merge(long targetTimestamp, long sourceTimestamp) {
+            throw new UnsupportedOperationException("Not used by the benchmark");
+        }
+
+        @Override
+        public void close() {
+            this.db.close();
+            this.options.close();
+        }
+
+        private static byte[] prefixed(byte[] prefix, long timestamp) {
+            byte[] key = new byte[prefix.length + Long.BYTES];
+            System.arraycopy(prefix, 0, key, 0, prefix.length);
+            for (int i = key.length - 1; i >= prefix.length; i--) {
+                key[i] = (byte) (timestamp & 0xFF);
+                timestamp >>= Byte.SIZE;
+            }
+            return key;
+        }
+    }
+}
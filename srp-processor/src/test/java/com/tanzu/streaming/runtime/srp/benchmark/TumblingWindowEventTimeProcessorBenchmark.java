@@ -0,0 +1,119 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tanzu.streaming.runtime.srp.benchmark;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.tanzu.streaming.runtime.srp.SrpHeaderAugmenter;
+import com.tanzu.streaming.runtime.srp.SrpProcessorApplicationProperties;
+import com.tanzu.streaming.runtime.srp.TumblingWindowEventTimeProcessor;
+import com.tanzu.streaming.runtime.srp.processor.window.accumulator.BuiltInWindowAccumulatorFactory;
+import com.tanzu.streaming.runtime.srp.processor.window.accumulator.WindowAccumulatorType;
+import com.tanzu.streaming.runtime.srp.processor.window.state.IncrementalWindowState;
+import com.tanzu.streaming.runtime.srp.watermark.WatermarkService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * Per-message cost of the {@link TumblingWindowEventTimeProcessor#onNewMessage} with a number of open windows. The
+ * messages go round-robin to the open windows. The watermark stays behind the windows, so no window completes, and the
+ * COUNT accumulator keeps the state size constant.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TumblingWindowEventTimeProcessorBenchmark {
+
+    private static final String TIME_HEADER = "time";
+
+    private static final long WINDOW_MS = 1000;
+
+    @Param({ "10", "1000", "100000" })
+    public int openWindows;
+
+    private TumblingWindowEventTimeProcessor processor;
+
+    private Message<byte[]>[] messages;
+
+    private int nextMessage;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        SrpProcessorApplicationProperties properties = new SrpProcessorApplicationProperties();
+        properties.setName("benchmark");
+        properties.setWindow(Duration.ofMillis(WINDOW_MS));
+        properties.setSkipUdf(true);
+
+        // Longer than the span of the open windows.
+        WatermarkService watermarkService = new WatermarkService().withMaxOutOfOrderness(Duration.ofDays(7));
+
+        // No window completes, so no stream bridge is needed.
+        this.processor = new TumblingWindowEventTimeProcessor(
+                new IncrementalWindowState(
+                        new BuiltInWindowAccumulatorFactory(WindowAccumulatorType.COUNT, null, null, 0, null)),
+                properties, message -> message.getHeaders().get(TIME_HEADER, Long.class), watermarkService, null, 0,
+                new SrpHeaderAugmenter(Collections.emptyMap(), null));
+
+        this.messages = (Message<byte[]>[]) new Message<?>[this.openWindows];
+        for (int window = 0; window < this.openWindows; window++) {
+            this.messages[window] = MessageBuilder.withPayload(new byte[] { 1 })
+                    .setHeader(TIME_HEADER, window * WINDOW_MS).build();
+            this.processor.onNewMessage(this.messages[window]);
+        }
+        this.nextMessage = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.processor.close();
+    }
+
+    @Benchmark
+    public void onNewMessage() {
+        this.processor.onNewMessage(this.messages[this.nextMessage]);
+        if (++this.nextMessage == this.openWindows) {
+            this.nextMessage = 0;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TumblingWindowEventTimeProcessorBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.benchmark;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tanzu.streaming.runtime.srp.watermark.WatermarkService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * Per-message watermark cost: the incrementally maintained {@link WatermarkService} watermark versus the minimum
+ * computed over all the partition watermarks on every read, as done before. Every message updates its partition and
+ * reads the watermark three times, like the window processor (late check, window completion and output watermark).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WatermarkBenchmark {
+
+    @Param({ "1", "8", "64", "512" })
+    public int partitions;
+
+    private WatermarkService watermarkService;
+
+    private ConcurrentHashMap<Integer, AtomicLong> partitionWatermarks;
+
+    private Message<byte[]>[] messages;
+
+    private long timestampMs;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        this.watermarkService = new WatermarkService();
+        this.partitionWatermarks = new ConcurrentHashMap<>();
+        this.messages = (Message<byte[]>[]) new Message<?>[this.partitions];
+        for (int partition = 0; partition < this.partitions; partition++) {
+            this.messages[partition] = MessageBuilder.withPayload(new byte[0])
+                    .setHeader(WatermarkService.PARTITION_HEADER, partition).build();
+            this.partitionWatermarks.put(partition, new AtomicLong(Long.MIN_VALUE));
+        }
+        this.timestampMs = 0;
+    }
+
+    @Benchmark
+    public long incrementalWatermark() {
+        long timestampMs = this.timestampMs++;
+        Message<byte[]> message = this.messages[(int) (timestampMs % this.partitions)];
+        this.watermarkService.updateWatermarks(message, Duration.ofMillis(timestampMs));
+        return this.watermarkService.computeWatermarkMs() + this.watermarkService.computeWatermarkMs()
+                + this.watermarkService.computeWatermarkMs();
+    }
+
+    @Benchmark
+    public long scannedWatermark() {
+        long timestampMs = this.timestampMs++;
+        int partition = (int) (timestampMs % this.partitions);
+        AtomicLong partitionWatermark = this.partitionWatermarks.get(partition);
+        partitionWatermark.accumulateAndGet(timestampMs - 1, Math::max);
+        return this.minPartitionWatermark() + this.minPartitionWatermark() + this.minPartitionWatermark();
+    }
+
+    private long minPartitionWatermark() {
+        return this.partitionWatermarks.values().stream().mapToLong(AtomicLong::get).min().orElse(Long.MIN_VALUE);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(WatermarkBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+}
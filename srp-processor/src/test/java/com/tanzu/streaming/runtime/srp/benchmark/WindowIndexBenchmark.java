@@ -0,0 +1,94 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.tanzu.streaming.runtime.srp.processor.window.WindowIndex;
+import com.tanzu.streaming.runtime.srp.processor.window.state.InMemoryState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Window completion lookups with the {@link WindowIndex} versus streaming over the State.keys(), as done before the
+ * index. With a watermark completing one window: the oldest window id and the ids of the completed windows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WindowIndexBenchmark {
+
+    @Param({ "16", "256", "4096" })
+    public int openWindows;
+
+    private InMemoryState state;
+
+    private WindowIndex index;
+
+    private long watermark;
+
+    @Setup
+    public void setup() {
+        this.state = new InMemoryState();
+        this.index = new WindowIndex();
+        for (long windowId = 0; windowId < this.openWindows; windowId++) {
+            this.state.put(windowId, Collections.emptyMap(), new byte[] { 1 });
+            this.index.add(windowId);
+        }
+        this.watermark = 0;
+    }
+
+    @Benchmark
+    public long oldestWindowStateKeys() {
+        return this.state.keys().stream().mapToLong(Long::longValue).min().orElse(WindowIndex.NO_WINDOW);
+    }
+
+    @Benchmark
+    public long oldestWindowIndex() {
+        return this.index.first();
+    }
+
+    @Benchmark
+    public long[] completedWindowsStateKeys() {
+        return this.state.keys().stream().mapToLong(Long::longValue).filter(windowId -> windowId <= this.watermark)
+                .sorted().toArray();
+    }
+
+    @Benchmark
+    public long[] completedWindowsIndex() {
+        return this.index.headTo(this.watermark);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(WindowIndexBenchmark.class.getSimpleName()).build()).run();
+    }
+}
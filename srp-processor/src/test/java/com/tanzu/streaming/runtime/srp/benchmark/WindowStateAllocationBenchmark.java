@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.benchmark;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.tanzu.streaming.runtime.srp.processor.window.state.InMemoryState;
+import com.tanzu.streaming.runtime.srp.processor.window.state.OffHeapWindowState;
+import com.tanzu.streaming.runtime.srp.processor.window.state.State;
+import com.tanzu.streaming.runtime.srp.processor.window.state.StateEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Heap allocation and GC cost of buffering the window messages on-heap ({@link InMemoryState}) versus in pooled direct
+ * memory slabs ({@link OffHeapWindowState}). Every operation fills and releases one window. Run with the GC profiler,
+ * the gc.alloc.rate.norm metric is the heap allocated per window.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx1g", "-XX:MaxDirectMemorySize=1g" })
+public class WindowStateAllocationBenchmark {
+
+    @Param({ "inMemory", "offHeap" })
+    public String stateType;
+
+    @Param({ "1000" })
+    public int messagesPerWindow;
+
+    @Param({ "256" })
+    public int payloadBytes;
+
+    private State state;
+
+    private byte[] payload;
+
+    private final Map<String, Object> headers = Collections.singletonMap("contentType", "application/json");
+
+    private long windowStart = 0;
+
+    @Setup
+    public void setup() {
+        this.state = "offHeap".equals(this.stateType) ? new OffHeapWindowState() : new InMemoryState();
+        this.payload = new byte[this.payloadBytes];
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ((AutoCloseable) this.state).close();
+    }
+
+    @Benchmark
+    public long fillAndReleaseWindow() {
+        long windowStart = this.windowStart++;
+        for (int i = 0; i < this.messagesPerWindow; i++) {
+            this.state.put(windowStart, StateEntry.NO_KEY, this.headers, this.payload);
+        }
+        long payloadBytes = 0;
+        try (StateEntry window = this.state.delete(windowStart)) {
+            for (byte[] payload : window.getPayloads()) {
+                payloadBytes += payload.length;
+            }
+        }
+        return payloadBytes;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(WindowStateAllocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.stateless;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EventTimeReorderBufferTests {
+
+    @Test
+    void shouldReleaseInEventTimeOrderAndEqualTimesInArrivalOrder() {
+        EventTimeReorderBuffer<String> buffer = new EventTimeReorderBuffer<>(16);
+        buffer.offer(30, "c");
+        buffer.offer(10, "a1");
+        buffer.offer(20, "b");
+        buffer.offer(10, "a2");
+        buffer.offer(10, "a3");
+
+        List<String> released = new ArrayList<>();
+        assertThat(buffer.releaseAll((eventTimeMs, entry) -> released.add(entry))).isEqualTo(5);
+
+        assertThat(released).containsExactly("a1", "a2", "a3", "b", "c");
+        assertThat(buffer.size()).isZero();
+    }
+
+    @Test
+    void shouldReleaseOnlyTheEventsUpToTheWatermark() {
+        EventTimeReorderBuffer<String> buffer = new EventTimeReorderBuffer<>(16);
+        buffer.offer(30, "c");
+        buffer.offer(10, "a");
+        buffer.offer(20, "b");
+
+        List<Long> released = new ArrayList<>();
+        assertThat(buffer.releaseUpTo(5, (eventTimeMs, entry) -> released.add(eventTimeMs))).isZero();
+        assertThat(buffer.releaseUpTo(20, (eventTimeMs, entry) -> released.add(eventTimeMs))).isEqualTo(2);
+
+        assertThat(released).containsExactly(10L, 20L);
+        assertThat(buffer.size()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRejectEventsWhenFull() {
+        EventTimeReorderBuffer<String> buffer = new EventTimeReorderBuffer<>(2);
+
+        assertThat(buffer.offer(1, "a")).isTrue();
+        assertThat(buffer.offer(2, "b")).isTrue();
+        assertThat(buffer.offer(0, "c")).isFalse();
+        assertThat(buffer.size()).isEqualTo(2);
+
+        buffer.releaseUpTo(1, (eventTimeMs, entry) -> {
+        });
+        assertThat(buffer.offer(0, "c")).isTrue();
+    }
+
+    /**
+     * Random event times past the initial array size, compared with a stable sort by event time.
+     */
+    @Test
+    void shouldMatchAStableSortWhenGrowing() {
+        EventTimeReorderBuffer<Integer> buffer = new EventTimeReorderBuffer<>(1000);
+        Random random = new Random(42);
+        List<long[]> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            long eventTimeMs = random.nextInt(100);
+            assertThat(buffer.offer(eventTimeMs, i)).isTrue();
+            expected.add(new long[] { eventTimeMs, i });
+        }
+        expected.sort(Comparator.comparingLong(event -> event[0]));
+
+        List<long[]> released = new ArrayList<>();
+        buffer.releaseAll((eventTimeMs, entry) -> released.add(new long[] { eventTimeMs, entry }));
+
+        assertThat(released).hasSize(1000);
+        for (int i = 0; i < released.size(); i++) {
+            assertThat(released.get(i)).containsExactly(expected.get(i));
+        }
+    }
+}
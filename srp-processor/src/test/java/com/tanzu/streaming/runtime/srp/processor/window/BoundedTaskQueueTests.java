@@ -0,0 +1,132 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tanzu.streaming.runtime.srp.processor.window;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BoundedTaskQueueTests {
+
+    @Test
+    void shouldRoundTheCapacityUpToAPowerOfTwo() {
+        assertThat(new BoundedTaskQueue<Integer>(1).capacity()).isEqualTo(1);
+        assertThat(new BoundedTaskQueue<Integer>(5).capacity()).isEqualTo(8);
+        assertThat(new BoundedTaskQueue<Integer>(16).capacity()).isEqualTo(16);
+        assertThatThrownBy(() -> new BoundedTaskQueue<Integer>(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldRejectOffersWhenFullAndReturnNullWhenEmpty() {
+        BoundedTaskQueue<Integer> queue = new BoundedTaskQueue<>(4);
+        assertThat(queue.isEmpty()).isTrue();
+        assertThat(queue.poll()).isNull();
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(queue.offer(i)).isTrue();
+        }
+        assertThat(queue.offer(4)).isFalse();
+        assertThat(queue.size()).isEqualTo(4);
+
+        assertThat(queue.poll()).isEqualTo(0);
+        assertThat(queue.offer(4)).isTrue();
+        assertThat(queue.offer(5)).isFalse();
+
+        for (int i = 1; i <= 4; i++) {
+            assertThat(queue.poll()).isEqualTo(i);
+        }
+        assertThat(queue.poll()).isNull();
+        assertThat(queue.isEmpty()).isTrue();
+        assertThat(queue.size()).isZero();
+    }
+
+    @Test
+    void shouldKeepTheFifoOrderAcrossWraparounds() {
+        BoundedTaskQueue<Integer> queue = new BoundedTaskQueue<>(4);
+        int next = 0;
+        for (int lap = 0; lap < 10; lap++) {
+            // Leaves a growing offset between the head and the slot 0.
+            for (int i = 0; i < 3; i++) {
+                assertThat(queue.offer(lap * 3 + i)).isTrue();
+            }
+            for (int i = 0; i < 3; i++) {
+                assertThat(queue.poll()).isEqualTo(next++);
+            }
+        }
+        assertThat(queue.isEmpty()).isTrue();
+    }
+
+    @Test
+    void shouldDeliverEveryElementOfConcurrentProducersInProducerOrder() throws InterruptedException {
+        int producers = 4;
+        int elementsPerProducer = 100_000;
+        BoundedTaskQueue<long[]> queue = new BoundedTaskQueue<>(16);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producerThreads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                await(start);
+                for (int i = 0; i < elementsPerProducer; i++) {
+                    // The small queue is mostly full, so the producers spin on the rejected offers.
+                    while (!queue.offer(new long[] { producer, i })) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            producerThreads.add(thread);
+        }
+        start.countDown();
+
+        long[] nextElements = new long[producers];
+        int received = 0;
+        while (received < producers * elementsPerProducer) {
+            long[] element = queue.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            int producer = (int) element[0];
+            assertThat(element[1]).isEqualTo(nextElements[producer]);
+            nextElements[producer]++;
+            received++;
+        }
+        for (Thread thread : producerThreads) {
+            thread.join();
+        }
+
+        assertThat(nextElements).containsOnly(elementsPerProducer);
+        assertThat(queue.poll()).isNull();
+        assertThat(queue.size()).isZero();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class HashedWheelTimerTests {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-timer", Duration.ofMillis(1), 8);
+
+    @AfterEach
+    void close() {
+        this.timer.close();
+    }
+
+    @Test
+    void shouldNotExpireBeforeTheDelay() throws InterruptedException {
+        CountDownLatch expired = new CountDownLatch(1);
+        long startNs = System.nanoTime();
+        HashedWheelTimer.Timeout timeout = this.timer.newTimeout(expired::countDown, Duration.ofMillis(30));
+
+        assertThat(expired.await(5, TimeUnit.SECONDS)).isTrue();
+        // The precision is one tick.
+        assertThat(System.nanoTime() - startNs).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(29));
+        assertThat(timeout.isExpired()).isTrue();
+        assertThat(timeout.cancel()).isFalse();
+    }
+
+    /**
+     * The delays span several rotations of the 8 ticks wheel, so the timers share buckets with different rounds.
+     */
+    @Test
+    void shouldExpireInDeadlineOrderAcrossWheelRotations() throws InterruptedException {
+        List<Integer> expired = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(4);
+        for (int delayMs : new int[] { 60, 5, 37, 21 }) {
+            this.timer.newTimeout(() -> {
+                expired.add(delayMs);
+                done.countDown();
+            }, Duration.ofMillis(delayMs));
+        }
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(expired).containsExactly(5, 21, 37, 60);
+        assertThat(this.timer.pendingTimeouts()).isZero();
+    }
+
+    @Test
+    void shouldNotRunCancelledTimers() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        HashedWheelTimer.Timeout cancelled = this.timer.newTimeout(runs::incrementAndGet, Duration.ofMillis(20));
+        CountDownLatch later = new CountDownLatch(1);
+        this.timer.newTimeout(later::countDown, Duration.ofMillis(40));
+
+        assertThat(cancelled.cancel()).isTrue();
+        assertThat(cancelled.cancel()).isFalse();
+        assertThat(later.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(cancelled.isCancelled()).isTrue();
+        assertThat(runs).hasValue(0);
+        assertThat(this.timer.pendingTimeouts()).isZero();
+    }
+
+    @Test
+    void shouldKeepExpiringAfterAFailedTask() throws InterruptedException {
+        CountDownLatch expired = new CountDownLatch(1);
+        this.timer.newTimeout(() -> {
+            throw new IllegalStateException("task failure");
+        }, Duration.ofMillis(1));
+        this.timer.newTimeout(expired::countDown, Duration.ofMillis(10));
+
+        assertThat(expired.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void shouldRejectTimersOnceClosed() {
+        this.timer.start();
+        this.timer.close();
+
+        assertThatThrownBy(() -> this.timer.newTimeout(() -> {
+        }, Duration.ofMillis(1))).isInstanceOf(IllegalStateException.class);
+    }
+}
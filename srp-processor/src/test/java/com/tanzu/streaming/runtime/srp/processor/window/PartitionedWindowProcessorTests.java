@@ -0,0 +1,249 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tanzu.streaming.runtime.srp.processor.window;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import com.tanzu.streaming.runtime.srp.SrpHeaderAugmenter;
+import com.tanzu.streaming.runtime.srp.SrpProcessorApplicationProperties;
+import com.tanzu.streaming.runtime.srp.TumblingWindowEventTimeProcessor;
+import com.tanzu.streaming.runtime.srp.processor.window.state.InMemoryState;
+import com.tanzu.streaming.runtime.srp.processor.window.state.State;
+import com.tanzu.streaming.runtime.srp.watermark.WatermarkService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PartitionedWindowProcessorTests {
+
+    private static final String TIME_HEADER = "time";
+
+    private static final String SHARD_HEADER = "shard";
+
+    private static final String SEQUENCE_HEADER = "sequence";
+
+    private static final String FAIL_HEADER = "fail";
+
+    private static final long SECOND_NS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Sequences of the processed messages, by shard.
+     */
+    private final Map<Integer, List<Integer>> processedSequences = new ConcurrentHashMap<>();
+
+    private final List<TumblingWindowEventTimeProcessor> workerProcessors = new ArrayList<>();
+
+    private PartitionedWindowProcessor processor;
+
+    @AfterEach
+    void close() {
+        if (this.processor != null) {
+            this.processor.close();
+        }
+    }
+
+    @Test
+    void shouldProcessTheMessagesOfAShardInArrivalOrder() {
+        this.processor = this.processor(4);
+        this.processor.start();
+
+        int shards = 8;
+        int sequence = 0;
+        for (int i = 0; i < 500; i++) {
+            for (int shard = 0; shard < shards; shard++) {
+                this.processor.onNewMessage(event(shard, 500, sequence++));
+            }
+            List<Message<byte[]>> batch = new ArrayList<>();
+            for (int shard = 0; shard < shards; shard++) {
+                batch.add(event(shard, 500, sequence++));
+            }
+            this.processor.onNewMessages(batch);
+        }
+        this.processor.close();
+        this.processor = null;
+
+        assertThat(this.processedSequences).hasSize(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            assertThat(this.processedSequences.get(shard)).hasSize(1000).isSorted();
+        }
+    }
+
+    @Test
+    void shouldRethrowAWorkerFailureOnTheNextSubmitAndOnClose() {
+        this.processor = this.processor(2);
+        this.processor.start();
+
+        this.processor.onNewMessage(MessageBuilder.fromMessage(event(0, 500, 0)).setHeader(FAIL_HEADER, true).build());
+        waitFor(() -> {
+            try {
+                this.processor.onNewMessage(event(0, 600, 1));
+                return false;
+            }
+            catch (IllegalStateException e) {
+                return true;
+            }
+        });
+
+        assertThatThrownBy(() -> this.processor.onNewMessage(event(0, 700, 2)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasRootCauseMessage("worker failure");
+        // The other workers keep processing.
+        this.processor.onNewMessage(event(1, 800, 3));
+
+        assertThatThrownBy(this.processor::close).isInstanceOf(IllegalStateException.class)
+                .hasRootCauseMessage("worker failure");
+        this.processor = null;
+        assertThat(this.processedSequences.get(0)).isNullOrEmpty();
+        assertThat(this.processedSequences.get(1)).containsExactly(3);
+    }
+
+    @Test
+    void shouldCloseASharedWindowIdOnlyWhenTheLastWorkerClosesIt() {
+        this.processor = this.processor(2);
+        RecordingListener listener = new RecordingListener();
+        this.processor.addWindowLifecycleListener(listener);
+        // Registered after the shared listener, so it is notified after it.
+        List<RecordingListener> workerListeners = Arrays.asList(new RecordingListener(), new RecordingListener());
+        for (int worker = 0; worker < 2; worker++) {
+            this.workerProcessors.get(worker).addWindowLifecycleListener(workerListeners.get(worker));
+        }
+        this.processor.start();
+
+        this.processor.onNewMessage(event(0, 500));
+        this.processor.onNewMessage(event(1, 600));
+        waitFor(() -> workerListeners.get(0).events.contains("open:0")
+                && workerListeners.get(1).events.contains("open:0"));
+
+        // The worker 0 closes its window 0, the worker 1 window 0 is still open.
+        this.processor.onNewMessage(event(0, 5000));
+        waitFor(() -> workerListeners.get(0).events.contains("close:0"));
+        assertThat(listener.events).containsExactly("open:0", "open:" + 5 * SECOND_NS);
+
+        this.processor.onNewMessage(event(1, 5500));
+        waitFor(() -> workerListeners.get(1).events.contains("close:0"));
+        assertThat(listener.events).containsExactly("open:0", "open:" + 5 * SECOND_NS, "close:0");
+    }
+
+    private PartitionedWindowProcessor processor(int workers) {
+        SrpProcessorApplicationProperties properties = new SrpProcessorApplicationProperties();
+        properties.setName("test");
+        properties.setWindow(Duration.ofSeconds(1));
+        properties.setSkipUdf(true);
+        properties.getOutput().setDestination("output");
+
+        List<State> workerStates = new ArrayList<>();
+        for (int worker = 0; worker < workers; worker++) {
+            State workerState = new InMemoryState();
+            workerStates.add(workerState);
+            this.workerProcessors.add(new RecordingProcessor(workerState, properties));
+        }
+        return new PartitionedWindowProcessor(this.workerProcessors, workerStates,
+                message -> message.getHeaders().get(SHARD_HEADER, Integer.class), 4);
+    }
+
+    private static Message<byte[]> event(int shard, long timeMs) {
+        return event(shard, timeMs, -1);
+    }
+
+    private static Message<byte[]> event(int shard, long timeMs, int sequence) {
+        return MessageBuilder.withPayload(("event@" + timeMs).getBytes())
+                .setHeader(TIME_HEADER, timeMs)
+                .setHeader(SHARD_HEADER, shard)
+                .setHeader(SEQUENCE_HEADER, sequence)
+                .setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.TEXT_PLAIN_VALUE)
+                .build();
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition timeout").isLessThan(deadline);
+            sleep(1);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Records the message sequences and fails the messages with the fail header.
+     */
+    private class RecordingProcessor extends TumblingWindowEventTimeProcessor {
+
+        RecordingProcessor(State windowState, SrpProcessorApplicationProperties properties) {
+            super(windowState, properties, message -> message.getHeaders().get(TIME_HEADER, Long.class),
+                    new WatermarkService(), null, 0, new SrpHeaderAugmenter(Collections.emptyMap(), null));
+        }
+
+        /**
+         * The window outputs are dropped.
+         */
+        @Override
+        public void send(Duration aggregateEventTime, Duration outputWatermark, MessageBuilder<?> messageBuilder) {
+        }
+
+        @Override
+        public void onNewMessage(Message<byte[]> inputMessage) {
+            if (inputMessage.getHeaders().containsKey(FAIL_HEADER)) {
+                throw new IllegalArgumentException("worker failure");
+            }
+            int sequence = inputMessage.getHeaders().get(SEQUENCE_HEADER, Integer.class);
+            if (sequence >= 0) {
+                processedSequences.computeIfAbsent(inputMessage.getHeaders().get(SHARD_HEADER, Integer.class),
+                        shard -> new CopyOnWriteArrayList<>()).add(sequence);
+            }
+            super.onNewMessage(inputMessage);
+        }
+    }
+
+    private static class RecordingListener implements WindowLifecycleListener {
+
+        private final List<String> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onWindowOpened(long windowId) {
+            this.events.add("open:" + windowId);
+        }
+
+        @Override
+        public void onWindowClosed(long windowId) {
+            this.events.add("close:" + windowId);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WindowIndexTests {
+
+    @Test
+    void shouldKeepOutOfOrderIdsSorted() {
+        WindowIndex index = new WindowIndex();
+
+        assertThat(index.add(30)).isTrue();
+        assertThat(index.add(10)).isTrue();
+        assertThat(index.add(20)).isTrue();
+        assertThat(index.add(20)).isFalse();
+
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.first()).isEqualTo(10);
+        assertThat(index.headTo(Long.MAX_VALUE)).containsExactly(10, 20, 30);
+    }
+
+    @Test
+    void shouldReturnTheWindowsUpToTheBound() {
+        WindowIndex index = new WindowIndex();
+        for (long windowId = 0; windowId < 100; windowId += 10) {
+            index.add(windowId);
+        }
+
+        assertThat(index.headTo(-1)).isEmpty();
+        assertThat(index.headTo(25)).containsExactly(0, 10, 20);
+        assertThat(index.headTo(30)).containsExactly(0, 10, 20, 30);
+        assertThat(index.range(15, 40)).containsExactly(20, 30, 40);
+        assertThat(index.range(41, 49)).isEmpty();
+        assertThat(index.ceiling(41)).isEqualTo(50);
+        assertThat(index.ceiling(91)).isEqualTo(WindowIndex.NO_WINDOW);
+    }
+
+    @Test
+    void shouldRemoveFromTheHeadAndTheMiddle() {
+        WindowIndex index = new WindowIndex();
+        index.addAll(Arrays.asList(1L, 2L, 3L, 4L));
+
+        assertThat(index.remove(1)).isTrue();
+        assertThat(index.remove(3)).isTrue();
+        assertThat(index.remove(3)).isFalse();
+        assertThat(index.contains(3)).isFalse();
+        assertThat(index.headTo(Long.MAX_VALUE)).containsExactly(2, 4);
+
+        index.remove(2);
+        index.remove(4);
+        assertThat(index.isEmpty()).isTrue();
+        assertThat(index.first()).isEqualTo(WindowIndex.NO_WINDOW);
+        assertThat(index.remove(4)).isFalse();
+    }
+
+    /**
+     * Sliding workload: new windows at the tail, released from the head. Exercises the compaction and the growth of
+     * the array.
+     */
+    @Test
+    void shouldMatchASortedSetUnderSlidingAndRandomUpdates() {
+        WindowIndex index = new WindowIndex();
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20_000; i++) {
+            long windowId = (i < 10_000) ? i : random.nextInt(20_000);
+            assertThat(index.add(windowId)).isEqualTo(expected.add(windowId));
+            if (i % 3 == 0) {
+                long removed = (random.nextBoolean() && !expected.isEmpty()) ? expected.first()
+                        : random.nextInt(20_000);
+                assertThat(index.remove(removed)).isEqualTo(expected.remove(removed));
+            }
+        }
+
+        assertThat(index.size()).isEqualTo(expected.size());
+        assertThat(index.first()).isEqualTo(expected.first());
+        assertThat(index.headTo(Long.MAX_VALUE)).containsExactly(
+                expected.stream().mapToLong(Long::longValue).toArray());
+        assertThat(index.headTo(5_000)).containsExactly(
+                expected.headSet(5_000L, true).stream().mapToLong(Long::longValue).toArray());
+    }
+}
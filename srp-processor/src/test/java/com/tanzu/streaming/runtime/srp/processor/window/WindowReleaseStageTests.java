@@ -0,0 +1,119 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class WindowReleaseStageTests {
+
+    @Test
+    void shouldSendInSubmissionOrder() {
+        List<Integer> sent = new CopyOnWriteArrayList<>();
+        WindowReleaseStage stage = new WindowReleaseStage("test", 4, 8);
+        for (int i = 0; i < 100; i++) {
+            int release = i;
+            stage.submit(() -> {
+                if (release % 7 == 0) {
+                    sleep(2);
+                }
+                return release;
+            }, sent::add);
+        }
+        stage.close();
+
+        assertThat(sent).hasSize(100).isSorted();
+    }
+
+    @Test
+    void shouldRethrowAComputationFailure() throws InterruptedException {
+        WindowReleaseStage stage = new WindowReleaseStage("test", 1, 2);
+        CountDownLatch failed = new CountDownLatch(1);
+        stage.submit(() -> {
+            throw new IllegalArgumentException("udf failure");
+        }, result -> {
+        });
+        stage.submit(() -> "next", result -> failed.countDown());
+        assertThat(failed.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(stage::checkFailure).isInstanceOf(IllegalStateException.class)
+                .hasRootCauseMessage("udf failure");
+        assertThatThrownBy(() -> stage.submit(() -> "other", result -> {
+        })).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(stage::close).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void shouldRethrowASendFailureOnClose() {
+        WindowReleaseStage stage = new WindowReleaseStage("test", 2, 2);
+        stage.submit(() -> "window", result -> {
+            throw new IllegalStateException("binder failure");
+        });
+
+        assertThatThrownBy(stage::close).isInstanceOf(IllegalStateException.class)
+                .hasRootCauseMessage("binder failure");
+    }
+
+    @Test
+    void shouldPublishTheWatermarkOnceThePendingReleasesAreSent() throws InterruptedException {
+        WindowReleaseStage stage = new WindowReleaseStage("test", 1, 2);
+        stage.publishWatermark(10);
+        assertThat(stage.getPublishedWatermarkMs()).isEqualTo(10);
+
+        CountDownLatch computing = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        stage.submit(() -> {
+            computing.countDown();
+            await(proceed);
+            return "window";
+        }, result -> {
+        });
+        assertThat(computing.await(5, TimeUnit.SECONDS)).isTrue();
+        stage.publishWatermark(20);
+
+        // The window completed by the watermark is not sent yet.
+        assertThat(stage.getPublishedWatermarkMs()).isEqualTo(10);
+
+        proceed.countDown();
+        stage.close();
+        assertThat(stage.getPublishedWatermarkMs()).isEqualTo(20);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CheckpointManifestTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldRoundTrip() throws IOException {
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put("000012.sst", "blobs/000012.sst-1a2b");
+        files.put("MANIFEST-000005", "checkpoints/7/MANIFEST-000005");
+        CheckpointManifest manifest = new CheckpointManifest(7, 1656000000000L, Map.of("input:0", 42L, "input:1", 0L),
+                files, Map.of("000012.sst", 1024L, "MANIFEST-000005", 64L));
+        Path file = this.directory.resolve("manifest");
+
+        manifest.writeTo(file);
+        CheckpointManifest read = CheckpointManifest.readFrom(file);
+
+        assertThat(read.getId()).isEqualTo(7);
+        assertThat(read.getCreatedAtMs()).isEqualTo(1656000000000L);
+        assertThat(read.getOffsets()).isEqualTo(manifest.getOffsets());
+        // The file order is kept.
+        assertThat(read.getFiles()).containsExactlyEntriesOf(files);
+        assertThat(read.getFileSize("000012.sst")).isEqualTo(1024);
+        assertThat(read.getFileSize("unknown")).isZero();
+        assertThat(read.getSize()).isEqualTo(1088);
+    }
+
+    @Test
+    void shouldRejectACorruptedManifest() throws IOException {
+        Path file = this.writeManifest();
+        byte[] content = Files.readAllBytes(file);
+        // Flip a bit of the checkpoint id.
+        content[10] ^= 1;
+        Files.write(file, content);
+
+        assertThatThrownBy(() -> CheckpointManifest.readFrom(file)).isInstanceOf(IOException.class)
+                .hasMessageContaining("Corrupted");
+    }
+
+    @Test
+    void shouldRejectATruncatedManifest() throws IOException {
+        Path file = this.writeManifest();
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 3));
+
+        assertThatThrownBy(() -> CheckpointManifest.readFrom(file)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void shouldRejectOtherFiles() throws IOException {
+        Path file = this.directory.resolve("other");
+        Files.write(file, "not a manifest".getBytes());
+
+        assertThatThrownBy(() -> CheckpointManifest.readFrom(file)).isInstanceOf(IOException.class)
+                .hasMessageContaining("Not a checkpoint manifest");
+    }
+
+    private Path writeManifest() throws IOException {
+        Path file = this.directory.resolve("manifest");
+        new CheckpointManifest(1, 0, Map.of("input:0", 1L), Map.of("CURRENT", "checkpoints/1/CURRENT"),
+                Map.of("CURRENT", 16L)).writeTo(file);
+        return file;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.util.SerializationUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class HeaderCodecTests {
+
+    @Test
+    void shouldRoundTripTheSupportedHeaderTypes() {
+        HeaderCodec codec = new HeaderCodec(new HeaderCodec.NameDictionary());
+        Map<String, Object> headers = new LinkedHashMap<>();
+        headers.put("string", "value");
+        headers.put("emptyString", "");
+        headers.put("int", Integer.MIN_VALUE);
+        headers.put("long", Long.MAX_VALUE);
+        headers.put("negativeLong", -1L);
+        headers.put("short", (short) -7);
+        headers.put("byte", (byte) 3);
+        headers.put("double", 1.5d);
+        headers.put("float", -2.25f);
+        headers.put("true", true);
+        headers.put("false", false);
+        headers.put("char", '\u00fc');
+        headers.put("bigInteger", new BigInteger("-123456789012345678901234567890"));
+        headers.put("bigDecimal", new BigDecimal("3.14159265358979323846"));
+
+        assertThat(codec.decode(codec.encode(headers))).isEqualTo(headers);
+    }
+
+    @Test
+    void shouldStoreEnumsAsNamesAndSkipTheOtherTypes() {
+        HeaderCodec codec = new HeaderCodec(new HeaderCodec.NameDictionary());
+        Map<String, Object> headers = new HashMap<>();
+        headers.put("unit", TimeUnit.SECONDS);
+        headers.put("list", new ArrayList<>());
+        headers.put("bytes", new byte[] { 1 });
+
+        assertThat(codec.decode(codec.encode(headers))).containsExactly(Map.entry("unit", "SECONDS"));
+    }
+
+    @Test
+    void shouldStartWithTheVersion() {
+        HeaderCodec codec = new HeaderCodec(new HeaderCodec.NameDictionary());
+
+        byte[] encoded = codec.encode(Map.of("name", "value"));
+        assertThat(encoded[0]).isEqualTo(HeaderCodec.VERSION);
+
+        encoded[0] = HeaderCodec.VERSION + 1;
+        assertThatThrownBy(() -> codec.decode(encoded)).isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Unsupported headers version");
+        assertThat(codec.decode(null)).isNull();
+    }
+
+    @Test
+    void shouldDecodeJavaSerializedHeaders() {
+        HeaderCodec codec = new HeaderCodec(new HeaderCodec.NameDictionary());
+        HashMap<String, Object> headers = new HashMap<>(Map.of("name", "value", "id", 42L));
+
+        assertThat(codec.decode(SerializationUtils.serialize(headers))).isEqualTo(headers);
+    }
+
+    @Test
+    void shouldReferenceNamesByIdAndRestoreTheDictionary() {
+        List<String> storedNames = new ArrayList<>();
+        HeaderCodec.NameDictionary dictionary = new HeaderCodec.NameDictionary(
+                HeaderCodec.NameDictionary.DEFAULT_MAX_NAMES, (id, name) -> storedNames.add(id + "=" + name));
+        HeaderCodec codec = new HeaderCodec(dictionary);
+        Map<String, Object> headers = Map.of("aVeryLongHeaderName", "v");
+
+        byte[] first = codec.encode(headers);
+        byte[] second = codec.encode(headers);
+        assertThat(second).isEqualTo(first);
+        assertThat(first.length).isLessThan("aVeryLongHeaderName".length());
+        assertThat(storedNames).containsExactly("0=aVeryLongHeaderName");
+
+        // A new store instance defines the persisted names.
+        HeaderCodec.NameDictionary restored = new HeaderCodec.NameDictionary();
+        restored.define(0, "aVeryLongHeaderName");
+        assertThat(new HeaderCodec(restored).decode(first)).isEqualTo(headers);
+        assertThatThrownBy(() -> new HeaderCodec(new HeaderCodec.NameDictionary()).decode(first))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void shouldInlineTheNamesOnceTheDictionaryIsFull() {
+        HeaderCodec codec = new HeaderCodec(new HeaderCodec.NameDictionary(1, null));
+        Map<String, Object> headers = new LinkedHashMap<>();
+        headers.put("first", 1);
+        headers.put("second", 2);
+
+        byte[] encoded = codec.encode(headers);
+
+        assertThat(codec.getDictionary().size()).isEqualTo(1);
+        assertThat(new String(encoded)).contains("second");
+        assertThat(codec.decode(encoded)).isEqualTo(headers);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import com.tanzu.streaming.runtime.srp.processor.window.accumulator.BuiltInWindowAccumulatorFactory;
+import com.tanzu.streaming.runtime.srp.processor.window.accumulator.WindowAccumulatorType;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IncrementalWindowStateTests {
+
+    private final IncrementalWindowState state = new IncrementalWindowState(
+            new BuiltInWindowAccumulatorFactory(WindowAccumulatorType.COUNT, null, null, 0, null));
+
+    @Test
+    void shouldMergeTheWindowAccumulatorsWithoutChangingTheWindows() {
+        Map<String, Object> headers = Collections.emptyMap();
+        this.state.put(0, "a", headers, new byte[0]);
+        this.state.put(0, "a", headers, new byte[0]);
+        this.state.put(10, "a", headers, new byte[0]);
+        this.state.put(10, "b", headers, new byte[0]);
+
+        StateEntry merged = this.state.getMerged(0, new long[] { 0, 5, 10 });
+
+        assertThat(result(merged, "a")).isEqualTo("{\"count\":3}");
+        assertThat(result(merged, "b")).isEqualTo("{\"count\":1}");
+        assertThat(result(this.state.get(0), "a")).isEqualTo("{\"count\":2}");
+        assertThat(result(this.state.get(10), "a")).isEqualTo("{\"count\":1}");
+        assertThat(this.state.getMerged(0, new long[] { 5 })).isNull();
+    }
+
+    private static String result(StateEntry entry, String key) {
+        assertThat(entry.getKeyedPayloads().get(key)).hasSize(1);
+        return new String(entry.getKeyedPayloads().get(key).iterator().next(), StandardCharsets.UTF_8);
+    }
+}
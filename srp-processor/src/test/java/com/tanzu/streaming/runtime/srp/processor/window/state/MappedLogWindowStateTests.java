@@ -0,0 +1,139 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappedLogWindowStateTests {
+
+    private static final long SEGMENT_BYTES = 4096;
+
+    private static final Map<String, Object> HEADERS = Map.of("contentType", "application/json");
+
+    @TempDir
+    Path logPath;
+
+    private MappedLogWindowState state;
+
+    @AfterEach
+    void close() {
+        if (this.state != null) {
+            this.state.close();
+        }
+    }
+
+    @Test
+    void shouldReplayThePutsDeletesAndMerges() {
+        this.state = this.open();
+        this.state.put(1, "a", HEADERS, payload("1a"));
+        this.state.put(2, "a", HEADERS, payload("2a"));
+        this.state.put(2, "b", HEADERS, payload("2b"));
+        this.state.put(3, "a", HEADERS, payload("3a"));
+        this.state.put(4, "a", HEADERS, payload("4a"));
+        this.state.merge(1, 2);
+        this.state.merge(5, 3);
+        this.state.delete(4).close();
+        this.state.close();
+
+        this.state = this.open();
+
+        assertThat(this.state.keys()).containsExactlyInAnyOrder(1L, 5L);
+        try (StateEntry window = this.state.get(1)) {
+            assertThat(window.getHeaders()).isEqualTo(HEADERS);
+            assertThat(window.getKeyedPayloads().get("a")).containsExactly(payload("1a"), payload("2a"));
+            assertThat(window.getKeyedPayloads().get("b")).containsExactly(payload("2b"));
+        }
+        try (StateEntry window = this.state.get(5)) {
+            assertThat(window.getHeaders()).isEqualTo(HEADERS);
+            assertThat(window.getPayloads()).containsExactly(payload("3a"));
+        }
+    }
+
+    @Test
+    void shouldStopTheReplayAtATornRecord() throws IOException {
+        this.state = this.open();
+        this.state.put(1, "a", HEADERS, payload("first"));
+        this.state.put(1, "a", HEADERS, payload("second"));
+        this.state.close();
+
+        // The checksum of the last record was not written.
+        clearLastRecordChecksum(this.logPath.resolve("segment-0.log"));
+        this.state = this.open();
+
+        try (StateEntry window = this.state.get(1)) {
+            assertThat(window.getPayloads()).containsExactly(payload("first"));
+        }
+
+        // The new records go to a new segment, after the torn record.
+        this.state.put(1, "a", HEADERS, payload("third"));
+        this.state.close();
+        this.state = this.open();
+        try (StateEntry window = this.state.get(1)) {
+            assertThat(window.getPayloads()).containsExactly(payload("first"), payload("third"));
+        }
+    }
+
+    @Test
+    void shouldDropTheSegmentsOfReleasedWindows() {
+        this.state = this.open();
+        byte[] payload = new byte[1024];
+        for (long window = 0; window < 10; window++) {
+            this.state.put(window, "a", HEADERS, payload);
+        }
+        int segments = this.state.getSegmentCount();
+        assertThat(segments).isGreaterThan(1);
+
+        for (long window = 0; window < 10; window++) {
+            this.state.delete(window).close();
+        }
+
+        assertThat(this.state.getSegmentCount()).isLessThan(segments);
+        assertThat(this.state.keys()).isEmpty();
+    }
+
+    private MappedLogWindowState open() {
+        MappedLogWindowState state = new MappedLogWindowState(this.logPath.toString(), SEGMENT_BYTES);
+        state.initialize();
+        return state;
+    }
+
+    private static void clearLastRecordChecksum(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+            channel.read(content, 0);
+            int end = content.limit();
+            while (end > 0 && content.get(end - 1) == 0) {
+                end--;
+            }
+            channel.write(ByteBuffer.allocate(Integer.BYTES), end - Integer.BYTES);
+        }
+    }
+
+    private static byte[] payload(String value) {
+        return value.getBytes();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OffHeapWindowStateTests {
+
+    private static final int SLAB_BYTES = 64;
+
+    private final OffHeapWindowState state = new OffHeapWindowState(SLAB_BYTES, 16);
+
+    @AfterEach
+    void close() {
+        this.state.close();
+    }
+
+    @Test
+    void shouldReadThePayloadsAcrossSlabs() {
+        for (int i = 0; i < 20; i++) {
+            this.state.put(1, "k", Collections.emptyMap(), payload(i, 10));
+        }
+
+        try (StateEntry window = this.state.delete(1)) {
+            assertThat(window.getPayloadCount()).isEqualTo(20);
+            int i = 0;
+            for (byte[] payload : window.getPayloads()) {
+                assertThat(payload).isEqualTo(payload(i++, 10));
+            }
+        }
+        assertThat(this.state.getAllocatedBytes()).isZero();
+    }
+
+    @Test
+    void shouldKeepTheEntrySlabsUntilClosed() {
+        this.state.put(1, "k", Collections.emptyMap(), payload(1, 10));
+        StateEntry window = this.state.get(1);
+        this.state.delete(1).close();
+
+        // The open entry still references the slab.
+        assertThat(this.state.getAllocatedBytes()).isEqualTo(SLAB_BYTES);
+        assertThat(window.getPayloads()).containsExactly(payload(1, 10));
+        window.close();
+        assertThat(this.state.getAllocatedBytes()).isZero();
+    }
+
+    @Test
+    void shouldMergeWithoutCopying() {
+        this.state.put(1, "k", Collections.emptyMap(), payload(1, 10));
+        this.state.put(2, "k", Collections.emptyMap(), payload(2, 10));
+
+        this.state.merge(1, 2);
+
+        assertThat(this.state.keys()).containsExactly(1L);
+        try (StateEntry window = this.state.delete(1)) {
+            assertThat(window.getPayloads()).containsExactly(payload(1, 10), payload(2, 10));
+        }
+    }
+
+    @Test
+    void shouldTrackOversizedSlabsUntilCollected() throws InterruptedException {
+        this.putAndReleaseOversizedPayload();
+        assertThat(this.state.getAllocatedBytes()).isGreaterThan(SLAB_BYTES);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (this.state.getAllocatedBytes() != 0 && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(this.state.getAllocatedBytes()).isZero();
+    }
+
+    private void putAndReleaseOversizedPayload() {
+        this.state.put(1, "k", Collections.emptyMap(), payload(1, 10 * SLAB_BYTES));
+        try (StateEntry window = this.state.delete(1)) {
+            assertThat(window.getPayloads()).containsExactly(payload(1, 10 * SLAB_BYTES));
+        }
+    }
+
+    private static byte[] payload(int value, int size) {
+        byte[] payload = new byte[size];
+        payload[0] = (byte) value;
+        return payload;
+    }
+}
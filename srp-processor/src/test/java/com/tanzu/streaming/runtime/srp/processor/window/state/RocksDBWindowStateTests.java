@@ -0,0 +1,205 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.StringAppendOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RocksDBWindowStateTests {
+
+    @TempDir
+    Path databasePath;
+
+    private RocksDBWindowState state;
+
+    @BeforeEach
+    void setup() {
+        // Small chunks, so the windows span several chunks.
+        this.state = new RocksDBWindowState(this.databasePath.toString(), true, 16);
+        this.state.initialize();
+    }
+
+    @AfterEach
+    void close() {
+        this.state.close();
+    }
+
+    @Test
+    void shouldMergeTheSourceIntoTheTargetWindow() {
+        Map<String, Object> headers = Collections.singletonMap("h", "v");
+        for (int i = 0; i < 5; i++) {
+            this.state.put(1, "a", headers, payload("t" + i));
+            this.state.put(2, "a", headers, payload("s" + i));
+        }
+        this.state.put(2, "b", headers, payload("sb"));
+
+        this.state.merge(1, 2);
+
+        assertThat(this.state.keys()).containsExactly(1L);
+        assertThat(this.state.get(2)).isNull();
+        try (StateEntry window = this.state.delete(1)) {
+            assertThat(window.getKeyedPayloads().get("a")).containsExactly(payload("t0"), payload("t1"),
+                    payload("t2"), payload("t3"), payload("t4"), payload("s0"), payload("s1"), payload("s2"),
+                    payload("s3"), payload("s4"));
+            assertThat(window.getKeyedPayloads().get("b")).containsExactly(payload("sb"));
+        }
+    }
+
+    @Test
+    void shouldMoveTheSourceIntoAMissingTarget() {
+        this.state.put(2, "a", Collections.singletonMap("h", "v"), payload("s0"));
+
+        this.state.merge(1, 2);
+        // A put after the merge starts a new source window.
+        this.state.put(2, "a", Collections.singletonMap("h", "v"), payload("s1"));
+
+        try (StateEntry target = this.state.get(1); StateEntry source = this.state.get(2)) {
+            assertThat(target.getHeaders()).containsEntry("h", "v");
+            assertThat(target.getPayloads()).containsExactly(payload("s0"));
+            assertThat(source.getHeaders()).containsEntry("h", "v");
+            assertThat(source.getPayloads()).containsExactly(payload("s1"));
+        }
+    }
+
+    @Test
+    void shouldKeepTheMergedChunksOfAReusedSourceWindow() {
+        Map<String, Object> headers = Collections.singletonMap("h", "v");
+        for (int i = 0; i < 3; i++) {
+            this.state.put(1, "a", headers, payload("t" + i));
+            this.state.put(2, "a", headers, payload("s" + i));
+        }
+        this.state.merge(1, 2);
+        this.state.put(2, "a", headers, payload("n0"));
+
+        this.restart();
+        this.state.put(2, "a", headers, payload("n1"));
+        this.state.put(1, "a", headers, payload("t3"));
+
+        try (StateEntry target = this.state.delete(1)) {
+            assertThat(target.getPayloadCount()).isEqualTo(7);
+            assertThat(target.getPayloads()).containsExactly(payload("t0"), payload("t1"), payload("t2"),
+                    payload("s0"), payload("s1"), payload("s2"), payload("t3"));
+        }
+        // Deleting the target deletes the merged chunks only.
+        this.state.put(2, "a", headers, payload("n2"));
+        this.restart();
+        try (StateEntry source = this.state.get(2)) {
+            assertThat(source.getPayloads()).containsExactly(payload("n0"), payload("n1"), payload("n2"));
+        }
+    }
+
+    @Test
+    void shouldIgnoreAMissingSource() {
+        this.state.put(1, "a", Collections.emptyMap(), payload("t0"));
+
+        this.state.merge(1, 2);
+
+        try (StateEntry window = this.state.get(1)) {
+            assertThat(window.getPayloads()).containsExactly(payload("t0"));
+        }
+    }
+
+    @Test
+    void shouldRestoreTheWindowChunksOnRestart() {
+        Map<String, Object> headers = Collections.singletonMap("h", "v");
+        for (int i = 0; i < 5; i++) {
+            this.state.put(1, "a", headers, payload("a" + i));
+        }
+        this.state.put(1, "b", headers, payload("b0"));
+        this.state.put(2, "a", headers, payload("w2"));
+        this.state.delete(2).close();
+
+        this.restart();
+        this.state.put(1, "a", headers, payload("a5"));
+
+        assertThat(this.state.keys()).containsExactly(1L);
+        try (StateEntry window = this.state.get(1)) {
+            assertThat(window.getHeaders()).containsEntry("h", "v");
+            assertThat(window.getPayloadCount()).isEqualTo(7);
+            assertThat(window.getKeyedPayloads().get("a")).containsExactly(payload("a0"), payload("a1"),
+                    payload("a2"), payload("a3"), payload("a4"), payload("a5"));
+            assertThat(window.getKeyedPayloads().get("b")).containsExactly(payload("b0"));
+        }
+    }
+
+    @Test
+    void shouldBuildTheChunkIndexOfAStoreWithout() throws RocksDBException {
+        for (int i = 0; i < 5; i++) {
+            this.state.put(1, "a", Collections.singletonMap("h", "v"), payload("a" + i));
+        }
+        this.state.close();
+        dropColumnFamily(this.databasePath, "chunk-index");
+
+        this.restart();
+        this.state.put(1, "a", Collections.singletonMap("h", "v"), payload("a5"));
+        this.restart();
+
+        try (StateEntry window = this.state.get(1)) {
+            assertThat(window.getPayloads()).containsExactly(payload("a0"), payload("a1"), payload("a2"),
+                    payload("a3"), payload("a4"), payload("a5"));
+            assertThat(window.getPayloadCount()).isEqualTo(6);
+        }
+    }
+
+    private static void dropColumnFamily(Path databasePath, String name) throws RocksDBException {
+        List<ColumnFamilyDescriptor> descriptors = new ArrayList<>();
+        try (Options options = new Options()) {
+            for (byte[] columnFamily : RocksDB.listColumnFamilies(options, databasePath.toString())) {
+                descriptors.add(new ColumnFamilyDescriptor(columnFamily,
+                        new ColumnFamilyOptions().setMergeOperator(new StringAppendOperator())));
+            }
+        }
+        List<ColumnFamilyHandle> handles = new ArrayList<>();
+        try (DBOptions options = new DBOptions();
+                RocksDB db = RocksDB.open(options, databasePath.toString(), descriptors, handles)) {
+            for (ColumnFamilyHandle handle : handles) {
+                if (Arrays.equals(handle.getName(), name.getBytes())) {
+                    db.dropColumnFamily(handle);
+                }
+                handle.close();
+            }
+        }
+    }
+
+    private void restart() {
+        this.state.close();
+        this.state = new RocksDBWindowState(this.databasePath.toString(), true, 16);
+        this.state.initialize();
+    }
+
+    private static byte[] payload(String value) {
+        return value.getBytes();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SnapshottingStateTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldRestoreTheSnapshotAndSkipTheReplayedMessages() throws IOException {
+        Path file = this.directory.resolve("state").resolve("worker-0.snapshot");
+
+        SnapshottingState state = this.state(file, null);
+        state.put(10L, "a", kafkaHeaders(0, 0), bytes("m0"));
+        state.put(10L, "a", kafkaHeaders(0, 1), bytes("m1"));
+        state.put(20L, "b", kafkaHeaders(1, 5), bytes("m5"));
+        // Writes the final snapshot.
+        state.close();
+        assertThat(file).exists();
+
+        SnapshotOffsets snapshotOffsets = new SnapshotOffsets();
+        SnapshottingState restored = this.state(file, snapshotOffsets);
+
+        assertThat(restored.keys()).containsExactlyInAnyOrder(10L, 20L);
+        assertThat(snapshotOffsets.getOffset("topic:0")).isEqualTo(1L);
+        assertThat(snapshotOffsets.getOffset("topic:1")).isEqualTo(5L);
+
+        // The input is replayed after the lowest offset of all snapshots, so some messages are replayed twice.
+        restored.put(10L, "a", kafkaHeaders(0, 1), bytes("m1"));
+        restored.put(20L, "b", kafkaHeaders(1, 5), bytes("m5"));
+        restored.put(10L, "a", kafkaHeaders(0, 2), bytes("m2"));
+        restored.put(20L, "b", kafkaHeaders(1, 6), bytes("m6"));
+
+        assertThat(restored.get(10L).getKeyedPayloads().get("a")).containsExactly(bytes("m0"), bytes("m1"),
+                bytes("m2"));
+        assertThat(restored.get(20L).getKeyedPayloads().get("b")).containsExactly(bytes("m5"), bytes("m6"));
+        restored.close();
+    }
+
+    @Test
+    void shouldStartEmptyFromACorruptedSnapshot() throws IOException {
+        Path file = this.directory.resolve("worker-0.snapshot");
+        SnapshottingState state = this.state(file, null);
+        state.put(10L, "a", kafkaHeaders(0, 0), bytes("m0"));
+        state.close();
+
+        byte[] content = Files.readAllBytes(file);
+        content[content.length - 1] ^= 0x01;
+        Files.write(file, content);
+
+        SnapshotOffsets snapshotOffsets = new SnapshotOffsets();
+        SnapshottingState restored = this.state(file, snapshotOffsets);
+        assertThat(restored.keys()).isEmpty();
+        assertThat(snapshotOffsets.isEmpty()).isTrue();
+
+        // Nothing is skipped without a restored snapshot.
+        restored.put(10L, "a", kafkaHeaders(0, 0), bytes("m0"));
+        assertThat(restored.get(10L).getPayloadCount()).isEqualTo(1);
+        restored.close();
+    }
+
+    private SnapshottingState state(Path file, SnapshotOffsets snapshotOffsets) {
+        // The interval is not reached by the test, the snapshot is written on close.
+        SnapshottingState state = new SnapshottingState(new InMemoryState(), file, Duration.ofHours(1),
+                snapshotOffsets);
+        state.initialize();
+        return state;
+    }
+
+    private static Map<String, Object> kafkaHeaders(int partition, long offset) {
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(SnapshotOffsets.KAFKA_TOPIC_HEADER, "topic");
+        headers.put(SnapshotOffsets.KAFKA_PARTITION_HEADER, partition);
+        headers.put(SnapshotOffsets.KAFKA_OFFSET_HEADER, offset);
+        return headers;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpillableWindowStateTests {
+
+    private static final int PAYLOAD_BYTES = 100;
+
+    private static final long MESSAGE_BYTES = PAYLOAD_BYTES + SpillableWindowState.MESSAGE_OVERHEAD_BYTES;
+
+    @TempDir
+    Path spillPath;
+
+    private SpillableWindowState state;
+
+    @BeforeEach
+    void setup() {
+        this.state = new SpillableWindowState(2 * MESSAGE_BYTES, this.spillPath.toString());
+        this.state.initialize();
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        this.state.close();
+    }
+
+    @Test
+    void shouldSpillTheNewestWindows() {
+        this.state.put(1, "k", Collections.emptyMap(), payload(1));
+        this.state.put(2, "k", Collections.emptyMap(), payload(2));
+        this.state.put(3, "k", Collections.emptyMap(), payload(3));
+        this.state.put(1, "k", Collections.emptyMap(), payload(4));
+
+        // Windows 3 and 2 are spilled, the oldest window stays on-heap.
+        assertThat(this.state.getSpilledWindowCount()).isEqualTo(2);
+        assertThat(this.state.getMemoryBytes()).isEqualTo(2 * MESSAGE_BYTES);
+        assertThat(this.state.keys()).containsExactlyInAnyOrder(1L, 2L, 3L);
+        try (StateEntry window = this.state.delete(1)) {
+            assertThat(window.getPayloads()).containsExactly(payload(1), payload(4));
+        }
+        assertThat(this.state.getMemoryBytes()).isZero();
+    }
+
+    @Test
+    void shouldReadTheWindowsSpilledWithinABatch() {
+        this.state.beginBatch();
+        this.state.put(1, "k", Collections.emptyMap(), payload(1));
+        this.state.put(2, "k", Collections.emptyMap(), payload(2));
+        this.state.put(3, "k", Collections.emptyMap(), payload(3));
+        this.state.put(3, "k", Collections.emptyMap(), payload(4));
+
+        try (StateEntry window = this.state.get(3)) {
+            assertThat(window.getPayloads()).containsExactly(payload(3), payload(4));
+        }
+        this.state.commitBatch();
+
+        try (StateEntry window = this.state.delete(3)) {
+            assertThat(window.getPayloads()).containsExactly(payload(3), payload(4));
+        }
+        assertThat(this.state.keys()).containsExactlyInAnyOrder(1L, 2L);
+    }
+
+    private static byte[] payload(int value) {
+        byte[] payload = new byte[PAYLOAD_BYTES];
+        payload[0] = (byte) value;
+        return payload;
+    }
+}
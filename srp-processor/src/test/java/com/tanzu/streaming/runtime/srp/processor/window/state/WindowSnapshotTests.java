@@ -0,0 +1,122 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tanzu.streaming.runtime.srp.processor.window.state;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class WindowSnapshotTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldRoundTripTheWindowsAndOffsets() throws IOException {
+        Map<String, Object> headers = new LinkedHashMap<>();
+        headers.put("contentType", "application/json");
+        headers.put("kafka_offset", 42L);
+        headers.put("user", "\u00fcser");
+
+        Map<String, Collection<byte[]>> keyedPayloads = new LinkedHashMap<>();
+        keyedPayloads.put("a", Arrays.asList(bytes("a1"), bytes("a2")));
+        keyedPayloads.put("", Arrays.asList(bytes("")));
+        // Larger than the 1MB file buffer.
+        byte[] largePayload = new byte[3 * 1024 * 1024 + 7];
+        Arrays.fill(largePayload, (byte) 'x');
+        keyedPayloads.put("large", Arrays.asList(largePayload));
+
+        Map<String, Long> offsets = new LinkedHashMap<>();
+        offsets.put("topic:0", 42L);
+        offsets.put("topic:1", 7L);
+
+        Path file = this.directory.resolve("windows.snapshot");
+        long size = new WindowSnapshot(1234L, offsets, Arrays.asList(new StateEntry(10L, headers, keyedPayloads),
+                new StateEntry(20L, headers, Map.of("b", Arrays.asList(bytes("b1")))))).writeTo(file);
+
+        assertThat(Files.size(file)).isEqualTo(size);
+        assertThat(file.resolveSibling("windows.snapshot.tmp")).doesNotExist();
+
+        WindowSnapshot snapshot = WindowSnapshot.readFrom(file);
+        assertThat(snapshot.getCreatedAtMs()).isEqualTo(1234L);
+        assertThat(snapshot.getOffsets()).isEqualTo(offsets);
+
+        List<StateEntry> windows = snapshot.getWindows();
+        assertThat(windows).hasSize(2);
+        assertThat(windows.get(0).getTimestamp()).isEqualTo(10L);
+        assertThat(windows.get(0).getHeaders()).isEqualTo(headers);
+        assertThat(windows.get(0).getKeyedPayloads().keySet()).containsExactly("a", "", "large");
+        assertThat(windows.get(0).getKeyedPayloads().get("a")).containsExactly(bytes("a1"), bytes("a2"));
+        assertThat(windows.get(0).getKeyedPayloads().get("")).containsExactly(bytes(""));
+        assertThat(windows.get(0).getKeyedPayloads().get("large")).containsExactly(largePayload);
+        assertThat(windows.get(1).getTimestamp()).isEqualTo(20L);
+        assertThat(windows.get(1).getKeyedPayloads().get("b")).containsExactly(bytes("b1"));
+    }
+
+    @Test
+    void shouldRejectACorruptedSnapshot() throws IOException {
+        Path file = this.directory.resolve("windows.snapshot");
+        new WindowSnapshot(1L, Map.of("topic:0", 1L), Arrays.asList(new StateEntry(10L, Map.of("user", "a"),
+                Map.of("a", Arrays.asList(bytes("payload-to-corrupt")))))).writeTo(file);
+
+        byte[] content = Files.readAllBytes(file);
+        int payloadIndex = indexOf(content, bytes("payload-to-corrupt"));
+        assertThat(payloadIndex).isPositive();
+        content[payloadIndex] ^= 0x01;
+        Files.write(file, content);
+
+        assertThatThrownBy(() -> WindowSnapshot.readFrom(file)).isInstanceOf(IOException.class)
+                .hasMessageContaining("checksum mismatch");
+    }
+
+    @Test
+    void shouldRejectATruncatedSnapshot() throws IOException {
+        Path file = this.directory.resolve("windows.snapshot");
+        new WindowSnapshot(1L, Map.of(), Arrays.asList(new StateEntry(10L, Map.of(),
+                Map.of("a", Arrays.asList(bytes("payload")))))).writeTo(file);
+
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 5));
+
+        assertThatThrownBy(() -> WindowSnapshot.readFrom(file)).isInstanceOf(IOException.class);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(byte[] content, byte[] value) {
+        for (int i = 0; i <= content.length - value.length; i++) {
+            if (Arrays.equals(content, i, i + value.length, value, 0, value.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
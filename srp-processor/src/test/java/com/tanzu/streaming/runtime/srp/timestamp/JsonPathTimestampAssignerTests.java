@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.timestamp;
+
+import java.nio.charset.StandardCharsets;
+
+import com.jayway.jsonpath.PathNotFoundException;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.integration.json.JsonPathUtils;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JsonPathTimestampAssignerTests {
+
+    private static final String[] PAYLOADS = {
+            "{\"ts\": 1000}",
+            "{\"name\": \"a\", \"tags\": [1, {\"ts\": 5}], \"ts\": 2000, \"after\": {\"x\": 1}}",
+            "{\"skip\": {\"ts\": 7, \"meta\": {\"ts\": 8}}, \"meta\": {\"id\": \"m\", \"ts\": 3000}, \"ts\": 4000}",
+            "{\"ts\": 1234.9, \"meta\": {\"ts\": -5}}",
+            "{\"ts\": \"not a number\", \"meta\": {\"ts\": null}}",
+            "{\"ts\": true, \"meta\": {\"ts\": {\"nested\": 1}}}",
+            "{\"ts\": 9223372036854775807, \"meta\": {\"ts\": [1, 2]}}",
+            "{\"ts\": 1.5E3, \"meta\": {\"ts\": 0}}",
+            "{\"name\": \"\\\"ts\\\": 1\", \"ts\": 6000, \"meta\": {\"ts\": 7000}}"
+    };
+
+    @Test
+    void shouldMatchJsonPathForTheTopLevelField() {
+        assertMatchesJsonPath("ts", "$.ts");
+    }
+
+    @Test
+    void shouldMatchJsonPathForTheNestedField() {
+        assertMatchesJsonPath("$.meta.ts", "$.meta.ts");
+    }
+
+    @Test
+    void shouldFallBackToJsonPathForComplexExpressions() {
+        JsonPathTimestampAssigner assigner = new JsonPathTimestampAssigner("$.events[1].ts", null);
+
+        assertThat(assigner.extractTimestamp(message("{\"events\": [{\"ts\": 1}, {\"ts\": 2}]}"))).isEqualTo(2);
+    }
+
+    /**
+     * Missing fields and arrays on the path are not scanned, so the JsonPath errors are kept.
+     */
+    @Test
+    void shouldFallBackToJsonPathWhenTheFieldIsNotReached() {
+        JsonPathTimestampAssigner assigner = new JsonPathTimestampAssigner("$.meta.ts", null);
+        for (String payload : new String[] { "{\"meta\": [{\"ts\": 1}]}", "{\"meta\": {\"id\": 1}}", "{}" }) {
+            Object expected = jsonPathOutcome(payload, "$.meta.ts");
+
+            assertThat(expected).isEqualTo(PathNotFoundException.class);
+            assertThat(assignerOutcome(assigner, payload)).as(payload).isEqualTo(expected);
+        }
+    }
+
+    private static void assertMatchesJsonPath(String path, String jsonPath) {
+        JsonPathTimestampAssigner assigner = new JsonPathTimestampAssigner(path, null);
+        for (String payload : PAYLOADS) {
+            assertThat(assignerOutcome(assigner, payload)).as(payload).isEqualTo(jsonPathOutcome(payload, jsonPath));
+        }
+    }
+
+    /**
+     * @return Returns the timestamp JsonPath evaluates or the error class.
+     */
+    private static Object jsonPathOutcome(String payload, String jsonPath) {
+        try {
+            Object result = JsonPathUtils.evaluate(bytes(payload), jsonPath);
+            return (result instanceof Number) ? ((Number) result).longValue() : RecordTimestampAssigner.NO_TIMESTAMP;
+        }
+        catch (Exception e) {
+            return e.getClass();
+        }
+    }
+
+    private static Object assignerOutcome(JsonPathTimestampAssigner assigner, String payload) {
+        try {
+            return assigner.extractTimestamp(message(payload));
+        }
+        catch (Exception e) {
+            return e.getClass();
+        }
+    }
+
+    private static Message<byte[]> message(String payload) {
+        return MessageBuilder.withPayload(bytes(payload)).build();
+    }
+
+    private static byte[] bytes(String payload) {
+        return payload.getBytes(StandardCharsets.UTF_8);
+    }
+}
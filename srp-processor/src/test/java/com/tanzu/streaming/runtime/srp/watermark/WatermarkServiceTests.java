@@ -0,0 +1,150 @@
+/*
+ * Copyright 2022-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tanzu.streaming.runtime.srp.watermark;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.tanzu.streaming.runtime.srp.watermark.WatermarkService.WatermarkUpdateStatus;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WatermarkServiceTests {
+
+    @Test
+    void shouldHoldTheWatermarkAtTheSlowestPartition() {
+        WatermarkService watermarkService = new WatermarkService();
+
+        watermarkService.updateWatermarks(message(0), Duration.ofMillis(1000));
+        watermarkService.updateWatermarks(message(1), Duration.ofMillis(5000));
+        assertThat(watermarkService.computeWatermarkMs()).isEqualTo(999);
+
+        watermarkService.updateWatermarks(message(0), Duration.ofMillis(7000));
+        assertThat(watermarkService.computeWatermarkMs()).isEqualTo(4999);
+        assertThat(watermarkService.getWatermarkByPartition(0)).hasValue(6999);
+    }
+
+    @Test
+    void shouldApplyTheMaxOutOfOrderness() {
+        WatermarkService watermarkService = new WatermarkService().withMaxOutOfOrderness(Duration.ofMillis(100));
+        assertThat(watermarkService.hasWatermark()).isFalse();
+
+        watermarkService.updateWatermarks(message(0), Duration.ofMillis(1000));
+
+        assertThat(watermarkService.computeWatermarkMs()).isEqualTo(899);
+        assertThat(watermarkService.hasWatermark()).isTrue();
+    }
+
+    /**
+     * More partitions than the initial tree capacity, updated in random order, compared with the minimum over all the
+     * partition watermarks.
+     */
+    @Test
+    void shouldMatchTheMinimumOfThePartitionWatermarks() {
+        WatermarkService watermarkService = new WatermarkService().withAllowedLateness(Duration.ofMillis(1_000_000));
+        int partitions = 100;
+        // Long.MAX_VALUE for the partitions without messages yet.
+        long[] expectedPartitionWatermarks = new long[partitions];
+        Arrays.fill(expectedPartitionWatermarks, Long.MAX_VALUE);
+        Random random = new Random(7);
+
+        for (int i = 0; i < 10_000; i++) {
+            int partition = random.nextInt(partitions);
+            long timestampMs = i + random.nextInt(500);
+
+            WatermarkUpdateStatus status = watermarkService.updateWatermarks(message(partition),
+                    Duration.ofMillis(timestampMs));
+
+            assertThat(status).isNotEqualTo(WatermarkUpdateStatus.DISCARDED);
+            expectedPartitionWatermarks[partition] = (expectedPartitionWatermarks[partition] == Long.MAX_VALUE)
+                    ? timestampMs - 1
+                    : Math.max(expectedPartitionWatermarks[partition], timestampMs - 1);
+            assertThat(watermarkService.computeWatermarkMs())
+                    .isEqualTo(Arrays.stream(expectedPartitionWatermarks).min().getAsLong());
+        }
+    }
+
+    @Test
+    void shouldAdvanceOnHeartbeatsWithoutLateness() {
+        WatermarkService watermarkService = new WatermarkService();
+        watermarkService.updateWatermarks(message(0), Duration.ofMillis(1000));
+
+        watermarkService.onWatermarkHeartbeat(heartbeat(0, 500));
+        assertThat(watermarkService.computeWatermarkMs()).isEqualTo(999);
+
+        watermarkService.onWatermarkHeartbeat(heartbeat(0, 3000));
+        assertThat(watermarkService.computeWatermarkMs()).isEqualTo(3000);
+    }
+
+    @Test
+    void shouldExcludeIdlePartitionsUntilTheyReceiveMessages() throws InterruptedException {
+        WatermarkService watermarkService = new WatermarkService()
+                .withIdlePartitionTimeout(Duration.ofMillis(200));
+        watermarkService.updateWatermarks(message(0), Duration.ofMillis(1000));
+        watermarkService.updateWatermarks(message(1), Duration.ofMillis(5000));
+        assertThat(watermarkService.computeWatermarkMs()).isEqualTo(999);
+
+        Thread.sleep(300);
+        watermarkService.updateWatermarks(message(1), Duration.ofMillis(6000));
+        // Partition 0 is idle and no longer holds back the watermark.
+        assertThat(watermarkService.computeWatermarkMs()).isEqualTo(5999);
+
+        // Discarded messages don't reactivate the partition.
+        assertThat(watermarkService.updateWatermarks(message(0), Duration.ofMillis(2000)))
+                .isEqualTo(WatermarkUpdateStatus.DISCARDED);
+        watermarkService.updateWatermarks(message(1), Duration.ofMillis(7000));
+        assertThat(watermarkService.computeWatermarkMs()).isEqualTo(6999);
+
+        // Reactivated, partition 0 holds back the watermark again, from the current watermark on.
+        assertThat(watermarkService.updateWatermarks(message(0), Duration.ofMillis(7500)))
+                .isEqualTo(WatermarkUpdateStatus.VALID);
+        watermarkService.updateWatermarks(message(1), Duration.ofMillis(9000));
+        assertThat(watermarkService.computeWatermarkMs()).isEqualTo(7499);
+    }
+
+    @Test
+    void shouldNotMoveTheWatermarkBackWhenAPartitionIsReactivated() throws InterruptedException {
+        WatermarkService watermarkService = new WatermarkService()
+                .withIdlePartitionTimeout(Duration.ofMillis(200));
+        watermarkService.updateWatermarks(message(0), Duration.ofMillis(1000));
+        watermarkService.updateWatermarks(message(1), Duration.ofMillis(5000));
+
+        Thread.sleep(300);
+        watermarkService.updateWatermarks(message(1), Duration.ofMillis(6000));
+        assertThat(watermarkService.computeWatermarkMs()).isEqualTo(5999);
+
+        // The reactivated partition resumes from the current watermark, not from its own.
+        watermarkService.onWatermarkHeartbeat(heartbeat(0, 3000));
+        assertThat(watermarkService.computeWatermarkMs()).isEqualTo(5999);
+        assertThat(watermarkService.getWatermarkByPartition(0)).hasValue(5999);
+    }
+
+    private static Message<byte[]> message(int partition) {
+        return MessageBuilder.withPayload(new byte[0]).setHeader(WatermarkService.PARTITION_HEADER, partition)
+                .build();
+    }
+
+    private static Message<byte[]> heartbeat(int partition, long watermarkMs) {
+        return MessageBuilder.withPayload(new byte[0]).setHeader(WatermarkService.PARTITION_HEADER, partition)
+                .setHeader(WatermarkService.WATERMARK_HEARTBEAT_HEADER, true)
+                .setHeader(WatermarkService.WATERMARK_HEADER, watermarkMs).build();
+    }
+}
@@ -53,9 +53,55 @@ import org.springframework.util.StringUtils;
  * 
  * srp.window - Defines the Time-Window aggregation interval. Examples: 5s, 2m, 1h
  * 
+ * srp.window.slide - Optional slide interval that turns the time-windows into hopping (sliding) windows. The window
+ * interval must be a multiple of the slide. Example: 5s
+ * 
+ * srp.session.gap - Enables session windows, closed after the given inactivity gap per key. Example: 30m
+ * 
+ * srp.input.keyExpression - Grouping key expression. Example: header.user, or payload.user_id
+ * 
+ * srp.release.parallelism - Number of threads computing the per-key aggregates of keyed windows. Defaults to 1.
+ * 
+ * srp.release.concurrency - Enables the asynchronous window release stage with the given number of concurrent
+ * releases. The output order is preserved. Defaults to 0 (synchronous releases).
+ * 
+ * srp.workers - Number of window workers, each with its own thread, window state and watermark. Defaults to 1.
+ * 
+ * srp.worker.sharding - Assigns the input messages to the window workers by PARTITION (default) or by KEY hash.
+ * 
+ * srp.trigger.count, srp.trigger.bytes, srp.trigger.interval - Early window firing. Open windows are released
+ * partially (partial=true) every given number of events, payload bytes or processing time interval. Example: 10000,
+ * 1048576, 1s
+ * 
+ * srp.batch - If true, enables the input binder batch-mode. The records of every consumer poll are written to the
+ * window state as a single batch. Defaults to false.
+ * 
+ * srp.rocksdb.wal - If false, the RocksDB window state writes skip the write-ahead log. Defaults to true.
+ * 
+ * srp.snapshot.interval - If set, the in-memory window state is snapshot to local disk at this interval and restored
+ * on restart. Example: 30s
+ * 
+ * srp.checkpoint.interval - If set, the RocksDB window state is incrementally checkpointed at this interval and
+ * restored by a rescheduled pod. Example: 1m
+ * 
+ * srp.checkpoint.path - Directory (e.g. a shared volume mount) the state checkpoints are stored in. Example:
+ * /mnt/srp-checkpoints
+ * 
  * srp.window.idle.timeout - Defines an interval of inactivity to release the idle windows. Should be larger than the
  * window interval! Example: 2m
  * 
+ * srp.partition.idle.timeout - An input partition without messages for this interval no longer holds back the
+ * watermark, until it receives messages again. Example: 1m
+ * 
+ * srp.watermark.heartbeat.interval - If set, the processor sends watermark-only heartbeat messages to every output
+ * partition this often, so the downstream processors advance their event time without output. Example: 10s
+ * 
+ * srp.reorder.buffer.capacity - If set, the stateless processor (no srp.window nor srp.session.gap) holds up to this
+ * many messages until the watermark passes them and sends them in event time order. Example: 10000
+ * 
+ * srp.window.ttl - If set, the windows that ended more than the allowedLateness plus this TTL ago are expired in the
+ * background, i.e. released as late events or dropped. Should be larger than the input event time lag! Example: 1h
+ * 
  * srp.input.timestampExpression: JsonPath expression Example: header.eventtime, or payload.score_time
  * 
  * srp.maxOutOfOrderness: 5s 
@@ -131,19 +177,47 @@ public class SrpProcessorAdapter extends AbstractScsProcessorAdapter {
                 .forEach(entry -> envs.put("SRP_PROCESSOR_OUTPUT_HEADERS_" + entry.getKey(), entry.getValue()));
 
         String windowAttribute = this.getProcessorAttribute(processor, "srp.window");
+        String sessionGapAttribute = this.getProcessorAttribute(processor, "srp.session.gap");
         if (StringUtils.hasText(windowAttribute)) {
             envs.put("SRP_PROCESSOR_WINDOW", windowAttribute);
             envs.put("SRP_PROCESSOR_SKIPAGGREGATION", "false");
         }
+        else if (StringUtils.hasText(sessionGapAttribute)) {
+            envs.put("SRP_PROCESSOR_SESSIONGAP", sessionGapAttribute);
+            envs.put("SRP_PROCESSOR_SKIPAGGREGATION", "false");
+        }
         else {
             envs.put("SRP_PROCESSOR_SKIPAGGREGATION", "true");
         }
 
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.window.slide"))) {
+            envs.put("SRP_PROCESSOR_WINDOWSLIDE", this.getProcessorAttribute(processor, "srp.window.slide"));
+        }
+
         if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.window.idle.timeout"))) {
             envs.put("SRP_PROCESSOR_IDLEWINDOWTIMEOUT",
                     this.getProcessorAttribute(processor, "srp.window.idle.timeout"));
         }
 
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.partition.idle.timeout"))) {
+            envs.put("SRP_PROCESSOR_IDLEPARTITIONTIMEOUT",
+                    this.getProcessorAttribute(processor, "srp.partition.idle.timeout"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.watermark.heartbeat.interval"))) {
+            envs.put("SRP_PROCESSOR_WATERMARKHEARTBEATINTERVAL",
+                    this.getProcessorAttribute(processor, "srp.watermark.heartbeat.interval"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.reorder.buffer.capacity"))) {
+            envs.put("SRP_PROCESSOR_REORDERBUFFERCAPACITY",
+                    this.getProcessorAttribute(processor, "srp.reorder.buffer.capacity"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.window.ttl"))) {
+            envs.put("SRP_PROCESSOR_WINDOWTTL", this.getProcessorAttribute(processor, "srp.window.ttl"));
+        }
+
         if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.lateEventMode"))) {
             envs.put("SRP_PROCESSOR_LATEEVENTMODE",
                     this.getProcessorAttribute(processor, "srp.lateEventMode"));
@@ -182,6 +256,63 @@ public class SrpProcessorAdapter extends AbstractScsProcessorAdapter {
                     this.getProcessorAttribute(processor, "srp.input.timestampExpression"));
         }
 
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.input.keyExpression"))) {
+            envs.put("SRP_PROCESSOR_INPUT_KEYEXPRESSION",
+                    this.getProcessorAttribute(processor, "srp.input.keyExpression"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.release.parallelism"))) {
+            envs.put("SRP_PROCESSOR_RELEASEPARALLELISM",
+                    this.getProcessorAttribute(processor, "srp.release.parallelism"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.release.concurrency"))) {
+            envs.put("SRP_PROCESSOR_RELEASESTAGECONCURRENCY",
+                    this.getProcessorAttribute(processor, "srp.release.concurrency"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.workers"))) {
+            envs.put("SRP_PROCESSOR_WORKERS", this.getProcessorAttribute(processor, "srp.workers"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.worker.sharding"))) {
+            envs.put("SRP_PROCESSOR_WORKERSHARDING", this.getProcessorAttribute(processor, "srp.worker.sharding"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.trigger.count"))) {
+            envs.put("SRP_PROCESSOR_TRIGGER_COUNT", this.getProcessorAttribute(processor, "srp.trigger.count"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.trigger.bytes"))) {
+            envs.put("SRP_PROCESSOR_TRIGGER_BYTES", this.getProcessorAttribute(processor, "srp.trigger.bytes"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.trigger.interval"))) {
+            envs.put("SRP_PROCESSOR_TRIGGER_INTERVAL", this.getProcessorAttribute(processor, "srp.trigger.interval"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.batch"))) {
+            envs.put("SPRING_CLOUD_STREAM_BINDINGS_INPUT_CONSUMER_BATCHMODE",
+                    this.getProcessorAttribute(processor, "srp.batch"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.rocksdb.wal"))) {
+            envs.put("SRP_PROCESSOR_ROCKSDBWALENABLED", this.getProcessorAttribute(processor, "srp.rocksdb.wal"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.snapshot.interval"))) {
+            envs.put("SRP_PROCESSOR_SNAPSHOTINTERVAL", this.getProcessorAttribute(processor, "srp.snapshot.interval"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.checkpoint.interval"))) {
+            envs.put("SRP_PROCESSOR_CHECKPOINTINTERVAL",
+                    this.getProcessorAttribute(processor, "srp.checkpoint.interval"));
+        }
+
+        if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.checkpoint.path"))) {
+            envs.put("SRP_PROCESSOR_CHECKPOINTPATH", this.getProcessorAttribute(processor, "srp.checkpoint.path"));
+        }
+
         if (StringUtils.hasText(this.getProcessorAttribute(processor, "srp.maxOutOfOrderness"))) {
             envs.put("SRP_PROCESSOR_MAXOUTOFORDERNESS",
                     this.getProcessorAttribute(processor, "srp.maxOutOfOrderness"));